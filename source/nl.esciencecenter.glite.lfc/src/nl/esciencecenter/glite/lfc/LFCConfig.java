@@ -36,5 +36,25 @@ public class LFCConfig
 	
 	/** Default connection timeout in milliseconds */ 
     public int timeout=30*1000; 
+    
+    /** 
+     * Start a session after connecting, so the server keeps the connection open 
+     * for subsequent requests. If false the server closes the connection after each request.  
+     */ 
+    public boolean useSessions=false; 
+    
+    /** Maximum number of requests send ahead of the responses when pipelining requests */ 
+    public int requestWindow=16; 
+    
+    /** Returns copy of this configuration */ 
+    public LFCConfig duplicate()
+    {
+        LFCConfig config=new LFCConfig();
+        config.globusCredential=globusCredential; 
+        config.timeout=timeout; 
+        config.useSessions=useSessions; 
+        config.requestWindow=requestWindow; 
+        return config; 
+    }
  
 }
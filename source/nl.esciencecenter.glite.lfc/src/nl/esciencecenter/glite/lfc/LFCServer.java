@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.logging.Level;
@@ -44,6 +45,7 @@ import nl.esciencecenter.glite.lfc.internal.CnsCreatGRequest;
 import nl.esciencecenter.glite.lfc.internal.CnsCreatGResponse;
 import nl.esciencecenter.glite.lfc.internal.CnsDelReplicaRequest;
 import nl.esciencecenter.glite.lfc.internal.CnsDelReplicaResponse;
+import nl.esciencecenter.glite.lfc.internal.CnsEndSessRequest;
 import nl.esciencecenter.glite.lfc.internal.CnsFileSizeRequest;
 import nl.esciencecenter.glite.lfc.internal.CnsFileSizeResponse;
 import nl.esciencecenter.glite.lfc.internal.CnsGStatRequest;
@@ -68,6 +70,7 @@ import nl.esciencecenter.glite.lfc.internal.CnsRmdirRequest;
 import nl.esciencecenter.glite.lfc.internal.CnsSetCommentRequest;
 import nl.esciencecenter.glite.lfc.internal.CnsSetCommentResponse;
 import nl.esciencecenter.glite.lfc.internal.CnsSingleStringResponse;
+import nl.esciencecenter.glite.lfc.internal.CnsStartSessRequest;
 import nl.esciencecenter.glite.lfc.internal.CnsStringListResponse;
 import nl.esciencecenter.glite.lfc.internal.CnsSymLinkRequest;
 import nl.esciencecenter.glite.lfc.internal.CnsUnlinkRequest;
@@ -189,6 +192,16 @@ public class LFCServer
 
     private LFCConfig lfcConfig = new LFCConfig();
 
+    /**
+     * Whether a session has been started on the current connection. 
+     */
+    private boolean sessionStarted=false; 
+
+    /**
+     * Set when the server refused to start a session. 
+     */
+    private boolean sessionsUnsupported=false; 
+
     /**
      * Constructs new LFC server wrapper
      * 
@@ -220,12 +233,29 @@ public class LFCServer
 
     /**
      * Tries to connect to the LFC server using the credential from manager.
+     * If sessions are enabled in the LFCConfig, a session is started so the
+     * connection can be used for multiple requests. 
      * 
      * I/O-problems or because of authentication problems.
      * 
      * @throws LFCException
      */
     public void connect() throws LFCException
+    {
+        openConnection(); 
+        
+        if ((lfcConfig.useSessions==false) || (sessionsUnsupported==true))
+            return; 
+        
+        if (startSession()==false)
+        {
+            // server closed the connection, continue without sessions. 
+            sessionsUnsupported=true; 
+            openConnection(); 
+        }
+    }
+    
+    private void openConnection() throws LFCException
     {
         try
         {
@@ -383,6 +413,42 @@ public class LFCServer
         return result;
     }
     
+    /**
+     * Starts a session on the current connection. 
+     * Returns false if the server didn't keep the connection open.  
+     */
+    private boolean startSession() throws LFCException
+    {
+        try
+        {
+            CnsStartSessRequest request = new CnsStartSessRequest("vlet"); 
+            CnsVoidResponse response = request.sendTo(this.output, this.input);
+            
+            if (response.getMessage().isKeepContext())
+            {
+                this.sessionStarted=true; 
+                return true; 
+            }
+            
+            staticLogMessage("STARTSESS: server didn't start session, error="+response.getErrorCode()); 
+            this.disconnect(); 
+            return false; 
+        }
+        catch (IOException ex)
+        {
+            throw new LFCException("LFC/STARTSESS IO Problem.", ex); 
+        }
+    }
+    
+    /**
+     * Returns true if a session has been started on the current connection
+     * and the connection is reused for subsequent requests. 
+     */
+    public boolean isSessionStarted()
+    {
+        return (this.sessionStarted && isConnected()); 
+    }
+    
     /**
      * Disconnects from the LFC server. Clears socket, context and all data
      * streams.
@@ -397,6 +463,11 @@ public class LFCServer
         {
             staticLogMessage(String.format(Messages.lfc_log_disconnect,
                     this.uri.getHost(), new Integer(this.uri.getPort())));
+            
+            if ((this.sessionStarted) && (output!=null))
+            {
+                try{new CnsEndSessRequest().send(this.output);}catch (Throwable t) {}; 
+            }
     
             if (this.context != null)
             {
@@ -418,6 +489,7 @@ public class LFCServer
             this.input = null;
             this.output = null;
             this.socket = null;
+            this.sessionStarted = false; 
         }
     }
 
@@ -431,6 +503,74 @@ public class LFCServer
         return (this.socket != null && this.socket.isConnected());
     }
 
+    /**
+     * Checks without a server round trip whether an idle connection is still usable. 
+     * Returns false if the server closed the connection or if unexpected data 
+     * is pending, in which case the connection is out of sync.    
+     */
+    public boolean isAlive()
+    {
+        if (isConnected()==false)
+            return false; 
+        
+        try
+        {
+            if (input.available()>0)
+                return false; 
+            
+            int timeout=socket.getSoTimeout(); 
+            
+            try
+            {
+                socket.setSoTimeout(1); 
+                // -1 = EOF, any data is unexpected. 
+                input.read();
+                return false; 
+            }
+            catch (SocketTimeoutException e)
+            {
+                return true; // nothing to read: still open.  
+            }
+            finally
+            {
+                socket.setSoTimeout(timeout); 
+            }
+        }
+        catch (IOException e)
+        {
+            staticLogMessage("isAlive(): connection check failed:"+e); 
+            return false; 
+        }
+    }
+    
+    /**
+     * Keep alive probe: performs a STATG of the root directory to check 
+     * the connection. Disconnects and returns false if the probe failed. 
+     * Returns true if the server responded, even if the response was an error.  
+     */
+    public boolean ping()
+    {
+        try
+        {
+            checkReConnected(); 
+            CnsGStatResponse response = createGStatRequest("/",false).sendTo(this.output, this.input);
+            checkRCOrError("PING", response);
+            return true; 
+        }
+        catch (LFCException e)
+        {
+            if (e.getErrorCode()!=0)
+                return true; 
+        }
+        catch (IOException e)
+        {
+            staticLogMessage("ping(): IO Exception:"+e); 
+        }
+        
+        this.disconnect(); 
+        return false; 
+    }
+
     /**
      * Lists the specified directory.
      * 
@@ -720,6 +860,88 @@ public class LFCServer
         return result;
     }
 
+    /**
+     * Fetches the file descriptions of multiple paths or guids using one connection.
+     * <p>
+     * If a session has been started the STATG requests are pipelined: up to 
+     * {@link LFCConfig#requestWindow} requests are sent before the responses are read.
+     * Without a session each STATG needs a new connection. 
+     * 
+     * @param guidsOrPaths paths or guids to stat. 
+     * @param isGuid whether the strings are guids. 
+     * @param errors optional array of the same size which receives the LFCException of the 
+     *        entries which failed. 
+     * @return File Descriptions. The File Description of a failed entry is NULL. 
+     * @throws LFCException if a connection or IO error occurs.  
+     */
+    public FileDesc[] fetchFileDescs(String guidsOrPaths[], boolean isGuid, LFCException errors[])
+            throws LFCException
+    {
+        // check all entries before anything is sent: a failure halfway a window would 
+        // leave unread responses on the connection. 
+        for (String guidOrPath:guidsOrPaths)
+        {
+            Assert.isTrue(guidOrPath != null && guidOrPath.length() != 0,
+                    Messages.LFCServer_empty_path);
+        }
+        
+        FileDesc descs[]=new FileDesc[guidsOrPaths.length]; 
+        int index=0; 
+        
+        while (index<guidsOrPaths.length)
+        {
+            checkReConnected(); 
+            
+            int window=1; 
+            if (this.sessionStarted)
+                window=Math.max(1,Math.min(lfcConfig.requestWindow,guidsOrPaths.length-index)); 
+            
+            try
+            {
+                for (int i=0;i<window;i++)
+                {
+                    createGStatRequest(guidsOrPaths[index+i],isGuid).send(this.output);  
+                }
+                
+                for (int i=0;i<window;i++)
+                {
+                    CnsGStatResponse response=new CnsGStatResponse(); 
+                    response.readFrom(this.input); 
+                    
+                    try
+                    {
+                        checkRCOrError("STATG", response);
+                        descs[index]=response.getFileDesc(); 
+                    }
+                    catch (LFCException e)
+                    {
+                        if (errors!=null)
+                            errors[index]=e; 
+                    }
+                    
+                    index++; 
+                    
+                    // connection closed by server: resend remaining requests.  
+                    if (this.isConnected()==false)
+                        break; 
+                }
+            }
+            catch (IOException ex)
+            {
+                this.disconnect(); 
+                throw new LFCException("LFC/STATG IO Problem.", ex);
+            }
+            catch (RuntimeException ex)
+            {
+                // responses of the current window might still be pending: drop the connection. 
+                this.disconnect(); 
+                throw ex; 
+            }
+        }
+        
+        return descs; 
+    }
+    
     /** 
      * New method to resolve a link path. 
      * Added by Piter T. de Boer. 
@@ -1246,18 +1468,7 @@ public class LFCServer
         {
             checkReConnected();
 
-            CnsGStatRequest request = new CnsGStatRequest("");
-
-            if (useGuid)
-            {
-                request.setPath(""); // empty path (cannot be null)
-                request.setGuid(pathOrGuid);
-            }
-            else
-            {
-                request.setPath(pathOrGuid);
-                request.setGuid("");
-            }
+            CnsGStatRequest request = createGStatRequest(pathOrGuid, useGuid);
 
             CnsGStatResponse response = request.sendTo(this.output, this.input);
             
@@ -1272,6 +1483,24 @@ public class LFCServer
         return result;
     }
 
+    private CnsGStatRequest createGStatRequest(final String pathOrGuid, boolean useGuid)
+    {
+        CnsGStatRequest request = new CnsGStatRequest("");
+
+        if (useGuid)
+        {
+            request.setPath(""); // empty path (cannot be null)
+            request.setGuid(pathOrGuid);
+        }
+        else
+        {
+            request.setPath(pathOrGuid);
+            request.setGuid("");
+        }
+        
+        return request; 
+    }
+
     /**
      * LINKSTAT: resolves a link and peforms a stat on the link TARGET. 
      * 
@@ -1470,10 +1699,14 @@ public class LFCServer
     {
         if (response.type == CnsConstants.CNS_RC)
         {
-            staticLogMessage(">>>" + action
-                    + ": Received Security Reset Context Response ! <<<");
+            // Session: server keeps connection and context open. 
+            if (response.isKeepContext()==false)
+            {
+                staticLogMessage(">>>" + action
+                        + ": Received Security Reset Context Response ! <<<");
 
-            this.disconnect();
+                this.disconnect();
+            }
 
             if (response.getErrorCode() != 0)
             {
@@ -1487,10 +1720,14 @@ public class LFCServer
     {
         if (message.type() == CnsConstants.CNS_RC)
         {
-            staticLogMessage(">>>" + action
-                    + ": Received Security Reset Context Response ! <<<");
+            // Session: server keeps connection and context open. 
+            if (message.isKeepContext()==false)
+            {
+                staticLogMessage(">>>" + action
+                        + ": Received Security Reset Context Response ! <<<");
 
-            this.disconnect();
+                this.disconnect();
+            }
 
             if (message.error() != 0)
             {
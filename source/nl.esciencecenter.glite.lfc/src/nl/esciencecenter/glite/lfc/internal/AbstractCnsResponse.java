@@ -41,6 +41,9 @@ public abstract class AbstractCnsResponse
   protected int size=0;
   public int type=0;
   
+  /** Whether the server kept the security context (session mode) */
+  protected boolean keepContext=false;
+  
   /**
    * Note that this value is associated with low level protocol implementation
    * and should be used to debug/trace only.
@@ -111,9 +114,23 @@ public abstract class AbstractCnsResponse
                                          Integer.toHexString( this.type ),
                                          new Integer( this.size ),
                                          CnsConstants.getResponseType( this.type  ) ) );
+    // PTdB: In session mode the server ends a request with CNS_IRC instead of CNS_RC.
+    // Handle it as CNS_RC so responses detect the (error) status as usual. 
+    if ( this.type == CnsConstants.CNS_IRC ) {
+      this.type = CnsConstants.CNS_RC;
+      this.keepContext = true;
+    }
     return this.size;
   }
   
+  /**
+   * @return true if the last received status message was a CNS_IRC message: 
+   *         the server keeps the connection and security context open.  
+   */
+  public boolean isKeepContext() {
+    return this.keepContext;
+  }
+  
   /**
    * Reads the response from the binary data and store it in more convenient way 
    * 
@@ -0,0 +1,56 @@
+/*
+ * Copyrighted 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").  
+ * You may not use this file except in compliance with the License. 
+ * For details, see the LICENCE.txt file location in the root directory of this 
+ * distribution or obtain the Apache License at the following location: 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENCE.txt (located in the root folder of this distribution). 
+ * ---
+ */
+// source: 
+// source: 
+
+package nl.esciencecenter.glite.lfc.internal;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import nl.esciencecenter.glite.lfc.LFCServer;
+
+/**
+ * <p>
+ * Encapsulates LFC server ENDSESS command request.
+ * </p>
+ * <p>
+ * Sends 12 byte header only. The server answers with a CNS_RC message and closes 
+ * the connection, so the response doesn't need to be read when disconnecting.  
+ * </p>
+ * @see CnsStartSessRequest
+ */
+public class CnsEndSessRequest extends AbstractCnsRequest {
+
+  /**
+   * <p>Sends request to the output stream. The response is not read.</p>
+   * 
+   * @param out output stream to which request will be written
+   * @throws IOException in case of any I/O problem
+   */
+  public void send( final DataOutputStream out ) throws IOException  {
+    
+    LFCServer.staticLogIOMessage( "sending ENDSESS" ); 
+    this.sendHeader( out,                       // header [12b]
+                     CnsConstants.CNS_MAGIC2,
+                     CnsConstants.CNS_ENDSESS,
+                     12 ); 
+    out.flush();
+  }
+}
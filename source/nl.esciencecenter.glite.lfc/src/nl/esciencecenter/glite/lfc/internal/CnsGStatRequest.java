@@ -113,6 +113,23 @@ public class CnsGStatRequest extends AbstractCnsRequest {
   public CnsGStatResponse sendTo( final DataOutputStream out, final DataInputStream in )
     throws IOException  {
     
+    send( out );
+    
+    CnsGStatResponse result = new CnsGStatResponse();
+    result.readFrom( in );
+    return result;
+  }
+
+  /**
+   * <p>Sends prepared request to the output stream without waiting for the response.</p>
+   * <p>Used to pipeline multiple requests over one session. The responses must be read
+   * in the same order with {@link CnsGStatResponse#readFrom(DataInputStream)}.</p>
+   * 
+   * @param out output stream to which request will be written
+   * @throws IOException in case of any I/O problem
+   */
+  public void send( final DataOutputStream out ) throws IOException {
+    
     LFCServer.staticLogIOMessage( String.format( Messages.lfc_log_send_statg, this.path ) );
     
     int messageLen=30+IOUtil.byteSize(path,guid);
@@ -139,11 +156,6 @@ public class CnsGStatRequest extends AbstractCnsRequest {
 //    out.writeByte( 0x0 );
     
     out.flush();
-    
-    CnsGStatResponse result = new CnsGStatResponse();
-    result.readFrom( in );
-    return result;
-    
   }
 
   
@@ -42,6 +42,9 @@ public class CnsMessage
     private int sizeOrError=0;
     private boolean headerRead=false; 
     
+    /** Whether the server kept the security context (session mode) */ 
+    private boolean keepContext=false; 
+    
     /** Use java ByteBuffers and leave optimalization to Java.IO ! */ 
     private byte[] _recievedBuffer=null;
     private ByteArrayOutputStream _sendBuffer; // null -> no body or not read. 
@@ -78,6 +81,13 @@ public class CnsMessage
         
         this.headerRead=true; 
         
+        // In session mode the server ends a request with CNS_IRC instead of CNS_RC
+        if (this.type==CnsConstants.CNS_IRC)
+        {
+            this.type=CnsConstants.CNS_RC;
+            this.keepContext=true; 
+        }
+        
         LFCServer.staticLogIOMessage( String.format( Messages.lfc_log_recv_header,  
                 Integer.toHexString( this.head ),
                 Integer.toHexString( this.type ),
@@ -129,6 +139,14 @@ public class CnsMessage
         return (type() == CnsConstants.CNS_RC ); 
     }
     
+    /** Whether this is a CNS_IRC message: the server keeps the connection open */ 
+    public boolean isKeepContext() throws IOException
+    {
+        if (headerRead==false)
+            throw new IOException("CnsMessage: Message header has not been read!"); 
+        return keepContext; 
+    }
+    
     /** Returns size of body if current message is not an CNS_RC message */ 
     public int size() throws IOException
     {
@@ -0,0 +1,86 @@
+/*
+ * Copyrighted 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").  
+ * You may not use this file except in compliance with the License. 
+ * For details, see the LICENCE.txt file location in the root directory of this 
+ * distribution or obtain the Apache License at the following location: 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENCE.txt (located in the root folder of this distribution). 
+ * ---
+ */
+// source: 
+// source: 
+
+package nl.esciencecenter.glite.lfc.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import nl.esciencecenter.glite.lfc.IOUtil;
+import nl.esciencecenter.glite.lfc.LFCServer;
+
+/**
+ * <p>
+ * Encapsulates LFC server STARTSESS command request. Then receives and returns
+ * response.
+ * </p>
+ * <p>
+ * After a session has been started the server keeps the connection and the 
+ * security context open: the requests are answered with a CNS_IRC status message
+ * instead of a CNS_RC message until the session is ended with ENDSESS. 
+ * </p>
+ * @see CnsEndSessRequest
+ */
+public class CnsStartSessRequest extends AbstractCnsRequest {
+  
+  private int uid;
+  private int gid;
+  private String comment;
+
+  /**
+   * Creates request for starting a session.
+   * 
+   * @param comment session comment, may be empty
+   */
+  public CnsStartSessRequest( final String comment ) {
+    this.comment = (comment!=null)?comment:""; 
+    this.uid = 0;
+    this.gid = 0;
+  }
+
+  /**
+   * <p>Sends prepared request to the output stream and then fetch the response</p>
+   * 
+   * @param out output stream to which request will be written
+   * @param in input stream from which response will be read
+   * @return object that encapsulates response
+   * @throws IOException in case of any I/O problem
+   */
+  public CnsVoidResponse sendTo( final DataOutputStream out, final DataInputStream in )
+    throws IOException  {
+    
+    LFCServer.staticLogIOMessage( "sending STARTSESS: " + this.comment ); 
+    this.sendHeader( out,                       // header [12b]
+                     CnsConstants.CNS_MAGIC2,
+                     CnsConstants.CNS_STARTSESS,
+                     21 + IOUtil.byteSize(comment)); 
+    
+    out.writeInt( this.uid );  // user id [4b]
+    out.writeInt( this.gid );  // group id [4b]
+    IOUtil.writeString(out,comment); // [size+1 b] 
+    out.flush();
+    
+    CnsVoidResponse result = new CnsVoidResponse();
+    result.readFrom( in );
+    return result;
+  }
+}
@@ -52,6 +52,8 @@ import gov.lbl.srm.v22.stubs.SrmPrepareToPutRequest;
 import gov.lbl.srm.v22.stubs.SrmPrepareToPutResponse;
 import gov.lbl.srm.v22.stubs.SrmPutDoneRequest;
 import gov.lbl.srm.v22.stubs.SrmPutDoneResponse;
+import gov.lbl.srm.v22.stubs.SrmReleaseFilesRequest;
+import gov.lbl.srm.v22.stubs.SrmReleaseFilesResponse;
 import gov.lbl.srm.v22.stubs.SrmRmRequest;
 import gov.lbl.srm.v22.stubs.SrmRmResponse;
 import gov.lbl.srm.v22.stubs.SrmRmdirRequest;
@@ -91,6 +93,11 @@ import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 
 import nl.esciencecenter.glite.lbl.srm.status.IFileStatus;
@@ -203,10 +210,9 @@ public class SRMClientV2 extends SRMClient
 
     private ISRM _srmService = null;
 
+    /** Delay in milliseconds of the first poll. Subsequent polls back off, see SRMPollScheduler */
     private int initialWaitTime = 100;
 
-    private int incrementalWaitTime = 100;
-
     private SRMFileOptions srmFileOptions = new SRMFileOptions();
 
     private GlobusCredential globusCredential;
@@ -544,9 +550,9 @@ public class SRMClientV2 extends SRMClient
                 TReturnStatus stat;
                 SrmStatusOfLsRequestResponse response;
 
-                long waitTimeIncrement = 100;
-                long waitTime = 100;
+                long waitTime = initialWaitTime;
                 long totalWaitTime = 0;
+                int pollCount = 0;
 
                 do
                 {
@@ -569,7 +575,7 @@ public class SRMClientV2 extends SRMClient
                     stat = response.getReturnStatus();
 
                     debugPrintf("srmLs: status=%s (waitTime=%d)\n", stat.getStatusCode().getValue(), waitTime);
-                    waitTime += waitTimeIncrement;
+                    waitTime = SRMPollScheduler.getPollDelay(++pollCount, initialWaitTime, null);
                     int maxTime = getSRMRequestTimeout();
                     if (totalWaitTime > maxTime)
                     {
@@ -1021,6 +1027,116 @@ public class SRMClientV2 extends SRMClient
         return tUris;
     }
 
+    /**
+     * Batched srmPrepareToGet. The source SURLs are submitted in batches of batchSize files and all request tokens
+     * are polled by the shared {@link SRMPollScheduler}. The listener is notified as soon as the transport URI of a
+     * file is available, so the transfer of that file can start while the other files are still being staged.
+     * 
+     * @param sourceSURLs
+     *            the files to stage
+     * @param accessPattern
+     *            the access pattern or null
+     * @param transportProtocols
+     *            requested transport protocols or null for the supported protocols
+     * @param batchSize
+     *            maximum number of files per SRM request. Use <=0 for the default.
+     * @param listener
+     *            listener which receives the transport URIs
+     * @return the staging request, which can be waited for or aborted
+     * @throws SRMException
+     *             if a batch couldn't be submitted. Already submitted batches are aborted.
+     */
+    public SRMStagingRequest srmStageGetRequest(org.apache.axis.types.URI[] sourceSURLs, TAccessPattern accessPattern,
+            String[] transportProtocols, int batchSize, SRMStagingListener listener) throws SRMException
+    {
+        SRMStagingRequest staging = new SRMStagingRequest(this, false, listener);
+
+        if (transportProtocols == null)
+            transportProtocols = getTransportProtocols();
+
+        for (org.apache.axis.types.URI[] batch : createBatches(sourceSURLs, batchSize))
+        {
+            SrmPrepareToGetResponse response = sendSRMPrepareToGetRequest(batch, accessPattern, transportProtocols);
+
+            if (response == null)
+            {
+                staging.abort();
+                throw new SRMException("SRMPrepareToGetRequest: Got NULL response from SRM Service (possible V11 service):"
+                        + this, new NullPointerException("SrmPrepareToGetResponse==NULL"));
+            }
+
+            submitStagingBatch(staging, new SRMGetResponse(response, batch));
+        }
+
+        return staging;
+    }
+
+    /**
+     * Batched srmPrepareToPut. See {@link #srmStageGetRequest(URI[], TAccessPattern, String[], int, SRMStagingListener)}.
+     * The listener receives the request token of each file, which is needed to finalize the file with
+     * {@link #finalizePutRequest(SRMPutRequest, boolean)}.
+     */
+    public SRMStagingRequest srmStagePutRequest(org.apache.axis.types.URI[] targetSURLs, TOverwriteMode overwriteOption,
+            String[] transportProtocols, int batchSize, SRMStagingListener listener) throws SRMException
+    {
+        SRMStagingRequest staging = new SRMStagingRequest(this, true, listener);
+
+        if (transportProtocols == null)
+            transportProtocols = new String[] { SRMConstants.GSIFTP_PROTOCOL };
+
+        TTransferParameters transferParameters = new TTransferParameters();
+        transferParameters.setArrayOfTransferProtocols(new ArrayOfString(transportProtocols));
+
+        for (org.apache.axis.types.URI[] batch : createBatches(targetSURLs, batchSize))
+        {
+            SrmPrepareToPutRequest request = createSrmPrepareToPutRequest(createArrayOfPutFileRequests(batch, null),
+                    null, null, null, null, overwriteOption, null, null, null, transferParameters);
+
+            SrmPrepareToPutResponse response;
+
+            try
+            {
+                response = getISRM().srmPrepareToPut(request);
+            }
+            catch (RemoteException e)
+            {
+                staging.abort();
+                throw convertException("Couldn't create put request for on or more of:\n" + concatinateURI("-", batch), e);
+            }
+
+            submitStagingBatch(staging, new SRMPutResponse(response, batch));
+        }
+
+        return staging;
+    }
+
+    private void submitStagingBatch(SRMStagingRequest staging, ISRMResponse response) throws SRMException
+    {
+        TReturnStatus returnStatus = response.getReturnStatus();
+
+        if (didRequestFail(returnStatus.getStatusCode()))
+        {
+            staging.abort();
+            throw createSRMExceptionFromStatusCode("Error while submitting staging request", returnStatus);
+        }
+
+        staging.addBatch(response.getRequestToken(), response.getSURIs().length);
+        SRMPollScheduler.getDefault().schedule(new StagingPoller(response, staging), 0);
+    }
+
+    private static List<org.apache.axis.types.URI[]> createBatches(org.apache.axis.types.URI[] surls, int batchSize)
+    {
+        if (batchSize <= 0)
+            batchSize = SRMStagingRequest.DEFAULT_BATCH_SIZE;
+
+        List<org.apache.axis.types.URI[]> batches = new ArrayList<org.apache.axis.types.URI[]>();
+
+        for (int i = 0; i < surls.length; i += batchSize)
+            batches.add(Arrays.copyOfRange(surls, i, Math.min(i + batchSize, surls.length)));
+
+        return batches;
+    }
+
     /**
      * Returns true if the request faild in any way
      * 
@@ -1095,6 +1211,42 @@ public class SRMClientV2 extends SRMClient
         }
     }
 
+    /**
+     * Release the pins of the files of a srmPrepareToGet request, so the storage element can
+     * remove them from its disk cache.
+     * 
+     * @param token
+     *            the request token
+     * @param surls
+     *            the files to release or null for all the files of the request
+     * @throws SRMException
+     */
+    public void srmReleaseFiles(String token, org.apache.axis.types.URI[] surls) throws SRMException
+    {
+        debug("Releasing files of request: " + token);
+
+        SrmReleaseFilesRequest req = new SrmReleaseFilesRequest();
+        req.setRequestToken(token);
+
+        if (surls != null)
+            req.setArrayOfSURLs(new ArrayOfAnyURI(surls));
+
+        SrmReleaseFilesResponse res;
+        try
+        {
+            res = getISRM().srmReleaseFiles(req);
+
+            if (didRequestFail(res.getReturnStatus().getStatusCode()))
+            {
+                throw createSRMExceptionFromStatusCode("Error while getting " + res.getClass().getName(), res.getReturnStatus());
+            }
+        }
+        catch (RemoteException e)
+        {
+            throw convertException("Error while releasing files", e);
+        }
+    }
+
     // private SrmStatusOfGetRequestResponse sendSRMStatusOfGetRequest(
     // SrmPrepareToGetResponse response,
     // org.apache.axis.types.URI[] urlArray) throws SRMException
@@ -1299,20 +1451,7 @@ public class SRMClientV2 extends SRMClient
             }
         }
 
-        TPutFileRequest[] requestArray = new TPutFileRequest[suris.length];
-
-        for (int i = 0; i < requestArray.length; i++)
-        {
-            requestArray[i] = new TPutFileRequest();
-            requestArray[i].setTargetSURL(suris[i]);
-
-            if (expectedFileSizes != null && expectedFileSizes[i] != null)
-            {
-                requestArray[i].setExpectedFileSize(expectedFileSizes[i]);
-            }
-        }
-        ArrayOfTPutFileRequest arrayOfFileRequests = new ArrayOfTPutFileRequest();
-        arrayOfFileRequests.setRequestArray(requestArray);
+        ArrayOfTPutFileRequest arrayOfFileRequests = createArrayOfPutFileRequests(suris, expectedFileSizes);
 
         SrmPrepareToPutRequest srmPrepareToPutRequest = createSrmPrepareToPutRequest(arrayOfFileRequests,
                 desiredFileLifeTime, desiredFileStorageType, desiredPinLifeTime, desiredTotalRequestTime,
@@ -1370,6 +1509,26 @@ public class SRMClientV2 extends SRMClient
         return putRequest;
     }
 
+    private ArrayOfTPutFileRequest createArrayOfPutFileRequests(org.apache.axis.types.URI[] suris,
+            UnsignedLong[] expectedFileSizes)
+    {
+        TPutFileRequest[] requestArray = new TPutFileRequest[suris.length];
+
+        for (int i = 0; i < requestArray.length; i++)
+        {
+            requestArray[i] = new TPutFileRequest();
+            requestArray[i].setTargetSURL(suris[i]);
+
+            if (expectedFileSizes != null && expectedFileSizes[i] != null)
+            {
+                requestArray[i].setExpectedFileSize(expectedFileSizes[i]);
+            }
+        }
+        ArrayOfTPutFileRequest arrayOfFileRequests = new ArrayOfTPutFileRequest();
+        arrayOfFileRequests.setRequestArray(requestArray);
+        return arrayOfFileRequests;
+    }
+
     /**
      * Finalizes the put request. After the srm service has successfully returned the transport uri and the files have
      * been transferred, use this method to register the file paths to the service.
@@ -1555,7 +1714,8 @@ public class SRMClientV2 extends SRMClient
     }
 
     /**
-     * Blocks until the service response is successful or times out
+     * Blocks until the service response is successful or times out. The request is polled by the shared
+     * {@link SRMPollScheduler}.
      * 
      * @param response
      *            the response from the service
@@ -1565,94 +1725,335 @@ public class SRMClientV2 extends SRMClient
     private ISRMStatusOfRequestResponse pollStatus(ISRMResponse response) throws SRMException
     {
         TReturnStatus status = response.getReturnStatus();
-        ISRMStatusOfRequestResponse requestResponse = null;
 
         if (didRequestFail(status.getStatusCode()))
         {
             throw createSRMExceptionFromStatusCode("Error while getting " + ISRMStatusOfRequestResponse.class.getName(), status);
         }
 
-        try
+        RequestPoller poller = new RequestPoller(response);
+        SRMPollScheduler.getDefault().schedule(poller, 0);
+
+        return poller.waitForCompletion();
+    }
+
+    /**
+     * Polls the status of one request token. Used as task for the shared SRMPollScheduler. The delay between polls
+     * honours the estimated wait time of the files which aren't ready yet.
+     */
+    private class RequestPoller implements SRMPollScheduler.PollTask
+    {
+        protected final ISRMResponse response;
+
+        protected final ISRMRequestStatusOfRequest statusOfRequest;
+
+        private final long startTime = System.currentTimeMillis();
+
+        private int pollCount = 0;
+
+        private boolean done = false;
+
+        private ISRMStatusOfRequestResponse result = null;
+
+        private SRMException exception = null;
+
+        RequestPoller(ISRMResponse response)
         {
-            ISRMRequestStatusOfRequest statusOfRequest = createISRMRequestStatusOfRequest(response);
+            this.response = response;
+            this.statusOfRequest = createISRMRequestStatusOfRequest(response);
+        }
+
+        public long poll() throws Exception
+        {
+            if (isAborted())
+            {
+                setDone(null, new SRMException("Request aborted:" + response.getRequestToken()));
+                return -1;
+            }
+
+            ISRMStatusOfRequestResponse requestResponse = getSrmStatusOfRequest(statusOfRequest);
+            pollCount++;
+
+            TReturnStatus status = requestResponse.getReturnStatus();
+
+            debug("Polling....Token: " + requestResponse.getToken() + " ReturnStatus: "
+                    + status.getStatusCode().getValue() + " " + status.getExplanation());
 
-            Integer sleepTime = null;
-            int tryCount = 1;
-            long totalWaitTime = 0;
+            Integer estimatedWaitTime = updateFileStatuses(requestResponse);
 
-            do
+            if (isFinished(requestResponse))
             {
-                // Pre check: can be optimized:
-                if (didRequestSucceed(status.getStatusCode()))
-                {
-                    debugPrintf(">>>\n>>> REQUEST SUCCEEDED <<<\n>>>");
-                    // DOES SRM AGAIN CALL !
-                    requestResponse = getSrmStatusOfRequest(statusOfRequest);
-                    return requestResponse;
+                setDone(requestResponse, null);
+                return -1;
+            }
 
-                }
+            if (didRequestSucceed(status.getStatusCode()))
+            {
+                debugPrintf(">>>\n>>> REQUEST SUCCEEDED <<<\n>>>");
+                setDone(requestResponse, null);
+                return -1;
+            }
+
+            if (didRequestFail(status.getStatusCode()))
+            {
+                debug("Request Failed. getSRMRequestTimeout: " + getSRMRequestTimeout()
+                        + "\n Must abort files. Status: " + status.getStatusCode().getValue() + " " + status.getExplanation());
 
-                requestResponse = getSrmStatusOfRequest(statusOfRequest);
+                abortSRMRequests(requestResponse.getToken());
+                setDone(requestResponse, handleFailedRequest(requestResponse, response));
+                return -1;
+            }
 
-                tryCount++;
-                debug("Polling....Token: " + requestResponse.getToken() + " ReturnStatus: "
-                        + requestResponse.getReturnStatus().getStatusCode().getValue() + " "
-                        + requestResponse.getReturnStatus().getExplanation());
+            long totalWaitTime = System.currentTimeMillis() - startTime;
+            int maxTime = getSRMRequestTimeout();
 
-                status = requestResponse.getReturnStatus();
+            // timeout
+            if (totalWaitTime > maxTime)
+            {
+                errorPrintf("Timeout: totalWaitTime > srmRequestTimeOut: %d>%d\n", totalWaitTime, maxTime);
 
-                // try to use srm time estimate
-                sleepTime = requestResponse.getRemainingTotalRequestTime();
-                if (sleepTime == null || sleepTime <= 0)
+                try
+                {
+                    abortSRMRequests(requestResponse.getToken());
+                }
+                catch (SRMException e)
                 {
-                    sleepTime = initialWaitTime + this.incrementalWaitTime * tryCount;
+                    logger.log(Level.FINE, "Failed to abort timed out request:" + requestResponse.getToken(), e);
                 }
 
-                totalWaitTime += sleepTime;
+                setDone(requestResponse, createSRMExceptionFromStatusCode("Timeout Error (" + totalWaitTime
+                        + "ms) while getting " + requestResponse.getClass().getName() + ". Request aborted",
+                        response.getReturnStatus()));
+                return -1;
+            }
 
-                debug("Sleeping: " + sleepTime + " (total=" + totalWaitTime + ")");
-                Thread.sleep(sleepTime);
+            long delay = SRMPollScheduler.getPollDelay(pollCount - 1, initialWaitTime, estimatedWaitTime);
+            debug("Next poll in: " + delay + " (total=" + totalWaitTime + ")");
+            return delay;
+        }
 
-                int maxTime = getSRMRequestTimeout();
-                // timeout or error...
-                if (totalWaitTime > maxTime)
-                {
-                    debug("TIMEOUT: SleepTime=" + sleepTime + " getSRMRequestTimeout: " + maxTime
-                            + "\n Must abort files. Status: " + status.getStatusCode().getValue() + " " + status.getExplanation());
+        public void pollFailed(Throwable t)
+        {
+            if (t instanceof SRMException)
+                setDone(null, (SRMException) t);
+            else
+                setDone(null, convertException("Couldn't poll for status", t));
+        }
+
+        /**
+         * Inspect file statuses.
+         * 
+         * @return the smallest estimated wait time of the files which aren't ready or null if unknown.
+         */
+        protected Integer updateFileStatuses(ISRMStatusOfRequestResponse requestResponse)
+        {
+            Integer minWaitTime = null;
 
-                    errorPrintf("Timeout: totalWaitTime > srmRequestTimeOut: %d>%d\n", totalWaitTime, maxTime);
+            for (IFileStatus fileStatus : getFileStatuses(requestResponse))
+            {
+                if (isFilePending(fileStatus))
+                    minWaitTime = minWaitTime(minWaitTime, fileStatus.getEstimatedWaitTime());
+            }
 
-                    throw createSRMExceptionFromStatusCode("Timeout Error (" + totalWaitTime + "ms) while getting "
-                            + requestResponse.getClass().getName() + ". Request aborted",
-                            response.getReturnStatus());
-                }
+            return minWaitTime;
+        }
+
+        /** Whether the request is done regardless of the request status */
+        protected boolean isFinished(ISRMStatusOfRequestResponse requestResponse)
+        {
+            return false;
+        }
+
+        protected boolean isAborted()
+        {
+            return false;
+        }
+
+        protected synchronized void setDone(ISRMStatusOfRequestResponse result, SRMException exception)
+        {
+            this.result = result;
+            this.exception = exception;
+            this.done = true;
+            this.notifyAll();
+        }
+
+        public synchronized ISRMStatusOfRequestResponse waitForCompletion() throws SRMException
+        {
+            try
+            {
+                while (done == false)
+                    this.wait();
+            }
+            catch (InterruptedException e)
+            {
+                throw convertException("Interrupted", e);
+            }
+
+            if (exception != null)
+                throw exception;
+
+            return result;
+        }
+    }
+
+    /**
+     * Poller of one batch of a SRMStagingRequest. Files are handed to the staging request as soon as their transport
+     * URI is available. The batch is done when all files have been reported, so partially failed requests are not
+     * aborted: transport URIs which have already been handed out stay valid.
+     */
+    private class StagingPoller extends RequestPoller
+    {
+        private final SRMStagingRequest staging;
 
-                if (didRequestFail(status.getStatusCode()))
+        private final String token;
+
+        /** Requested SURLs by URI string and by path, to map the returned SURLs back */
+        private final Map<String, URI> requestedSURLs = new HashMap<String, URI>();
+
+        /** SURL strings of the files which have been reported */
+        private final Set<String> reported = new HashSet<String>();
+
+        StagingPoller(ISRMResponse response, SRMStagingRequest staging)
+        {
+            super(response);
+            this.staging = staging;
+            this.token = response.getRequestToken();
+
+            for (URI surl : response.getSURIs())
+            {
+                requestedSURLs.put(surl.toString(), surl);
+                requestedSURLs.put(surl.getPath(), surl);
+            }
+        }
+
+        @Override
+        protected Integer updateFileStatuses(ISRMStatusOfRequestResponse requestResponse)
+        {
+            Integer minWaitTime = null;
+
+            for (IFileStatus fileStatus : getFileStatuses(requestResponse))
+            {
+                URI surl = getRequestedSURL(fileStatus.getSURL());
+
+                if ((surl == null) || (reported.contains(surl.toString())))
+                    continue;
+
+                if (isFilePending(fileStatus))
                 {
-                    debug("Request Failed. SleepTime=" + sleepTime + " getSRMRequestTimeout: " + getSRMRequestTimeout()
-                            + "\n Must abort files. Status: " + status.getStatusCode().getValue() + " " + status.getExplanation());
+                    minWaitTime = minWaitTime(minWaitTime, fileStatus.getEstimatedWaitTime());
+                    continue;
+                }
 
-                    abortSRMRequests(requestResponse.getToken());
+                reported.add(surl.toString());
 
-                    // .. and throw exception
-                    throw handleFailedRequest(requestResponse, response);
+                if (isFileReady(fileStatus))
+                {
+                    staging.fileReady(surl, fileStatus.getTransferURL(), token);
+                }
+                else
+                {
+                    staging.fileFailed(surl, createSRMExceptionFromStatusCode("Failed to stage:" + surl,
+                            fileStatus.getStatus()));
                 }
+            }
 
-            } while (tryCount < 100);
+            return minWaitTime;
+        }
 
-            throw createSRMExceptionFromStatusCode("Error while getting " + ISRMStatusOfRequestResponse.class.getName(), status);
+        @Override
+        protected boolean isFinished(ISRMStatusOfRequestResponse requestResponse)
+        {
+            return (reported.size() >= response.getSURIs().length);
+        }
 
+        @Override
+        protected boolean isAborted()
+        {
+            return staging.isAborted();
         }
-        catch (RemoteException e)
+
+        @Override
+        protected void setDone(ISRMStatusOfRequestResponse result, SRMException exception)
         {
-            throw convertException("Couldn't poll for status", e);
+            // report the remaining files
+            for (URI surl : response.getSURIs())
+            {
+                if (reported.contains(surl.toString()))
+                    continue;
+
+                reported.add(surl.toString());
+
+                SRMException fileEx = exception;
+
+                if (fileEx == null)
+                    fileEx = new SRMException("No transport URI returned for:" + surl);
+
+                staging.fileFailed(surl, fileEx);
+            }
+
+            super.setDone(result, exception);
+            staging.batchDone(token, exception);
         }
-        catch (InterruptedException e)
+
+        private URI getRequestedSURL(URI surl)
         {
-            throw convertException("Interrupted", e);
+            if (surl == null)
+                return null;
+
+            URI requested = requestedSURLs.get(surl.toString());
+
+            if (requested == null)
+                requested = requestedSURLs.get(surl.getPath());
+
+            return requested;
         }
     }
 
+    private IFileStatus[] getFileStatuses(ISRMStatusOfRequestResponse requestResponse)
+    {
+        IFileStatus[] statusArray = requestResponse.getStatusArray();
+
+        if (statusArray == null)
+            return new IFileStatus[0];
+
+        return statusArray;
+    }
+
+    private static Integer minWaitTime(Integer current, Integer waitTime)
+    {
+        if ((waitTime == null) || (waitTime <= 0))
+            return current;
+
+        if ((current == null) || (waitTime < current))
+            return waitTime;
+
+        return current;
+    }
+
+    /** File is still being staged */
+    private boolean isFilePending(IFileStatus fileStatus)
+    {
+        if (fileStatus.getStatus() == null)
+            return true;
+
+        TStatusCode statusCode = fileStatus.getStatus().getStatusCode();
+
+        return ((statusCode == TStatusCode.SRM_REQUEST_QUEUED) || (statusCode == TStatusCode.SRM_REQUEST_INPROGRESS));
+    }
+
+    /** File has been pinned (get) or space has been allocated (put) and the transport URI can be used */
+    private boolean isFileReady(IFileStatus fileStatus)
+    {
+        if ((fileStatus.getStatus() == null) || (fileStatus.getTransferURL() == null))
+            return false;
+
+        TStatusCode statusCode = fileStatus.getStatus().getStatusCode();
+
+        return ((statusCode == TStatusCode.SRM_FILE_PINNED) || (statusCode == TStatusCode.SRM_SPACE_AVAILABLE)
+                || (statusCode == TStatusCode.SRM_FILE_IN_CACHE) || (statusCode == TStatusCode.SRM_SUCCESS)
+                || (statusCode == TStatusCode.SRM_DONE));
+    }
+
     private SRMException handleFailedRequest(ISRMStatusOfRequestResponse requestResponse,
             ISRMResponse response)
     {
@@ -0,0 +1,227 @@
+/*
+ * Copyrighted 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").  
+ * You may not use this file except in compliance with the License. 
+ * For details, see the LICENCE.txt file location in the root directory of this 
+ * distribution or obtain the Apache License at the following location: 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENCE.txt (located in the root folder of this distribution). 
+ * ---
+ */
+// source: 
+// source: 
+
+package nl.esciencecenter.glite.lbl.srm;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Shared poll scheduler for outstanding SRM requests.
+ * <p>
+ * Instead of a sleeping thread per request, all request tokens are polled by one scheduler.
+ * The delay between two polls follows the estimated wait time returned by the SRM service.
+ * When the service doesn't provide an estimate, the delay grows exponentially up to
+ * {@link #MAX_BACKOFF_DELAY}.
+ */
+public class SRMPollScheduler
+{
+    /** Polls are short SOAP calls, a few threads can serve many outstanding requests */
+    public static final int DEFAULT_NUM_POLLERS = 4;
+
+    /** Minimum delay in milliseconds between two polls of the same request */
+    public static final long MIN_POLL_DELAY = 100;
+
+    /** Maximum delay in milliseconds when the SRM service provides an estimated wait time */
+    public static final long MAX_POLL_DELAY = 30 * 1000;
+
+    /** Maximum delay in milliseconds when backing off without estimated wait time */
+    public static final long MAX_BACKOFF_DELAY = 5 * 1000;
+
+    /**
+     * Task polling the status of one request.
+     */
+    public static interface PollTask
+    {
+        /**
+         * Poll once.
+         * 
+         * @return delay in milliseconds before the next poll, or a negative value when done.
+         */
+        public long poll() throws Exception;
+
+        /**
+         * Called when poll() threw an exception. The task won't be polled again.
+         */
+        public void pollFailed(Throwable t);
+    }
+
+    private static SRMPollScheduler instance = null;
+
+    /** Returns the scheduler shared by all SRM clients */
+    public static synchronized SRMPollScheduler getDefault()
+    {
+        if (instance == null)
+            instance = new SRMPollScheduler(DEFAULT_NUM_POLLERS);
+
+        return instance;
+    }
+
+    /**
+     * Returns the delay before the next poll.
+     * 
+     * @param pollCount
+     *            number of polls done so far
+     * @param baseDelay
+     *            delay in milliseconds of the first poll
+     * @param estimatedWaitTime
+     *            estimated wait time in seconds as returned by the SRM service, or null
+     */
+    public static long getPollDelay(int pollCount, long baseDelay, Integer estimatedWaitTime)
+    {
+        if ((estimatedWaitTime != null) && (estimatedWaitTime > 0))
+        {
+            long delay = estimatedWaitTime * 1000L;
+            return Math.max(MIN_POLL_DELAY, Math.min(delay, MAX_POLL_DELAY));
+        }
+
+        // exponential backoff: 1x,2x,4x,... the base delay.
+        long delay = Math.max(baseDelay, MIN_POLL_DELAY) << Math.min(Math.max(pollCount, 0), 16);
+        return Math.min(delay, MAX_BACKOFF_DELAY);
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private int threadCounter = 0;
+
+    private int numOutstanding = 0;
+
+    private long numPolls = 0;
+
+    private long numTasks = 0;
+
+    protected SRMPollScheduler(int numPollers)
+    {
+        ThreadFactory factory = new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "SRMPollScheduler:" + nextThreadNr());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        this.executor = new ScheduledThreadPoolExecutor(Math.max(numPollers, 1), factory);
+        this.executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    private synchronized int nextThreadNr()
+    {
+        return threadCounter++;
+    }
+
+    /**
+     * Start polling the task after the specified delay. The task is polled until it returns a negative delay or
+     * throws an exception.
+     */
+    public void schedule(final PollTask task, long delay)
+    {
+        synchronized (this)
+        {
+            numOutstanding++;
+            numTasks++;
+        }
+
+        scheduleNext(task, delay);
+    }
+
+    private void scheduleNext(final PollTask task, long delay)
+    {
+        Runnable runner = new Runnable()
+        {
+            public void run()
+            {
+                doPoll(task);
+            }
+        };
+
+        try
+        {
+            executor.schedule(runner, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+        }
+        catch (RuntimeException e)
+        {
+            taskDone();
+            task.pollFailed(e);
+        }
+    }
+
+    private void doPoll(PollTask task)
+    {
+        long delay;
+
+        synchronized (this)
+        {
+            numPolls++;
+        }
+
+        try
+        {
+            delay = task.poll();
+        }
+        catch (Throwable t)
+        {
+            SRMClientV2.getLogger().log(Level.FINE, "Poll failed:" + t, t);
+            taskDone();
+            task.pollFailed(t);
+            return;
+        }
+
+        if (delay < 0)
+        {
+            taskDone();
+            return;
+        }
+
+        scheduleNext(task, delay);
+    }
+
+    private synchronized void taskDone()
+    {
+        numOutstanding--;
+    }
+
+    /** Returns number of requests currently being polled */
+    public synchronized int getNumOutstanding()
+    {
+        return numOutstanding;
+    }
+
+    public synchronized String getStats()
+    {
+        return "SRMPollScheduler:outstanding=" + numOutstanding
+                + ",tasks=" + numTasks
+                + ",polls=" + numPolls;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyrighted 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").  
+ * You may not use this file except in compliance with the License. 
+ * For details, see the LICENCE.txt file location in the root directory of this 
+ * distribution or obtain the Apache License at the following location: 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENCE.txt (located in the root folder of this distribution). 
+ * ---
+ */
+// source: 
+// source: 
+
+package nl.esciencecenter.glite.lbl.srm;
+
+import org.apache.axis.types.URI;
+
+/**
+ * Listener of a batched SRM staging request. Each file is reported as soon as its own status is known, so a
+ * transfer can be started without waiting for the other files of the request.
+ * <p>
+ * Methods are called from the poll scheduler threads and should return quickly.
+ * 
+ * @see SRMStagingRequest
+ */
+public interface SRMStagingListener
+{
+    /**
+     * The transport URI of the file is available (file pinned or space available).
+     * 
+     * @param surl
+     *            the SRM URI of the file
+     * @param turl
+     *            the transport URI
+     * @param requestToken
+     *            token of the (batch) request the file belongs to. Needed to finalize put requests.
+     */
+    public void notifyTransportURI(URI surl, URI turl, String requestToken);
+
+    /**
+     * Staging of the file failed.
+     * 
+     * @param surl
+     *            the SRM URI of the file
+     * @param e
+     *            the reason
+     */
+    public void notifyFailed(URI surl, SRMException e);
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyrighted 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").  
+ * You may not use this file except in compliance with the License. 
+ * For details, see the LICENCE.txt file location in the root directory of this 
+ * distribution or obtain the Apache License at the following location: 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENCE.txt (located in the root folder of this distribution). 
+ * ---
+ */
+// source: 
+// source: 
+
+package nl.esciencecenter.glite.lbl.srm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import org.apache.axis.types.URI;
+
+/**
+ * Batched srmPrepareToGet or srmPrepareToPut request.
+ * <p>
+ * The files are submitted in batches (one SRM request token per batch) and all tokens are polled by the shared
+ * {@link SRMPollScheduler}. Each file is reported to the {@link SRMStagingListener} as soon as its transport URI is
+ * available, so transfers can start while the rest of the files are still being staged.
+ * 
+ * @see SRMClientV2#srmStageGetRequest(URI[], gov.lbl.srm.v22.stubs.TAccessPattern, String[], int, SRMStagingListener)
+ * @see SRMClientV2#srmStagePutRequest(URI[], gov.lbl.srm.v22.stubs.TOverwriteMode, String[], int, SRMStagingListener)
+ */
+public class SRMStagingRequest
+{
+    /** Default number of files per SRM request */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final SRMClientV2 client;
+
+    private final SRMStagingListener listener;
+
+    private final boolean isPut;
+
+    private List<String> tokens = new ArrayList<String>();
+
+    private int numFiles = 0;
+
+    private int numReady = 0;
+
+    private int numFailed = 0;
+
+    private int numPendingBatches = 0;
+
+    private boolean aborted = false;
+
+    private SRMException exception = null;
+
+    protected SRMStagingRequest(SRMClientV2 client, boolean isPut, SRMStagingListener listener)
+    {
+        this.client = client;
+        this.isPut = isPut;
+        this.listener = listener;
+    }
+
+    /** Returns true for a srmPrepareToPut request, false for srmPrepareToGet */
+    public boolean isPutRequest()
+    {
+        return isPut;
+    }
+
+    /** Register submitted batch. Called by the SRMClientV2 before polling starts. */
+    synchronized void addBatch(String token, int numBatchFiles)
+    {
+        tokens.add(token);
+        numFiles += numBatchFiles;
+        numPendingBatches++;
+    }
+
+    void fileReady(URI surl, URI turl, String token)
+    {
+        synchronized (this)
+        {
+            numReady++;
+        }
+
+        if (listener != null)
+            listener.notifyTransportURI(surl, turl, token);
+    }
+
+    void fileFailed(URI surl, SRMException e)
+    {
+        synchronized (this)
+        {
+            numFailed++;
+        }
+
+        if (listener != null)
+            listener.notifyFailed(surl, e);
+    }
+
+    /** Batch has finished. The exception is only set when polling the request itself failed. */
+    synchronized void batchDone(String token, SRMException e)
+    {
+        if ((e != null) && (exception == null))
+            exception = e;
+
+        numPendingBatches--;
+        this.notifyAll();
+    }
+
+    /** Returns copy of the request tokens of the submitted batches */
+    public synchronized String[] getRequestTokens()
+    {
+        return tokens.toArray(new String[0]);
+    }
+
+    public synchronized boolean isAborted()
+    {
+        return aborted;
+    }
+
+    /** Returns true when all the files of all the batches have been reported */
+    public synchronized boolean isDone()
+    {
+        return (numPendingBatches <= 0);
+    }
+
+    /**
+     * Wait until all batches are done. Throws the first exception of a batch which couldn't be polled. Failures of
+     * individual files are only reported to the listener.
+     */
+    public void waitForCompletion() throws SRMException
+    {
+        synchronized (this)
+        {
+            try
+            {
+                while (numPendingBatches > 0)
+                    this.wait();
+            }
+            catch (InterruptedException e)
+            {
+                throw new SRMException("Interrupted while waiting for staging request.", e);
+            }
+
+            if (exception != null)
+                throw exception;
+        }
+    }
+
+    /**
+     * Abort all outstanding request tokens. Files which haven't been reported yet will be reported as failed.
+     * Transport URIs which have already been handed out are released as well.
+     */
+    public void abort()
+    {
+        String tokenArr[];
+
+        synchronized (this)
+        {
+            if (aborted)
+                return;
+
+            aborted = true;
+            tokenArr = tokens.toArray(new String[0]);
+        }
+
+        for (String token : tokenArr)
+        {
+            try
+            {
+                client.abortSRMRequests(token);
+            }
+            catch (SRMException e)
+            {
+                SRMClientV2.getLogger().log(Level.FINE, "Failed to abort request:" + token, e);
+            }
+        }
+    }
+
+    /**
+     * Release the pins of the files of a finished srmPrepareToGet request. A request which isn't done yet is aborted,
+     * which releases the files as well. Transport URIs which have been handed out can't be used anymore afterwards.
+     */
+    public void release()
+    {
+        String tokenArr[];
+
+        synchronized (this)
+        {
+            if ((aborted) || (isPutRequest()))
+                return;
+
+            if (isDone() == false)
+            {
+                tokenArr = null;
+            }
+            else
+            {
+                aborted = true;
+                tokenArr = tokens.toArray(new String[0]);
+            }
+        }
+
+        if (tokenArr == null)
+        {
+            abort();
+            return;
+        }
+
+        for (String token : tokenArr)
+        {
+            try
+            {
+                client.srmReleaseFiles(token, null);
+            }
+            catch (SRMException e)
+            {
+                SRMClientV2.getLogger().log(Level.FINE, "Failed to release files of request:" + token, e);
+            }
+        }
+    }
+
+    public synchronized int getNumFiles()
+    {
+        return numFiles;
+    }
+
+    public synchronized int getNumReady()
+    {
+        return numReady;
+    }
+
+    public synchronized int getNumFailed()
+    {
+        return numFailed;
+    }
+
+    public synchronized String getStats()
+    {
+        return "SRMStagingRequest:" + (isPut ? "put" : "get")
+                + ":batches=" + tokens.size()
+                + ",pendingBatches=" + numPendingBatches
+                + ",files=" + numFiles
+                + ",ready=" + numReady
+                + ",failed=" + numFailed
+                + ",aborted=" + aborted;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
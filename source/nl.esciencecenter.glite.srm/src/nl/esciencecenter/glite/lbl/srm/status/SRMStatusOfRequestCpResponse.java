@@ -67,6 +67,10 @@ public class SRMStatusOfRequestCpResponse implements ISRMStatusOfRequestResponse
     @Override
     public IFileStatus[] getStatusArray()
     {
+        // no file statuses while the request is still queued
+        if ((cpResponce.getArrayOfFileStatuses() == null) || (cpResponce.getArrayOfFileStatuses().getStatusArray() == null))
+            return new IFileStatus[0];
+
         TCopyRequestFileStatus[] copyRequestFileStatus = cpResponce.getArrayOfFileStatuses().getStatusArray();
         CopyRequestFileStatus[] satatusArray = new CopyRequestFileStatus[copyRequestFileStatus.length];
         for (int i = 0; i < copyRequestFileStatus.length; i++)
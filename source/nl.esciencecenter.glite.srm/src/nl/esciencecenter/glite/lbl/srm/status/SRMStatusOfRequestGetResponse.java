@@ -67,6 +67,10 @@ public class SRMStatusOfRequestGetResponse implements ISRMStatusOfRequestRespons
     @Override
     public IFileStatus[] getStatusArray()
     {
+        // no file statuses while the request is still queued
+        if ((getResponce.getArrayOfFileStatuses() == null) || (getResponce.getArrayOfFileStatuses().getStatusArray() == null))
+            return new IFileStatus[0];
+
         TGetRequestFileStatus[] getRequestFileStatus = getResponce.getArrayOfFileStatuses().getStatusArray();
         GetRequestFileStatus[] satatusArray = new GetRequestFileStatus[getRequestFileStatus.length];
         for (int i = 0; i < getRequestFileStatus.length; i++)
@@ -66,6 +66,10 @@ public class SRMStatusOfRequestPutResponse implements ISRMStatusOfRequestRespons
     @Override
     public IFileStatus[] getStatusArray()
     {
+        // no file statuses while the request is still queued
+        if ((putResponse.getArrayOfFileStatuses() == null) || (putResponse.getArrayOfFileStatuses().getStatusArray() == null))
+            return new IFileStatus[0];
+
         TPutRequestFileStatus[] putRequestFileStatus = putResponse.getArrayOfFileStatuses().getStatusArray();
         PutRequestFileStatus[] satatusArray = new PutRequestFileStatus[putRequestFileStatus.length];
         for (int i = 0; i < satatusArray.length; i++)
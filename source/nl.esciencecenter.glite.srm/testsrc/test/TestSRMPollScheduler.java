@@ -0,0 +1,71 @@
+/*
+ * Copyrighted 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").  
+ * You may not use this file except in compliance with the License. 
+ * For details, see the LICENCE.txt file location in the root directory of this 
+ * distribution or obtain the Apache License at the following location: 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENCE.txt (located in the root folder of this distribution). 
+ * ---
+ */
+// source: 
+
+package test;
+
+import nl.esciencecenter.glite.lbl.srm.SRMPollScheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the poll delays of the SRMPollScheduler. Doesn't need a SRM service.
+ */
+public class TestSRMPollScheduler
+{
+    @Test
+    public void testBackoffWithoutEstimate()
+    {
+        Assert.assertEquals(100, SRMPollScheduler.getPollDelay(0, 100, null));
+        Assert.assertEquals(200, SRMPollScheduler.getPollDelay(1, 100, null));
+        Assert.assertEquals(400, SRMPollScheduler.getPollDelay(2, 100, null));
+        Assert.assertEquals(3200, SRMPollScheduler.getPollDelay(5, 100, null));
+
+        // capped
+        Assert.assertEquals(SRMPollScheduler.MAX_BACKOFF_DELAY, SRMPollScheduler.getPollDelay(6, 100, null));
+        Assert.assertEquals(SRMPollScheduler.MAX_BACKOFF_DELAY, SRMPollScheduler.getPollDelay(1000, 100, null));
+        Assert.assertEquals(SRMPollScheduler.MAX_BACKOFF_DELAY, SRMPollScheduler.getPollDelay(Integer.MAX_VALUE, 100, null));
+    }
+
+    @Test
+    public void testBackoffBounds()
+    {
+        // base delay is at least MIN_POLL_DELAY
+        Assert.assertEquals(SRMPollScheduler.MIN_POLL_DELAY, SRMPollScheduler.getPollDelay(0, 0, null));
+        Assert.assertEquals(SRMPollScheduler.MIN_POLL_DELAY, SRMPollScheduler.getPollDelay(0, -5, null));
+        Assert.assertEquals("Negative poll count", SRMPollScheduler.MIN_POLL_DELAY, SRMPollScheduler.getPollDelay(-1, 0, null));
+
+        // no estimate is the same as no estimated wait time
+        Assert.assertEquals(200, SRMPollScheduler.getPollDelay(1, 100, 0));
+        Assert.assertEquals(200, SRMPollScheduler.getPollDelay(1, 100, -1));
+    }
+
+    @Test
+    public void testEstimatedWaitTime()
+    {
+        // estimated wait time is in seconds, doesn't depend on the poll count
+        Assert.assertEquals(2000, SRMPollScheduler.getPollDelay(0, 100, 2));
+        Assert.assertEquals(2000, SRMPollScheduler.getPollDelay(10, 100, 2));
+
+        // long estimates are capped, so a file which is ready earlier is noticed
+        Assert.assertEquals(SRMPollScheduler.MAX_POLL_DELAY, SRMPollScheduler.getPollDelay(0, 100, 3600));
+        Assert.assertEquals(SRMPollScheduler.MAX_POLL_DELAY, SRMPollScheduler.getPollDelay(0, 100, Integer.MAX_VALUE));
+    }
+}
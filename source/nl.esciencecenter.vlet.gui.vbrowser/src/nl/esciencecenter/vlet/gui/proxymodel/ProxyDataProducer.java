@@ -28,11 +28,13 @@ import nl.esciencecenter.ptk.task.ITaskSource;
 import nl.esciencecenter.ptk.util.logging.ClassLogger;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.gui.UIGlobal;
 import nl.esciencecenter.vlet.gui.UILogger;
 import nl.esciencecenter.vlet.gui.proxyvrs.ProxyNode;
 import nl.esciencecenter.vlet.gui.proxyvrs.ProxyNodeFactory;
 import nl.esciencecenter.vlet.gui.view.ViewFilter;
 import nl.esciencecenter.vlet.gui.view.ViewModel;
+import nl.esciencecenter.vlet.vrs.tasks.VRSTaskWatcher.TaskPool;
 
 /** 
  * Data Producer for the ProxyModel classes. 
@@ -71,9 +73,10 @@ public abstract class ProxyDataProducer
 		return taskSource;
 	}
 	
-	protected void doBackground (ActionTask task)
+	/** Run task in the interactive pool, counted for the host of location */ 
+	protected void doBackground (ActionTask task,VRL location)
 	{
-		task.startTask(); 
+		UIGlobal.getTaskWatcher().submitTask(task,TaskPool.INTERACTIVE,location); 
 	}
 	
 	/** 
@@ -140,7 +143,7 @@ public abstract class ProxyDataProducer
 		// BrowserController ! 
 		// 
 		
-		doBackground(fetchTask);
+		doBackground(fetchTask,parentVrl);
 	}
 	
 	public ViewFilter getViewFilter()
@@ -212,7 +215,7 @@ public abstract class ProxyDataProducer
 		// BrowserController ! 
 		// 
 		
-		doBackground(fetchTask);
+		doBackground(fetchTask,parentLoc);
 	}
 	
 	/** 
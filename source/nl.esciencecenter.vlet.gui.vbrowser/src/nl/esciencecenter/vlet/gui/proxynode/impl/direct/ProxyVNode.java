@@ -22,6 +22,7 @@
 package nl.esciencecenter.vlet.gui.proxynode.impl.direct;
 
 import java.awt.Dimension;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.Hashtable;
 import java.util.Vector;
@@ -139,8 +140,11 @@ public final class ProxyVNode extends ProxyNode
         
         // == VComposite Attributes === 
         
-        /** Childs vector also as weak references ? */
-        private Vector<ProxyVNode> childsv =null; 
+        /**
+         * Child nodes. Kept as soft reference so the child arrays of large directories
+         * can be reclaimed under memory pressure: they are fetched again when needed.
+         */
+        private SoftReference<ProxyVNode[]> childsRef =null; 
         
         
         // == Icon/Presentation Attribuets == 
@@ -213,10 +217,7 @@ public final class ProxyVNode extends ProxyNode
             // clear stored attributes etc.
             // nullification not needed since use of weakpointers ! 
         	// 
-        	if (childsv!=null)
-        		childsv.removeAllElements(); 
-        	
-            this.childsv = null;
+            this.childsRef = null;
             //this.isReadable = null;
             this.proxyNodeParentRef = null;
             this.linkTarget = null;
@@ -268,18 +269,23 @@ public final class ProxyVNode extends ProxyNode
 //            
 //        }
         
-        /** Returns UNFiltered Childs !*/ 
+        /** Returns UNFiltered Childs or NULL if not cached (anymore) !*/ 
         public ProxyVNode[] getChilds()
         {
-        	if (childsv==null)
+            SoftReference<ProxyVNode[]> ref=childsRef; 
+            
+        	if (ref==null)
         		return null; 
         	
-        	synchronized(this.childsv)
-        	{
-        		ProxyVNode childs[]=new ProxyVNode[childsv.size()]; 
-        		childs=childsv.toArray(childs);
-        		return childs; 
-        	}
+        	ProxyVNode childs[]=ref.get(); 
+        	
+        	if (childs==null)
+        	    return null;
+        	
+        	// return private copy 
+        	ProxyVNode copy[]=new ProxyVNode[childs.length]; 
+        	System.arraycopy(childs,0,copy,0,childs.length); 
+        	return copy; 
         }
 
 		public void setParent(ProxyVNode node)
@@ -291,28 +297,13 @@ public final class ProxyVNode extends ProxyNode
 		{
 			if (childs==null)
 			{
-				if (childsv==null)
-				{
-					return; // null == null 
-				}
-				else
-				{
-					childsv.clear(); 
-				    childsv=null;
-				    return; 
-				}
+			    childsRef=null; 
+			    return; 
 			}
 
-			if (childsv==null)
-				childsv=new Vector<ProxyVNode>();
-	            
-			synchronized(childsv)
-			{				
-				childsv.clear();
-				
-				for (ProxyVNode node:childs)
-					this.childsv.add(node);  
-			}
+			ProxyVNode copy[]=new ProxyVNode[childs.length]; 
+			System.arraycopy(childs,0,copy,0,childs.length); 
+			this.childsRef=new SoftReference<ProxyVNode[]>(copy);
 		}
 
 		public ProxyVNode getProxyNodeParent()
@@ -611,6 +602,8 @@ public final class ProxyVNode extends ProxyNode
     	// Enter O) 
     	logger.debugPrintf("*** --- --- getChilds() ENTERING for:%s\n",this);
     	
+        ProxyVNode childs[]=null; 
+        
         // mutex for this method: invoking it twice makes no sense:
         synchronized (getChildsMutex)
         {
@@ -618,7 +611,7 @@ public final class ProxyVNode extends ProxyNode
         	
             logger.debugPrintf("*** --- +++ getChilds() PASS getChildsMutex (I) for:%s\n",this); 
         	 
-        	ProxyVNode childs[]=cache.getChilds(); 
+        	childs=cache.getChilds(); 
         	
         	// cache must be checked while in Critical Zone
             if (childs != null)
@@ -765,9 +758,9 @@ public final class ProxyVNode extends ProxyNode
            
         }// synchronized(this)
          
-        // Passed MUTEX: childs are in cache: 
+        // Passed MUTEX: return the childs just stored, the cache only holds a soft reference: 
         logger.debugPrintf("*** --- --- getChilds() LEAVING cache MUTEX (Ie) for:%s\n",this); 
-        return filterChilds(cache.getChilds(),viewFilter); 
+        return filterChilds(childs,viewFilter); 
     }
     
     private ProxyVNode[] filterChilds(ProxyVNode[] childs, ViewFilter viewFilter)
@@ -21,10 +21,13 @@
 
 package nl.esciencecenter.vlet.gui.proxynode.impl.direct;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-import nl.esciencecenter.ptk.GlobalProperties;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.gui.UIGlobal;
@@ -34,8 +37,20 @@ import nl.esciencecenter.vlet.gui.proxyvrs.ProxyNodeFactory;
 import nl.esciencecenter.vlet.gui.proxyvrs.ProxyVRSClient;
 import nl.esciencecenter.vlet.vrs.VNode;
 
+/**
+ * Factory and cache of ProxyVNodes.
+ * <p>
+ * The cache is a bounded LRU cache: when more than maxCachedNodes nodes are cached, 
+ * the least recently used nodes are removed from the cache. Nodes which are pinned, 
+ * for example because they are visible in a tree or table, are never evicted.
+ * The child arrays of the nodes are kept as soft references (see ProxyVNode) 
+ * so they can be reclaimed by the garbage collector. 
+ */
 public class ProxyVNodeFactory  implements ProxyNodeFactory
 {
+    /** Default maximum number of ProxyVNodes in the cache */ 
+    public static int defaultMaxCachedNodes=10000; 
+    
     private static ProxyVNodeFactory instance=null; 
     
     public static void initPlatform()
@@ -61,7 +76,25 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
      */
 	// no weak references yet: the node are discared to fast ! 
 	//private Hashtable<String, ProxyTNode.WeakProxyTNodeRef> nodeHash = new Hashtable<String, ProxyTNode.WeakProxyTNodeRef>();
-	private Hashtable<VRL, ProxyVNode> nodeHash = new Hashtable<VRL, ProxyVNode>();
+    // LinkedHashMap in access order: the eldest entry is the least recently used one. 
+    // Only contains unpinned nodes, see pinnedNodes. 
+    // Not thread save: all access must be synchronized on nodeHash ! 
+	private LinkedHashMap<VRL, ProxyVNode> nodeHash = new LinkedHashMap<VRL, ProxyVNode>(256,0.75f,true);
+	
+	/** Pin counts of pinned locations. Guarded by nodeHash */ 
+	private Map<VRL,Integer> pinnedLocations=new HashMap<VRL,Integer>(); 
+	
+	/** Nodes of pinned locations, kept out of the LRU list so eviction doesn't scan them. Guarded by nodeHash */ 
+	private Map<VRL,ProxyVNode> pinnedNodes=new HashMap<VRL,ProxyVNode>(); 
+	
+	private int maxCachedNodes=defaultMaxCachedNodes; 
+	
+	// metrics, guarded by nodeHash 
+	private long numHits=0; 
+	
+	private long numMisses=0; 
+	
+	private long numEvictions=0; 
     
 	/** Get from hash or creat new one ProxyTNode */
     public ProxyVNode openLocation(VRL loc) throws VrsException
@@ -100,21 +133,27 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
         	//WeakProxyTNodeRef ref = nodeHash.get(loc.toString());
             //if (ref!=null)
             //	pnode=ref.get(); 
-            pnode=nodeHash.get(loc);
+            pnode=cacheGet(loc);
             
             // store VRL which is used to open this node ! 
              
             
             if (pnode==null)
             {
+                numMisses++; 
             	//
                 // Create New ProxyTNode with NULL vnode !
             	//
                 pnode=new ProxyVNode();
                 pnode.setAliasVRL(loc);    
                 // already put int the hashcode ! 
-                nodeHash.put(loc,pnode);
+                cachePut(loc,pnode);
+                evictNodes(); 
             } 
+            else
+            {
+                numHits++; 
+            }
         }
         
         // >>> here pnode.vnode *MIGHT* be null <<<  
@@ -150,7 +189,10 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
                 catch (Throwable t)
                 {
                 	// remove from hash 
-                	nodeHash.remove(loc);
+                    synchronized (nodeHash)
+                    {
+                        cacheRemove(loc);
+                    }
                 	if (t instanceof VrsException)
                 	    throw ((VrsException)t); 
                 	
@@ -201,8 +243,9 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
             if (alias.toString().compareTo(loc.toString())!=0) 
             {
             	//nodeHash.put(alias.toString(),new WeakProxyTNodeRef(pnode));
-                nodeHash.put(alias,pnode);
+                cachePut(alias,pnode);
                 //Global.messagePrintln(ProxyTNode.class,">>> putting alias:"+alias); 
+                evictNodes(); 
             } 
         }
        
@@ -216,14 +259,21 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
     	if (loc==null) 
     		return null; // garbage in garbage out 
     	
-    	//WeakProxyTNodeRef ref = nodeHash.get(loc.toString());
-    	ProxyVNode pnode = nodeHash.get(loc);
+    	synchronized (nodeHash)
+    	{
+    	    //WeakProxyTNodeRef ref = nodeHash.get(loc.toString());
+    	    ProxyVNode pnode = cacheGet(loc);
     	
-    	// Fetching ProxyNode during an open location ! 
-    	if ((pnode==null) || (pnode.vnode==null))
-    		return null;
+    	    // Fetching ProxyNode during an open location ! 
+    	    if ((pnode==null) || (pnode.vnode==null))
+    	    {
+    	        numMisses++; 
+    	        return null;
+    	    }
         
-        return pnode; 
+    	    numHits++; 
+    	    return pnode;
+    	}
     }
     
     void hashRemove(ProxyVNode node)
@@ -232,7 +282,14 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
         
         //  loc==null: can happen when exiting (disposeClass());
         if (loc!=null)
-            nodeHash.remove(loc.toString());
+        {
+            synchronized (nodeHash)
+            {
+                // only remove if the cached node is this node 
+                if (cacheGet(loc)==node)
+                    cacheRemove(loc);
+            }
+        }
     }
     
     /** Create new ProxyNot and put it in the cache */ 
@@ -255,7 +312,7 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
                 pnode=new ProxyVNode();
                 pnode.vnode=node;
                 //prev=nodeHash.put(node.getLocation().toString(),new WeakProxyTNodeRef(pnode));
-                prev=nodeHash.put(node.getVRL(),pnode);
+                prev=cachePut(node.getVRL(),pnode);
               
             }
             
@@ -264,6 +321,8 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
                 // is allowed: cache write through/update
                 UILogger.debugPrintf(ProxyVNode.class,"*** Warning: Node already in cache:%s\n",pnode); 
             }
+            
+            evictNodes(); 
         }
         
         pnode.prefetchAttributes(); 
@@ -273,20 +332,26 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
     
     public void clearNodeHash()
     {
-        for (Enumeration<VRL> keys =nodeHash.keys();keys.hasMoreElements();) 
+        ProxyVNode nodes[]; 
+        
+        synchronized (nodeHash)
+        {
+            nodes=cacheValues(); 
+        }
+        
+        // dispose() removes the node from the hash 
+        for (ProxyVNode pnode:nodes)
         {
-        	VRL key=keys.nextElement();
-            //WeakProxyTNodeRef ref = nodeHash.get(key);
-            ProxyVNode pnode =  nodeHash.get(key); 
-            
             if (pnode!=null)
             {
            		pnode.dispose();
             }
-            
         }
         
-        nodeHash.clear();
+        synchronized (nodeHash)
+        {
+            nodeHash.clear();
+        }
         
         //proxyEventListeners.clear();
     }
@@ -306,7 +371,12 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
     
     	//WeakProxyTNodeRef ref = nodeHash.get(loc.toString());
     	   
-        ProxyVNode node =  nodeHash.get(loc); 
+        ProxyVNode node; 
+        
+        synchronized (nodeHash)
+        {
+            node =  cacheGet(loc); 
+        }
         
         //if (ref!=null)
         //	node=ref.get(); 
@@ -325,7 +395,12 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
         if (node.getVRL()==null)
             throw new NullPointerException("VRL of node is NULL");
         
-        this.nodeHash.put(node.getVRL(),pnode);
+        synchronized (nodeHash)
+        {
+            cachePut(node.getVRL(),pnode);
+            evictNodes(); 
+        }
+        
         return pnode;
     }
 
@@ -341,14 +416,218 @@ public class ProxyVNodeFactory  implements ProxyNodeFactory
         
         synchronized(this.nodeHash)
         {
-            nodes=new ProxyVNode[nodeHash.size()];   
-            nodes=nodeHash.values().toArray(nodes);
+            nodes=cacheValues(); 
             nodeHash.clear(); 
+            pinnedNodes.clear(); 
         }
         
         // clear nodes: 
         for (ProxyVNode node:nodes)
             node.dispose(); 
     }
-
+    
+    // ========================================================================
+    // Cache Management 
+    // ========================================================================
+    
+    /** Returns cached node, pinned or not. Must be called while holding the nodeHash mutex */ 
+    private ProxyVNode cacheGet(VRL loc)
+    {
+        ProxyVNode pnode=pinnedNodes.get(loc); 
+        
+        if (pnode!=null)
+            return pnode; 
+        
+        return nodeHash.get(loc); 
+    }
+    
+    /** Puts node in the pinned map or in the LRU list. Must be called while holding the nodeHash mutex */ 
+    private ProxyVNode cachePut(VRL loc,ProxyVNode pnode)
+    {
+        if (pinnedLocations.containsKey(loc))
+            return pinnedNodes.put(loc,pnode); 
+        
+        return nodeHash.put(loc,pnode); 
+    }
+    
+    /** Must be called while holding the nodeHash mutex */ 
+    private ProxyVNode cacheRemove(VRL loc)
+    {
+        ProxyVNode pnode=pinnedNodes.remove(loc); 
+        
+        if (pnode!=null)
+            return pnode; 
+        
+        return nodeHash.remove(loc); 
+    }
+    
+    /** Must be called while holding the nodeHash mutex */ 
+    private ProxyVNode[] cacheValues()
+    {
+        List<ProxyVNode> nodes=new ArrayList<ProxyVNode>(nodeHash.size()+pinnedNodes.size()); 
+        nodes.addAll(pinnedNodes.values()); 
+        nodes.addAll(nodeHash.values()); 
+        return nodes.toArray(new ProxyVNode[nodes.size()]); 
+    }
+    
+    /**
+     * Pin location: the ProxyVNode of a pinned location will not be evicted from the cache.
+     * Every call must be matched by a call to unpinLocation(). 
+     */
+    @Override
+    public void pinLocation(VRL loc)
+    {
+        if (loc==null)
+            return; 
+        
+        synchronized (nodeHash)
+        {
+            Integer count=pinnedLocations.get(loc); 
+            pinnedLocations.put(loc,(count==null)?1:count+1); 
+            
+            // first pin: move node out of the LRU list 
+            if (count==null)
+            {
+                ProxyVNode pnode=nodeHash.remove(loc); 
+                
+                if (pnode!=null)
+                    pinnedNodes.put(loc,pnode); 
+            }
+        }
+    }
+    
+    @Override
+    public void unpinLocation(VRL loc)
+    {
+        if (loc==null)
+            return; 
+        
+        synchronized (nodeHash)
+        {
+            Integer count=pinnedLocations.get(loc); 
+            
+            if (count==null)
+                return; 
+            
+            if (count>1)
+            {
+                pinnedLocations.put(loc,count-1); 
+                return; 
+            }
+            
+            // last unpin: back into the LRU list as most recently used node 
+            pinnedLocations.remove(loc);
+            ProxyVNode pnode=pinnedNodes.remove(loc); 
+            
+            if (pnode!=null)
+                nodeHash.put(loc,pnode); 
+            
+            evictNodes(); 
+        }
+    }
+    
+    public boolean isPinned(VRL loc)
+    {
+        synchronized (nodeHash)
+        {
+            return pinnedLocations.containsKey(loc); 
+        }
+    }
+    
+    /** Set maximum number of cached ProxyVNodes. Pinned nodes are always kept. */ 
+    public void setMaxCachedNodes(int max)
+    {
+        synchronized (nodeHash)
+        {
+            this.maxCachedNodes=(max>0)?max:defaultMaxCachedNodes;
+            evictNodes(); 
+        }
+    }
+    
+    public int getMaxCachedNodes()
+    {
+        return maxCachedNodes; 
+    }
+    
+    /** 
+     * Remove least recently used nodes until the cache is within bounds. 
+     * Pinned nodes are not in the LRU list, only nodes which are being opened are skipped. 
+     * Evicted nodes are not disposed since they might still be in use.  
+     * Must be called while holding the nodeHash mutex. 
+     */
+    private void evictNodes()
+    {
+        // pinned nodes count against the maximum but can't be evicted 
+        int toEvict=Math.min(nodeHash.size(),nodeHash.size()+pinnedNodes.size()-maxCachedNodes); 
+        
+        if (toEvict<=0)
+            return; 
+        
+        List<VRL> evicted=new ArrayList<VRL>(); 
+        
+        // iterate from least to most recently used: 
+        for (Iterator<Map.Entry<VRL,ProxyVNode>> it=nodeHash.entrySet().iterator();(toEvict>0) && it.hasNext();)
+        {
+            Map.Entry<VRL,ProxyVNode> entry=it.next(); 
+            ProxyVNode pnode=entry.getValue(); 
+            
+            // still being opened: 
+            if ((pnode==null) || (pnode.vnode==null))
+                continue; 
+            
+            it.remove(); 
+            evicted.add(entry.getKey()); 
+            toEvict--; 
+            numEvictions++; 
+        }
+        
+        if (evicted.size()>0)
+            UILogger.debugPrintf(this,"Evicted %d nodes from cache, first=%s\n",evicted.size(),evicted.get(0)); 
+    }
+    
+    public int getCacheSize()
+    {
+        synchronized (nodeHash)
+        {
+            return nodeHash.size()+pinnedNodes.size(); 
+        }
+    }
+    
+    public long getNumHits()
+    {
+        synchronized (nodeHash)
+        {
+            return numHits; 
+        }
+    }
+    
+    public long getNumMisses()
+    {
+        synchronized (nodeHash)
+        {
+            return numMisses; 
+        }
+    }
+    
+    public long getNumEvictions()
+    {
+        synchronized (nodeHash)
+        {
+            return numEvictions; 
+        }
+    }
+    
+    /** Returns cache statistics for diagnostics */ 
+    public String getStats()
+    {
+        synchronized (nodeHash)
+        {
+            return "ProxyVNodeCache:size="+(nodeHash.size()+pinnedNodes.size())
+                +",max="+maxCachedNodes
+                +",pinned="+pinnedLocations.size()
+                +",hits="+numHits
+                +",misses="+numMisses
+                +",evictions="+numEvictions; 
+        }
+    }
 }
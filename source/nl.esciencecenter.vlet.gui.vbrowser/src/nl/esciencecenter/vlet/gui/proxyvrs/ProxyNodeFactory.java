@@ -38,5 +38,14 @@ public interface ProxyNodeFactory
 	public abstract ProxyNode getFromCache(VRL vrl);
 
     public abstract void reset(); 
+    
+    /**
+     * Keep the ProxyNode of the location in the cache, for example while it is 
+     * visible in a tree or table. Each call must be matched by unpinLocation().
+     */
+    public abstract void pinLocation(VRL loc);
+    
+    /** Release pin of location. The ProxyNode may be evicted from the cache again. */
+    public abstract void unpinLocation(VRL loc);
 	
 }
@@ -21,6 +21,12 @@
 
 package nl.esciencecenter.vlet.gui.table;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
 import nl.esciencecenter.ptk.data.StringList;
@@ -42,6 +48,7 @@ import nl.esciencecenter.vlet.gui.view.ViewNode;
 import nl.esciencecenter.vlet.vrs.data.VAttributeConstants;
 import nl.esciencecenter.vlet.vrs.events.EventType;
 import nl.esciencecenter.vlet.vrs.events.ResourceEvent;
+import nl.esciencecenter.vlet.vrs.tasks.VRSTaskWatcher.TaskPool;
 
 
 /**
@@ -51,6 +58,12 @@ import nl.esciencecenter.vlet.vrs.events.ResourceEvent;
  */
 public class NodeTableProducer extends ProxyDataProducer implements TableDataProducer, ProxyResourceEventListener
 {
+    /** Maximum number of nodes of which the attributes are fetched in one batch */
+    public static final int FETCH_BATCH_SIZE = 50;
+
+    /** Minimum time in milliseconds between table update events during attribute fetching */
+    public static final long REPAINT_INTERVAL = 250;
+
     private static ClassLogger logger;
      
     static
@@ -70,6 +83,18 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
 
     private String[] attributeNames;
 
+    private int updateFirstRow = -1;
+
+    private int updateLastRow = -1;
+
+    private long lastRowUpdateTime = 0;
+
+    /** Locations pinned in the ProxyNode cache while visible or being fetched */
+    private Set<VRL> pinnedLocations = new HashSet<VRL>();
+
+    /** Rows of which the attributes are currently being fetched. Guarded by this */
+    private ProxyNode fetchingNodes[] = null;
+
     // private Presentation presentation;
 
     // ===
@@ -200,6 +225,16 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
                 i++;
             }
 
+        // visible rows aren't known yet: pin the first screen full
+        ProxyNode firstNodes[] = nodes;
+
+        if ((nodes != null) && (nodes.length > FETCH_BATCH_SIZE))
+        {
+            firstNodes = new ProxyNode[FETCH_BATCH_SIZE];
+            System.arraycopy(nodes, 0, firstNodes, 0, FETCH_BATCH_SIZE);
+        }
+
+        updatePinnedNodes(firstNodes, false);
         uiCreateTable2(body, headers, nodes);
     }
 
@@ -278,90 +313,78 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
         {
             private Thread thisThread = null;
 
+            // task might be stopped while still queued
+            private volatile boolean stopped = false;
+
             protected void doTask()
             {
+                if (stopped)
+                    return;
+
                 thisThread = Thread.currentThread();
                 int numExceptions = 0;
 
-                /**
-                 * Note: by using Object instead of string the .toString()
-                 * method will be called on the object, giving the Object
-                 * control over how it will be render (as string) !
-                 */
-
-                int rows = getNrOfRows();
-                int columns = attrNames.length;
                 VRSTableModel model = getTableModel();
-
-                String header[] = new String[attrNames.length];
-
-                for (int i = 0; i < columns; i++)
-                {
-                    header[i] = attrNames[i];
-                }
-
-                long prevMillis = 0;
-
-                ProxyNode[] nodes = model.getRowObjects();
+                AttributeFetchQueue queue = new AttributeFetchQueue(model.getRowObjects());
 
                 // preemptive populate by check the running thread also !
-                for (int i = 0; (i < nodes.length) && (thisThread != null); i++)
+                while (thisThread != null)
                 {
-                    ProxyNode node = nodes[i];
-                    // TermGlobal.errorPrintln(this,"fetching attributes node #"+i+"="+node);
+                    // visible rows are checked for each batch, so scrolling re-prioritises the fetching
+                    int visibleRange[] = tablePanel.getPublishedVisibleRowRange();
+                    ProxyNode batch[] = queue.nextBatch(model, visibleRange, FETCH_BATCH_SIZE);
 
-                    logger.debugPrintf("fetching attributes node #%d=%s\n", i, node);
+                    // keep the batch in the cache until its attributes are set
+                    setFetchingNodes(batch, visibleRange);
 
-                    Attribute attrs[] = null;
+                    if (batch == null)
+                        break;
 
-                    if (node == null)
-                        continue; // arg darn null nodes
+                    int rowHints[] = queue.getRowHints();
 
-                    try
-                    {
-                        // for repainting
-                        boolean update = false;
-                        // merge repaints into once a in while
-                        long millis = System.currentTimeMillis();
+                    logger.debugPrintf("fetching attributes of %d nodes, first=%s\n", batch.length, batch[0]);
 
-                        // use synchronized method, we are already in seperate
-                        // subthread:
-                        updateNodeAttributes(node, attrNames);
+                    Attribute attrs[][] = new Attribute[batch.length][];
 
-                        if ((millis - prevMillis) > 1000)
+                    for (int i = 0; (i < batch.length) && (thisThread != null); i++)
+                    {
+                        try
                         {
-                            update = true;
-                            prevMillis = millis;
+                            attrs[i] = batch[i].getAttributes(attrNames);
                         }
-
-                    }
-                    catch (Exception e)
-                    {
-                        // Browser Overload Protection !
-                        numExceptions++;
-
-                        if (numExceptions < 10)
-                            getMasterBrowser().notifyTaskException(this,e);
-                        else
+                        catch (Exception e)
                         {
-                            // has happened:
-                            logger.errorPrintf( "To many exceptions:%s\n", e);
+                            // Browser Overload Protection !
+                            numExceptions++;
+
+                            if (numExceptions < 10)
+                                getMasterBrowser().notifyTaskException(this,e);
+                            else
+                            {
+                                // has happened:
+                                logger.errorPrintf( "To many exceptions:%s\n", e);
+                            }
                         }
                     }
+
+                    // update model, merge repaints into once a in while
+                    setNodeAttributes(batch, rowHints, attrs, false);
                 }
 
+                flushRowUpdates();
+                setFetchingNodes(null, tablePanel.getPublishedVisibleRowRange());
                 this.thisThread = null;
-
             }
 
             @Override
             public void stopTask()
             {
+                stopped = true;
                 thisThread = null;
             }
         };
 
-        this.fetchTask.startTask();
+        UIGlobal.getTaskWatcher().submitTask(this.fetchTask, TaskPool.INTERACTIVE, this.rootNode.getVRL());
     }
 
     protected String[] getModelHeaderNames()
@@ -369,13 +392,11 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
         return getTableModel().getHeadersAsArray();
     }
 
-    private void setNodeAttribute(ProxyNode pnode, Attribute attr)
+    private void setNodeAttribute(ProxyNode pnode, int row, Attribute attr, boolean fireEvent)
     {
         if (attr == null)
             return;
 
-        String name = attr.getName();
-
         VRSTableModel model = getTableModel();
 
         // resolve Icon URLs
@@ -387,7 +408,6 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
         if (attr.getName().compareTo(VAttributeConstants.ATTR_ICON) == 0)
         {
             headerName = VAttributeConstants.ATTR_ICON;
-            String url = attr.getStringValue();
             // use default icon for now
             obj = pnode.getDefaultIcon(16, false);
         }
@@ -404,7 +424,6 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
         }
 
         int col = model.getHeaderIndex(headerName);
-        int row = getNodeRowNumber(pnode.getVRL());
 
         // guard
         if ((col < 0) || (row < 0))
@@ -416,20 +435,97 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
 
         // this.setValueAt(obj,rowNr,columnNr);
         if (obj != null)
-            model.setValueAt(obj, row, col);
+            model.setValueAt(obj, row, col, fireEvent);
 
     }
 
     private void setNodeAttributes(ProxyNode pnode, Attribute attrs[])
     {
+        int row = getNodeRowNumber(pnode.getVRL());
+
         for (Attribute attr : attrs)
         {
-            // when setting multiple attributes do no repaint
             if (attr != null)
-                setNodeAttribute(pnode, attr);
+                setNodeAttribute(pnode, row, attr, true);
         }
     }
 
+    /**
+     * Update the rows of the specified nodes. If fireEvent==false the table update events are
+     * collected and fired at most once every REPAINT_INTERVAL milliseconds.
+     */
+    private void setNodeAttributes(ProxyNode nodes[], int rowHints[], Attribute attrs[][], boolean fireEvent)
+    {
+        VRSTableModel model = getTableModel();
+
+        for (int i = 0; i < nodes.length; i++)
+        {
+            if ((nodes[i] == null) || (attrs[i] == null))
+                continue;
+
+            int row = model.getRowNr(nodes[i], rowHints[i]);
+
+            if (row < 0)
+                continue; // removed
+
+            for (Attribute attr : attrs[i])
+            {
+                if (attr != null)
+                    setNodeAttribute(nodes[i], row, attr, fireEvent);
+            }
+
+            if (fireEvent == false)
+                addRowUpdate(row);
+        }
+
+        if ((fireEvent == false) && (System.currentTimeMillis() - lastRowUpdateTime >= REPAINT_INTERVAL))
+            flushRowUpdates();
+    }
+
+    private synchronized void addRowUpdate(int row)
+    {
+        if ((updateFirstRow < 0) || (row < updateFirstRow))
+            updateFirstRow = row;
+
+        if (row > updateLastRow)
+            updateLastRow = row;
+    }
+
+    /** Fire one update event for all rows updated since the previous flush */
+    protected void flushRowUpdates()
+    {
+        final int first;
+        final int last;
+
+        synchronized (this)
+        {
+            lastRowUpdateTime = System.currentTimeMillis();
+
+            if (updateFirstRow < 0)
+                return;
+
+            first = updateFirstRow;
+            last = updateLastRow;
+            updateFirstRow = -1;
+            updateLastRow = -1;
+        }
+
+        final VRSTableModel model = getTableModel();
+
+        Runnable updateTask = new Runnable()
+        {
+            public void run()
+            {
+                int max = model.getRowCount() - 1;
+
+                if (first <= max)
+                    model.fireTableRowsUpdated(first, Math.min(last, max));
+            }
+        };
+
+        UIGlobal.swingInvokeLater(updateTask);
+    }
+
     protected void updateNodeAttributes(ProxyNode node, String attrNames[]) throws VrsException
     {
         if (attrNames == null)
@@ -630,7 +726,7 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
             }
         };
 
-        refreshTask.startTask();
+        UIGlobal.getTaskWatcher().submitTask(refreshTask, TaskPool.INTERACTIVE, node.getVRL());
 
     }
 
@@ -660,6 +756,8 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
             this.getTableModel().removeNode(childLoc);
         }
 
+        unpinLocations(childs);
+
     }
 
     private VRSTableModel getTableModel()
@@ -723,7 +821,7 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
                 model.addNodeRow(newNodes[i], rowBody);
             }
         }
-        // update table data:
+        // update table data, pins the new rows when visible or fetched:
         asyncUpdateTableNodeAttributes();
     }
 
@@ -767,6 +865,7 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
     public void dispose()
     {
         this.rootNode = null;
+        updatePinnedNodes(null, false);
         ProxyVRSClient.getInstance().removeResourceEventListener(this);
     }
 
@@ -801,6 +900,86 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
         return this.rootNode.getPresentation();
     }
 
+    /**
+     * Pin the rows in the visible range and the rows being fetched. Other rows are released
+     * and may be evicted from the ProxyNode cache. Called when the visible rows change.
+     */
+    public synchronized void updateVisiblePins(int visibleRange[])
+    {
+        List<ProxyNode> nodes = new ArrayList<ProxyNode>();
+        VRSTableModel model = getTableModel();
+
+        if ((visibleRange != null) && (model != null))
+        {
+            int last = Math.min(visibleRange[1], model.getRowCount() - 1);
+
+            for (int row = Math.max(visibleRange[0], 0); row <= last; row++)
+                nodes.add(model.getRowIndexObject(row));
+        }
+
+        if (fetchingNodes != null)
+            for (ProxyNode node : fetchingNodes)
+                nodes.add(node);
+
+        updatePinnedNodes(nodes.toArray(new ProxyNode[nodes.size()]), false);
+    }
+
+    protected synchronized void setFetchingNodes(ProxyNode nodes[], int visibleRange[])
+    {
+        this.fetchingNodes = nodes;
+        updateVisiblePins(visibleRange);
+    }
+
+    /**
+     * Pin the root node and the given nodes in the ProxyNode cache, so they are not evicted
+     * while visible. If append==false, the previously pinned nodes are released.
+     */
+    protected synchronized void updatePinnedNodes(ProxyNode nodes[], boolean append)
+    {
+        ProxyNodeFactory factory = ProxyNode.getProxyNodeFactory();
+
+        if (factory == null)
+            return;
+
+        Set<VRL> newPins = new HashSet<VRL>();
+
+        if ((append == false) && (rootNode != null) && (rootNode.getVRL() != null))
+            newPins.add(rootNode.getVRL());
+
+        if (nodes != null)
+            for (ProxyNode node : nodes)
+                if ((node != null) && (node.getVRL() != null))
+                    newPins.add(node.getVRL());
+
+        for (VRL vrl : newPins)
+            if (pinnedLocations.contains(vrl) == false)
+                factory.pinLocation(vrl);
+
+        if (append)
+        {
+            pinnedLocations.addAll(newPins);
+            return;
+        }
+
+        for (VRL vrl : pinnedLocations)
+            if (newPins.contains(vrl) == false)
+                factory.unpinLocation(vrl);
+
+        pinnedLocations = newPins;
+    }
+
+    protected synchronized void unpinLocations(VRL locs[])
+    {
+        ProxyNodeFactory factory = ProxyNode.getProxyNodeFactory();
+
+        if ((factory == null) || (locs == null))
+            return;
+
+        for (VRL vrl : locs)
+            if (pinnedLocations.remove(vrl))
+                factory.unpinLocation(vrl);
+    }
+
     @Override
     public void updateChildNodesFor(ProxyNode parent, ProxyNode[] childs, boolean cumulative)
     {
@@ -814,4 +993,113 @@ public class NodeTableProducer extends ProxyDataProducer implements TableDataPro
         this.setChilds(childs, cumulative);
     }
 
+    /**
+     * Fetch order of the table rows. The visible rows are fetched first, then the remaining
+     * rows in table order. Each batch only contains nodes of the same resource system (scheme,
+     * host and port), so one batch goes to one server.
+     */
+    protected static class AttributeFetchQueue
+    {
+        private ProxyNode nodes[];
+
+        private Set<ProxyNode> fetched = Collections.newSetFromMap(new IdentityHashMap<ProxyNode, Boolean>());
+
+        private int index = 0;
+
+        private int rowHints[] = null;
+
+        public AttributeFetchQueue(ProxyNode nodes[])
+        {
+            this.nodes = (nodes != null) ? nodes : new ProxyNode[0];
+        }
+
+        /**
+         * Returns next batch or null when all nodes have been fetched.
+         * @param visibleRange first and last visible row or null
+         */
+        public ProxyNode[] nextBatch(VRSTableModel model, int visibleRange[], int maxSize)
+        {
+            List<ProxyNode> batch = new ArrayList<ProxyNode>();
+            List<Integer> hints = new ArrayList<Integer>();
+            String batchKey = null;
+
+            // I) visible rows
+            if (visibleRange != null)
+            {
+                for (int row = visibleRange[0]; (row <= visibleRange[1]) && (batch.size() < maxSize); row++)
+                {
+                    ProxyNode node = model.getRowIndexObject(row);
+
+                    if (isPending(node) == false)
+                        continue;
+
+                    String key = getResourceKey(node);
+
+                    if (batchKey == null)
+                        batchKey = key;
+                    else if (batchKey.equals(key) == false)
+                        continue;
+
+                    fetched.add(node);
+                    batch.add(node);
+                    hints.add(row);
+                }
+            }
+
+            // II) remaining rows in table order: stop at other resource system
+            while ((batch.size() < maxSize) && (index < nodes.length))
+            {
+                ProxyNode node = nodes[index];
+
+                if (isPending(node) == false)
+                {
+                    index++;
+                    continue;
+                }
+
+                String key = getResourceKey(node);
+
+                if (batchKey == null)
+                    batchKey = key;
+                else if (batchKey.equals(key) == false)
+                    break;
+
+                fetched.add(node);
+                batch.add(node);
+                hints.add(index);
+                index++;
+            }
+
+            if (batch.size() <= 0)
+                return null;
+
+            rowHints = new int[hints.size()];
+
+            for (int i = 0; i < rowHints.length; i++)
+                rowHints[i] = hints.get(i);
+
+            return batch.toArray(new ProxyNode[batch.size()]);
+        }
+
+        /** Returns the (probable) row numbers of the nodes of the last batch */
+        public int[] getRowHints()
+        {
+            return rowHints;
+        }
+
+        private boolean isPending(ProxyNode node)
+        {
+            return ((node != null) && (fetched.contains(node) == false));
+        }
+
+        private String getResourceKey(ProxyNode node)
+        {
+            VRL vrl = node.getVRL();
+
+            if (vrl == null)
+                return "";
+
+            return vrl.getScheme() + "://" + vrl.getHostname() + ":" + vrl.getPort();
+        }
+    }
 }
@@ -22,13 +22,19 @@
 package nl.esciencecenter.vlet.gui.table;
 
 import java.awt.Component;
+import java.awt.Container;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.dnd.DnDConstants;
 import java.awt.dnd.DragSource;
 
 import javax.swing.DefaultCellEditor;
 import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.JViewport;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.DefaultTableColumnModel;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
@@ -112,6 +118,20 @@ public class TablePanel extends JTable implements VContainer, IPresentable
 
     private String resourceType;
 
+    /**
+     * Visible row range as last seen by the EDT. Background attribute fetchers read this field
+     * instead of querying the table from outside the EDT. Not initialized here: tableChanged()
+     * is already called by the JTable constructor.
+     */
+    private volatile int[] visibleRowRange;
+
+    /** Whether an update of visibleRowRange has already been scheduled on the EDT */
+    private volatile boolean rowRangeUpdatePending;
+
+    private JViewport viewport;
+
+    private ChangeListener viewportListener;
+
     /*
      * dummy Contructor used by Jigloo !
      */
@@ -494,6 +514,117 @@ public class TablePanel extends JTable implements VContainer, IPresentable
         return null;
     }
 
+    @Override
+    public void addNotify()
+    {
+        super.addNotify();
+
+        Container parent = getParent();
+
+        if (parent instanceof JViewport)
+        {
+            viewport = (JViewport) parent;
+
+            // scrolling and resizing change the viewport:
+            viewportListener = new ChangeListener()
+            {
+                public void stateChanged(ChangeEvent e)
+                {
+                    updateVisibleRowRange();
+                }
+            };
+
+            viewport.addChangeListener(viewportListener);
+        }
+
+        updateVisibleRowRange();
+    }
+
+    @Override
+    public void removeNotify()
+    {
+        if (viewport != null)
+            viewport.removeChangeListener(viewportListener);
+
+        viewport = null;
+        viewportListener = null;
+
+        super.removeNotify();
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e)
+    {
+        super.tableChanged(e);
+        // rows added or removed:
+        updateVisibleRowRange();
+    }
+
+    /** Publish the current visible row range. Is rescheduled on the EDT when called from another thread. */
+    protected void updateVisibleRowRange()
+    {
+        if (UIGlobal.isGuiThread() == false)
+        {
+            // merge updates of model events fired by background threads
+            if (rowRangeUpdatePending)
+                return;
+
+            rowRangeUpdatePending = true;
+
+            UIGlobal.swingInvokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    updateVisibleRowRange();
+                }
+            });
+
+            return;
+        }
+
+        rowRangeUpdatePending = false;
+        visibleRowRange = getVisibleRowRange();
+
+        // only the visible rows are kept in the ProxyNode cache
+        if (dataProducer instanceof NodeTableProducer)
+            ((NodeTableProducer) dataProducer).updateVisiblePins(visibleRowRange);
+    }
+
+    /**
+     * Returns the visible row range as last published by the EDT, or null if no rows are visible.
+     * Can be called from any thread.
+     */
+    public int[] getPublishedVisibleRowRange()
+    {
+        return visibleRowRange;
+    }
+
+    /**
+     * Returns the first and last row index currently visible in the scroll pane viewport 
+     * or null if no rows are visible. Must be called during the EDT, background threads 
+     * use {@link #getPublishedVisibleRowRange()}. 
+     */
+    public int[] getVisibleRowRange()
+    {
+        Rectangle rect = getVisibleRect();
+        int numRows = getRowCount();
+
+        if ((rect == null) || (rect.height <= 0) || (numRows <= 0))
+            return null;
+
+        int first = rowAtPoint(new Point(rect.x, rect.y));
+        int last = rowAtPoint(new Point(rect.x, rect.y + rect.height - 1));
+
+        if (first < 0)
+            return null;
+
+        // viewport extends beyond last row
+        if (last < 0)
+            last = numRows - 1;
+
+        return new int[] { first, last };
+    }
+
     public ProxyNode getPNodeWithVRL(VRL vrl)
     {
         return (ProxyNode) getVRSTableModel().getRowObjectWithVRL(vrl);
@@ -340,6 +340,15 @@ public class VRSTableModel extends AbstractTableModel // implements IProxyModel
     /** Sets  value */ 
     
     public void setValueAt(Object value,int rowNr, int colNr)
+    {
+        setValueAt(value,rowNr,colNr,true); 
+    }
+    
+    /** 
+     * Sets value. If fireEvent==false no TableModelEvent is fired, the caller 
+     * must fire a (combined) update event for the changed rows. 
+     */ 
+    public void setValueAt(Object value,int rowNr, int colNr,boolean fireEvent)
     {
     	RowObject row = getRow(rowNr);
     	
@@ -369,7 +378,8 @@ public class VRSTableModel extends AbstractTableModel // implements IProxyModel
         // optimization note: table will collect multiple events
         // and do the drawing at once. 
         
-        this.fireTableCellUpdated(rowNr,colNr); 
+        if (fireEvent)
+            this.fireTableCellUpdated(rowNr,colNr); 
         
     }
     
@@ -518,6 +528,34 @@ public class VRSTableModel extends AbstractTableModel // implements IProxyModel
 		return row.getProxyNode();
     }
 
+    /** 
+     * Returns row number of the ProxyNode or -1 if not in this table. 
+     * The row hint is checked first, so the search is skipped if the row hasn't moved. 
+     */ 
+    public int getRowNr(ProxyNode node,int rowHint)
+    {
+        synchronized(rowObjects)
+        {
+            if ((rowHint>=0) && (rowHint<rowObjects.size()))
+            {
+                RowObject row=rowObjects.get(rowHint); 
+                
+                if ((row!=null) && (row.getProxyNode()==node))
+                    return rowHint; 
+            }
+            
+            for (int i=0;i<rowObjects.size();i++)
+            {
+                RowObject row=rowObjects.get(i); 
+                
+                if ((row!=null) && (row.getProxyNode()==node))
+                    return i; 
+            }
+        }
+        
+        return -1; 
+    }
+
     /** Return ProxyNode with specified VRL or null */ 
 	public ProxyNode getRowObjectWithVRL(VRL vrl)
 	{
@@ -35,6 +35,8 @@ import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.gui.MasterBrowser;
 import nl.esciencecenter.vlet.gui.UILogger;
 import nl.esciencecenter.vlet.gui.data.ResourceRef;
+import nl.esciencecenter.vlet.gui.proxyvrs.ProxyNode;
+import nl.esciencecenter.vlet.gui.proxyvrs.ProxyNodeFactory;
 import nl.esciencecenter.vlet.gui.view.VComponent;
 import nl.esciencecenter.vlet.gui.view.VContainer;
 import nl.esciencecenter.vlet.gui.view.ViewNode;
@@ -69,6 +71,9 @@ public class ResourceTreeNode implements MutableTreeNode, VComponent
     // User Object
     private ViewNode viewItem;
 
+    /** Location pinned in the ProxyNode cache while this node is in the tree */ 
+    private VRL pinnedVRL=null; 
+
     // statistics 
     private int id = nodeCounter++;
 
@@ -106,6 +111,8 @@ public class ResourceTreeNode implements MutableTreeNode, VComponent
         {
             this.childs.insertElementAt((ResourceTreeNode) child,index); 
         }
+        
+        ((ResourceTreeNode)child).pin(); 
     }
     
     protected int addNode(ResourceTreeNode node) 
@@ -115,6 +122,7 @@ public class ResourceTreeNode implements MutableTreeNode, VComponent
             int index=this.childs.size(); 
             this.childs.add(node);
             node.setParent(this);
+            node.pin(); 
             return index; 
         }
     }
@@ -365,7 +373,13 @@ public class ResourceTreeNode implements MutableTreeNode, VComponent
 
     public void removeAllChildren()
     {
-        this.childs.clear();
+        synchronized(this.childs)
+        {
+            for (ResourceTreeNode child:childs)
+                child.unpinAll(); 
+            
+            this.childs.clear();
+        }
     }
 
     public void setAllowsChildren(boolean value)
@@ -449,6 +463,7 @@ public class ResourceTreeNode implements MutableTreeNode, VComponent
 
     private void dispose()
     {
+        unpinAll(); 
         this.childs.clear();
         this.parent=null;
         this.viewItem=null;
@@ -493,4 +508,37 @@ public class ResourceTreeNode implements MutableTreeNode, VComponent
     {
         return (this.childs.size()>0);
     }
+
+    /** Pin ProxyNode of this node in the cache, so it stays cached while visible in the tree */ 
+    private void pin()
+    {
+        if ((pinnedVRL!=null) || (viewItem==null))
+            return;
+        
+        ProxyNodeFactory factory=ProxyNode.getProxyNodeFactory(); 
+        VRL vrl=getVRL(); 
+        
+        if ((factory==null) || (vrl==null))
+            return; 
+        
+        factory.pinLocation(vrl); 
+        this.pinnedVRL=vrl; 
+    }
+    
+    /** Release pins of this node and all its (sub) childs */ 
+    private void unpinAll()
+    {
+        if (pinnedVRL!=null)
+        {
+            ProxyNodeFactory factory=ProxyNode.getProxyNodeFactory(); 
+            
+            if (factory!=null)
+                factory.unpinLocation(pinnedVRL); 
+            
+            pinnedVRL=null; 
+        }
+        
+        for (ResourceTreeNode child:getChilds())
+            child.unpinAll(); 
+    }
 }
@@ -189,7 +189,8 @@ public class HexViewController implements AdjustmentListener, KeyListener, Actio
 		int val=e.getValue(); 
 		
 		//val=val-(val%hexViewer.nrBytesPerLine); 
- 		this.hexViewer.moveToOffset(val); 
+		// scrollbar values are scaled for files larger then Integer.MAX_VALUE 
+ 		this.hexViewer.moveToOffset(val*hexViewer.scrollMutiplier); 
  		hexViewer.redrawContents(); 
  		
  		if (true) 
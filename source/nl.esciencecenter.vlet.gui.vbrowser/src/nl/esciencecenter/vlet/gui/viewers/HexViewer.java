@@ -31,6 +31,7 @@ import java.awt.Frame;
 import java.awt.dnd.DropTarget;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TooManyListenersException;
 
@@ -57,7 +58,6 @@ import nl.esciencecenter.vlet.gui.GuiSettings;
 import nl.esciencecenter.vlet.gui.UILogger;
 import nl.esciencecenter.vlet.gui.dialog.ExceptionForm;
 import nl.esciencecenter.vlet.vrs.VNode;
-import nl.esciencecenter.vlet.vrs.util.VRSResourceLoader;
 import nl.esciencecenter.vlet.vrs.vfs.VFile;
 
 
@@ -124,10 +124,15 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 	
 	private VFile vfile;
 	private long offset;
-	private long fileOffset; // start of current buffer in file ! 
-	private int maxBufferSize=1*1024*1024; 
+	/** Paged file contents when viewing a VFile */ 
+	private PagedFileBuffer pageBuffer=null;
+	/** Contents when set with setContents() */ 
 	private byte buffer[]=new byte[0];
 	private long length;
+	// pending moveToOffset() 
+	private final Object moveMutex=new Object(); 
+	private long pendingOffset=-1; 
+	private boolean isMoving=false; 
 	private int wordSize=2;
 
 	/** Actual bytes per line (nrBytesPerLine) is nrWordPerLine*wordSize */ 
@@ -314,7 +319,7 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 	
 	public void setContents(byte[] bytes) 
 	{
-		this.fileOffset=0; 
+		closePageBuffer(); 
 		this.offset=0; 
 		this.buffer=bytes; 
 		this.length=buffer.length; // update with nrBytes actual read
@@ -327,7 +332,13 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 	{
 		try 
 		{
-			this.magicField.setText(MimeTypes.getDefault().getMagicMimeType(buffer));
+			byte magic[]=buffer; 
+			
+			// first page 
+			if (pageBuffer!=null)
+			    magic=getBytes(0,(int)Math.min(pageBuffer.getPageSize(),length)); 
+			
+			this.magicField.setText(MimeTypes.getDefault().getMagicMimeType(magic));
 		}
 		catch (Exception e) 
 		{
@@ -354,7 +365,7 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 	synchronized void  redrawContents() 
 	{
 		// ASSERT
-		if (buffer==null)
+		if ((buffer==null) && (pageBuffer==null))
 		{
 			//nl.uva.vlet.Global.debugPrintln("HexViewer","Received NULL contents");
 			return;
@@ -363,6 +374,9 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 		// Method globals: 
 		updateSizes(); 
 		
+		// bytes currently in view, pages which haven't been read yet are left empty. 
+		byte view[]=getBytes(this.offset,nrBytesPerView); 
+		
 		
 		// ================
 		// Step II) 
@@ -385,7 +399,7 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 		
 		while ((y<maxRows) && (index<length))
 		{
-			int bufferIndex=(int)(index-fileOffset); // index in buffer
+			int bufferIndex=(int)(index-this.offset); // index in view
 			
 			//Debug("index       ="+index); 
 			//Debug("bufferIndex ="+bufferIndex); 
@@ -394,13 +408,13 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 			
 			for (int j=0;j<nrWordsPerLine;j++)
 			{
-				linestr+=hexStr(buffer,bufferIndex+j*getWordSize(),getWordSize())+" "; 
+				linestr+=hexStr(view,bufferIndex+j*getWordSize(),getWordSize())+" "; 
 			}
 			
 			if (linestr.length()<startCharsString)
 				linestr=fillWithSpaces(linestr,startCharsString); 
 			
-			charStr=decodeChars(buffer,bufferIndex,nrBytesPerLine,true); 
+			charStr=decodeChars(view,bufferIndex,nrBytesPerLine,true); 
 			
 			//for (int j=0;(j<nrBytesPerLine)&&(bufferIndex+j<buffer.length);j++) 
 			//	charStr+=saveChar(buffer[bufferIndex+j]);
@@ -476,17 +490,19 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 			if (scrollMax<0) 
 			   scrollMax=0; 
 			
+			this.scrollMutiplier=1; 
+			
 			if (scrollMax>Integer.MAX_VALUE) 
 			{
-			   this.scrollMutiplier=scrollMax/Integer.MAX_VALUE;
-			   // use FLOOR value to divide to value less then integer max. 
+			   // use CEIL value to divide to value less then integer max. 
+			   this.scrollMutiplier=scrollMax/Integer.MAX_VALUE+1;
 			   scrollMax=scrollMax/scrollMutiplier; 
 			}
 			this.scrollbar.setMaximum((int)scrollMax); 
 			this.scrollbar.setMinimum(0);
 			this.scrollbar.setBlockIncrement(nrBytesPerView); 
 			this.scrollbar.setUnitIncrement(this.nrBytesPerLine);
-			this.scrollbar.setValue((int)this.offset);
+			this.scrollbar.setValue((int)(this.offset/scrollMutiplier));
 			//this.scrollbar.setVisibleAmount(nrBytesPerView);
 			/**
 			 if (offset+nrBytesPerView>length)
@@ -618,6 +634,7 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 	
 	public void disposeViewer()
 	{
+		closePageBuffer(); 
 		this.textArea=null; 
 	}
 	@Override
@@ -677,14 +694,15 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
     	    try
     	    {
     			this.vfile=(VFile)vnode; 
+    			
+    			closePageBuffer(); 
+    			this.pageBuffer=new PagedFileBuffer(vfile); 
             
-        		// assume file length
-        		this.length=vfile.getLength();
+        		this.length=pageBuffer.getLength();
         		this.offset=0; 
-        		// check buffered read
             
-        		// Fill Buffer: use direct read (already in background) 
-        		readBuffer(); 
+        		// Fill first page(s): use direct read (already in background) 
+        		loadView(); 
         		updateMagic();
         		redrawContents();
     	    }
@@ -699,6 +717,10 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
         }
     }
 	
+	/**
+	 * Move view to offset. Moves requested while the previous move is still 
+	 * reading from the file are merged: only the last requested offset is moved to. 
+	 */
 	public void moveToOffset(final long offset)
 	{
 	    if (this.offset==offset)
@@ -707,14 +729,18 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 	        return; 
 	    }
 	    
-		if (updateTask!=null)
-		{
-			if (updateTask.isAlive())
-			{
-				debug("*** Already updating! Ingoring move to:"+offset); 
-				return; 
-			}
-		}
+	    synchronized(moveMutex)
+	    {
+	        pendingOffset=offset; 
+	        
+	        if (isMoving)
+	        {
+	            debug("Already updating, will move to:"+offset); 
+	            return; 
+	        }
+	        
+	        isMoving=true; 
+	    }
 		
 	    this.updateTask=new ActionTask(null,"loading:"+getVRL())
 	    {
@@ -722,7 +748,31 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
             @Override
             protected void doTask() throws VrsException
             {
-                _moveToOffset(offset); 
+                try
+                {
+                    while (true)
+                    {
+                        long nextOffset; 
+                        
+                        synchronized(moveMutex)
+                        {
+                            if (pendingOffset<0)
+                                return; 
+                            
+                            nextOffset=pendingOffset; 
+                            pendingOffset=-1; 
+                        }
+                        
+                        _moveToOffset(nextOffset);
+                    }
+                }
+                finally
+                {
+                    synchronized(moveMutex)
+                    {
+                        isMoving=false; 
+                    }
+                }
             }
 
             @Override
@@ -734,43 +784,55 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 	    updateTask.startTask();
 	}
 	
-	private synchronized void readBuffer() 
+	/** 
+	 * Returns bytes from the specified offset. When viewing a file, only the bytes of 
+	 * the pages which already have been read are returned. 
+	 */
+	private byte[] getBytes(long fileOffset,int numBytes)
 	{
-		debug("readBuffer:"+offset);
-		
-		// TODO: non VFile viewing
-		if (vfile==null)
-		{
-			// no vfile, set to defaults: 
-			fileOffset=0; 
-			length=buffer.length;
-			//offset=0; 
-			return; 
-		}
-		
-		int len=0; 
-		len=maxBufferSize; 
+	    int len=(int)Math.max(0,Math.min(numBytes,length-fileOffset)); 
+	    
+	    if (pageBuffer!=null)
+	    {
+	        byte bytes[]=new byte[len]; 
+	        int numCopied=pageBuffer.getCachedBytes(fileOffset,bytes,0,len); 
+	        
+	        if (numCopied<len)
+	            bytes=Arrays.copyOf(bytes,numCopied); 
+	        
+	        return bytes; 
+	    }
+	    
+	    if (buffer==null)
+	        return new byte[0]; 
+	    
+	    len=(int)Math.max(0,Math.min(len,buffer.length-fileOffset)); 
+	    byte bytes[]=new byte[len]; 
+	    System.arraycopy(buffer,(int)fileOffset,bytes,0,len); 
+	    return bytes; 
+	}
+	
+	/** Read the pages of the current view and prefetch the next pages */ 
+	private void loadView() 
+	{
+		debug("loadView:"+offset);
 		
-		// check end of file 
-		if (fileOffset+len>length)  
-			len=(int)(length-fileOffset);  
+		PagedFileBuffer pages=this.pageBuffer; 
 		
-		// check buffer size: 
-		if ((buffer==null) || (len!=buffer.length)) 
-			buffer=new byte[len];
+		// setContents(): contents already in buffer 
+		if (pages==null)
+			return; 
 		
-		debug("read buffer. offset        ="+offset); 
-		debug("read buffer. fileOffset    ="+fileOffset); 
-		debug("read buffer. buffer length ="+buffer.length); 
+		long viewOffset=this.offset; 
+		// at least one page: view size unknown before first redraw. 
+		int viewSize=Math.max(nrBytesPerView,pages.getPageSize()); 
 		
-		// fill buffer: 
 		try 
 		{
             setBusy(true); 
 
             this.setViewerTitle("Reading:"+getVRL()); 
-            // new FileReader(vfile).read(fileOffset,buffer,0,len);
-            readBytes(vfile,fileOffset,buffer,0,len); 
+            pages.loadPages(viewOffset,viewSize); 
             this.setViewerTitle("Inspecting:"+getVRL());
 		} 
 		catch (Exception e) 
@@ -782,13 +844,19 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 		{
 		    setBusy(false); 
 		}
+		
+		// read ahead of scroll position
+		pages.prefetch(viewOffset,viewSize); 
 	}
 	
-	private void readBytes(VFile file, long fileOffset, byte[] buffer, int bufferOffset, int numBytes) throws IOException, VrsException 
-    {
-	    VRSResourceLoader reader = new VRSResourceLoader(file.getVRSContext());
-	    reader.syncReadBytes(file, fileOffset, buffer, bufferOffset, numBytes);
-    }
+	private void closePageBuffer()
+	{
+	    if (pageBuffer!=null)
+	    {
+	        pageBuffer.close(); 
+	        pageBuffer=null; 
+	    }
+	}
 
     void debug(String msg) 
 	{
@@ -800,46 +868,26 @@ public class HexViewer extends InternalViewer implements FontToolbarListener
 		ExceptionForm.show(ex);
 	}
 	
-	public synchronized void _moveToOffset(long value) 
+	public void _moveToOffset(long value) 
 	{
 	   debug("_moveToOffset:"+value); 
 	    
-		this.offset=value;
+	   synchronized(this)
+	   {
+	       this.offset=value;
 		
-		if (offset>=length-nrBytesPerView)
-			offset=length-nrBytesPerView;
+	       if (offset>=length-nrBytesPerView)
+	           offset=length-nrBytesPerView;
 		
-		if (offset<0) 
-			offset=0; 
+	       if (offset<0) 
+	           offset=0; 
+	   }
 		
 		debug("new offset="+offset);
 		
-		// move buffer window up (only if buffer doesn't already contain the last 
-        // part of the file. 
-		if  ((offset>this.fileOffset+buffer.length-this.nrBytesPerView)
-                && (fileOffset+this.maxBufferSize<length)) 
-		{
-        
-			// read half buffer before and after current offset 
-			fileOffset=offset-maxBufferSize/2;
-			
-			if (fileOffset<0) 
-				fileOffset=0; 
-			
-			readBuffer(); 
-		}
-		
-		// OR move buffer window down
-		if (offset<this.fileOffset)
-		{
-			// read half buffer before and after current offset 
-			fileOffset=offset-maxBufferSize/2;
-			
-			if (fileOffset<0) 
-				fileOffset=0; 
-			
-			readBuffer(); 
-		}
+		// read missing pages of the view, not while holding the lock 
+		// so the current contents can still be drawn. 
+		loadView(); 
 		
 		// ===
 		// POST MOVE TO
@@ -0,0 +1,721 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.gui.viewers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.swing.AbstractListModel;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vlet.gui.UIGlobal;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+
+/**
+ * Virtual, read-only text document for large files.
+ * <p>
+ * The file is streamed once to build a line offset index. The index is built incrementally:
+ * lines become visible while the rest of the file is still being indexed.
+ * The index is sparse: only the start of every {@link #INDEX_INTERVAL}th line is kept, or more
+ * often if the lines are long. The other line starts of such a block of lines are found by scanning
+ * the bytes of the block when one of its lines is needed. The starts of recently used blocks are cached.
+ * Lines are only decoded when they are displayed. The bytes are read through a
+ * {@link PagedFileBuffer}: if the pages of a line aren't cached, an empty line is returned
+ * and the pages are loaded in the background, after which the line is updated.
+ * Use {@link #update()} to index the bytes appended to a growing file ('tail -f').
+ * <p>
+ * Lines are split at '\n' bytes, so the encoding must be ASCII compatible (UTF-8, ISO-8859-x, CP437).
+ * All list (data) events are fired during the Swing event thread.
+ */
+public class LargeTextModel extends AbstractListModel
+{
+    private static final long serialVersionUID = -3101528845616263207L;
+
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(LargeTextModel.class);
+    }
+
+    /** Size of read buffer used when indexing */
+    public static final int INDEX_BUFFER_SIZE=64*1024;
+
+    /** Maximum number of decoded lines to keep */
+    public static final int MAX_CACHED_LINES=4096;
+
+    /** Lines longer than this number of bytes are truncated when displayed */
+    public static final int MAX_LINE_LENGTH=16*1024;
+
+    /** Minimum time in milliseconds between list events while indexing */
+    public static final int UPDATE_INTERVAL=250;
+
+    /** Pending lines further apart than this are not loaded in one go */
+    private static final int MAX_LOAD_RANGE=1000;
+
+    /** Maximum number of lines per index block */
+    public static final int INDEX_INTERVAL=64;
+
+    /** A new index block is started after this number of bytes, so scanning a block stays cheap */
+    public static final int MAX_BLOCK_SIZE=256*1024;
+
+    /** Maximum number of scanned blocks to keep */
+    public static final int MAX_CACHED_BLOCKS=256;
+
+    private static final int SCAN_BUFFER_SIZE=8*1024;
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private VFile file;
+
+    private Charset charset;
+
+    private PagedFileBuffer pageBuffer;
+
+    /** Start offset of the first line of each index block. Guarded by this. */
+    private long blockOffsets[]=new long[1024];
+
+    /** Line number of the first line of each index block. Guarded by this. */
+    private int blockLines[]=new int[1024];
+
+    private int numBlocks=1; // first block starts at line 0, offset 0
+
+    /** Number of line starts, the last line might be empty. Guarded by this. */
+    private int numStarts=1;
+
+    /** Start offset of the last line. Guarded by this. */
+    private long lastLineStart=0;
+
+    /** Block number -> start offsets of the lines of the block. LRU order. Guarded by this. */
+    private LinkedHashMap<Integer,long[]> blockCache=new LinkedHashMap<Integer,long[]>(64,0.75f,true);
+
+    /** Incremented when the index is cleared, so a concurrent scan isn't cached. Guarded by this. */
+    private int indexVersion=0;
+
+    /** Number of bytes indexed. Guarded by this. */
+    private long indexedLength=0;
+
+    /** Length in bytes of the longest line, up to MAX_LINE_LENGTH. Guarded by this. */
+    private int maxLineLength=0;
+
+    /** Number of lines listeners know about. Only accessed during the event thread. */
+    private int numLinesFired=0;
+
+    /** Line number -> decoded line. LRU order. Guarded by this. */
+    private LinkedHashMap<Integer,String> lineCache=new LinkedHashMap<Integer,String>(256,0.75f,true);
+
+    /** Range of lines which have been requested but aren't loaded yet. Guarded by this. */
+    private int pendingFirst=-1;
+
+    private int pendingLast=-1;
+
+    private ThreadPoolExecutor loader=null;
+
+    private volatile boolean closed=false;
+
+    public LargeTextModel(VFile file,String encoding) throws IOException
+    {
+        this.file=file;
+        this.charset=Charset.forName(encoding);
+        this.pageBuffer=new PagedFileBuffer(file);
+    }
+
+    /**
+     * Stream the file and build the line index. Listeners are notified of the new lines
+     * while indexing. Blocks until the end of the file has been reached or the model has been closed.
+     */
+    public void buildIndex() throws IOException
+    {
+        InputStream inps=file.createInputStream();
+
+        try
+        {
+            byte buffer[]=new byte[INDEX_BUFFER_SIZE];
+            long lastUpdate=System.currentTimeMillis();
+
+            while (closed==false)
+            {
+                int len=inps.read(buffer);
+
+                if (len<0)
+                    break;
+
+                addBytes(buffer,len);
+
+                long now=System.currentTimeMillis();
+
+                if (now-lastUpdate>UPDATE_INTERVAL)
+                {
+                    fireLinesAdded();
+                    lastUpdate=now;
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                inps.close();
+            }
+            catch (IOException e)
+            {
+                logger.debugPrintf("Exception when closing stream:%s\n",e);
+            }
+        }
+
+        // file might have grown while indexing
+        pageBuffer.updateLength(getIndexedLength());
+        fireLinesAdded();
+    }
+
+    /**
+     * Check whether the file has grown and index the appended bytes.
+     * If the file has been truncated, the whole file is indexed again.
+     * @return true if the file has changed.
+     */
+    public boolean update() throws Exception
+    {
+        file.sync();
+        long newLength=file.getLength();
+        long offset=getIndexedLength();
+
+        if (newLength==offset)
+            return false;
+
+        if (newLength<offset)
+        {
+            // truncated: the file has been rewritten, the cached pages before the new end are stale as well
+            pageBuffer.clear(newLength);
+            reset();
+            offset=0;
+        }
+        else
+        {
+            pageBuffer.updateLength(newLength);
+        }
+
+        byte buffer[]=new byte[INDEX_BUFFER_SIZE];
+
+        while ((offset<newLength) && (closed==false))
+        {
+            int len=pageBuffer.readBytes(offset,buffer,0,(int)Math.min(buffer.length,newLength-offset));
+
+            if (len<=0)
+                break;
+
+            addBytes(buffer,len);
+            offset+=len;
+        }
+
+        fireLinesAdded();
+        return true;
+    }
+
+    private synchronized void addBytes(byte buffer[],int len)
+    {
+        for (int i=0;i<len;i++)
+        {
+            if (buffer[i]=='\n')
+            {
+                long start=indexedLength+i+1;
+                updateMaxLineLength(start-1-lastLineStart);
+
+                int last=numBlocks-1;
+
+                if ((numStarts-blockLines[last]>=INDEX_INTERVAL) || (start-blockOffsets[last]>=MAX_BLOCK_SIZE))
+                    addBlock(numStarts,start);
+
+                lastLineStart=start;
+                numStarts++;
+            }
+        }
+
+        indexedLength+=len;
+        // (open) last line
+        updateMaxLineLength(indexedLength-lastLineStart);
+    }
+
+    private void addBlock(int lineNr,long offset)
+    {
+        if (numBlocks>=blockOffsets.length)
+        {
+            long newOffsets[]=new long[blockOffsets.length*2];
+            System.arraycopy(blockOffsets,0,newOffsets,0,numBlocks);
+            blockOffsets=newOffsets;
+
+            int newLines[]=new int[blockLines.length*2];
+            System.arraycopy(blockLines,0,newLines,0,numBlocks);
+            blockLines=newLines;
+        }
+
+        blockOffsets[numBlocks]=offset;
+        blockLines[numBlocks]=lineNr;
+        numBlocks++;
+    }
+
+    private void updateMaxLineLength(long len)
+    {
+        if (len>maxLineLength)
+            maxLineLength=(int)Math.min(len,MAX_LINE_LENGTH);
+    }
+
+    /** Clear the index, after the file has been truncated */
+    private void reset()
+    {
+        synchronized(this)
+        {
+            numStarts=1;
+            numBlocks=1;
+            lastLineStart=0;
+            indexedLength=0;
+            maxLineLength=0;
+            lineCache.clear();
+            blockCache.clear();
+            indexVersion++;
+        }
+
+        UIGlobal.swingInvokeLater(new Runnable()
+        {
+            public void run()
+            {
+                int num=numLinesFired;
+                numLinesFired=0;
+
+                if (num>0)
+                    fireIntervalRemoved(LargeTextModel.this,0,num-1);
+            }
+        });
+    }
+
+    /** Number of complete lines plus the last line if it doesn't end with a newline */
+    protected synchronized int getNumIndexedLines()
+    {
+        if (indexedLength==0)
+            return 0;
+
+        if (lastLineStart<indexedLength)
+            return numStarts;
+        else
+            return numStarts-1;
+    }
+
+    /** Notify listeners of the lines indexed so far */
+    private void fireLinesAdded()
+    {
+        final int num=getNumIndexedLines();
+
+        UIGlobal.swingInvokeLater(new Runnable()
+        {
+            public void run()
+            {
+                int prev=numLinesFired;
+
+                if (num<prev)
+                    return; // reset is pending
+
+                // previous last line might have grown
+                if (prev>0)
+                {
+                    synchronized(LargeTextModel.this)
+                    {
+                        lineCache.remove(prev-1);
+                    }
+
+                    fireContentsChanged(LargeTextModel.this,prev-1,prev-1);
+                }
+
+                if (num>prev)
+                {
+                    numLinesFired=num;
+                    fireIntervalAdded(LargeTextModel.this,prev,num-1);
+                }
+            }
+        });
+    }
+
+    public long getIndexedLength()
+    {
+        synchronized(this)
+        {
+            return indexedLength;
+        }
+    }
+
+    /** Length in bytes of the longest line indexed so far. Lines longer than MAX_LINE_LENGTH are truncated */
+    public synchronized int getMaxLineLength()
+    {
+        return maxLineLength;
+    }
+
+    protected synchronized boolean isIndexedLine(int lineNr)
+    {
+        return ((lineNr>=0) && (lineNr<numStarts));
+    }
+
+    /** Returns the index block containing the line. Binary search in blockLines */
+    private int findBlock(int lineNr)
+    {
+        int low=0;
+        int high=numBlocks-1;
+
+        while (low<high)
+        {
+            int mid=(low+high+1)>>>1;
+
+            if (blockLines[mid]<=lineNr)
+                low=mid;
+            else
+                high=mid-1;
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns {start,end} byte offsets of the line, excluding the newline.
+     * If 'blocking' is false and the bytes of the index block aren't cached, null is returned.
+     * Also returns null if the line isn't indexed.
+     */
+    private long[] getLineRange(int lineNr,boolean blocking) throws IOException
+    {
+        int blockNr;
+        int firstLine;
+        long blockEnd;
+
+        synchronized(this)
+        {
+            if ((lineNr<0) || (lineNr>=numStarts))
+                return null;
+
+            blockNr=findBlock(lineNr);
+            firstLine=blockLines[blockNr];
+
+            if (blockNr+1<numBlocks)
+                blockEnd=blockOffsets[blockNr+1]-1; // before newline
+            else
+                blockEnd=indexedLength;
+        }
+
+        long starts[]=getBlockStarts(blockNr,blocking);
+
+        if (starts==null)
+            return null;
+
+        int index=lineNr-firstLine;
+
+        // index has been cleared meanwhile
+        if (index>=starts.length)
+            return null;
+
+        long start=starts[index];
+        long end;
+
+        if (index+1<starts.length)
+            end=starts[index+1]-1;
+        else
+            end=blockEnd;
+
+        return new long[]{start,Math.min(end,start+MAX_LINE_LENGTH)};
+    }
+
+    /**
+     * Returns the start offsets of the lines of the index block. Scans the bytes of the block
+     * up to the start of its last line. If 'blocking' is false, only cached pages are scanned
+     * and null is returned if the pages of the block aren't cached.
+     */
+    private long[] getBlockStarts(int blockNr,boolean blocking) throws IOException
+    {
+        long blockStart;
+        int numLines;
+        int version;
+
+        synchronized(this)
+        {
+            if (blockNr>=numBlocks)
+                return null;
+
+            int nextLine=(blockNr+1<numBlocks)?blockLines[blockNr+1]:numStarts;
+            numLines=nextLine-blockLines[blockNr];
+
+            long starts[]=blockCache.get(blockNr);
+
+            // the last block grows while indexing
+            if ((starts!=null) && (starts.length==numLines))
+                return starts;
+
+            blockStart=blockOffsets[blockNr];
+            version=indexVersion;
+        }
+
+        long starts[]=new long[numLines];
+        starts[0]=blockStart;
+        int numFound=1;
+        long offset=blockStart;
+        byte buffer[]=new byte[SCAN_BUFFER_SIZE];
+
+        while (numFound<numLines)
+        {
+            int len;
+
+            if (blocking)
+                len=pageBuffer.readBytes(offset,buffer,0,buffer.length);
+            else
+                len=pageBuffer.getCachedBytes(offset,buffer,0,buffer.length);
+
+            // not cached or file truncated
+            if (len<=0)
+                return null;
+
+            for (int i=0;(i<len) && (numFound<numLines);i++)
+            {
+                if (buffer[i]=='\n')
+                    starts[numFound++]=offset+i+1;
+            }
+
+            offset+=len;
+        }
+
+        synchronized(this)
+        {
+            if (version==indexVersion)
+            {
+                blockCache.put(blockNr,starts);
+
+                while (blockCache.size()>MAX_CACHED_BLOCKS)
+                    blockCache.remove(blockCache.keySet().iterator().next());
+            }
+        }
+
+        return starts;
+    }
+
+    // ========================================================================
+    // ListModel
+    // ========================================================================
+
+    public int getSize()
+    {
+        return numLinesFired;
+    }
+
+    /**
+     * Returns the decoded line. If the bytes of the line aren't cached, an empty line
+     * is returned and the line is loaded in the background.
+     */
+    public Object getElementAt(int lineNr)
+    {
+        synchronized(this)
+        {
+            String line=lineCache.get(lineNr);
+
+            if (line!=null)
+                return line;
+        }
+
+        if (isIndexedLine(lineNr)==false)
+            return "";
+
+        long range[];
+
+        try
+        {
+            // only uses cached pages, doesn't block
+            range=getLineRange(lineNr,false);
+        }
+        catch (IOException e)
+        {
+            range=null;
+        }
+
+        byte bytes[]=null;
+
+        if (range!=null)
+        {
+            bytes=new byte[(int)(range[1]-range[0])];
+
+            if (pageBuffer.getCachedBytes(range[0],bytes,0,bytes.length)<bytes.length)
+                bytes=null;
+        }
+
+        if (bytes==null)
+        {
+            requestLoad(lineNr);
+            return "";
+        }
+
+        String line=decode(bytes);
+
+        synchronized(this)
+        {
+            lineCache.put(lineNr,line);
+
+            while (lineCache.size()>MAX_CACHED_LINES)
+                lineCache.remove(lineCache.keySet().iterator().next());
+        }
+
+        return line;
+    }
+
+    private String decode(byte bytes[])
+    {
+        int len=bytes.length;
+
+        // DOS line endings
+        if ((len>0) && (bytes[len-1]=='\r'))
+            len--;
+
+        String line=new String(bytes,0,len,charset);
+
+        // JList doesn't expand tabs
+        if (line.indexOf('\t')>=0)
+            line=line.replace("\t","        ");
+
+        return line;
+    }
+
+    /** Add line to the pending range and schedule a background load if none is scheduled */
+    private void requestLoad(int lineNr)
+    {
+        synchronized(this)
+        {
+            if (pendingFirst<0)
+            {
+                pendingFirst=lineNr;
+                pendingLast=lineNr;
+                getLoader().execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        loadPending();
+                    }
+                });
+            }
+            else if (Math.abs(lineNr-pendingFirst)>MAX_LOAD_RANGE)
+            {
+                // scrolled away: only the latest view is relevant
+                pendingFirst=lineNr;
+                pendingLast=lineNr;
+            }
+            else
+            {
+                pendingFirst=Math.min(pendingFirst,lineNr);
+                pendingLast=Math.max(pendingLast,lineNr);
+            }
+        }
+    }
+
+    private void loadPending()
+    {
+        final int first;
+        final int last;
+
+        synchronized(this)
+        {
+            first=pendingFirst;
+            last=pendingLast;
+            pendingFirst=-1;
+            pendingLast=-1;
+        }
+
+        if ((first<0) || (closed))
+            return;
+
+        try
+        {
+            // scans the index blocks, reading their pages
+            long firstRange[]=getLineRange(first,true);
+            long lastRange[]=getLineRange(last,true);
+
+            if ((firstRange==null) || (lastRange==null))
+                return;
+
+            int numBytes=(int)(lastRange[1]-firstRange[0]);
+            pageBuffer.loadPages(firstRange[0],numBytes);
+            // assume scrolling down
+            pageBuffer.prefetch(firstRange[0],numBytes);
+        }
+        catch (IOException e)
+        {
+            logger.warnPrintf("Couldn't read lines %d-%d of:%s:%s\n",first,last,file,e);
+            return;
+        }
+
+        UIGlobal.swingInvokeLater(new Runnable()
+        {
+            public void run()
+            {
+                if (first<numLinesFired)
+                    fireContentsChanged(LargeTextModel.this,first,Math.min(last,numLinesFired-1));
+            }
+        });
+    }
+
+    private synchronized ThreadPoolExecutor getLoader()
+    {
+        if (loader==null)
+        {
+            loader=DaemonThreadFactory.createFixedPool("LargeTextModel.loader",1,30);
+        }
+
+        return loader;
+    }
+
+    /** Stop indexing and loading and release the cached pages */
+    public void close()
+    {
+        closed=true;
+
+        synchronized(this)
+        {
+            if (loader!=null)
+                loader.shutdownNow();
+
+            lineCache.clear();
+            blockCache.clear();
+        }
+
+        pageBuffer.close();
+    }
+
+    public synchronized String getStats()
+    {
+        return "LargeTextModel:"+file
+                +":lines="+getNumIndexedLines()
+                +",indexed="+indexedLength
+                +",blocks="+numBlocks
+                +",cachedBlocks="+blockCache.size()
+                +",cachedLines="+lineCache.size()
+                +","+pageBuffer.getStats();
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.gui.viewers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import nl.esciencecenter.ptk.io.RandomReadable;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.io.VRandomReadable;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+
+/**
+ * Paged read-only view of a (remote) file.
+ * <p>
+ * The file is read in fixed size pages when needed. Pages are kept in a LRU cache, so only a
+ * window of the file is in memory. Files which are VRandomReadable are read with random
+ * access reads. Other files are read with a sequential stream: pages between the current
+ * stream position and the requested page are cached as well, which acts as a streamed prefetch.
+ * Pages after the current view can be prefetched in the background with {@link #prefetch(long, int)}.
+ */
+public class PagedFileBuffer
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(PagedFileBuffer.class);
+    }
+
+    public static final int DEFAULT_PAGE_SIZE=64*1024;
+
+    /** Default maximum number of cached pages (4MB of 64k pages) */
+    public static final int DEFAULT_MAX_PAGES=64;
+
+    /** Default number of pages to prefetch after the current view */
+    public static final int DEFAULT_PREFETCH_PAGES=4;
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private VFile file;
+
+    private volatile long length;
+
+    private int pageSize=DEFAULT_PAGE_SIZE;
+
+    private int maxPages=DEFAULT_MAX_PAGES;
+
+    private int prefetchPages=DEFAULT_PREFETCH_PAGES;
+
+    /** Page number -> page. LRU order. Guarded by this. */
+    private LinkedHashMap<Long,byte[]> pages=new LinkedHashMap<Long,byte[]>(16,0.75f,true);
+
+    /** Guards readable and the stream */
+    private final Object ioMutex=new Object();
+
+    private RandomReadable readable=null;
+
+    private InputStream inputStream=null;
+
+    private long streamPosition=0;
+
+    private ThreadPoolExecutor prefetcher=null;
+
+    private volatile boolean closed=false;
+
+    // metrics
+    private long numHits=0;
+
+    private long numMisses=0;
+
+    private long numPrefetched=0;
+
+    public PagedFileBuffer(VFile file) throws IOException
+    {
+        this(file,DEFAULT_PAGE_SIZE,DEFAULT_MAX_PAGES);
+    }
+
+    public PagedFileBuffer(VFile file,int pageSize,int maxPages) throws IOException
+    {
+        this.file=file;
+        this.length=file.getLength();
+        this.pageSize=(pageSize>0)?pageSize:DEFAULT_PAGE_SIZE;
+        // at least a view and some prefetched pages must fit.
+        this.maxPages=Math.max(maxPages,prefetchPages+4);
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Update the length after the file has grown or has been truncated.
+     * The last (partial) page and the pages beyond the new length are removed from the cache.
+     */
+    public void updateLength(long newLength)
+    {
+        synchronized(ioMutex)
+        {
+            synchronized(this)
+            {
+                if (newLength==length)
+                    return;
+
+                long firstInvalid=(Math.min(length,newLength)/pageSize);
+                Iterator<Long> iterator=pages.keySet().iterator();
+
+                while (iterator.hasNext())
+                {
+                    if (iterator.next()>=firstInvalid)
+                        iterator.remove();
+                }
+
+                length=newLength;
+            }
+
+            // stream might be positioned in the middle of the old last page
+            closeStream();
+        }
+    }
+
+    /**
+     * Remove all cached pages and set the new length, for example after the file has been
+     * truncated and rewritten: the pages before the new end are stale as well.
+     */
+    public void clear(long newLength)
+    {
+        synchronized(ioMutex)
+        {
+            synchronized(this)
+            {
+                pages.clear();
+                length=newLength;
+            }
+
+            closeStream();
+        }
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    public boolean isRandomReadable()
+    {
+        return (file instanceof VRandomReadable);
+    }
+
+    /**
+     * Copy bytes from the cached pages without reading from the file.
+     * Copying stops at the first page which isn't cached.
+     * @return number of bytes copied.
+     */
+    public synchronized int getCachedBytes(long offset,byte buffer[],int bufferOffset,int numBytes)
+    {
+        int numCopied=0;
+
+        while ((numCopied<numBytes) && (offset+numCopied<length))
+        {
+            long pos=offset+numCopied;
+            byte page[]=pages.get(pos/pageSize);
+
+            if (page==null)
+                break;
+
+            int pageIndex=(int)(pos%pageSize);
+            int len=Math.min(numBytes-numCopied,page.length-pageIndex);
+
+            if (len<=0)
+                break;
+
+            System.arraycopy(page,pageIndex,buffer,bufferOffset+numCopied,len);
+            numCopied+=len;
+        }
+
+        return numCopied;
+    }
+
+    /**
+     * Read bytes, reading the pages which aren't cached from the file.
+     * @return number of bytes read. Less then numBytes at the end of the file.
+     */
+    public int readBytes(long offset,byte buffer[],int bufferOffset,int numBytes) throws IOException
+    {
+        loadPages(offset,numBytes);
+        return getCachedBytes(offset,buffer,bufferOffset,numBytes);
+    }
+
+    /** Make sure the pages containing the specified range are cached. Blocks while reading. */
+    public void loadPages(long offset,int numBytes) throws IOException
+    {
+        if ((numBytes<=0) || (offset>=length))
+            return;
+
+        long first=offset/pageSize;
+        long last=Math.min(offset+numBytes-1,length-1)/pageSize;
+
+        for (long nr=first;nr<=last;nr++)
+            getPage(nr,false);
+    }
+
+    /**
+     * Read the pages after the specified range in the background.
+     * A new prefetch cancels the prefetch requests which haven't started yet.
+     */
+    public void prefetch(long offset,int numBytes)
+    {
+        if (closed)
+            return;
+
+        final long first=(offset+Math.max(numBytes,0))/pageSize;
+        final long last=Math.min(first+prefetchPages,(length-1)/pageSize);
+
+        if (first>last)
+            return;
+
+        ThreadPoolExecutor executor=getPrefetcher();
+        // only the latest prefetch is relevant
+        executor.getQueue().clear();
+
+        executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    for (long nr=first;(nr<=last) && (closed==false);nr++)
+                        getPage(nr,true);
+                }
+                catch (IOException e)
+                {
+                    logger.debugPrintf("Prefetch failed for:%s:%s\n",file,e);
+                }
+            }
+        });
+    }
+
+    private synchronized ThreadPoolExecutor getPrefetcher()
+    {
+        if (prefetcher==null)
+        {
+            prefetcher=DaemonThreadFactory.createFixedPool("PagedFileBuffer.prefetcher",1,30);
+        }
+
+        return prefetcher;
+    }
+
+    private byte[] getPage(long pageNr,boolean isPrefetch) throws IOException
+    {
+        synchronized(this)
+        {
+            byte page[]=pages.get(pageNr);
+
+            if (page!=null)
+            {
+                if (isPrefetch==false)
+                    numHits++;
+                return page;
+            }
+        }
+
+        // read outside the cache lock, so cached pages can be drawn meanwhile
+        synchronized(ioMutex)
+        {
+            // check again: might have been read by other thread.
+            synchronized(this)
+            {
+                byte page[]=pages.get(pageNr);
+
+                if (page!=null)
+                    return page;
+
+                if (isPrefetch)
+                    numPrefetched++;
+                else
+                    numMisses++;
+            }
+
+            if (closed)
+                throw new IOException("PagedFileBuffer has been closed for:"+file);
+
+            if (isRandomReadable())
+                return readRandomPage(pageNr);
+            else
+                return readStreamPage(pageNr);
+        }
+    }
+
+    private byte[] readRandomPage(long pageNr) throws IOException
+    {
+        long pageOffset=pageNr*pageSize;
+        byte page[]=new byte[(int)Math.min(pageSize,length-pageOffset)];
+
+        if (readable==null)
+        {
+            try
+            {
+                readable=((VRandomReadable)file).createRandomReadable();
+            }
+            catch (Exception e)
+            {
+                throw new IOException("Couldn't open file for random reading:"+file,e);
+            }
+        }
+
+        int numRead=0;
+
+        while (numRead<page.length)
+        {
+            int len=readable.readBytes(pageOffset+numRead,page,numRead,page.length-numRead);
+
+            if (len<=0)
+                throw new IOException("Unexpected end of file at:"+(pageOffset+numRead)+" for:"+file);
+
+            numRead+=len;
+        }
+
+        putPage(pageNr,page);
+        return page;
+    }
+
+    /** Sequential read. Pages before the requested page are cached as well */
+    private byte[] readStreamPage(long pageNr) throws IOException
+    {
+        long pageOffset=pageNr*pageSize;
+
+        // must restart stream when reading backwards.
+        if ((inputStream==null) || (streamPosition>pageOffset))
+        {
+            closeStream();
+            inputStream=file.createInputStream();
+            streamPosition=0;
+        }
+
+        // skip to the pages before the requested page which are kept
+        long keepFrom=Math.max(0,pageNr-prefetchPages)*pageSize;
+
+        while (streamPosition<keepFrom)
+        {
+            long len=inputStream.skip(keepFrom-streamPosition);
+
+            if (len<=0)
+                break; // read the rest
+
+            streamPosition+=len;
+        }
+
+        while (streamPosition<length)
+        {
+            long nr=streamPosition/pageSize;
+            // skip() might have ended in the middle of a page
+            int pageIndex=(int)(streamPosition%pageSize);
+            long pageStart=nr*pageSize;
+            byte page[]=new byte[(int)Math.min(pageSize,length-pageStart)];
+            int numRead=pageIndex;
+
+            while (numRead<page.length)
+            {
+                int len=inputStream.read(page,numRead,page.length-numRead);
+
+                if (len<0)
+                {
+                    closeStream();
+                    throw new IOException("Unexpected end of file at:"+(pageStart+numRead)+" for:"+file);
+                }
+
+                numRead+=len;
+            }
+
+            streamPosition=pageStart+numRead;
+
+            // incomplete page
+            if (pageIndex>0)
+                continue;
+
+            putPage(nr,page);
+
+            if (nr==pageNr)
+                return page;
+        }
+
+        throw new IOException("Offset beyond end of file:"+pageOffset+" for:"+file);
+    }
+
+    private synchronized void putPage(long pageNr,byte page[])
+    {
+        pages.put(pageNr,page);
+
+        // remove least recently used pages
+        while (pages.size()>maxPages)
+        {
+            Long eldest=pages.keySet().iterator().next();
+            pages.remove(eldest);
+        }
+    }
+
+    private void closeStream()
+    {
+        if (inputStream==null)
+            return;
+
+        try
+        {
+            inputStream.close();
+        }
+        catch (IOException e)
+        {
+            logger.debugPrintf("Exception when closing stream:%s\n",e);
+        }
+
+        inputStream=null;
+        streamPosition=0;
+    }
+
+    public void close()
+    {
+        closed=true;
+
+        synchronized(this)
+        {
+            if (prefetcher!=null)
+                prefetcher.shutdownNow();
+
+            pages.clear();
+        }
+
+        synchronized(ioMutex)
+        {
+            closeStream();
+
+            if (readable!=null)
+            {
+                try
+                {
+                    readable.close();
+                }
+                catch (Exception e)
+                {
+                    logger.debugPrintf("Exception when closing:%s\n",e);
+                }
+
+                readable=null;
+            }
+        }
+    }
+
+    public synchronized String getStats()
+    {
+        return "PagedFileBuffer:"+file
+                +":pages="+pages.size()
+                +",max="+maxPages
+                +",pageSize="+pageSize
+                +",hits="+numHits
+                +",misses="+numMisses
+                +",prefetched="+numPrefetched;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
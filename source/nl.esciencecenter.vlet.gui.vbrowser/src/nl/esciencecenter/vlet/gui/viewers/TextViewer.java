@@ -25,6 +25,7 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.Map;
@@ -36,6 +37,7 @@ import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
@@ -47,6 +49,8 @@ import javax.swing.JTextArea;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.border.BevelBorder;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 
 
 import nl.esciencecenter.ptk.task.ActionTask;
@@ -66,6 +70,7 @@ import nl.esciencecenter.vlet.gui.UILogger;
 import nl.esciencecenter.vlet.gui.dialog.ExceptionForm;
 import nl.esciencecenter.vlet.vrs.VNode;
 import nl.esciencecenter.vlet.vrs.util.VRSResourceLoader;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
 import nl.esciencecenter.vlet.vrs.vfs.VReplicatable;
 import nl.esciencecenter.ptk.ui.fonts.FontInfo;
 import nl.esciencecenter.ptk.ui.fonts.FontToolBar;
@@ -74,6 +79,10 @@ import nl.esciencecenter.ptk.ui.fonts.FontToolbarListener;
 
 /**
  * Embedded textviewer for the VBrowser. 
+ * <p>
+ * Files larger than {@link #largeFileThreshold} are shown read-only in large file mode:
+ * the lines are displayed from a {@link LargeTextModel} which only decodes the visible lines.
+ * In large file mode the file can be followed ('tail -f') as it grows. 
  */
 public class TextViewer extends InternalViewer implements ActionListener,
    FontToolbarListener
@@ -88,6 +97,12 @@ public class TextViewer extends InternalViewer implements ActionListener,
         {
             CONFIG_LINE_WRAP
         };
+
+    /** Files larger than this number of bytes are viewed in (read-only) large file mode */
+    public static long largeFileThreshold=8*1024*1024;
+
+    /** Time in milliseconds between checks for new lines when following a file */
+    public static final int FOLLOW_INTERVAL=1000;
     
 	/** The mimetypes i can view */
 	private static String mimeTypes[] =
@@ -143,6 +158,10 @@ public class TextViewer extends InternalViewer implements ActionListener,
     private Vector<JRadioButton> encodingButtons;
     private JMenuItem enableEncodingMenuitem;
     private boolean _showWarningEncoding=true; 
+    private JCheckBoxMenuItem followMenuItem;
+    private JList largeTextList;
+    private LargeTextModel largeTextModel;
+    private ActionTask followTask; 
 
 	public TextViewer()
 	{
@@ -190,6 +209,14 @@ public class TextViewer extends InternalViewer implements ActionListener,
 						menu.add(refreshMenuItem);
 						refreshMenuItem.addActionListener(this);
 					}
+					{
+					    followMenuItem=new JCheckBoxMenuItem("Follow (tail -f)");
+					    menu.add(followMenuItem);
+					    followMenuItem.addActionListener(this);
+					    followMenuItem.setSelected(false);
+					    // only in large file mode 
+					    followMenuItem.setEnabled(false); 
+					}
 
 					{
 						saveMenuItem=new JMenuItem("Save");
@@ -332,6 +359,12 @@ public class TextViewer extends InternalViewer implements ActionListener,
 				textArea.setEditable(this.editable);
 				textScrollPane.setViewportView(textArea);
 			}
+			{
+			    // large file mode: lines have a fixed size so only the visible lines are fetched from the model 
+			    largeTextList = new JList();
+			    largeTextList.setFixedCellHeight(16);
+			    largeTextList.setFixedCellWidth(800);
+			}
 		}
 
 		// update with stored settings: 
@@ -374,6 +407,29 @@ public class TextViewer extends InternalViewer implements ActionListener,
 		textArea.setFont(font);
 		GuiSettings.updateRenderingHints(textArea,renderingHints); 
 		textArea.repaint();
+		
+		if (largeTextList!=null)
+		{
+		    largeTextList.setFont(font); 
+		    GuiSettings.updateRenderingHints(largeTextList,renderingHints);
+		    updateLargeTextCellSize(); 
+		}
+	}
+	
+	/** 
+	 * JList uses a fixed cell size, so it doesn't have to decode all the lines 
+	 * to calculate its preferred size. Update size after the font or longest line has changed.  
+	 */ 
+	protected void updateLargeTextCellSize()
+	{
+	    FontMetrics metrics=largeTextList.getFontMetrics(largeTextList.getFont());
+	    int maxLen=0; 
+	    
+	    if (largeTextModel!=null)
+	        maxLen=largeTextModel.getMaxLineLength(); 
+	    
+	    largeTextList.setFixedCellHeight(metrics.getHeight());
+	    largeTextList.setFixedCellWidth(Math.max(800,metrics.charWidth('m')*maxLen)); 
 	}
 
 	/**
@@ -421,6 +477,7 @@ public class TextViewer extends InternalViewer implements ActionListener,
 		
 		//System.err.println("UpdateLoc:"+location);
 		setVRL(location); 
+		setLargeTextModel(null); 
 		
 		this.setText(""); // clear previous .. 
 		
@@ -460,6 +517,12 @@ public class TextViewer extends InternalViewer implements ActionListener,
 			        
 			    }
 			}
+			
+			if ((vnode instanceof VFile) && (((VFile)vnode).getLength()>largeFileThreshold)) 
+			{
+			    _loadLargeFile((VFile)vnode,mimeType); 
+			    return; 
+			}
 			//
 			txt=UIGlobal.getResourceLoader().getText(vnode.getVRL(),textEncoding); 
 		    // Override 
@@ -499,6 +562,179 @@ public class TextViewer extends InternalViewer implements ActionListener,
 		}
 	}
 
+	/** 
+	 * View file in read-only large file mode. The line index is built while the first
+	 * lines are already shown.  
+	 */ 
+	protected void _loadLargeFile(VFile file,String mimeType) throws Exception
+	{
+	    if (StringUtil.equals(mimeType,"text/x-nfo")) 
+	    {
+	        textEncoding=ResourceLoader.CHARSET_CP437; 
+	        setFont("Monospaced"); 
+	    }
+	    
+	    // no editing of (partially) loaded text
+	    if (this.editable)
+	        enableEdit(false); 
+	    
+	    LargeTextModel model=new LargeTextModel(file,textEncoding);
+	    setLargeTextModel(model);
+	    updateTitle(); 
+	    
+	    UILogger.infoPrintf(this,"Indexing large file:%s\n",file); 
+	    model.buildIndex();
+	    UILogger.debugPrintf(this,"Finished indexing:%s\n",model); 
+	    
+	    loadError=false;
+	}
+	
+	protected boolean isLargeFileMode()
+	{
+	    return (largeTextModel!=null); 
+	}
+	
+	/** 
+	 * Switch between the text area and the list of large file mode. 
+	 * A NULL model switches back to the text area. The previous model is closed. 
+	 */ 
+	protected void setLargeTextModel(final LargeTextModel model)
+	{
+	    stopFollow(); 
+	    
+	    if (largeTextModel!=null)
+	        largeTextModel.close(); 
+	    
+	    largeTextModel=model;
+	    
+	    if (model!=null)
+	    {
+	        model.addListDataListener(new ListDataListener()
+	        {
+	            int maxLineLength=0; 
+	            
+	            public void intervalAdded(ListDataEvent e)
+	            {
+	                if (model.getMaxLineLength()>maxLineLength)
+	                {
+	                    maxLineLength=model.getMaxLineLength(); 
+	                    updateLargeTextCellSize(); 
+	                }
+	            }
+	            
+	            public void intervalRemoved(ListDataEvent e)
+	            {
+	            }
+	            
+	            public void contentsChanged(ListDataEvent e)
+	            {
+	            }
+	        });
+	    }
+	    
+	    UIGlobal.swingInvokeLater(new Runnable()
+	    {
+	        public void run()
+	        {
+	            if (textArea==null)
+	                return; // disposed 
+	            
+	            boolean large=(model!=null); 
+	            
+	            if (large)
+	            {
+	                largeTextList.setModel(model); 
+	                updateLargeTextCellSize(); 
+	                textScrollPane.setViewportView(largeTextList);
+	            }
+	            else if (textScrollPane.getViewport().getView()!=textArea)
+	            {
+	                textScrollPane.setViewportView(textArea);
+	            }
+	            
+	            followMenuItem.setEnabled(large);
+	            followMenuItem.setSelected(false); 
+	            enableEditButton.setEnabled(large==false);
+	            editMenuItem.setEnabled(large==false);
+	            wrapMenuItem.setEnabled(large==false);
+	        }
+	    }); 
+	}
+	
+	/** Poll large file for appended lines and scroll to the end when new lines arrive */ 
+	protected void startFollow()
+	{
+	    stopFollow(); 
+	    
+	    final LargeTextModel model=largeTextModel;
+	    
+	    if (model==null)
+	        return;
+	    
+	    scrollToEnd(); 
+	    
+	    followTask=new ActionTask(null,"Follow:"+this)
+	    {
+	        private volatile boolean stopFollowing=false; 
+	        
+	        public void doTask()
+	        {
+	            while ((stopFollowing==false) && (muststop==false))
+	            {
+	                try
+	                {
+	                    Thread.sleep(FOLLOW_INTERVAL);
+	                    
+	                    if (stopFollowing)
+	                        return; 
+	                    
+	                    if (model.update())
+	                        scrollToEnd(); 
+	                }
+	                catch (InterruptedException e)
+	                {
+	                    return; 
+	                }
+	                catch (Exception e)
+	                {
+	                    handle(e);
+	                    return; 
+	                }
+	            }
+	        }
+	        
+	        @Override
+	        public void stopTask()
+	        {
+	            stopFollowing=true; 
+	        }
+	    };
+	    
+	    followTask.startTask(); 
+	}
+	
+	protected void stopFollow()
+	{
+	    if (followTask!=null)
+	        followTask.stopTask();
+	    
+	    followTask=null; 
+	}
+	
+	protected void scrollToEnd()
+	{
+	    UIGlobal.swingInvokeLater(new Runnable()
+	    {
+	        public void run()
+	        {
+	            int size=largeTextList.getModel().getSize(); 
+	            
+	            if (size>0)
+	                largeTextList.ensureIndexIsVisible(size-1); 
+	        }
+	    }); 
+	}
+
 	public void setFont(String name) 
 	{
 		this.fontToolbar.selectFont(name); 
@@ -506,7 +742,9 @@ public class TextViewer extends InternalViewer implements ActionListener,
 	   
 	protected void updateTitle()
 	{
-	    if (this.editable==false)  
+	    if (isLargeFileMode())
+	        setViewerTitle("Viewing (large file):"+getVRL().getBasename());
+	    else if (this.editable==false)  
 	        setViewerTitle("Viewing:"+getVRL().getBasename());
 	    else
 	        setViewerTitle("Editing:"+getVRL().getBasename());
@@ -514,7 +752,10 @@ public class TextViewer extends InternalViewer implements ActionListener,
 
     protected void requestFocusOnText()
 	{
-		this.textArea.requestFocusInWindow(); 
+        if (isLargeFileMode())
+            this.largeTextList.requestFocusInWindow(); 
+        else
+            this.textArea.requestFocusInWindow(); 
 	}
 
 	@Override
@@ -546,6 +787,12 @@ public class TextViewer extends InternalViewer implements ActionListener,
 	@Override
 	public void disposeViewer()
 	{
+	    stopFollow(); 
+	    
+	    if (largeTextModel!=null)
+	        largeTextModel.close(); 
+	    
+	    this.largeTextModel=null; 
 		this.textArea = null;
 	}
 
@@ -600,6 +847,13 @@ public class TextViewer extends InternalViewer implements ActionListener,
         {
             enableEdit(editMenuItem.isSelected()); 
         }
+        else if (source==this.followMenuItem)
+        {
+            if (followMenuItem.isSelected())
+                startFollow(); 
+            else
+                stopFollow(); 
+        }
         else if (source==this.wrapMenuItem)
         {
             setLineWrap(this.wrapMenuItem.getState());
@@ -746,6 +1000,10 @@ public class TextViewer extends InternalViewer implements ActionListener,
 	/** Enable/Disable edit  */ 
 	protected void enableEdit(boolean val)
 	{
+	    // large file mode is read-only 
+	    if (isLargeFileMode())
+	        val=false; 
+	    
 		if (val==true)
 		{
 
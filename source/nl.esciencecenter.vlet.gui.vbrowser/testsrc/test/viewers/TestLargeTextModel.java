@@ -0,0 +1,207 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package test.viewers;
+
+import java.io.FileOutputStream;
+
+import javax.swing.SwingUtilities;
+
+import nl.esciencecenter.vlet.gui.viewers.LargeTextModel;
+import nl.esciencecenter.vlet.vrs.vfs.VDir;
+import nl.esciencecenter.vlet.vrs.vfs.VFSClient;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the sparse line index of the LargeTextModel on a local file.
+ */
+public class TestLargeTextModel
+{
+    private VDir testDir;
+
+    private VFile file;
+
+    private LargeTextModel model;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        VFSClient vfs=new VFSClient();
+        testDir=vfs.createUniqueTempDir("testLargeTextModel","junit");
+        file=testDir.createFile("text.txt");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (model!=null)
+            model.close();
+
+        testDir.delete(true);
+    }
+
+    private static String createLine(int lineNr)
+    {
+        StringBuilder line=new StringBuilder("line "+lineNr+":");
+
+        // vary the line lengths
+        for (int i=0;i<lineNr%37;i++)
+            line.append('x');
+
+        return line.toString();
+    }
+
+    private void writeLines(int numLines,boolean append) throws Exception
+    {
+        FileOutputStream outps=new FileOutputStream(file.getPath(),append);
+
+        for (int i=0;i<numLines;i++)
+            outps.write((createLine(i)+"\n").getBytes("UTF-8"));
+
+        outps.close();
+    }
+
+    private void waitForListeners() throws Exception
+    {
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            public void run()
+            {
+            }
+        });
+    }
+
+    /** Lines are loaded in the background: poll until the line isn't empty anymore */
+    private String getLine(int lineNr) throws Exception
+    {
+        long timeout=System.currentTimeMillis()+10000;
+
+        while (true)
+        {
+            String line=(String)model.getElementAt(lineNr);
+
+            if ((line.length()>0) || (System.currentTimeMillis()>timeout))
+                return line;
+
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testLinesOfAllIndexBlocks() throws Exception
+    {
+        int numLines=10*LargeTextModel.INDEX_INTERVAL+7;
+        writeLines(numLines,false);
+
+        model=new LargeTextModel(file,"UTF-8");
+        model.buildIndex();
+        waitForListeners();
+
+        Assert.assertEquals(numLines,model.getSize());
+
+        // first, middle and last lines of the blocks, in random access order
+        int lineNrs[]={numLines-1,0,LargeTextModel.INDEX_INTERVAL-1,LargeTextModel.INDEX_INTERVAL,
+                5*LargeTextModel.INDEX_INTERVAL+31,1,numLines-2};
+
+        for (int lineNr:lineNrs)
+            Assert.assertEquals("Line nr="+lineNr,createLine(lineNr),getLine(lineNr));
+
+        for (int lineNr=0;lineNr<numLines;lineNr++)
+            Assert.assertEquals("Line nr="+lineNr,createLine(lineNr),getLine(lineNr));
+    }
+
+    @Test
+    public void testLongLinesStartNewBlock() throws Exception
+    {
+        StringBuilder longLine=new StringBuilder();
+
+        for (int i=0;i<LargeTextModel.MAX_BLOCK_SIZE;i++)
+            longLine.append((char)('a'+i%26));
+
+        FileOutputStream outps=new FileOutputStream(file.getPath());
+        outps.write("first\n".getBytes("UTF-8"));
+        outps.write((longLine+"\n").getBytes("UTF-8"));
+        outps.write("after\n".getBytes("UTF-8"));
+        outps.close();
+
+        model=new LargeTextModel(file,"UTF-8");
+        model.buildIndex();
+        waitForListeners();
+
+        Assert.assertEquals(3,model.getSize());
+        Assert.assertEquals("after",getLine(2));
+        Assert.assertEquals("first",getLine(0));
+        Assert.assertEquals("Long lines must be truncated",longLine.substring(0,LargeTextModel.MAX_LINE_LENGTH),getLine(1));
+    }
+
+    @Test
+    public void testAppendedLines() throws Exception
+    {
+        int numLines=LargeTextModel.INDEX_INTERVAL+10;
+        writeLines(numLines,false);
+
+        model=new LargeTextModel(file,"UTF-8");
+        model.buildIndex();
+        waitForListeners();
+
+        // read the (growing) last block before appending
+        Assert.assertEquals(createLine(numLines-1),getLine(numLines-1));
+
+        writeLines(5,true);
+        Assert.assertTrue("File has grown",model.update());
+        waitForListeners();
+
+        Assert.assertEquals(numLines+5,model.getSize());
+        Assert.assertEquals(createLine(numLines-1),getLine(numLines-1));
+        Assert.assertEquals(createLine(4),getLine(numLines+4));
+    }
+
+    @Test
+    public void testTruncatedFileIsIndexedAgain() throws Exception
+    {
+        int numLines=3*LargeTextModel.INDEX_INTERVAL;
+        writeLines(numLines,false);
+
+        model=new LargeTextModel(file,"UTF-8");
+        model.buildIndex();
+        waitForListeners();
+
+        Assert.assertEquals(createLine(1),getLine(1));
+
+        // rewrite a shorter file with other contents: cached pages are stale
+        FileOutputStream outps=new FileOutputStream(file.getPath());
+        outps.write("new first\nnew second\n".getBytes("UTF-8"));
+        outps.close();
+
+        Assert.assertTrue("File has been truncated",model.update());
+        waitForListeners();
+
+        Assert.assertEquals(2,model.getSize());
+        Assert.assertEquals("new first",getLine(0));
+        Assert.assertEquals("new second",getLine(1));
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.viewers;
+
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import nl.esciencecenter.vlet.gui.viewers.PagedFileBuffer;
+import nl.esciencecenter.vlet.vrs.vfs.VDir;
+import nl.esciencecenter.vlet.vrs.vfs.VFSClient;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the paged reading and the page cache of the PagedFileBuffer on a local file.
+ */
+public class TestPagedFileBuffer
+{
+    private static final int PAGE_SIZE=16;
+
+    private static final int MAX_PAGES=8;
+
+    private VDir testDir;
+
+    private VFile file;
+
+    private byte contents[];
+
+    private PagedFileBuffer buffer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        VFSClient vfs=new VFSClient();
+        testDir=vfs.createUniqueTempDir("testPagedFileBuffer","junit");
+        file=testDir.createFile("data.bin");
+
+        contents=new byte[1000];
+        new Random(13).nextBytes(contents);
+
+        FileOutputStream outps=new FileOutputStream(file.getPath());
+        outps.write(contents);
+        outps.close();
+
+        buffer=new PagedFileBuffer(file,PAGE_SIZE,MAX_PAGES);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        buffer.close();
+        testDir.delete(true);
+    }
+
+    private void assertContents(long offset,byte read[],int numRead)
+    {
+        for (int i=0;i<numRead;i++)
+            Assert.assertEquals("Byte nr="+(offset+i),contents[(int)offset+i],read[i]);
+    }
+
+    @Test
+    public void testReadAcrossPages() throws Exception
+    {
+        Assert.assertEquals(contents.length,buffer.getLength());
+
+        // starts in the middle of a page and ends in the middle of another page
+        byte read[]=new byte[100];
+        int numRead=buffer.readBytes(10,read,0,read.length);
+
+        Assert.assertEquals(read.length,numRead);
+        assertContents(10,read,numRead);
+    }
+
+    @Test
+    public void testReadAtEndOfFile() throws Exception
+    {
+        byte read[]=new byte[100];
+        int numRead=buffer.readBytes(contents.length-30,read,0,read.length);
+
+        Assert.assertEquals("Read must stop at the end of the file",30,numRead);
+        assertContents(contents.length-30,read,numRead);
+
+        Assert.assertEquals("Nothing to read beyond the end of the file",0,buffer.readBytes(contents.length,read,0,10));
+    }
+
+    @Test
+    public void testCachedBytesDontReadFile() throws Exception
+    {
+        byte read[]=new byte[PAGE_SIZE];
+
+        Assert.assertEquals("Nothing has been read yet",0,buffer.getCachedBytes(0,read,0,read.length));
+
+        buffer.loadPages(0,PAGE_SIZE);
+
+        Assert.assertEquals(PAGE_SIZE,buffer.getCachedBytes(0,read,0,read.length));
+        assertContents(0,read,PAGE_SIZE);
+
+        Assert.assertEquals("Copying must stop at the first page which isn't cached",
+                PAGE_SIZE,buffer.getCachedBytes(0,new byte[2*PAGE_SIZE],0,2*PAGE_SIZE));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPagesAreEvicted() throws Exception
+    {
+        byte read[]=new byte[PAGE_SIZE];
+
+        buffer.loadPages(0,PAGE_SIZE);
+
+        // read more pages than fit in the cache
+        for (int nr=1;nr<=MAX_PAGES;nr++)
+            buffer.loadPages(nr*PAGE_SIZE,PAGE_SIZE);
+
+        Assert.assertEquals("First page must have been evicted",0,buffer.getCachedBytes(0,read,0,read.length));
+        Assert.assertEquals("Last page must be cached",PAGE_SIZE,buffer.getCachedBytes(MAX_PAGES*PAGE_SIZE,read,0,read.length));
+
+        // evicted page is read again
+        Assert.assertEquals(PAGE_SIZE,buffer.readBytes(0,read,0,read.length));
+        assertContents(0,read,PAGE_SIZE);
+    }
+
+    @Test
+    public void testPrefetchLoadsNextPages() throws Exception
+    {
+        buffer.loadPages(0,PAGE_SIZE);
+        buffer.prefetch(0,PAGE_SIZE);
+
+        byte read[]=new byte[PAGE_SIZE];
+        long deadline=System.currentTimeMillis()+5000;
+
+        while ((buffer.getCachedBytes(PAGE_SIZE,read,0,read.length)<PAGE_SIZE) && (System.currentTimeMillis()<deadline))
+            Thread.sleep(10);
+
+        Assert.assertEquals("Page after the view must have been prefetched",PAGE_SIZE,buffer.getCachedBytes(PAGE_SIZE,read,0,read.length));
+        assertContents(PAGE_SIZE,read,PAGE_SIZE);
+    }
+
+    @Test
+    public void testUpdateLengthRemovesPagesBeyondNewEnd() throws Exception
+    {
+        // pages 0-6, fits in the cache
+        buffer.loadPages(0,7*PAGE_SIZE);
+
+        long newLength=5*PAGE_SIZE+3;
+        buffer.updateLength(newLength);
+
+        Assert.assertEquals(newLength,buffer.getLength());
+
+        byte read[]=new byte[PAGE_SIZE];
+        Assert.assertEquals("Pages before the new end must be kept",PAGE_SIZE,buffer.getCachedBytes(4*PAGE_SIZE,read,0,read.length));
+        Assert.assertEquals("The last partial page must be removed",0,buffer.getCachedBytes(5*PAGE_SIZE,read,0,read.length));
+        Assert.assertEquals("Pages beyond the new length must be removed",0,buffer.getCachedBytes(6*PAGE_SIZE,read,0,read.length));
+    }
+
+    @Test
+    public void testClearRemovesAllPages() throws Exception
+    {
+        buffer.loadPages(0,4*PAGE_SIZE);
+
+        // file truncated and rewritten: the pages before the new end are stale too
+        long newLength=2*PAGE_SIZE;
+        buffer.clear(newLength);
+
+        Assert.assertEquals(newLength,buffer.getLength());
+
+        byte read[]=new byte[PAGE_SIZE];
+        Assert.assertEquals("Pages before the new end must be removed",0,buffer.getCachedBytes(0,read,0,read.length));
+        Assert.assertEquals("Pages are read again",PAGE_SIZE,buffer.readBytes(0,read,0,read.length));
+        assertContents(0,read,PAGE_SIZE);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.gftp;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.vrs.util.ResourcePool;
+
+import org.globus.ftp.GridFTPClient;
+
+/**
+ * Pool of authenticated GridFTPClients for one GftpFileSystem.
+ * <p>
+ * Creating a GridFTPClient requires a TCP connect and a full GSI handshake. Methods which need
+ * a private client (data channel operations, extended get/put and streams) lease an already
+ * authenticated client from this pool and release it when done.
+ * <ul>
+ * <li>Idle clients are closed after the maximum idle time.
+ * <li>Clients which have been idle for some time are checked with a PWD command before reuse.
+ * <li>Clients are bound to the credential they were authenticated with. When the credential
+ * of the context changes, all clients authenticated with the old credential are closed.
+ * <li>When the maximum number of clients is in use, acquire() waits for a client to be released.
+ * </ul>
+ * The GridFTPClient is not thread safe: a leased client may only be used by one thread at a time.
+ * <p>
+ * Closing a client sends a QUIT command to the server. The {@link ResourcePool} always closes clients
+ * outside the pool lock so a slow or unreachable server doesn't block other threads using the pool.
+ */
+public class GftpClientPool
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(GftpClientPool.class);
+    }
+
+    /** Default maximum number of (leased+idle) clients per server */
+    public static final int DEFAULT_MAX_CLIENTS=4;
+
+    /** Default time in milliseconds after which an idle client is closed */
+    public static final int DEFAULT_MAX_IDLE_TIME=60*1000;
+
+    /** Time in milliseconds to wait for a free client */
+    public static final int DEFAULT_LEASE_TIMEOUT=5*60*1000;
+
+    /** Idle clients older than this (milliseconds) are checked before they are reused */
+    public static final int CHECK_IDLE_TIME=10*1000;
+
+    /** Authenticates, checks and closes the clients of the pool */
+    private class ClientFactory implements ResourcePool.ResourceFactory<Object,GridFTPClient>
+    {
+        public GridFTPClient createResource(Object credential) throws VrsException
+        {
+            return server.createGFTPClient();
+        }
+
+        public boolean validate(GridFTPClient client,long idleTime)
+        {
+            if (idleTime<CHECK_IDLE_TIME)
+                return true;
+
+            try
+            {
+                client.getCurrentDir();
+                return true;
+            }
+            catch (Exception e)
+            {
+                logger.debugPrintf("Idle GridFTP client check failed:%s\n",e);
+                return false;
+            }
+        }
+
+        /** Sends QUIT and closes the connection */
+        public void dispose(GridFTPClient client)
+        {
+            server.finalize(client);
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private GftpFileSystem server;
+
+    private ResourcePool<Object,GridFTPClient> pool;
+
+    public GftpClientPool(GftpFileSystem server,int maxClients,long maxIdleTime)
+    {
+        this.server=server;
+
+        if (maxClients<=0)
+            maxClients=DEFAULT_MAX_CLIENTS;
+
+        if (maxIdleTime<=0)
+            maxIdleTime=DEFAULT_MAX_IDLE_TIME;
+
+        this.pool=new ResourcePool<Object,GridFTPClient>("gsiftp:"+server,new ClientFactory(),
+                maxClients,maxClients,maxIdleTime,DEFAULT_LEASE_TIMEOUT);
+    }
+
+    /**
+     * Lease an authenticated client for the current credential. Must be returned with
+     * {@link #release(GridFTPClient)} or {@link #invalidate(GridFTPClient)}.
+     */
+    public GridFTPClient acquire() throws VrsException
+    {
+        return pool.acquire(server.getCredentialKey());
+    }
+
+    /**
+     * Return leased client to the pool. Only use this if the client is in a consistent state,
+     * for example after a completed transfer. A client with an outdated credential is closed
+     * at the next acquire().
+     */
+    public void release(GridFTPClient client)
+    {
+        pool.release(client);
+    }
+
+    /**
+     * Return leased client which is (possibly) in an inconsistent state. The client is closed.
+     * Invalidating a client which already has been returned is ignored.
+     */
+    public void invalidate(GridFTPClient client)
+    {
+        pool.invalidate(client);
+    }
+
+    /** Close all idle clients. Leased clients are kept. */
+    public void invalidateIdle()
+    {
+        pool.invalidateIdle();
+    }
+
+    /** Close all clients. The pool can't be used anymore. */
+    public void close()
+    {
+        pool.close();
+    }
+
+    // ========================================================================
+    // Metrics
+    // ========================================================================
+
+    public int getNumIdle()
+    {
+        return pool.getNumIdle();
+    }
+
+    public int getNumLeased()
+    {
+        return pool.getNumLeased();
+    }
+
+    public int getMaxClients()
+    {
+        return pool.getMaxResources();
+    }
+
+    public String getStats()
+    {
+        return "GftpClientPool:"+server+":"+pool.getStats();
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
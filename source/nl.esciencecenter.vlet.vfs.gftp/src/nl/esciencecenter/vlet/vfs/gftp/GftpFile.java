@@ -24,6 +24,7 @@ package nl.esciencecenter.vlet.vfs.gftp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Map;
 
 import nl.esciencecenter.ptk.data.StringList;
 import nl.esciencecenter.ptk.io.RandomReadable;
@@ -36,6 +37,7 @@ import nl.esciencecenter.vlet.exception.NestedIOException;
 
 import nl.esciencecenter.vlet.vrs.io.VStreamReadable;
 import nl.esciencecenter.vlet.vrs.io.VStreamWritable;
+import nl.esciencecenter.vlet.vrs.util.MultiChecksum;
 import nl.esciencecenter.vlet.vrs.vfs.VChecksum;
 import nl.esciencecenter.vlet.vrs.vfs.VDir;
 import nl.esciencecenter.vlet.vrs.vfs.VFSTransfer;
@@ -380,6 +382,11 @@ public class GftpFile extends VFile implements VStreamReadable, VStreamWritable,
 
     }
 
+    public Map<String,String> getChecksums(String algorithms[]) throws VrsException
+    {
+        return MultiChecksum.getChecksums(this,algorithms);
+    }
+
     public String[] getChecksumTypes()
     {
         return new String[]
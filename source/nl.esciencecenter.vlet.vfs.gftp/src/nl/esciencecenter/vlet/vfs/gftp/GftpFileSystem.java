@@ -90,7 +90,6 @@ import org.globus.gsi.GlobusCredential;
 import org.globus.gsi.GlobusCredentialException;
 import org.globus.gsi.gssapi.GlobusGSSCredentialImpl;
 import org.globus.gsi.gssapi.auth.Authorization;
-import org.globus.io.streams.GridFTPInputStream;
 import org.globus.io.streams.GridFTPOutputStream;
 import org.ietf.jgss.GSSCredential;
 import org.ietf.jgss.GSSException;
@@ -134,6 +133,18 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
     /** ServerInfo Attribute localDataChannelAuthentication */
     public static final String ATTR_GFTP_DATA_CHANNEL_AUTHENTICATION = "dataChannelAuthentication";
 
+    /** Maximum number of pooled GridFTP clients per server */
+    public static final String ATTR_GFTP_MAX_CLIENTS = "maxClients";
+
+    /** Time in milliseconds after which an idle pooled GridFTP client is closed */
+    public static final String ATTR_GFTP_CLIENT_IDLE_TIME = "clientIdleTime";
+
+    /** Number of parallel streams for striped up- and downloads. 1 = disabled */
+    public static final String ATTR_GFTP_PARALLEL_STREAMS = "parallelStreams";
+
+    /** Size of the ranges of a striped transfer */
+    public static final String ATTR_GFTP_PARALLEL_BLOCK_SIZE = "parallelBlockSize";
+
     // maximum nr. of servers in the same pool
     // private static final int maximumServerPoolCount = 10;
 
@@ -251,6 +262,9 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
     // ============================================================================
     private GridFTPClient client = null;
 
+    /** Authenticated clients for data channel operations */
+    private GftpClientPool clientPool = null;
+
     private String hostname = null;
 
     private int port = 0;
@@ -452,6 +466,13 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
 
             this.client = createGFTPClient();
 
+            if (this.clientPool == null)
+            {
+                this.clientPool = new GftpClientPool(this,
+                        getIntServerOption(ATTR_GFTP_MAX_CLIENTS, GftpClientPool.DEFAULT_MAX_CLIENTS),
+                        getIntServerOption(ATTR_GFTP_CLIENT_IDLE_TIME, GftpClientPool.DEFAULT_MAX_IDLE_TIME));
+            }
+
             String cwd = null;
 
             // *** Service Security ***
@@ -632,6 +653,10 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
     {
         logger.infoPrintf("disconnecting:%s\n", this);
 
+        // idle clients might have been authenticated with an old credential:
+        if (clientPool != null)
+            clientPool.invalidateIdle();
+
         if (client == null)
             return;
 
@@ -711,6 +736,17 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
 
     }
 
+    public int getIntServerOption(String optName, int defaultValue)
+    {
+        Attribute attr = getServerInfo().getAttribute(optName);
+
+        if (attr != null)
+            return attr.getIntValue();
+
+        // Check Context, will check Global Option as well
+        return this.vrsContext.getIntProperty("gftp." + optName, defaultValue);
+    }
+
     // /** Return NULL if property isn't defined */
     // public Boolean getServerOrContextBooleanProperty(String name)
     // {
@@ -756,6 +792,34 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
         return val;
     }
 
+    /**
+     * Whether to transfer a file of the specified size using parallel streams. Striped transfers need 'extendedGet'
+     * and 'extendedPut', which are not supported by old (v1.0) servers and blind mode servers.
+     */
+    boolean useStripedTransfer(long size)
+    {
+        if ((protocol_v1 == true) || (useBlindMode() == true))
+            return false;
+
+        int numStreams = getIntServerOption(ATTR_GFTP_PARALLEL_STREAMS, GftpParallelTransfer.DEFAULT_NUM_STREAMS);
+        int blockSize = getIntServerOption(ATTR_GFTP_PARALLEL_BLOCK_SIZE, GftpParallelTransfer.DEFAULT_BLOCK_SIZE);
+
+        // at least two ranges:
+        return ((numStreams > 1) && (size > blockSize));
+    }
+
+    private GftpParallelTransfer createStripedTransfer(VFSTransfer transfer, String remotePath,
+            RandomAccessFile localFile, long size, boolean isUpload)
+    {
+        GftpParallelTransfer striped = new GftpParallelTransfer(this, transfer, remotePath, localFile, size,
+                isUpload);
+        striped.setNumStreams(getIntServerOption(ATTR_GFTP_PARALLEL_STREAMS,
+                GftpParallelTransfer.DEFAULT_NUM_STREAMS));
+        striped.setBlockSize(getIntServerOption(ATTR_GFTP_PARALLEL_BLOCK_SIZE,
+                GftpParallelTransfer.DEFAULT_BLOCK_SIZE));
+        return striped;
+    }
+
     boolean getAllow3rdParty()
     {
         return getBooleanServerOption(ATTR_ALLOW_3RD_PARTY, default_allow3rdParty);
@@ -770,17 +834,37 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
     {
         logger.debugPrintf("updloadFile(): %s -> %s\n", localfilepath, remotefilepath);
 
+        GridFTPClient myclient = null;
+
         try
         {
             java.io.File lfile = new File(localfilepath);
             RandomAccessFile rfile = new RandomAccessFile(lfile, "r");
-            TransferRandomIO riofile = new TransferRandomIO(rfile);
 
             transfer.startSubTask("Uploading GridFTP file.", lfile.length());
             transfer.logPrintf("Uploading file:" + localfilepath + "\n");
+
+            if (useStripedTransfer(lfile.length()))
+            {
+                // create (empty) remote file, ranges are stored using 'extendedPut':
+                createFile(remotefilepath, true);
+
+                try
+                {
+                    createStripedTransfer(transfer, remotefilepath, rfile, lfile.length(), true).transfer();
+                }
+                finally
+                {
+                    rfile.close();
+                }
+
+                transfer.endSubTask("Upload GridFTP File");
+                return;
+            }
+
+            TransferRandomIO riofile = new TransferRandomIO(rfile);
             TransferState transferState = null;
 
-            GridFTPClient myclient = null;
             MarkerListener markerListener = new GftpMarkerListener(); // new
                                                                       // GftpMarker();
             //
@@ -790,7 +874,7 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             if (usePassive())
             {
                 // use private client for passive mode
-                myclient = this.createGFTPClient();
+                myclient = leaseClient();
                 myclient.setPassiveMode(usePassive());
                 // _setCheckMode(myclient,true,true);
                 transferState = myclient.asynchPut(remotefilepath,
@@ -832,7 +916,7 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
                 }
             }
 
-            this.finalize(myclient);
+            releaseClient(myclient, true);
             myclient = null;
 
             // POST: Gftp does not provide transfer count:
@@ -857,6 +941,11 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             throw new NestedIOException("GridFTPFS Client Exception:"
                     + e.getMessage(), e);
         }
+        finally
+        {
+            // failed or cancelled transfer:
+            releaseClient(myclient, false);
+        }
 
     }
 
@@ -871,10 +960,13 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
 
         // transfer.setCurrentSubTask("Downloading file.");
 
+        GridFTPClient myclient = null;
+
         try
         {
             // only check size if not blindMode !
-            transfer.startSubTask("Downloading GridFTP file.", getSize(remotefilepath));
+            long size = getSize(remotefilepath);
+            transfer.startSubTask("Downloading GridFTP file.", size);
 
             File lfile = new File(toLocalfilepath);
 
@@ -885,11 +977,28 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             // (re)create:
             lfile.createNewFile();
             RandomAccessFile rfile = new RandomAccessFile(lfile, "rw");
+
+            if (useStripedTransfer(size))
+            {
+                try
+                {
+                    // ranges are written directly into the (preallocated) file:
+                    rfile.setLength(size);
+                    createStripedTransfer(transfer, remotefilepath, rfile, size, false).transfer();
+                }
+                finally
+                {
+                    rfile.close();
+                }
+
+                transfer.endSubTask("Downloading GridFTP File");
+                return;
+            }
+
             TransferRandomIO riofile = new TransferRandomIO(rfile);
 
             transfer.logPrintf("Downloading file.\n");
 
-            GridFTPClient myclient = null;
             TransferState transferState = null;
             MarkerListener markerListener = new GftpMarkerListener();
             // new GftpMarker();
@@ -898,7 +1007,7 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             {
                 // Passive parallel asynchronous mode:
                 // use private client for passive mode
-                myclient = this.createGFTPClient();
+                myclient = leaseClient();
                 myclient.setPassiveMode(true);
                 // _setCheckMode(myclient,true,true);
                 transferState = myclient.asynchGet(remotefilepath,
@@ -946,7 +1055,10 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             // ===
 
             if (myclient != null)
-                myclient.close();
+            {
+                releaseClient(myclient, (transferState != null) && (transferState.getError() == null));
+                myclient = null;
+            }
 
             if ((transferState != null)
                     && (transferState.getError() != null))
@@ -980,6 +1092,10 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             throw new NestedIOException("GridFTP:ClientException:"
                     + e.getMessage(), e);
         }
+        finally
+        {
+            releaseClient(myclient, false);
+        }
 
     }
 
@@ -1085,27 +1201,30 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
     public InputStream createInputStream(String filepath)
             throws IOException
     {
-        // Create new GridFTP client for the inputstream for multithreaded
+        // Lease GridFTP client for the inputstream for multithreaded
         // access !
         // this way multiple streams can be openend !
 
-        GridFTPInputStream inps;
+        GridFTPClient myclient = null;
+
         try
         {
-            inps = new GridFTPInputStream(
-                    getValidGSSCredential(this.vrsContext),
-                    getAuthorization(),
-                    this.hostname, this.port, filepath,
-                    usePassive(), // always passive ?
-                    Session.TYPE_IMAGE,
-                    useDataChannelAuthentication());
+            myclient = leaseClient();
         }
         catch (Exception e)
         {
             throw convertToIOException(e);
         }
 
-        return inps;
+        try
+        {
+            // returns client to the pool when closed or when the get fails:
+            return new GftpPooledInputStream(clientPool, myclient, filepath, usePassive());
+        }
+        catch (Exception e)
+        {
+            throw convertToIOException(e);
+        }
     }
 
     private Authorization getAuthorization()
@@ -1358,12 +1477,20 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
 
             if (usePassive())
             {
-                GridFTPClient myclient = this.createGFTPClient();
-                myclient.setPassiveMode(true);
+                GridFTPClient myclient = leaseClient();
+                boolean completed = false;
 
-                // _setCheckMode(myclient,true,true);
-                retval = myclient.mlsd(dirpath);
-                this.finalize(myclient);
+                try
+                {
+                    myclient.setPassiveMode(true);
+                    // _setCheckMode(myclient,true,true);
+                    retval = myclient.mlsd(dirpath);
+                    completed = true;
+                }
+                finally
+                {
+                    releaseClient(myclient, completed);
+                }
             }
             else
                 synchronized (serverMutex)
@@ -1389,15 +1516,16 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
     {
         logger.debugPrintf("fakeMlsd:%s\n", path);
         GridFTPClient myclient = null;
+        boolean completed = false;
 
         try
         {
             Vector<?> list1 = null;
             Vector<?> list2 = null;
 
-            // old server: create private client for robuustness
-            // slow but allows multithreaded browsing !
-            myclient = this.createGFTPClient();
+            // old server: use private client for robuustness
+            // allows multithreaded browsing !
+            myclient = leaseClient();
             myclient.setPassiveMode(usePassive());
             // _setCheckMode(myclient,false,false);
 
@@ -1462,6 +1590,7 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
                                 .size() == 0))))
                 {
                     logger.debugPrintf("fakeMlsd(): NULL or empty list() for:%s\n", path);
+                    completed = true;
                     return null;
                 }
             }
@@ -1493,6 +1622,8 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
                 String key = (String) keys.nextElement();
                 entrysv.add(entrys.get(key));
             }
+
+            completed = true;
             return entrysv;
 
         }
@@ -1503,7 +1634,7 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
         finally
         {
             // ALWAYS CLEANUP
-            this.finalize(myclient);
+            releaseClient(myclient, completed);
         }
     }
 
@@ -1528,61 +1659,75 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
     /**
      * Synchronized (but multihreaded compatible) read from remote gftp file. This read can be done in parallel
      * (multithreaded) since 'extendedGet' is used. GridFTP protocol specifies that multile extendedGets can de done on
-     * the same file speeding up transfer. This protocol is used in parallel (striped) transfer mode. This has not been
-     * tested.
+     * the same file speeding up transfer. This protocol is used in parallel (striped) transfer mode, see
+     * {@link GftpParallelTransfer}.
      * 
      * @throws IOException
      */
     public int syncRead(String filepath, long fileOffset,
             byte buffer[], int off, int len) throws IOException
     {
-        // debug("syncRead: " + len + " from:" + filepath + "#"
-        // + fileOffset + "into: buffer[" + buffer.length + "]");
-
-        // create prive client for extended read (parallel mode).
+        long size;
 
         try
         {
-            GridFTPClient myclient = this.createGFTPClient();
-            myclient.setPassiveMode(usePassive());
+            size = getSize(filepath);
+        }
+        catch (VrsException e)
+        {
+            throw new NestedIOException(e);
+        }
 
-            // _setCheckMode(myclient,false,true);
+        return syncRead(filepath, size, fileOffset, buffer, off, len);
+    }
 
-            long size = myclient.getSize(filepath);
+    /**
+     * Extended read from remote gftp file using the (already known) size of the file. 
+     * Uses a pooled client, so no new connection or 'size' command is needed for each read.
+     * 
+     * @see #syncRead(String, long, byte[], int, int)
+     */
+    public int syncRead(String filepath, long fileSize, long fileOffset,
+            byte buffer[], int off, int len) throws IOException
+    {
+        // debug("syncRead: " + len + " from:" + filepath + "#"
+        // + fileOffset + "into: buffer[" + buffer.length + "]");
 
-            if (fileOffset >= size)
-                return -1;
-            // return EOF (no Exception!)
-            // throw new IOException("Trying to read beyond end of
-            // file:"+filepath);
+        if (fileOffset >= fileSize)
+            return -1;
+        // return EOF (no Exception!)
 
-            // Create DataSink from buffer directly from provided byte buffer.
+        // truncate to real file size:
+        if (fileOffset + len > fileSize)
+            len = (int) (fileSize - fileOffset);
 
-            // truncate to real file size:
+        // lease private client for extended read (parallel mode).
+        GridFTPClient myclient = null;
+        boolean completed = false;
 
-            if (fileOffset + len > size)
-                len = (int) (size - fileOffset);
+        try
+        {
+            myclient = leaseClient();
+            myclient.setPassiveMode(usePassive());
 
+            // Create DataSink from buffer directly from provided byte buffer.
             DataSinkBuffer dataSink = new DataSinkBuffer(buffer, off,
                     len);
             // Listen to Mark ?
             MarkerListener markerListener = null;
-            // this.client.setMode(Session.TYPE_IMAGE);
-            // client.setPassiveMode(true);
 
             logger.debugPrintf("syncRead: Starting streamreader: size,off,len=%d,%d,%d\n",
-                    size, off, len);
+                    fileSize, off, len);
 
             //
             // mode for ExtendedGet :
             //
-            // _setCheckMode(myclient,true,getUsePassive());
             myclient.extendedGet(filepath, fileOffset, len, dataSink,
                     markerListener);
 
             // current written = read;
             int nrRead = dataSink.getNrOfBytesWritten();
-            this.finalize(myclient);
+            completed = true;
 
             if (nrRead != len)
                 throw new IOException("Invalid number of bytes read!!!");
@@ -1595,20 +1740,28 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
 
             return nrRead;
         }
+        catch (IOException e)
+        {
+            throw e;
+        }
         catch (Exception e)
         {
             this.serverException = true;
             throw new IOException("GridFTPFS Server Exception:"
                     + e.getMessage(), e);
         }
+        finally
+        {
+            releaseClient(myclient, completed);
+        }
 
     }
 
     /**
      * Synchronized (but multihreaded compatible) write to remote gftp file. This write can be done in parallel
      * (multithreaded) since 'extendedPut' is used. GridFTP protocol specifies that multile extendedPuts can de done on
-     * the same file speeding up transfer. This protocol is used in parallel (striped) transfer mode. This has not been
-     * tested.
+     * the same file speeding up transfer. This protocol is used in parallel (striped) transfer mode, see
+     * {@link GftpParallelTransfer}.
      * 
      * @throws VrsException
      * @throws IOException
@@ -1621,6 +1774,8 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
     {
         MarkerListener markerListener = new GftpMarkerListener(); // new
                                                                   // GftpMarker();
+        GridFTPClient myclient = null;
+        boolean completed = false;
 
         // Create StreamReader:
         try
@@ -1638,13 +1793,12 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             outputStream.close();// force EOF (?)
 
             // private client for extendedPut mode:
-            GridFTPClient myclient = this.createGFTPClient();
+            myclient = leaseClient();
             myclient.setPassiveMode(usePassive());
             myclient.extendedPut(filepath, fileOffset, dataSource,
                     markerListener);
 
-            this.finalize(myclient);
-
+            completed = true;
         }
         catch (ServerException e)
         {
@@ -1662,6 +1816,10 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             throw new NestedIOException("GridFTPFS Client Exception:"
                     + e.getMessage(), e);
         }
+        finally
+        {
+            releaseClient(myclient, completed);
+        }
     }
 
     /** Returns Mlsx Entry of (remote) filepath */
@@ -1728,6 +1886,8 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             isRoot = true;
         }
 
+        GridFTPClient myclient = null;
+
         try
         {
             setCheckMode(false);
@@ -1764,9 +1924,8 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
                 }
             }
 
-            // old server: create private client for robuustness
-            GridFTPClient myclient;
-            myclient = this.createGFTPClient();
+            // old server: use private client for robuustness
+            myclient = leaseClient();
             myclient.setPassiveMode(usePassive());
 
             myclient.changeDir(dirname);
@@ -1796,7 +1955,6 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
                     files = myclient.list("-d .*");
                 else
                     files = myclient.list();
-                myclient.close();
             }
 
             if ((files == null) || (files.size() <= 0))
@@ -1832,8 +1990,14 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
         catch (Exception e)
         {
             logger.logException(ClassLogger.WARN, e, "fakeMlst failed\n");
+            releaseClient(myclient, false);
+            myclient = null;
             throw convertException(e);
         }
+        finally
+        {
+            releaseClient(myclient, true);
+        }
     }
 
     /** Create simple directory or file Mslx without any other file attributes */
@@ -2042,10 +2206,19 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
             {
                 // give passive mode it's private client
 
-                GridFTPClient myclient = this.createGFTPClient();
-                myclient.setPassiveMode(true);
-                myclient.put(fullPath, nilsource, null);
-                finalize(myclient);
+                GridFTPClient myclient = leaseClient();
+                boolean completed = false;
+
+                try
+                {
+                    myclient.setPassiveMode(true);
+                    myclient.put(fullPath, nilsource, null);
+                    completed = true;
+                }
+                finally
+                {
+                    releaseClient(myclient, completed);
+                }
 
             }
             else
@@ -2185,6 +2358,12 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
         {
             logger.logException(ClassLogger.WARN, e, "Exception during disconnect()\n");
         }
+
+        if (clientPool != null)
+        {
+            logger.debugPrintf("Closing clients:%s\n", clientPool.getStats());
+            clientPool.close();
+        }
     }
 
     // ========================================================================
@@ -3131,6 +3310,61 @@ public class GftpFileSystem extends FileSystemNode implements VFileActiveTransfe
         return monitorTask;
     }
 
+    // ========================================================================
+    // Client Pool
+    // ========================================================================
+
+    /** Returns the pool of authenticated clients of this server */
+    public GftpClientPool getClientPool()
+    {
+        return clientPool;
+    }
+
+    /**
+     * Lease authenticated client from the client pool. Must be returned using releaseClient().
+     */
+    GridFTPClient leaseClient() throws VrsException
+    {
+        if (clientPool == null)
+            throw new ServerCommunicationException("Server not connected:" + this);
+
+        return clientPool.acquire();
+    }
+
+    /**
+     * Return leased client. If the operation didn't complete the client is closed since the state of the
+     * connection is unknown. NULL clients are ignored.
+     */
+    void releaseClient(GridFTPClient myclient, boolean completed)
+    {
+        if (myclient == null)
+            return;
+
+        if (completed)
+            clientPool.release(myclient);
+        else
+            clientPool.invalidate(myclient);
+    }
+
+    /**
+     * Returns the credential object the current clients are authenticated with. Pooled clients which
+     * were authenticated with another credential are closed.
+     */
+    Object getCredentialKey() throws VrsException
+    {
+        GridProxy proxy = vrsContext.getGridProxy();
+
+        if (proxy == null)
+            throw new AuthenticationException("NULL grid credential (Not set for this context)");
+
+        GlobusCredential cred = GlobusUtil.getGlobusCredential(proxy);
+
+        if (cred != null)
+            return cred;
+
+        return proxy;
+    }
+
     public void finalize(GridFTPClient gftpClient)
     {
         if (gftpClient == null)
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.gftp;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedList;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.exception.NestedInterruptedException;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransfer;
+
+import org.globus.ftp.Buffer;
+import org.globus.ftp.DataSink;
+import org.globus.ftp.DataSource;
+import org.globus.ftp.GridFTPClient;
+
+/**
+ * Striped (parallel) GridFTP file transfer.
+ * <p>
+ * The file is split into ranges (blocks) which are transferred concurrently by a number of
+ * streams using 'extendedGet' (ERET) and 'extendedPut' (ESTO). Each stream uses a client leased
+ * from the GftpClientPool and writes/reads its ranges directly into/from the local file.
+ * A failed range is retried individually with a new client, up to the maximum number of retries.
+ * The progress and the throughput of each stream are reported to the VFSTransfer.
+ * <p>
+ * The streams run on a shared daemon pool. When the transfer is cancelled or interrupted the
+ * streams are stopped and transfer() only returns after all streams have finished, so no stream
+ * accesses the local file after it has been closed by the caller.
+ */
+public class GftpParallelTransfer
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger = ClassLogger.getLogger(GftpParallelTransfer.class);
+    }
+
+    /** Default number of parallel streams */
+    public static final int DEFAULT_NUM_STREAMS = 4;
+
+    /** Default size of a single range */
+    public static final int DEFAULT_BLOCK_SIZE = 8 * 1024 * 1024;
+
+    /** Default number of retries per range */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static ThreadPoolExecutor executor = null;
+
+    private static synchronized ThreadPoolExecutor getExecutor()
+    {
+        // streams limit their own concurrency: never queue.
+        if (executor == null)
+            executor = DaemonThreadFactory.createCachedPool("GftpParallelTransfer");
+
+        return executor;
+    }
+
+    /** Part of the file to be transferred by one extended get or put */
+    private static class Range
+    {
+        final long offset;
+
+        final long length;
+
+        int attempts = 0;
+
+        /** Bytes transferred by the current attempt */
+        long transferred = 0;
+
+        Range(long offset, long length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String toString()
+        {
+            return "[" + offset + "-" + (offset + length) + "]";
+        }
+    }
+
+    /** Writes the (sequential) data of one range into the local file */
+    private class RangeDataSink implements DataSink
+    {
+        private final Range range;
+
+        private long position = 0;
+
+        RangeDataSink(Range range)
+        {
+            this.range = range;
+        }
+
+        public void write(Buffer buf) throws IOException
+        {
+            checkStop();
+
+            if (buf.getOffset() >= 0)
+                throw new IOException("Asynchronous (block mode) writing not supported");
+
+            int len = (int) Math.min(buf.getLength(), range.length - position);
+
+            synchronized (localFile)
+            {
+                localFile.seek(range.offset + position);
+                localFile.write(buf.getBuffer(), 0, len);
+            }
+
+            position += len;
+            addBytes(range, len);
+        }
+
+        public void close() throws IOException
+        {
+        }
+    }
+
+    /** Reads the data of one range from the local file */
+    private class RangeDataSource implements DataSource
+    {
+        private final Range range;
+
+        private long position = 0;
+
+        private final byte buffer[] = new byte[READ_CHUNK_SIZE];
+
+        RangeDataSource(Range range)
+        {
+            this.range = range;
+        }
+
+        public Buffer read() throws IOException
+        {
+            checkStop();
+
+            if (position >= range.length)
+                return null; // EOF
+
+            int len = (int) Math.min(buffer.length, range.length - position);
+            int numRead;
+
+            synchronized (localFile)
+            {
+                localFile.seek(range.offset + position);
+                numRead = localFile.read(buffer, 0, len);
+            }
+
+            if (numRead <= 0)
+                throw new IOException("Unexpected end of local file at:" + (range.offset + position));
+
+            position += numRead;
+            addBytes(range, numRead);
+            // (new) buffer without offset: sequential data of this range.
+            byte data[] = new byte[numRead];
+            System.arraycopy(buffer, 0, data, 0, numRead);
+            return new Buffer(data, numRead);
+        }
+
+        public void close() throws IOException
+        {
+        }
+
+        public long totalSize() throws IOException
+        {
+            return range.length;
+        }
+    }
+
+    /** One stream: transfers ranges until there are no more */
+    private class StreamWorker implements Runnable
+    {
+        final int streamNr;
+
+        long numBytes = 0;
+
+        long transferTime = 0;
+
+        int numRetries = 0;
+
+        /** Thread running this stream, guarded by the transfer */
+        Thread thread = null;
+
+        StreamWorker(int streamNr)
+        {
+            this.streamNr = streamNr;
+        }
+
+        public void run()
+        {
+            GridFTPClient client = null;
+
+            workerStarted(this);
+
+            try
+            {
+                Range range;
+
+                while ((range = nextRange()) != null)
+                {
+                    long startTime = System.currentTimeMillis();
+
+                    try
+                    {
+                        if (client == null)
+                            client = server.leaseClient();
+
+                        transferRange(client, range);
+
+                        transferTime += System.currentTimeMillis() - startTime;
+                        numBytes += range.length;
+                        rangeDone(range);
+                    }
+                    catch (Exception e)
+                    {
+                        // connection state unknown:
+                        server.releaseClient(client, false);
+                        client = null;
+
+                        rangeFailed(this, range, e);
+                    }
+
+                    logger.debugPrintf("Stream #%d: range %s finished in %dms\n", streamNr, range,
+                            System.currentTimeMillis() - startTime);
+                }
+            }
+            finally
+            {
+                server.releaseClient(client, true);
+                workerDone(this);
+            }
+        }
+    }
+
+    /** Size of chunks read from the local file */
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private GftpFileSystem server;
+
+    private VFSTransfer transfer;
+
+    private String remotePath;
+
+    private RandomAccessFile localFile;
+
+    private long fileSize;
+
+    private int numStreams = DEFAULT_NUM_STREAMS;
+
+    private long blockSize = DEFAULT_BLOCK_SIZE;
+
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private boolean isUpload;
+
+    private LinkedList<Range> ranges = new LinkedList<Range>();
+
+    private int numPendingRanges = 0;
+
+    private int numActiveWorkers = 0;
+
+    private long numTransferred = 0;
+
+    private volatile boolean mustStop = false;
+
+    private Exception exception = null;
+
+    public GftpParallelTransfer(GftpFileSystem server, VFSTransfer transfer, String remotePath,
+            RandomAccessFile localFile, long fileSize, boolean isUpload)
+    {
+        this.server = server;
+        this.transfer = transfer;
+        this.remotePath = remotePath;
+        this.localFile = localFile;
+        this.fileSize = fileSize;
+        this.isUpload = isUpload;
+    }
+
+    public void setNumStreams(int numStreams)
+    {
+        this.numStreams = (numStreams > 0) ? numStreams : 1;
+    }
+
+    public void setBlockSize(long blockSize)
+    {
+        this.blockSize = (blockSize > 0) ? blockSize : DEFAULT_BLOCK_SIZE;
+    }
+
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = (maxRetries >= 0) ? maxRetries : 0;
+    }
+
+    /** Returns number of bytes of completed or partially transferred ranges */
+    public synchronized long getNumTransferred()
+    {
+        return numTransferred;
+    }
+
+    /**
+     * Perform the transfer. Returns when all ranges have been transferred, or throws the exception
+     * of the range which failed after the maximum number of retries.
+     */
+    public void transfer() throws VrsException
+    {
+        long startTime = System.currentTimeMillis();
+
+        synchronized (this)
+        {
+            for (long offset = 0; offset < fileSize; offset += blockSize)
+                ranges.add(new Range(offset, Math.min(blockSize, fileSize - offset)));
+
+            numPendingRanges = ranges.size();
+        }
+
+        int num = Math.min(numStreams, Math.max(1, numPendingRanges));
+        StreamWorker workers[] = new StreamWorker[num];
+
+        transfer.logPrintf("Starting striped transfer of %d bytes using %d streams and %d ranges.\n", fileSize, num,
+                numPendingRanges);
+
+        for (int i = 0; i < num; i++)
+        {
+            workers[i] = new StreamWorker(i);
+
+            synchronized (this)
+            {
+                numActiveWorkers++;
+            }
+
+            getExecutor().execute(workers[i]);
+        }
+
+        // ===
+        // Monitor
+        // ===
+
+        try
+        {
+            synchronized (this)
+            {
+                while (numActiveWorkers > 0)
+                {
+                    if ((transfer.isCancelled()) && (exception == null))
+                    {
+                        exception = new NestedInterruptedException("Transfer cancelled!");
+                        mustStop = true;
+                    }
+
+                    transfer.updateSubTaskDone(numTransferred);
+                    this.wait(100);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            stopWorkers(workers);
+            throw new NestedInterruptedException("Interrupted during striped transfer.", e);
+        }
+
+        transfer.updateSubTaskDone(getNumTransferred());
+
+        // ===
+        // Statistics
+        // ===
+
+        for (StreamWorker worker : workers)
+        {
+            transfer.logPrintf(" - stream #%d: %d bytes in %d ms (%s), retries=%d\n", worker.streamNr, worker.numBytes,
+                    worker.transferTime, speedString(worker.numBytes, worker.transferTime), worker.numRetries);
+        }
+
+        long totalTime = System.currentTimeMillis() - startTime;
+        transfer.logPrintf("Striped transfer finished: %d bytes in %d ms (%s)\n", getNumTransferred(), totalTime,
+                speedString(getNumTransferred(), totalTime));
+
+        synchronized (this)
+        {
+            if (exception instanceof VrsException)
+                throw (VrsException) exception;
+
+            if (exception != null)
+                throw new GftpException("Striped transfer failed", exception.getMessage(), exception);
+
+            if (numPendingRanges > 0)
+                throw new GftpException("Striped transfer failed", "Not all ranges have been transferred.", null);
+        }
+    }
+
+    private void transferRange(GridFTPClient client, Range range) throws Exception
+    {
+        client.setPassiveMode(server.usePassive());
+
+        if (isUpload)
+        {
+            client.extendedPut(remotePath, range.offset, new RangeDataSource(range), null);
+        }
+        else
+        {
+            RangeDataSink sink = new RangeDataSink(range);
+            client.extendedGet(remotePath, range.offset, range.length, sink, null);
+
+            if (sink.position != range.length)
+                throw new IOException("Invalid number of bytes read for range " + range + ":" + sink.position);
+        }
+    }
+
+    private synchronized Range nextRange()
+    {
+        if ((mustStop) || (ranges.isEmpty()))
+            return null;
+
+        return ranges.removeFirst();
+    }
+
+    private synchronized void addBytes(Range range, long numBytes)
+    {
+        range.transferred += numBytes;
+        numTransferred += numBytes;
+    }
+
+    private synchronized void rangeDone(Range range)
+    {
+        numPendingRanges--;
+        this.notifyAll();
+    }
+
+    private synchronized void rangeFailed(StreamWorker worker, Range range, Exception e)
+    {
+        // partial range has to be transferred again:
+        numTransferred -= range.transferred;
+        range.transferred = 0;
+
+        range.attempts++;
+
+        if ((mustStop) || (range.attempts > maxRetries))
+        {
+            if (exception == null)
+                exception = e;
+
+            mustStop = true;
+            logger.logException(ClassLogger.ERROR, e, "Range %s failed after %d attempts\n", range, range.attempts);
+        }
+        else
+        {
+            worker.numRetries++;
+            logger.warnPrintf("Retrying range %s (attempt %d) after:%s\n", range, range.attempts, e);
+            transfer.logPrintf("Retrying range %s after error:%s\n", range, e.getMessage());
+            ranges.add(range);
+        }
+
+        this.notifyAll();
+    }
+
+    private synchronized void workerStarted(StreamWorker worker)
+    {
+        worker.thread = Thread.currentThread();
+    }
+
+    private synchronized void workerDone(StreamWorker worker)
+    {
+        worker.thread = null;
+        numActiveWorkers--;
+        this.notifyAll();
+    }
+
+    /**
+     * Stop and interrupt the streams and wait until all of them have finished. Workers which
+     * haven't started yet exit immediately since there are no more ranges for them.
+     */
+    private void stopWorkers(StreamWorker workers[])
+    {
+        synchronized (this)
+        {
+            mustStop = true;
+
+            for (StreamWorker worker : workers)
+            {
+                if (worker.thread != null)
+                    worker.thread.interrupt();
+            }
+
+            boolean interrupted = false;
+
+            while (numActiveWorkers > 0)
+            {
+                try
+                {
+                    this.wait(100);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkStop() throws IOException
+    {
+        if (mustStop)
+            throw new IOException("Transfer stopped!");
+    }
+
+    private static String speedString(long numBytes, long millis)
+    {
+        if (millis <= 0)
+            return "-";
+
+        return String.format("%.1f KB/s", (numBytes / 1024.0) / (millis / 1000.0));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.gftp;
+
+import java.io.IOException;
+
+import org.globus.ftp.GridFTPClient;
+import org.globus.ftp.Session;
+import org.globus.ftp.exception.FTPException;
+import org.globus.io.streams.FTPInputStream;
+
+/**
+ * GridFTP InputStream which uses a client leased from the GftpClientPool instead of 
+ * authenticating a new client as GridFTPInputStream does. 
+ * When the stream has been read completely the client is returned to the pool, 
+ * if the stream is closed before the end of the file, the transfer can't be completed 
+ * and the client is closed.  
+ */
+public class GftpPooledInputStream extends FTPInputStream
+{
+    private GftpClientPool pool;
+
+    private GridFTPClient client;
+
+    private boolean eof = false;
+
+    private boolean closed = false;
+
+    public GftpPooledInputStream(GftpClientPool pool, GridFTPClient client, String filepath, boolean passive)
+            throws IOException, FTPException
+    {
+        super();
+        this.pool = pool;
+        this.client = client;
+        this.ftp = client;
+
+        // starts asynchronous get. On failure close() returns the client to the pool, 
+        // the caller must not release it again. 
+        try
+        {
+            get(passive, Session.TYPE_IMAGE, filepath);
+        }
+        catch (IOException e)
+        {
+            close(); 
+            throw e; 
+        }
+        catch (FTPException e)
+        {
+            close(); 
+            throw e; 
+        }
+        catch (RuntimeException e)
+        {
+            close(); 
+            throw e; 
+        }
+    }
+
+    public int read() throws IOException
+    {
+        int val = super.read();
+
+        if (val < 0)
+            eof = true;
+
+        return val;
+    }
+
+    public int read(byte buffer[]) throws IOException
+    {
+        return read(buffer, 0, buffer.length);
+    }
+
+    public int read(byte buffer[], int offset, int len) throws IOException
+    {
+        int numRead = super.read(buffer, offset, len);
+
+        if (numRead < 0)
+            eof = true;
+
+        return numRead;
+    }
+
+    public void abort()
+    {
+        synchronized (this)
+        {
+            if (closed)
+                return;
+            closed = true;
+        }
+
+        try
+        {
+            if (input != null)
+                input.close();
+        }
+        catch (IOException e)
+        {
+            // ignore
+        }
+
+        pool.invalidate(client);
+    }
+
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            if (closed)
+                return;
+            closed = true;
+        }
+
+        if ((eof == false) || (state == null))
+        {
+            // incomplete transfer: client state is undefined.
+            try
+            {
+                if (input != null)
+                    input.close();
+            }
+            finally
+            {
+                pool.invalidate(client);
+            }
+            return;
+        }
+
+        try
+        {
+            input.close();
+            state.waitForEnd();
+        }
+        catch (Exception e)
+        {
+            pool.invalidate(client);
+            throw new IOException("GridFTP transfer didn't end properly:" + e.getMessage(), e);
+        }
+
+        pool.release(client);
+    }
+}
@@ -12,6 +12,9 @@ public class GftpRandomAccessable implements RandomReadable, RandomWritable
     private GftpFileSystem server;
     private String path;
 
+    /** Cached file size, -1 = unknown */
+    private long fileSize = -1;
+
     public GftpRandomAccessable(GftpFileSystem gftpServer, String path)
     {
         this.server=gftpServer; 
@@ -20,7 +23,11 @@ public class GftpRandomAccessable implements RandomReadable, RandomWritable
 
     public int readBytes(long fileOffset, byte[] buffer, int bufferOffset, int nrBytes) throws IOException
     {
-        return this.server.syncRead(path, fileOffset, buffer, bufferOffset, nrBytes);
+        // only fetch size once per readable:
+        if (fileSize < 0)
+            fileSize = getLength();
+
+        return this.server.syncRead(path, fileSize, fileOffset, buffer, bufferOffset, nrBytes);
     }
 
     public void writeBytes(long fileOffset, byte[] buffer, int bufferOffset, int nrBytes) throws IOException
@@ -28,6 +35,8 @@ public class GftpRandomAccessable implements RandomReadable, RandomWritable
         try
         {
             this.server.syncWrite(path, fileOffset, buffer, bufferOffset, nrBytes);
+            // size might have changed:
+            fileSize = -1;
         }
         catch (VrsException e)
         {
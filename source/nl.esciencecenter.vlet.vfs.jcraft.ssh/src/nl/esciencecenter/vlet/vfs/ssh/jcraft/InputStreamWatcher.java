@@ -30,6 +30,7 @@ public class InputStreamWatcher extends InputStream
 
 	InputStream inps=null; 
 	ChannelSftp channel=null; 
+	SftpChannelPool pool=null; 
 	//long nrread=0; 
 	
 	public InputStreamWatcher(ChannelSftp outputChannel,InputStream inps) 
@@ -38,6 +39,15 @@ public class InputStreamWatcher extends InputStream
 		this.channel=outputChannel; 
 	}
 
+	/** Stream on leased channel. The channel is returned to the pool when the stream is closed */ 
+	public InputStreamWatcher(SftpChannelPool pool,ChannelSftp channel,InputStream inps) 
+	{
+		this.inps=inps; 
+		this.channel=channel;
+		this.pool=pool; 
+		pool.setLeaseHolder(channel,this); 
+	}
+
 	public int read() throws IOException
 	{
 		return inps.read(); 
@@ -59,8 +69,25 @@ public class InputStreamWatcher extends InputStream
 	
 	public void close() throws IOException
 	{
-		inps.close();
-		channel.disconnect(); 
+		if (pool==null)
+		{
+			inps.close();
+			channel.disconnect(); 
+			return; 
+		}
+		
+		try
+		{
+			inps.close();
+		}
+		catch (IOException e)
+		{
+			// channel state unknown 
+			pool.invalidate(channel); 
+			throw e; 
+		}
+		
+		pool.release(channel); 
 	}
 	
 	public int available() throws IOException
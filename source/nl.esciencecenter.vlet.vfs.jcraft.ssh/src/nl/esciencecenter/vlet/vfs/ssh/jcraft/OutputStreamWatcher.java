@@ -29,14 +29,27 @@ import com.jcraft.jsch.ChannelSftp;
 public class OutputStreamWatcher extends OutputStream 
 {
 
+	/** Maximum number of bytes per JSch write() */ 
+	public static final int MAX_WRITE_CHUNK_SIZE=32000; 
+	
 	OutputStream outps=null; 
 	ChannelSftp channel=null; 
+	SftpChannelPool pool=null; 
 	
 	public OutputStreamWatcher(OutputStream outps, ChannelSftp outputChannel) 
 	{
 		this.outps=outps; 
 		this.channel=outputChannel; 
 	}
+	
+	/** Stream on leased channel. The channel is returned to the pool when the stream is closed */ 
+	public OutputStreamWatcher(SftpChannelPool pool,OutputStream outps, ChannelSftp channel) 
+	{
+		this.outps=outps; 
+		this.channel=channel; 
+		this.pool=pool; 
+		pool.setLeaseHolder(channel,this); 
+	}
 
 	@Override
 	public void write(int b) throws IOException
@@ -53,13 +66,47 @@ public class OutputStreamWatcher extends OutputStream
 	@Override
 	public void write(byte bytes[],int offset,int len) throws IOException
 	{
-		outps.write(bytes,offset,len); 
+		writeChunked(outps,bytes,offset,len); 
+	}
+	
+	/** 
+	 * SFTP-WRITE-OUTPUTSTREAM-32000: 
+	 * The OutputStream of JSch has problems when writing chunks > 32000 bytes. 
+	 * Large writes are split up. JSch doesn't wait for the acknowledgement of 
+	 * each write so the chunks are still pipelined.  
+	 */ 
+	public static void writeChunked(OutputStream outps,byte bytes[],int offset,int len) throws IOException
+	{
+		while (len>0)
+		{
+			int chunk=Math.min(len,MAX_WRITE_CHUNK_SIZE); 
+			outps.write(bytes,offset,chunk); 
+			offset+=chunk; 
+			len-=chunk; 
+		}
 	}
 	
 	public void close() throws IOException
 	{
-		outps.close(); 
-		channel.disconnect(); 
+		if (pool==null)
+		{
+			outps.close(); 
+			channel.disconnect(); 
+			return; 
+		}
+		
+		try
+		{
+			outps.close();
+		}
+		catch (IOException e)
+		{
+			// channel state unknown 
+			pool.invalidate(channel); 
+			throw e; 
+		}
+		
+		pool.release(channel); 
 	}
 	
 	public void flush() throws IOException
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.vlet.vfs.ssh.jcraft;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.vrs.util.ResourcePool;
+
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Pool of reusable SFTP channels for one SSH Session.
+ * <p>
+ * A ChannelSftp may only be used by one thread at a time, but one Session can have
+ * multiple channels open. Both the metadata calls and the streams of the SftpFileSystem
+ * lease a channel from this pool and release it when done.
+ * Idle channels are health checked before they are leased. Channels which have been idle
+ * longer than {@link #CHECK_IDLE_TIME} are also probed with a cheap stat(".") round trip, since
+ * a firewall or the server may have dropped them without the local flags noticing. When the maximum number of channels
+ * is in use, acquire() waits up to the lease timeout for a channel to be released.
+ * <p>
+ * Streams register themselves as lease holder with {@link #setLeaseHolder(ChannelSftp, Object)}.
+ * When a holder has been garbage collected without returning its channel, the lease is
+ * reclaimed so a leaked stream can't block the pool forever.
+ *
+ * @see ResourcePool
+ */
+public class SftpChannelPool
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(SftpChannelPool.class);
+    }
+
+    /** Default maximum number of channels per session. OpenSSH allows 10 by default (MaxSessions) */
+    public static final int DEFAULT_MAX_CHANNELS=8;
+
+    /** Default time in milliseconds to wait for a free channel */
+    public static final int DEFAULT_LEASE_TIMEOUT=60*1000;
+
+    /** Channels idle longer than this (in milliseconds) are probed before they are leased */
+    public static final long CHECK_IDLE_TIME=10*1000;
+
+    /**
+     * Returns the minimum number of channels needed to run the given number of parallel copy
+     * workers without starving: an SFTP to SFTP copy holds two channels, plus one channel
+     * for metadata calls.
+     */
+    public static int getMinChannels(int parallelWorkers)
+    {
+        return 2*Math.max(parallelWorkers,1)+1;
+    }
+
+    /** Opens, checks and disconnects the channels of the pool */
+    private class ChannelFactory implements ResourcePool.ResourceFactory<Object,ChannelSftp>
+    {
+        public ChannelSftp createResource(Object key) throws VrsException
+        {
+            return server.createNewFTPChannel();
+        }
+
+        public boolean validate(ChannelSftp channel,long idleTime)
+        {
+            if (isHealthy(channel)==false)
+                return false;
+
+            if (idleTime<CHECK_IDLE_TIME)
+                return true;
+
+            return probe(channel);
+        }
+
+        public void dispose(ChannelSftp channel)
+        {
+            channel.disconnect();
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private SftpFileSystem server;
+
+    private ResourcePool<Object,ChannelSftp> pool;
+
+    private long numProbes=0;
+
+    private long numProbeFailures=0;
+
+    public SftpChannelPool(SftpFileSystem server,int maxChannels,long leaseTimeout)
+    {
+        this.server=server;
+
+        if (maxChannels<=0)
+            maxChannels=DEFAULT_MAX_CHANNELS;
+
+        if (leaseTimeout<=0)
+            leaseTimeout=DEFAULT_LEASE_TIMEOUT;
+
+        // all channels may be idle, they are closed with the session.
+        this.pool=new ResourcePool<Object,ChannelSftp>("sftp:"+server,new ChannelFactory(),maxChannels,maxChannels,0,leaseTimeout);
+        this.pool.setTimeoutHint("Increase the server attribute '"+SftpFSFactory.ATTR_SFTP_MAX_CHANNELS
+                +"' or lower the number of parallel transfers.");
+    }
+
+    /**
+     * Lease channel. Returns a healthy idle channel, creates a new one if the maximum
+     * hasn't been reached yet, or waits for a channel to be released.
+     * Leased channels must be returned with {@link #release(ChannelSftp)} or {@link #invalidate(ChannelSftp)}.
+     */
+    public ChannelSftp acquire() throws VrsException
+    {
+        return pool.acquire(null);
+    }
+
+    /**
+     * Register the object owning a leased channel, typically a stream. If the holder is garbage
+     * collected before the channel is returned, the channel is considered leaked and is reclaimed
+     * when the pool runs out of channels.
+     */
+    public void setLeaseHolder(ChannelSftp channel,Object holder)
+    {
+        pool.setLeaseHolder(channel,holder);
+    }
+
+    /**
+     * Return leased channel to the pool. The channel is checked before it is leased again.
+     */
+    public void release(ChannelSftp channel)
+    {
+        pool.release(channel);
+    }
+
+    /**
+     * Return leased channel which has (possibly) become unusable. The channel is disconnected.
+     */
+    public void invalidate(ChannelSftp channel)
+    {
+        pool.invalidate(channel);
+    }
+
+    /**
+     * Disconnect all idle channels, for example after the Session has been reconnected.
+     * Leased channels will be discarded when they fail the health check.
+     */
+    public void invalidateIdle()
+    {
+        pool.invalidateIdle();
+    }
+
+    /** Disconnect all channels. The pool can't be used anymore. */
+    public void close()
+    {
+        pool.close();
+    }
+
+    protected boolean isHealthy(ChannelSftp channel)
+    {
+        try
+        {
+            return (channel.isConnected() && (channel.isClosed()==false) && channel.getSession().isConnected());
+        }
+        catch (Exception e)
+        {
+            logger.debugPrintf("Channel health check failed:%s\n",e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks an idle channel with a server round trip. Note that pwd() is answered from the
+     * cached home directory, so stat(".") is used instead.
+     */
+    protected boolean probe(ChannelSftp channel)
+    {
+        synchronized(this)
+        {
+            numProbes++;
+        }
+
+        try
+        {
+            channel.stat(".");
+            return true;
+        }
+        catch (Exception e)
+        {
+            logger.infoPrintf("Discarding idle channel which failed the probe:%s\n",e);
+
+            synchronized(this)
+            {
+                numProbeFailures++;
+            }
+
+            return false;
+        }
+    }
+
+    // ========================================================================
+    // Metrics
+    // ========================================================================
+
+    public int getNumIdle()
+    {
+        return pool.getNumIdle();
+    }
+
+    public int getNumLeased()
+    {
+        return pool.getNumLeased();
+    }
+
+    public int getMaxChannels()
+    {
+        return pool.getMaxResources();
+    }
+
+    /** Returns the time in milliseconds of the longest outstanding lease or 0 if nothing is leased */
+    public long getLongestLeaseTime()
+    {
+        return pool.getLongestLeaseTime();
+    }
+
+    public String getStats()
+    {
+        long probes,failures;
+
+        synchronized(this)
+        {
+            probes=numProbes;
+            failures=numProbeFailures;
+        }
+
+        return "SftpChannelPool:"+server+":"+pool.getStats()+",probes="+probes+",probeFailures="+failures;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
@@ -21,10 +21,7 @@
 
 package nl.esciencecenter.vlet.vfs.ssh.jcraft;
 
-import java.util.Vector;
-
 import nl.esciencecenter.ptk.data.StringList;
-import nl.esciencecenter.ptk.net.URIFactory;
 import nl.esciencecenter.ptk.task.ActionTask;
 import nl.esciencecenter.ptk.task.ITaskMonitor;
 import nl.esciencecenter.vbrowser.vrs.data.Attribute;
@@ -49,32 +46,21 @@ public class SftpDir extends VDir implements VUnixFileAttributes
         _attrs=null; 
     }
     
+    /** 
+     * Create SftpDir with already fetched attributes. 
+     */ 
+    public SftpDir(SftpFileSystem server,VRL vrl,SftpATTRS attrs)
+    {
+        super(server,vrl);
+        this.server=server;
+        _attrs=attrs; 
+    }
+    
     @Override
     public VFSNode[] list() throws VrsException
     {
-        String childs[]=this.server.list(this.getPath());
-       
-        if (childs==null) 
-            return null;
-        
-        Vector<VFSNode> nodes=new Vector<VFSNode>(); 
-        
-        for (int i=0;i<childs.length;i++)
-        {
-            if ( (childs[i]==null) 
-                 || (childs[i].compareTo(".")==0) 
-                 || (childs[i].compareTo("..")==0) )
-            {
-                
-            }
-            else
-            {
-              String filepath=this.getPath()+URIFactory.URI_SEP_CHAR+childs[i];
-              nodes.add(server.getPath(filepath)); 
-            }
-        }
-        
-        return VFSNode.returnAsArray(nodes); 
+        // Use attributes returned by ls() instead of stat-ing each child. 
+        return this.server.listNodes(this.getPath());
     }
 
     public boolean create(boolean ignoreExisting) throws VrsException
@@ -43,6 +43,12 @@ public class SftpFSFactory extends VFSFactory
 
 	  public static final String ATTR_KNOWN_HOSTS_FILE = "sshKnownHostsFile";
 	  public static final String ATTR_SSH_CONFIG_DIR = "sshConfigDir";
+	  /** Maximum number of concurrent SFTP channels per SSH session */ 
+	  public static final String ATTR_SFTP_MAX_CHANNELS = "sftpMaxChannels";
+	  /** Time in milliseconds to wait for a free SFTP channel */ 
+	  public static final String ATTR_SFTP_CHANNEL_LEASE_TIMEOUT = "sftpChannelLeaseTimeout";
+	  /** Maximum number of outstanding SFTP read requests per channel */ 
+	  public static final String ATTR_SFTP_REQUEST_WINDOW = "sftpRequestWindow";
 	 
 
 	static String sftpFileAttributeNames[]=
@@ -112,6 +118,9 @@ public class SftpFSFactory extends VFSFactory
         info.setIfNotSet(ServerInfo.ATTR_SSH_PROXY_HOSTNAME,"<none>"); 
         info.setIfNotSet(ServerInfo.ATTR_SSH_PROXY_PORT,22); 
         info.setIfNotSet(ServerInfo.ATTR_SSH_LOCAL_PROXY_PORT,0); 
+        info.setIfNotSet(ATTR_SFTP_MAX_CHANNELS,SftpChannelPool.DEFAULT_MAX_CHANNELS); 
+        info.setIfNotSet(ATTR_SFTP_CHANNEL_LEASE_TIMEOUT,SftpChannelPool.DEFAULT_LEASE_TIMEOUT); 
+        info.setIfNotSet(ATTR_SFTP_REQUEST_WINDOW,SftpFileSystem.DEFAULT_REQUEST_WINDOW); 
         
         // always use password authentication: 
         info.setUsePasswordAuth();
@@ -26,8 +26,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import nl.esciencecenter.ptk.data.StringList;
+import nl.esciencecenter.ptk.io.RandomReadable;
+import nl.esciencecenter.ptk.io.RandomWritable;
 import nl.esciencecenter.vbrowser.vrs.data.Attribute;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vbrowser.vrs.io.VRandomReadable;
+import nl.esciencecenter.vbrowser.vrs.io.VRandomWritable;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.exception.NestedIOException;
 import nl.esciencecenter.vlet.vrs.VRS;
@@ -38,7 +42,7 @@ import nl.esciencecenter.vlet.vrs.vfs.VUnixFileAttributes;
 
 import com.jcraft.jsch.SftpATTRS;
 
-public class SftpFile extends VFile implements VUnixFileAttributes
+public class SftpFile extends VFile implements VUnixFileAttributes, VRandomReadable, VRandomWritable
 {
     /** Currently SFTP can NOT handle stream read/write > 3200 per read/write */
 
@@ -61,6 +65,16 @@ public class SftpFile extends VFile implements VUnixFileAttributes
         init(server, vrl.getPath());
     }
 
+    /** 
+     * Create SftpFile with already fetched attributes. 
+     */ 
+    SftpFile(SftpFileSystem server, VRL vrl, SftpATTRS attrs)
+    {
+        super(server, vrl);
+        init(server, vrl.getPath());
+        this._attrs = attrs;
+    }
+
     SftpFile(SftpFileSystem server, String path)
     {
         super(server, new VRL(VRS.SFTP_SCHEME, null, server.getHostname(), server.getPort(), path));
@@ -190,6 +204,20 @@ public class SftpFile extends VFile implements VUnixFileAttributes
 
     }
 
+    // ========================================================================
+    // VRandom[Readable|Writable]
+    // ========================================================================
+
+    public RandomReadable createRandomReadable()
+    {
+        return new SftpRandomAccessable(server, getPath());
+    }
+
+    public RandomWritable createRandomWritable()
+    {
+        return new SftpRandomAccessable(server, getPath());
+    }
+
     // @Override
     public void setLengthToZero() throws IOException
     {
@@ -38,6 +38,7 @@ import nl.esciencecenter.vbrowser.vrs.data.AttributeType;
 import nl.esciencecenter.vbrowser.vrs.data.AttributeUtil;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.VletConfig;
 import nl.esciencecenter.vlet.exception.AuthenticationException;
 import nl.esciencecenter.vlet.exception.NestedIOException;
 import nl.esciencecenter.vlet.exception.ResourceAlreadyExistsException;
@@ -85,6 +86,12 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         //logger.setLevelToDebug();
     }
     
+    /** Default number of outstanding SFTP read requests per channel */ 
+    public static final int DEFAULT_REQUEST_WINDOW = 32;
+    
+    /** Approximate size of a single SFTP read request as used by JSch */ 
+    public static final int SFTP_READ_BLOCK_SIZE = 32*1024;
+    
     ClassLogger getLogger()
     {
         return logger; 
@@ -287,7 +294,11 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
 
     private JCraftClient jcraftClient;
 
-    private ChannelSftp sftpChannel;
+    /** Reusable SFTP channels, used for both metadata calls and streams */ 
+    private SftpChannelPool channelPool;
+
+    /** Maximum number of outstanding read requests (bulk requests) per channel */ 
+    private int requestWindow = DEFAULT_REQUEST_WINDOW;
 
     private VLUserInfo proxyUserInfo;
     private Session proxySession;
@@ -414,18 +425,13 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         return getPath(path);
     }
 
-    public VFSNode getPath(String path) throws VrsException
+    /** Create VRL for the specified absolute path on this server */ 
+    protected VRL createPathVRL(String path)
     {
         String user = getUsername();
         int port = getPort();
         String host = getHostname();
 
-        // '~' expansion -> default home
-
-        if (path.startsWith("~"))
-            path = defaultHome + "/" + path.substring(1, path.length());
-        else if (path.startsWith("/~"))
-            path = defaultHome + "/" + path.substring(2, path.length());
         //
         // hide default port from location
         // IMPORTANT: must match accountID in ServerInfo !
@@ -434,39 +440,26 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         if (port == VRS.DEFAULT_SSH_PORT)
             port = 0;
 
-        VRL vrl = new VRL(VRS.SFTP_SCHEME, user, host, port, path);
+        return new VRL(VRS.SFTP_SCHEME, user, host, port, path);
+    }
+    
+    public VFSNode getPath(String path) throws VrsException
+    {
+        // '~' expansion -> default home
+
+        if (path.startsWith("~"))
+            path = defaultHome + "/" + path.substring(1, path.length());
+        else if (path.startsWith("/~"))
+            path = defaultHome + "/" + path.substring(2, path.length());
+
+        VRL vrl = createPathVRL(path);
 
         logger.debugPrintf("getPath():%s\n", path);
 
         SftpATTRS attrs = null;
 
-        try
-        {
-            synchronized (serverMutex)
-            {
-                checkState();
-
-                // Must throw the right Exception:
-
-                /*
-                 * // cd to dirname to speed up stat String
-                 * pwd=sftpChannel.pwd(); String dirname=VRL.dirname(path);
-                 * 
-                 * if (pwd.compareTo(dirname)!=0) { Debug("cd to:"+dirname);
-                 * sftpChannel.cd(dirname); }
-                 * 
-                 * attrs = sftpChannel.lstat(VRL.basename(path));
-                 * 
-                 * //attrs = sftpChannel.stat(VRL.basename(path));
-                 */
-                // do not resolve (possivle errornous) link:
-                attrs = this.getSftpAttrs(path, false);
-            }
-        }
-        catch (Exception e)
-        {
-            throw convertException(e);
-        }
+        // do not resolve (possivle errornous) link:
+        attrs = this.getSftpAttrs(path, false);
 
         if (attrs == null)
         {
@@ -526,52 +519,123 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
     }
 
     
-    public String[] list(String path) throws VrsException
+    /**
+     * List directory and create the child nodes using the attributes returned by ls(). 
+     * The nodes will have their (lstat) attributes already cached, only 
+     * symbolic links are stat-ed to check whether the link target is a directory.
+     * The "." and ".." entries are skipped.  
+     */
+    public VFSNode[] listNodes(String dirPath) throws VrsException
     {
-        logger.debugPrintf("listing:%s\n", path);
+        logger.debugPrintf("listing nodes:%s\n", dirPath);
 
-        try
+        java.util.Vector<?> dirList = ls(dirPath);
+        
+        java.util.Vector<VFSNode> nodes = new java.util.Vector<VFSNode>(dirList.size()); 
+        
+        for (int i = 0; i < dirList.size(); i++)
         {
-            java.util.Vector<?> dirList;
+            Object entry = dirList.elementAt(i);
 
-            synchronized (serverMutex)
+            if ((entry instanceof ChannelSftp.LsEntry)==false)
             {
-                try
-                {
-                    checkState();
-                    dirList = sftpChannel.ls(path);
-                }
-                catch (Exception e)
-                {
-                    checkState();
-                    dirList = sftpChannel.ls(path);
-                }
+                logger.warnPrintf("ls() returned unknown entry[%d]=%s\n", i, entry.getClass().getCanonicalName());
+                continue; 
+            }
+            
+            ChannelSftp.LsEntry lsEntry = (ChannelSftp.LsEntry) entry;
+            String name=lsEntry.getFilename(); 
+            
+            if ((name == null) || (name.compareTo(".") == 0) || (name.compareTo("..") == 0))
+                continue; 
+            
+            String path = dirPath + URIFactory.URI_SEP_CHAR + name;
+            VFSNode node = createNode(path,lsEntry.getAttrs());
+            
+            if (node != null)
+                nodes.add(node); 
+        }
+        
+        return VFSNode.returnAsArray(nodes); 
+    }
+    
+    /**
+     * Create new SftpDir or SftpFile using the already fetched (lstat) attributes.
+     * Returns NULL if no attributes are provided. 
+     */ 
+    protected VFSNode createNode(String path,SftpATTRS attrs)
+    {
+        if (attrs == null)
+            return null; 
+        
+        VRL vrl = createPathVRL(path);
+        
+        if (attrs.isDir())
+        {
+            return new SftpDir(this, vrl, attrs);
+        }
+        else if (attrs.isLink())
+        {
+            try
+            {
+                SftpATTRS targetAttrs = getSftpAttrs(path, true);
 
+                // return linked directory as VDir ! (not file)
+                if ((targetAttrs != null) && (targetAttrs.isDir()))
+                    return new SftpDir(this, vrl, attrs);
+            }
+            catch (Exception e)
+            {
+                logger.logException(ClassLogger.WARN, e, "Exception when resolving link:%s\n", vrl);
             }
+        }
+        
+        // default: return as file
+        return new SftpFile(this, vrl, attrs);
+    }
+    
+    public String[] list(String path) throws VrsException
+    {
+        logger.debugPrintf("listing:%s\n", path);
 
-            int index = 0;
-            String childs[] = new String[dirList.size()];
+        java.util.Vector<?> dirList = ls(path);
 
-            for (int i = 0; i < dirList.size(); i++)
-            {
-                Object entry = dirList.elementAt(i);
+        int index = 0;
+        String childs[] = new String[dirList.size()];
 
-                if (entry instanceof com.jcraft.jsch.ChannelSftp.LsEntry)
-                {
-                    ChannelSftp.LsEntry lsEntry = (ChannelSftp.LsEntry) entry;
-                    childs[index] = lsEntry.getFilename();
-                }
-                else
-                {
-                    logger.warnPrintf("ls() returned unknown entry[%d]=%s\n", index, entry.getClass()
-                            .getCanonicalName());
-                    childs[index] = null;
-                }
+        for (int i = 0; i < dirList.size(); i++)
+        {
+            Object entry = dirList.elementAt(i);
 
-                index++;
+            if (entry instanceof com.jcraft.jsch.ChannelSftp.LsEntry)
+            {
+                ChannelSftp.LsEntry lsEntry = (ChannelSftp.LsEntry) entry;
+                childs[index] = lsEntry.getFilename();
             }
+            else
+            {
+                logger.warnPrintf("ls() returned unknown entry[%d]=%s\n", index, entry.getClass()
+                        .getCanonicalName());
+                childs[index] = null;
+            }
+
+            index++;
+        }
 
-            return childs;
+        return childs;
+    }
+
+    private java.util.Vector<?> ls(final String path) throws VrsException
+    {
+        try
+        {
+            return executeWithRetry(new SftpCall<java.util.Vector<?>>()
+            {
+                public java.util.Vector<?> call(ChannelSftp channel) throws SftpException
+                {
+                    return channel.ls(path);
+                }
+            });
         }
         catch (SftpException e)
         {
@@ -579,60 +643,52 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         }
     }
 
-    public boolean existsPath(String path, boolean checkDir) throws VrsException
+    public boolean existsPath(final String path, boolean checkDir) throws VrsException
     {
         try
         {
-            synchronized (serverMutex)
+            SftpATTRS attrs = executeWithRetry(new SftpCall<SftpATTRS>()
             {
-                SftpATTRS attrs;
-
-                try
+                public SftpATTRS call(ChannelSftp channel) throws SftpException
                 {
-                    checkState();
-                    attrs = sftpChannel.lstat(path);
-                }
-                catch (Exception e)
-                {
-                    checkState();
-                    attrs = sftpChannel.lstat(path);
+                    return channel.lstat(path);
                 }
+            });
 
-                // sadly stat generates an exception when the path doesn't
-                // exists,
-                // so the following code will not be executed.
-                if (attrs == null)
+            // sadly stat generates an exception when the path doesn't
+            // exists,
+            // so the following code will not be executed.
+            if (attrs == null)
+            {
+                return false;
+            }
+            else
+            {
+                if (checkDir == true)
                 {
-                    return false;
+                    if (attrs.isDir() == true)
+                    {
+                        return true;
+                    }
+                    else
+                    {
+                        // exists but is NOT a directory !
+                        return false;
+                    }
                 }
                 else
                 {
-                    if (checkDir == true)
+                    if (attrs.isDir() == false)
                     {
-                        if (attrs.isDir() == true)
-                        {
-                            return true;
-                        }
-                        else
-                        {
-                            // exists but is NOT a directory !
-                            return false;
-                        }
+                        return true;
                     }
                     else
                     {
-                        if (attrs.isDir() == false)
-                        {
-                            return true;
-                        }
-                        else
-                        {
-                            // exists but is NOT a file !
-                            return false;
-                        }
+                        // exists but is NOT a file !
+                        return false;
                     }
                 }
-            } // synchronized
+            }
         }
         catch (Exception e)
         {
@@ -641,7 +697,6 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
                 SftpException ex = (SftpException) e;
 
                 // logger.messagePrintln(this,"after existsPath, session="+this.session.isConnected());
-                // logger.messagePrintln(this,"after existsPath, channel="+this.sftpChannel.isConnected());
 
                 // SftpException reason 2=no such file !
                 if (ex.id == 2)
@@ -652,17 +707,21 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         }
     }
 
-    public void uploadFile(VFSTransfer transfer, String localfilepath, String remotefilepath) throws VrsException
+    public void uploadFile(VFSTransfer transfer, final String localfilepath, final String remotefilepath) throws VrsException
     {
         try
         {
-            synchronized (serverMutex)
+            // jCraft has a tranfer interface !
+            final SftpTransferMonitor monitor = new SftpTransferMonitor(transfer);
+            
+            execute(new SftpCall<Object>()
             {
-                checkState();
-                // jCraft has a tranfer interface !
-                SftpTransferMonitor monitor = new SftpTransferMonitor(transfer);
-                this.sftpChannel.put(localfilepath, remotefilepath, monitor);
-            }
+                public Object call(ChannelSftp channel) throws SftpException
+                {
+                    channel.put(localfilepath, remotefilepath, monitor);
+                    return null; 
+                }
+            }); 
         }
         catch (Exception e)
         {
@@ -671,17 +730,21 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
 
     }
 
-    public void downloadFile(VFSTransfer transfer, String remotefilepath, String localfilepath) throws VrsException
+    public void downloadFile(VFSTransfer transfer, final String remotefilepath, final String localfilepath) throws VrsException
     {
         try
         {
-            synchronized (serverMutex)
+            // jCraft has a tranfer interface !
+            final SftpTransferMonitor monitor = new SftpTransferMonitor(transfer);
+            
+            execute(new SftpCall<Object>()
             {
-                checkState();
-                // jCraft has a tranfer interface !
-                SftpTransferMonitor monitor = new SftpTransferMonitor(transfer);
-                this.sftpChannel.get(remotefilepath, localfilepath, monitor);
-            }
+                public Object call(ChannelSftp channel) throws SftpException
+                {
+                    channel.get(remotefilepath, localfilepath, monitor);
+                    return null; 
+                }
+            }); 
         }
         catch (Exception e)
         {
@@ -689,7 +752,7 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         }
     }
 
-    public VDir createDir(String dirpath, boolean ignoreExisting) throws VrsException
+    public VDir createDir(final String dirpath, boolean ignoreExisting) throws VrsException
     {
         // check existing!
         SftpATTRS attrs = null;
@@ -723,11 +786,14 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
 
         try
         {
-            synchronized (serverMutex)
+            execute(new SftpCall<Object>()
             {
-                checkState();
-                sftpChannel.mkdir(dirpath);
-            }
+                public Object call(ChannelSftp channel) throws SftpException
+                {
+                    channel.mkdir(dirpath);
+                    return null; 
+                }
+            }); 
 
             return (VDir) getPath(dirpath);
         }
@@ -774,17 +840,10 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
 
         try
         {
-            OutputStream output;
-
-            synchronized (this.serverMutex)
-            {
-                checkState();
-
-                output = this.sftpChannel.put(filepath, ChannelSftp.OVERWRITE);
-                output.write(nulbuf);
-                output.flush();
-                output.close();
-            }
+            OutputStream output = createOutputStream(filepath, false);
+            output.write(nulbuf);
+            output.flush();
+            output.close();
 
             VFSNode node = getPath(filepath);
 
@@ -808,23 +867,25 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         return getSftpAttrs(filepath, false);
     }
 
-    public boolean delete(String path, boolean isDir) throws VrsException
+    public boolean delete(final String path, final boolean isDir) throws VrsException
     {
         try
         {
-            synchronized (serverMutex)
+            execute(new SftpCall<Object>()
             {
-                checkState();
-
-                if (isDir == false)
+                public Object call(ChannelSftp channel) throws SftpException
                 {
-                    sftpChannel.rm(path);
-                }
-                else
-                {
-                    sftpChannel.rmdir(path);
+                    if (isDir == false)
+                    {
+                        channel.rm(path);
+                    }
+                    else
+                    {
+                        channel.rmdir(path);
+                    }
+                    return null; 
                 }
-            }
+            }); 
 
             return (existsPath(path, isDir) == false);
         }
@@ -834,31 +895,20 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         }
     }
 
-    public SftpATTRS getSftpAttrs(String path, boolean resolveLink) throws VrsException
+    public SftpATTRS getSftpAttrs(final String path, final boolean resolveLink) throws VrsException
     {
         try
         {
-            synchronized (serverMutex)
+            return executeWithRetry(new SftpCall<SftpATTRS>()
             {
-                try
+                public SftpATTRS call(ChannelSftp channel) throws SftpException
                 {
-                    checkState();
-
                     if (resolveLink == false)
-                        return sftpChannel.lstat(path);
+                        return channel.lstat(path);
                     else
-                        return sftpChannel.stat(path);
+                        return channel.stat(path);
                 }
-                catch (Exception e)
-                {
-                    checkState();
-
-                    if (resolveLink == false)
-                        return sftpChannel.lstat(path);
-                    else
-                        return sftpChannel.stat(path);
-                }
-            }
+            });
         }
         catch (Exception e)
         {
@@ -867,13 +917,16 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         }
     }
 
-    private ChannelSftp createNewFTPChannel() throws VrsException
+    /** Open new SFTP channel on the current session. Used by the SftpChannelPool */ 
+    ChannelSftp createNewFTPChannel() throws VrsException
     {
         try
         {
             ChannelSftp channel;
             channel = (ChannelSftp) session.openChannel("sftp");
             channel.connect();
+            // pipelined reads: 
+            channel.setBulkRequests(requestWindow);
             return channel;
 
         }
@@ -883,15 +936,18 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         }
     }
 
-    public void setSftpAttrs(String path, boolean isDir, SftpATTRS attrs) throws VrsException
+    public void setSftpAttrs(final String path, boolean isDir, final SftpATTRS attrs) throws VrsException
     {
         try
         {
-            synchronized (serverMutex)
+            execute(new SftpCall<Object>()
             {
-                checkState();
-                sftpChannel.setStat(path, attrs);
-            }
+                public Object call(ChannelSftp channel) throws SftpException
+                {
+                    channel.setStat(path, attrs);
+                    return null; 
+                }
+            }); 
         }
         catch (SftpException e)
         {
@@ -911,60 +967,165 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
 
     public InputStream createInputStream(String path) throws VrsException
     {
+        // lease channel for multithreaded viewing ! 
+        ChannelSftp channel = leaseChannel();
+
         try
         {
-            ChannelSftp newChannel = null;
-
-            synchronized (serverMutex)
-            {
-                checkState();
-                // old:
-                // return this.sftpChannel.get(path);
-                // open up a new channel for multithreaded viewing !
-                newChannel = (ChannelSftp) this.session.openChannel("sftp");
+            InputStream inps = channel.get(path);
+            return new InputStreamWatcher(channelPool, channel, inps);
+        }
+        catch (Exception e)
+        {
+            releaseChannel(channel, e); 
+            throw convertException(e);
+        }
+    }
 
-            }
-            newChannel.connect();
-            InputStream inps = newChannel.get(path);
+    public OutputStream createOutputStream(String path, boolean append) throws VrsException
+    {
+        // lease private channel:
+        ChannelSftp channel = leaseChannel();
 
-            return new InputStreamWatcher(newChannel, inps);
+        try
+        {
+            int mode = ChannelSftp.APPEND;
+            if (append == false)
+                mode = ChannelSftp.OVERWRITE;
 
+            OutputStream outps = channel.put(path, mode);
+            return new OutputStreamWatcher(channelPool, outps, channel);
         }
         catch (Exception e)
         {
+            releaseChannel(channel, e); 
             throw convertException(e);
         }
-        // return null;
     }
 
-    public OutputStream createOutputStream(String path, boolean append) throws VrsException
+    /**
+     * Read nrBytes from the remote file starting at fileOffset. 
+     * The read is pipelined: up to 'requestWindow' read requests at increasing offsets are 
+     * outstanding at the same time. Returns the number of bytes read, or -1 if fileOffset 
+     * is at or beyond the end of the file. 
+     */
+    public int syncRead(String path, long fileOffset, byte buffer[], int bufferOffset, int nrBytes) throws IOException
     {
+        ChannelSftp channel = leaseIOChannel();
+        InputStream inps = null; 
+        Exception error = null; 
+        
         try
         {
-            synchronized (serverMutex)
+            // do not read (too far) ahead of the requested range: 
+            int window = Math.min(requestWindow, (nrBytes / SFTP_READ_BLOCK_SIZE) + 1); 
+            channel.setBulkRequests(window);
+            
+            inps = channel.get(path, null, fileOffset);
+            
+            int numRead = 0;
+            
+            while (numRead < nrBytes)
             {
-                checkState();
-
-                // create private channel:
-
-                ChannelSftp outputChannel = (ChannelSftp) session.openChannel("sftp");
-                outputChannel.connect();
-
-                int mode = ChannelSftp.APPEND;
-                if (append == false)
-                    mode = ChannelSftp.OVERWRITE;
-
-                OutputStream outps = outputChannel.put(path, mode);
-                return new OutputStreamWatcher(outps, outputChannel);
-
-                // return this.sftpChannel.put(path,ChannelSftp.OVERWRITE);
+                int n = inps.read(buffer, bufferOffset + numRead, nrBytes - numRead);
+                
+                if (n < 0)
+                    break; // EOF 
+                
+                numRead += n; 
             }
+
+            if ((numRead == 0) && (nrBytes > 0))
+                return -1; 
+            
+            return numRead;
+        }
+        catch (IOException e)
+        {
+            error = e; 
+            throw e; 
         }
         catch (Exception e)
         {
-            throw convertException(e);
+            error = e; 
+            throw new NestedIOException(convertException(e, "Couldn't read from remote file:" + path)); 
         }
+        finally
+        {
+            closeIOChannel(channel, inps, error); 
+        }
+    }
 
+    /**
+     * Write nrBytes to the remote file at fileOffset. The file is created if it doesn't exist, 
+     * existing contents outside the written range are kept. 
+     * Write requests are pipelined: up to 'requestWindow' requests are outstanding at the same time. 
+     */
+    public void syncWrite(String path, long fileOffset, byte buffer[], int bufferOffset, int nrBytes) throws IOException
+    {
+        SftpPositionalWriter writer = createPositionalWriter(path); 
+        
+        try
+        {
+            writer.write(fileOffset, buffer, bufferOffset, nrBytes); 
+        }
+        finally
+        {
+            writer.close(); 
+        }
+    }
+    
+    /**
+     * Open the remote file for writing at explicit offsets. 
+     * The writer leases a channel from the channel pool which is returned when the writer is closed.  
+     */
+    public SftpPositionalWriter createPositionalWriter(String path) throws IOException
+    {
+        return new SftpPositionalWriter(channelPool, leaseIOChannel(), path); 
+    }
+    
+    private ChannelSftp leaseIOChannel() throws IOException
+    {
+        try
+        {
+            return leaseChannel();
+        }
+        catch (VrsException e)
+        {
+            throw new NestedIOException(e);
+        } 
+    }
+    
+    /** Close (optional) stream, restore channel settings and return channel to the pool */  
+    private void closeIOChannel(ChannelSftp channel, java.io.Closeable optStream, Exception optException)
+    {
+        if (optStream != null)
+        {
+            try
+            {
+                optStream.close();
+            }
+            catch (IOException e)
+            {
+                logger.debugPrintf("Exception when closing stream:%s\n", e);
+                if (optException == null)
+                    optException = e; 
+            }
+        }
+        
+        if (optException == null)
+        {
+            try
+            {
+                channel.setBulkRequests(requestWindow);
+            }
+            catch (JSchException e)
+            {
+                optException = e; 
+            }
+        }
+        
+        releaseChannel(channel, optException); 
     }
 
     public String rename(String path, String newName, boolean nameIsPath) throws VrsException
@@ -979,21 +1140,26 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
 
         logger.infoPrintf("rename:'%s' -> '%s'\n", path, newPath);
 
+        final String oldPath = path; 
+        final String targetPath = newPath; 
+        
         try
         {
-            synchronized (serverMutex)
+            execute(new SftpCall<Object>()
             {
-                checkState();
-
-                sftpChannel.rename(path, newPath);
-            }
+                public Object call(ChannelSftp channel) throws SftpException
+                {
+                    channel.rename(oldPath, targetPath);
+                    return null; 
+                }
+            }); 
         }
         catch (SftpException e)
         {
             boolean destExists = false;
             try
             {
-                if (sftpChannel.stat(newPath) != null)
+                if (getSftpAttrs(newPath, true) != null)
                     destExists = true;
             }
             catch (Exception e2)
@@ -1049,8 +1215,8 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
             SftpException ex = (SftpException) e;
 
             String reason = "Error   =" + ex.id + ":" + JCraftClient.getJschErrorString(ex.id) + "\n" + "message ="
-                    + ex.getMessage() + "\n" + "Channel connected=" + sftpChannel.isConnected() + "\n"
-                    + "Session connected=" + session.isConnected() + "\n";
+                    + ex.getMessage() + "\n" 
+                    + "Session connected=" + isConnected() + "\n";
 
             // logger.messagePrintln(this,"sftp error="+getJschErrorString(ex.id));
 
@@ -1278,7 +1444,7 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         {
 
             initSession();
-            initSftpChannel();
+            initChannelPool();
 
             logger.debugPrintf("Connected to:%s:%d\n", getHostname(), getPort());
 
@@ -1288,7 +1454,13 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
             
             try
             {
-                defaultHome = this.sftpChannel.pwd();
+                defaultHome = execute(new SftpCall<String>()
+                {
+                    public String call(ChannelSftp channel) throws SftpException
+                    {
+                        return channel.pwd();
+                    }
+                });
             }
             catch (SftpException e)
             {
@@ -1421,11 +1593,40 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
     }
     
     
-    private void initSftpChannel() throws VrsException
+    private void initChannelPool() 
     {
-        // channel.setExtOutputStream(new OutputLog());
-        // channel.setOutputStream(new OutputLog());
-        this.sftpChannel = createNewFTPChannel();
+        ServerInfo info = this.getServerInfo();
+        
+        int maxChannels = info.getIntProperty(SftpFSFactory.ATTR_SFTP_MAX_CHANNELS, SftpChannelPool.DEFAULT_MAX_CHANNELS);
+        int leaseTimeout = info.getIntProperty(SftpFSFactory.ATTR_SFTP_CHANNEL_LEASE_TIMEOUT, SftpChannelPool.DEFAULT_LEASE_TIMEOUT);
+        int window = info.getIntProperty(SftpFSFactory.ATTR_SFTP_REQUEST_WINDOW, DEFAULT_REQUEST_WINDOW);
+        
+        // parallel copy workers each hold two channels for an SFTP to SFTP copy 
+        int workers = getVRSContext().getIntProperty(VletConfig.PROP_VFS_PARALLEL_COPY_WORKERS, VFS.DEFAULT_PARALLEL_COPY_WORKERS);
+        int minChannels = SftpChannelPool.getMinChannels(workers); 
+        
+        if (maxChannels < minChannels)
+        {
+            logger.infoPrintf("Increasing SFTP channel pool from %d to %d channels for %d parallel copy workers\n",maxChannels,minChannels,workers); 
+            maxChannels = minChannels; 
+        }
+        
+        
+        this.requestWindow = (window > 0) ? window : 1; 
+        
+        synchronized (serverMutex)
+        {
+            if (this.channelPool != null)
+                this.channelPool.close(); 
+            
+            this.channelPool = new SftpChannelPool(this, maxChannels, leaseTimeout);
+        }
+    }
+
+    /** Returns the SFTP channel pool of the current session */ 
+    public SftpChannelPool getChannelPool()
+    {
+        return this.channelPool;
     }
 
     private void checkState() throws VrsException
@@ -1434,26 +1635,20 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         {
             synchronized (serverMutex)
             {
-                if (this.session.isConnected() == false)
+                if ((this.session == null) || (this.session.isConnected() == false))
                 {
                     // not really an error, reconnect usually succeeds. If
                     // reconnect fails -> throw exception
                     logger.errorPrintf("*** Error: Session disconnected: reconnecting:%s\n", this);
 
                     initSession(); 
-                    // recreate sftpChannel: 
-                    
-                    if (sftpChannel.isConnected() == true)
-                        sftpChannel.disconnect();
-
-                    sftpChannel = null;
-                }
-
-                if ((this.sftpChannel == null) || this.sftpChannel.isConnected() == false)
-                {
-                    logger.errorPrintf("*** Error: SFTP Channel closed: reconnecting:%s\n", this);
-                    initSftpChannel(); 
+                    // channels of the previous session can not be used anymore:  
+                    if (channelPool != null)
+                        channelPool.invalidateIdle(); 
                 }
+                
+                if (channelPool == null)
+                    initChannelPool(); 
             }
         }
         catch (JSchException e)
@@ -1462,6 +1657,92 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
         }
     }
 
+    // =======================================================================
+    // Channel leasing 
+    // =======================================================================
+
+    /** 
+     * SFTP call to be executed with a leased channel.
+     */ 
+    private static interface SftpCall<T>
+    {
+        public T call(ChannelSftp channel) throws SftpException; 
+    }
+    
+    /** Lease channel from the pool. Must be returned with releaseChannel() */
+    private ChannelSftp leaseChannel() throws VrsException
+    {
+        SftpChannelPool pool; 
+        
+        synchronized (serverMutex)
+        {
+            checkState(); 
+            pool = this.channelPool; 
+        }
+        
+        return pool.acquire(); 
+    }
+    
+    /** 
+     * Return channel to the pool. If an exception occurred during the call, the channel is 
+     * only reused if it still is connected.   
+     */ 
+    private void releaseChannel(ChannelSftp channel, Exception optException)
+    {
+        SftpChannelPool pool = this.channelPool; 
+        
+        if (pool == null)
+            channel.disconnect(); // disconnected meanwhile
+        else if ((optException==null) || ((optException instanceof SftpException) && channel.isConnected()))
+            pool.release(channel);
+        else
+            pool.invalidate(channel); 
+    }
+    
+    /** Execute call using a leased channel. */ 
+    private <T> T execute(SftpCall<T> call) throws SftpException, VrsException
+    {
+        ChannelSftp channel = leaseChannel(); 
+        
+        try
+        {
+            T result = call.call(channel);
+            releaseChannel(channel, null); 
+            return result; 
+        }
+        catch (SftpException e)
+        {
+            releaseChannel(channel, e);
+            throw e; 
+        }
+        catch (RuntimeException e)
+        {
+            releaseChannel(channel, e);
+            throw e; 
+        }
+    }
+    
+    /** 
+     * Execute call using a leased channel and retry once with another channel if the call failed, 
+     * unless the file doesn't exist or access is denied. 
+     */ 
+    private <T> T executeWithRetry(SftpCall<T> call) throws SftpException, VrsException
+    {
+        try
+        {
+            return execute(call); 
+        }
+        catch (SftpException e)
+        {
+            if ((e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) || (e.id == ChannelSftp.SSH_FX_PERMISSION_DENIED))
+                throw e; 
+            
+            logger.debugPrintf("Retrying SFTP call after:%s\n",e); 
+        }
+        
+        return execute(call); 
+    }
+
     public String[] getSSHIdentities()
     {
         String idStr = getServerInfo().getStringProperty(ServerInfo.ATTR_SSH_IDENTITY);
@@ -1482,10 +1763,17 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
     {
         synchronized (serverMutex)
         {
-            this.sftpChannel.disconnect();
-            this.session.disconnect();
+            if (this.channelPool != null)
+            {
+                logger.debugPrintf("Closing channels:%s\n", channelPool.getStats()); 
+                this.channelPool.close();
+            }
+            
+            if (this.session != null)
+                this.session.disconnect();
+            
             this.session = null;
-            this.sftpChannel = null;
+            this.channelPool = null;
         }
     }
 
@@ -1501,8 +1789,10 @@ public class SftpFileSystem extends FileSystemNode implements VOutgoingTunnelCre
 
     public boolean isConnected()
     {
-        if (this.sftpChannel != null)
-            return this.sftpChannel.isConnected();
+        Session current = this.session; 
+        
+        if (current != null)
+            return current.isConnected();
 
         return false;
     }
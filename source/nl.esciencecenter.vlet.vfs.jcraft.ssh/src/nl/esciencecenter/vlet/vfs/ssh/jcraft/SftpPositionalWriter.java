@@ -0,0 +1,163 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.ssh.jcraft;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vlet.exception.NestedIOException;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Writes to an SFTP file at explicit offsets using one leased channel of the SftpChannelPool.
+ * <p>
+ * The file is opened with ChannelSftp.put(path,monitor,mode,offset). For sequential writes
+ * the same output stream is kept open, so the write requests are pipelined by JSch
+ * (up to the bulk request setting of the channel). A write at another offset closes the
+ * stream, which waits for the outstanding acknowledgements, and reopens the file at the new offset.
+ * A failed write request is reported by a following write() or by close().
+ * <p>
+ * The channel is returned to the pool when the writer is closed. A writer may only be used by
+ * one thread at a time.
+ */
+public class SftpPositionalWriter
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(SftpPositionalWriter.class);
+    }
+
+    /**
+     * Write mode for ChannelSftp.put(). ChannelSftp opens the file with SSH_FXF_WRITE|SSH_FXF_CREAT
+     * for every mode other than OVERWRITE (which truncates), and only adds the current file
+     * size to the offset for RESUME and APPEND. With this mode existing contents are kept and
+     * the data is written at exactly the given offset.
+     */
+    private static final int MODE_WRITE_AT_OFFSET=3;
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private SftpChannelPool pool;
+
+    private ChannelSftp channel;
+
+    private String path;
+
+    private OutputStream outps=null;
+
+    /** File offset the open stream writes to next */
+    private long streamOffset=0;
+
+    /** Writer on leased channel. The channel is returned to the pool when the writer is closed */
+    public SftpPositionalWriter(SftpChannelPool pool,ChannelSftp channel,String path)
+    {
+        this.pool=pool;
+        this.channel=channel;
+        this.path=path;
+        pool.setLeaseHolder(channel,this);
+    }
+
+    /**
+     * Write nrBytes at fileOffset. The file is created if it doesn't exist, existing contents
+     * outside the written range are kept.
+     */
+    public void write(long fileOffset,byte buffer[],int bufferOffset,int nrBytes) throws IOException
+    {
+        if (channel==null)
+            throw new IOException("Writer has been closed:"+path);
+
+        try
+        {
+            if ((outps!=null) && (streamOffset!=fileOffset))
+                closeStream();
+
+            if (outps==null)
+            {
+                outps=channel.put(path,null,MODE_WRITE_AT_OFFSET,fileOffset);
+                streamOffset=fileOffset;
+            }
+
+            OutputStreamWatcher.writeChunked(outps,buffer,bufferOffset,nrBytes);
+            streamOffset+=nrBytes;
+        }
+        catch (SftpException e)
+        {
+            // open failed: the channel itself is still usable.
+            throw new NestedIOException("Couldn't open remote file for writing:"+path,e);
+        }
+        catch (IOException e)
+        {
+            // channel state unknown
+            invalidate();
+            throw e;
+        }
+    }
+
+    /** Close the remote file and return the channel to the pool */
+    public void close() throws IOException
+    {
+        if (channel==null)
+            return;
+
+        try
+        {
+            closeStream();
+        }
+        catch (IOException e)
+        {
+            invalidate();
+            throw e;
+        }
+
+        pool.release(channel);
+        channel=null;
+    }
+
+    /** Close the current stream, waits until all write requests have been acknowledged */
+    private void closeStream() throws IOException
+    {
+        OutputStream current=outps;
+        outps=null;
+
+        if (current!=null)
+            current.close();
+    }
+
+    private void invalidate()
+    {
+        logger.debugPrintf("Discarding channel after write failure:%s\n",path);
+        outps=null;
+
+        if (channel!=null)
+            pool.invalidate(channel);
+
+        channel=null;
+    }
+}
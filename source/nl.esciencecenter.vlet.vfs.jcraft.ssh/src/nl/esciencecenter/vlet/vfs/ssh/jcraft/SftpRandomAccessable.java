@@ -0,0 +1,96 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.ssh.jcraft;
+
+import java.io.IOException;
+
+import nl.esciencecenter.ptk.io.RandomReadable;
+import nl.esciencecenter.ptk.io.RandomWritable;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+
+/**
+ * Random read/write access to a remote SFTP file using pipelined read and write requests. 
+ * Each read leases a channel from the SftpChannelPool of the file system. 
+ * The first write opens an SftpPositionalWriter which is kept open until close(). 
+ */
+public class SftpRandomAccessable implements RandomReadable, RandomWritable
+{
+    private SftpFileSystem server;
+
+    private String path;
+
+    private SftpPositionalWriter writer=null;
+
+    public SftpRandomAccessable(SftpFileSystem server, String path)
+    {
+        this.server = server; 
+        this.path = path; 
+    }
+
+    public int readBytes(long fileOffset, byte[] buffer, int bufferOffset, int nrBytes) throws IOException
+    {
+        return server.syncRead(path, fileOffset, buffer, bufferOffset, nrBytes);
+    }
+
+    public void writeBytes(long fileOffset, byte[] buffer, int bufferOffset, int nrBytes) throws IOException
+    {
+        synchronized(this)
+        {
+            if (writer == null)
+                writer = server.createPositionalWriter(path); 
+
+            writer.write(fileOffset, buffer, bufferOffset, nrBytes);
+        }
+    }
+
+    @Override
+    public long getLength() throws IOException
+    {
+        // un cached size
+        try
+        {
+            return server.getSftpAttrs(path, true).getSize();
+        }
+        catch (VrsException e)
+        {
+            throw new IOException(e.getMessage(), e); 
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        // read channels are leased per read 
+        SftpPositionalWriter current; 
+        
+        synchronized(this)
+        {
+            current = writer; 
+            writer = null; 
+        }
+        
+        if (current != null)
+            current.close(); 
+    }
+
+}
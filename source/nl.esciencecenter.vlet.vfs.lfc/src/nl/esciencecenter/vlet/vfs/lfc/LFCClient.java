@@ -144,6 +144,8 @@ public class LFCClient
 
     private URI sshTunnelUri = null;
 
+    private LFCServerPool serverPool = null;
+
     public LFCClient(String uriStr) throws VrsException
     {
         try
@@ -277,8 +279,13 @@ public class LFCClient
 
     public void disconnect() throws VrsException
     {
-        // nothing to disconnect. For each connection a new LFCServer is
-        // created.
+        // Only pooled (idle) servers have open connections.
+        synchronized (this)
+        {
+            if (serverPool != null)
+                serverPool.invalidateIdle();
+        }
+
         if (isConnected())
         {
             // try
@@ -329,18 +336,38 @@ public class LFCClient
 
     public VFSNode getPath(String path) throws VrsException
     {
-        LFCServer server = createServer();
-        VFSNode node = getPath(path, server);
-        dispose(server);
-        return node;
+        LFCServer server = leaseServer();
+        try
+        {
+            return getPath(path, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     public VFSNode getFileByGUID(String guid) throws VrsException
     {
-        LFCServer server = createServer();
-        VFSNode node = getFileByGuid(guid, server);
-        dispose(server);
-        return node;
+        LFCServer server = leaseServer();
+        try
+        {
+            return getFileByGuid(guid, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     protected VFSNode getPath(String path, LFCServer server) throws VrsException
@@ -443,8 +470,60 @@ public class LFCClient
      */
     public FileDescWrapper queryPath(String path, boolean resolveLinks) throws VrsException
     {
-        LFCServer server = createServer();
-        return queryPath(server, path, resolveLinks);
+        LFCServer server = leaseServer();
+        try
+        {
+            return queryPath(server, path, resolveLinks);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
+    }
+
+    /**
+     * Returns the (link resolved) files of the specified paths using one server session. 
+     * The STATG requests are pipelined if the server supports sessions. 
+     * Paths which can't be queried or which are not files are returned as NULL. 
+     */
+    public LFCFile[] getFiles(String paths[]) throws VrsException
+    {
+        LFCFile files[] = new LFCFile[paths.length];
+        LFCServer server = leaseServer();
+
+        try
+        {
+            FileDesc descs[] = server.fetchFileDescs(paths, false, null);
+
+            for (int i = 0; i < paths.length; i++)
+            {
+                if ((descs[i] == null) || (descs[i].isDirectory()))
+                    continue;
+
+                files[i] = new LFCFile(lfcServerNode, new FileDescWrapper(descs[i], paths[i]));
+            }
+        }
+        catch (LFCException e)
+        {
+            serverFailed(server, e);
+            throw convertException("Couldn't query paths", e);
+        }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
+
+        return files;
     }
 
     /**
@@ -541,55 +620,122 @@ public class LFCClient
         return LFCExceptionWapper.getVlException(e.getErrorCode(), e);
     }
 
-    // do not cache:
-    // private LFCServer _server=null;
+    /**
+     * Creates new (unconnected) server. Each server has its own copy of the
+     * LFCConfig with the current credential. Use {@link #leaseServer()} to get a
+     * pooled server.
+     */
+    LFCServer createServer() throws VrsException
+    {
+        LFCConfig config = this.lfcConfig.duplicate();
+        // Update Credential, it might have changed
+        config.globusCredential = GlobusUtil.getGlobusCredential(getVRSContext().getGridProxy());
+
+        if (this.sshTunnelUri != null)
+            return new LFCServer(config, this.sshTunnelUri);
+        else
+            return new LFCServer(config, this.serverUri);
+    }
 
-    private LFCServer createServer() throws VrsException
+    /** Returns credential the pooled servers are bound to */
+    Object getCredentialKey() throws VrsException
     {
-        //
-        // Just create new Server.
-        // For most methods the connections have to be setup again,
-        // so reusing the same LFCServer can only create threading problems.
-        //
+        return GlobusUtil.getGlobusCredential(getVRSContext().getGridProxy());
+    }
 
-        // if (_server==null)
+    protected synchronized LFCServerPool getServerPool()
+    {
+        if (serverPool == null)
         {
-            // Update Credential, it might have changed
-            this.lfcConfig.globusCredential = GlobusUtil.getGlobusCredential(getVRSContext().getGridProxy());
+            int maxIdle = LFCServerPool.DEFAULT_MAX_IDLE;
 
-            if (this.sshTunnelUri != null)
-                return new LFCServer(lfcConfig, this.sshTunnelUri);
-            else
-                return new LFCServer(lfcConfig, this.serverUri);
+            if (lfcServerNode != null)
+                maxIdle = lfcServerNode.getMaxIdleConnections();
+
+            serverPool = new LFCServerPool(this, maxIdle, LFCServerPool.DEFAULT_MAX_IDLE_TIME);
         }
 
-        // if (_server.isConnected()==false)
-        // {
-        // try
-        // {
-        // _server.connect();
-        // }
-        // catch (LFCException e)
-        // {
-        // throw new VlException("Could not (re)connect to LFC server!",e);
-        // }
-        // }
-        //
-        // return _server;
+        return serverPool;
     }
 
-    // Although eventually the garbage collector will call finalize() which
-    // closes
-    // connections, better call it after use of a LFCServer.
-    protected void dispose(LFCServer server)
+    /**
+     * Lease a server from the server pool. Must be returned with
+     * {@link #releaseServer(LFCServer)}.
+     */
+    protected LFCServer leaseServer() throws VrsException
     {
-        // if (server==this._server)
-        // {
-        // // do NOT dispose!
-        // }
-        // else
+        return getServerPool().acquire();
+    }
+
+    /**
+     * Return leased server to the pool. The server keeps its session open if sessions are enabled.
+     */
+    protected void releaseServer(LFCServer server)
+    {
+        if (server == null)
+            return;
+
+        LFCServerPool pool;
+
+        synchronized (this)
+        {
+            pool = serverPool;
+        }
+
+        if (pool != null)
+            pool.release(server);
+        else
+            server.dispose();
+    }
+
+    /**
+     * Check leased server after a request failed. An error reported by the LFC server (an
+     * LFCException with an error code) leaves the session usable. Any other failure, like an IO
+     * error halfway a request, might have left unread responses on the connection: the server is
+     * invalidated and the {@link #releaseServer(LFCServer)} which follows is ignored.
+     */
+    protected void serverFailed(LFCServer server, Throwable error)
+    {
+        if ((server == null) || (isErrorReply(error)))
+            return;
+
+        logger.debugPrintf("Invalidating LFCServer after failure:%s\n", error);
+
+        LFCServerPool pool;
+
+        synchronized (this)
         {
+            pool = serverPool;
+        }
+
+        if (pool != null)
+            pool.invalidate(server);
+        else
             server.dispose();
+    }
+
+    /** Whether the exception (or one of its causes) is an error reply of the LFC server */
+    private static boolean isErrorReply(Throwable error)
+    {
+        while (error != null)
+        {
+            if ((error instanceof LFCException) && (((LFCException) error).getErrorCode() != 0))
+                return true;
+
+            error = error.getCause();
+        }
+
+        return false;
+    }
+
+    /** Dispose all pooled servers */
+    public void dispose()
+    {
+        synchronized (this)
+        {
+            if (serverPool != null)
+                serverPool.close();
+            serverPool = null;
         }
     }
 
@@ -662,16 +808,25 @@ public class LFCClient
 
     public ILFCLocation[] list(ILFCLocation path) throws VrsException
     {
-        LFCServer server = createServer();
-        ILFCLocation[] result = list(path, server);
-        dispose(server);
-        return result;
+        LFCServer server = leaseServer();
+        try
+        {
+            return list(path, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     public VFSNode[] listNodes(ILFCLocation path) throws VrsException
     {
-        LFCServer server = createServer();
-        ILFCLocation locs[] = list(path, server);
+        ILFCLocation locs[] = list(path);
         VFSNode arr[];
 
         if (locs == null)
@@ -685,7 +840,6 @@ public class LFCClient
                 arr[i] = (VFSNode) locs[i];
         }
 
-        dispose(server);
         return arr;
     }
 
@@ -706,7 +860,7 @@ public class LFCClient
 
     public FileDesc mkdir(String path, boolean ignoreExisting) throws VrsException
     {
-        LFCServer server = createServer();
+        LFCServer server = leaseServer();
 
         FileDesc fileDesc = null;
         try
@@ -715,6 +869,7 @@ public class LFCClient
         }
         catch (LFCException e)
         {
+            serverFailed(server, e);
             VrsException ex = LFCExceptionWapper.getVlException(e.getErrorCode(), e);
             if (ex instanceof ResourceAlreadyExistsException && ignoreExisting)
             {
@@ -732,6 +887,15 @@ public class LFCClient
                 throw ex;
             }
         }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
 
         return fileDesc;
     }
@@ -748,10 +912,20 @@ public class LFCClient
 
     public boolean exists(String path, BooleanHolder isDir) throws VrsException
     {
-        LFCServer server = createServer();
-        boolean val = exists(server, path, isDir);
-        dispose(server);
-        return val;
+        LFCServer server = leaseServer();
+        try
+        {
+            return exists(server, path, isDir);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     public boolean exists(LFCServer server, String path, BooleanHolder isDir) throws VrsException
@@ -838,10 +1012,20 @@ public class LFCClient
      */
     public ReplicaDesc[] listReplicasByGuid(String guid) throws VrsException
     {
-        LFCServer server = createServer();
-        ReplicaDesc reps[] = listReplicasByGuid(guid, server);
-        dispose(server);
-        return reps;
+        LFCServer server = leaseServer();
+        try
+        {
+            return listReplicasByGuid(guid, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     // public VRL[] getReplicaVRLS(ReplicaDesc[] replicaDesc) throws
@@ -867,6 +1051,16 @@ public class LFCClient
      * the modulo of that value will be used.
      */
     public VRL replicaSelection(ITaskMonitor monitor, ReplicaDesc[] replicas, int tryNr) throws VrsException
+    {
+        return replicaSelection(monitor, replicas, tryNr, null);
+    }
+
+    /**
+     * Replica selection as above. For 'Fastest' the replicas in triedReplicas, which already failed 
+     * during the current read, are skipped, since the ranking may change after a failure. 
+     */
+    public VRL replicaSelection(ITaskMonitor monitor, ReplicaDesc[] replicas, int tryNr, List<VRL> triedReplicas)
+            throws VrsException
     {
         ReplicaSelectionMode selMode = this.lfcServerNode.getReplicaSelectionMode();
 
@@ -933,6 +1127,38 @@ public class LFCClient
             logger.debugPrintf("Match PreferredSE: Did NOT find matching SE for replica\n");
         }
 
+        // ===
+        // Fastest: rank replicas using the measured SE performance.
+        // Only the first try may be used to sample unknown SEs.
+        // ===
+        if (selMode == ReplicaSelectionMode.FASTEST)
+        {
+            VRL vrls[] = new VRL[numReplicas];
+
+            for (int i = 0; i < numReplicas; i++)
+                vrls[i] = new VRL(replicas[i].getSfn());
+
+            List<VRL> ranked = ReplicaPerformanceTable.getDefault().rankReplicas(vrls, (tryNr == 0));
+            int num = 0;
+
+            // take the best replica which hasn't been tried yet.
+            if (triedReplicas != null)
+            {
+                while ((num < numReplicas) && (triedReplicas.contains(ranked.get(num))))
+                    num++;
+            }
+
+            // all tried: start again
+            if (num >= numReplicas)
+                num = (tryNr % numReplicas);
+
+            VRL vrl = ranked.get(num);
+
+            monitor.logPrintf("LFC: Using replica ranked #%d (out of %d) by SE performance:\n - %s\n", num,
+                    numReplicas, vrl);
+            return vrl;
+        }
+
         // == Random === //
         if (selMode == ReplicaSelectionMode.ALL_RANDOM)
         {
@@ -976,6 +1202,9 @@ public class LFCClient
             throw new nl.esciencecenter.vlet.exception.ResourceReadException("File doesn't have any replicas:" + path);
         }
 
+        ReplicaPerformanceTable perfTable = ReplicaPerformanceTable.getDefault();
+        List<VRL> triedReplicas = new ArrayList<VRL>();
+
         for (int tryNr = 0; tryNr < numTries; tryNr++)
         {
             VRL replicaVRL = null;
@@ -985,7 +1214,9 @@ public class LFCClient
                 // ===
                 // Use selection algorithm to get replica
                 // Monitoring: Method printout verbose message about replica
-                replicaVRL = path.getSelectedReplicaVRL(monitor, tryNr);
+                replicaVRL = path.getSelectedReplicaVRL(monitor, tryNr, triedReplicas);
+                triedReplicas.add(replicaVRL);
+                long startTime = System.currentTimeMillis();
 
                 VFSNode node = this.getVFSNodeFrom(replicaVRL);
 
@@ -1006,7 +1237,11 @@ public class LFCClient
                     // superfluous:
                     monitor.logPrintf("LFC: Trying to read from replica (try #%d):\n - %s \n", tryNr, node.getVRL());
                     VStreamAccessable resource = (VStreamAccessable) node;
-                    return resource.createInputStream();
+                    InputStream inps = resource.createInputStream();
+
+                    String seHost = ReplicaPerformanceTable.getSEHost(replicaVRL);
+                    perfTable.recordLatency(seHost, System.currentTimeMillis() - startTime);
+                    return perfTable.createMeasuredInputStream(seHost, inps);
                 }
                 String text = "*** Error: Can not handle replica (Unknown resource type):" + node + "\n";
                 monitor.logPrintf(text);
@@ -1015,6 +1250,7 @@ public class LFCClient
             catch (Exception e)
             {
                 String text = createReplicaErrorText(replicaVRL, e);
+                perfTable.recordFailure(ReplicaPerformanceTable.getSEHost(replicaVRL));
                 lastException = e;
                 logger.logException(ClassLogger.ERROR, e, "%s\n", text);
                 // Global.errorPrintStacktrace(e);
@@ -1098,7 +1334,7 @@ public class LFCClient
     // can be used as a rename. Full pathnames are needed.
     public VRL mv(String oldPath, String newPath) throws VrsException
     {
-        LFCServer server = createServer();
+        LFCServer server = leaseServer();
         try
         {
             BooleanHolder isDirH = null;
@@ -1114,8 +1350,18 @@ public class LFCClient
         }
         catch (LFCException e)
         {
+            serverFailed(server, e);
             throw LFCExceptionWapper.getVlException(e.getErrorCode(), e);
         }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     public VRL createVRL(String path) throws VRLSyntaxException
@@ -1337,8 +1583,6 @@ public class LFCClient
 
         logger.debugPrintf("No errors or replicas. Will unregister: %s\n", path);
 
-        dispose(server);
-
         // delete this entry if forceDelete==true or there have been no errors!
         if (error == true)
         {
@@ -1464,8 +1708,20 @@ public class LFCClient
      */
     public boolean recurseDelete(ITaskMonitor monitor, ILFCLocation path, boolean forceDelete) throws VrsException
     {
-        LFCServer server = createServer();
-        return recurseDelete(monitor, server, path, forceDelete);
+        LFCServer server = leaseServer();
+        try
+        {
+            return recurseDelete(monitor, server, path, forceDelete);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     /**
@@ -1663,8 +1919,20 @@ public class LFCClient
 
     public FileDescWrapper registerEntry(String lfn) throws VrsException
     {
-        LFCServer server = createServer();
-        return registerEntry(lfn, server);
+        LFCServer server = leaseServer();
+        try
+        {
+            return registerEntry(lfn, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     /**
@@ -1791,7 +2059,7 @@ public class LFCClient
         return sePath.replaceAll("[^a-zA-Z0-9_/]", "_");
     }
 
-    private VFSClient getVFSClient()
+    protected VFSClient getVFSClient()
     {
         if (vfsClient == null)
             vfsClient = new VFSClient(getVRSContext());
@@ -1837,9 +2105,20 @@ public class LFCClient
     /** Add Replica VRL. Does not update Meta Data */
     public void addReplica(ITaskMonitor monitor, LFCFile lfcFile, VRL replicaVRL) throws VrsException
     {
-        LFCServer server = createServer();
-        addReplica(monitor, lfcFile, replicaVRL, server);
-        dispose(server);
+        LFCServer server = leaseServer();
+        try
+        {
+            addReplica(monitor, lfcFile, replicaVRL, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     /**
@@ -2325,8 +2604,20 @@ public class LFCClient
 
     public boolean rmDir(ITaskMonitor monitor, ILFCLocation path, boolean recurse, boolean force) throws VrsException
     {
-        LFCServer server = createServer();
-        return rmDir(monitor, server, path, recurse, force);
+        LFCServer server = leaseServer();
+        try
+        {
+            return rmDir(monitor, server, path, recurse, force);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     private boolean unregister(ITaskMonitor monitor, ILFCLocation lfn, boolean recursive, LFCServer server)
@@ -2409,10 +2700,20 @@ public class LFCClient
 
     public boolean unregister(ITaskMonitor monitor, ILFCLocation path, boolean recursive) throws VrsException
     {
-        LFCServer server = createServer();
-        boolean val = unregister(monitor, path, recursive, server);
-        dispose(server);
-        return val;
+        LFCServer server = leaseServer();
+        try
+        {
+            return unregister(monitor, path, recursive, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     /**
@@ -2422,21 +2723,25 @@ public class LFCClient
      */
     public String getLinkTarget(String path) throws VrsException
     {
-        LFCServer server = createServer();
+        LFCServer server = leaseServer();
 
         try
         {
-            String linkPath = server.readLink(path);
-            dispose(server);
-            return linkPath;
+            return server.readLink(path);
         }
         catch (LFCException e)
         {
+            serverFailed(server, e);
             info("Exception while resolving link:" + e);
         }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
         finally
         {
-            dispose(server);
+            releaseServer(server);
         }
         // no error handling here return null to indicate no link target
         return null;
@@ -2446,10 +2751,21 @@ public class LFCClient
     public void setFileSize(LFCFile file, long size) throws VrsException
     {
         FileDesc desc = file.getWrapperDesc().getFileDesc();
-        LFCServer server = createServer();
-        setFileSize(desc, size, server);
+        LFCServer server = leaseServer();
+        try
+        {
+            setFileSize(desc, size, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
         file.getWrapperDesc().clearMetaData();
-        dispose(server);
     }
 
     private void setFileSize(FileDesc desc, long size, LFCServer server) throws VrsException
@@ -2503,7 +2819,7 @@ public class LFCClient
 
     public LFCFile createSymLink(ILFCLocation orgPath, VRL newPath) throws VrsException
     {
-        LFCServer server = this.createServer();
+        LFCServer server = this.leaseServer();
 
         try
         {
@@ -2511,17 +2827,22 @@ public class LFCClient
             FileDescWrapper fwrap = new FileDescWrapper();
             fwrap.setFileDesc(linkDesc);
             fwrap.setNameAndPath(newPath.getPath());
-            dispose(server);
 
             return new LFCFile(this.lfcServerNode, fwrap);
         }
         catch (LFCException e)
         {
+            serverFailed(server, e);
             throw LFCExceptionWapper.getVlException(e.getErrorCode(), e);
         }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
         finally
         {
-            dispose(server);
+            releaseServer(server);
         }
     }
 
@@ -2692,6 +3013,7 @@ public class LFCClient
 
         String errorText = "";
         Exception lastEx = null;
+        List<VRL> triedReplicas = new ArrayList<VRL>();
 
         // Loop over replicas and transfer to remoteTargetLocation:
         for (int trynr = 0; trynr < numReplicaReadTries; trynr++)
@@ -2706,7 +3028,9 @@ public class LFCClient
                 // ============================
                 // Select Replica to read from:
                 // ============================
-                replicaVRL = sourceFile.getSelectedReplicaVRL(monitor, trynr);
+                replicaVRL = sourceFile.getSelectedReplicaVRL(monitor, trynr, triedReplicas);
+                triedReplicas.add(replicaVRL);
+                long startTime = System.currentTimeMillis();
                 VFile sourceReplicaNode = this.getVFSNodeFrom(replicaVRL);
 
                 VFileSystem sourceVFS = sourceReplicaNode.getFileSystem();
@@ -2720,13 +3044,18 @@ public class LFCClient
                     // Delegete to TransferManager!
                     boolean result = this.getVRSContext().getTransferManager()
                             .doActiveFileTransfer(monitor, sourceReplicaNode, targetFile, reasonH);
+                    String seHost = ReplicaPerformanceTable.getSEHost(replicaVRL);
+
                     if (result == false)
                     {
                         monitor.logPrintf("LFC: ActiveFileTransfer try#" + trynr + " failed! Reason=" + reasonH.value);
+                        ReplicaPerformanceTable.getDefault().recordFailure(seHost);
                         // Continue!
                     }
                     else
                     {
+                        ReplicaPerformanceTable.getDefault().recordTransfer(seHost, sourceFile.getLength(),
+                                System.currentTimeMillis() - startTime);
                         return targetFile; // Target File !
                     }
                 }
@@ -2745,6 +3074,7 @@ public class LFCClient
             {
                 // create exception text
                 String text = createReplicaErrorText(replicaVRL, e);
+                ReplicaPerformanceTable.getDefault().recordFailure(ReplicaPerformanceTable.getSEHost(replicaVRL));
                 monitor.logPrintf("LFC: replica transfer try#" + trynr + " failed!\n" + text);
                 errorText += text; // cumulative error text
                 lastEx = e;
@@ -2760,29 +3090,79 @@ public class LFCClient
 
     public boolean registerReplicas(ITaskMonitor monitor, LFCFile file, VRL[] vrls) throws VrsException
     {
-        boolean success = true;
-        VrsException lastEx = null;
+        LFCServer server = leaseServer();
+        try
+        {
+            for (VRL vrl : vrls)
+                this.addReplica(monitor, file, vrl, server);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
 
-        for (VRL vrl : vrls)
+        return true;
+    }
+
+    /**
+     * Register replicas of multiple files using one server connection.
+     * Replica vrls[i] belongs to files[i]. A failing replica doesn't stop the registration of the others.
+     * 
+     * @return errors[i] is the exception of replica vrls[i] or NULL if it has been registered.
+     */
+    public VrsException[] registerReplicas(ITaskMonitor monitor, LFCFile files[], VRL[] vrls) throws VrsException
+    {
+        VrsException errors[] = new VrsException[vrls.length];
+        LFCServer server = leaseServer();
+
+        try
         {
-            // try
-            // {
-            this.addReplica(monitor, file, vrl);
-            // }
-            // catch (VlException e)
-            // {
-            // lastEx=e;
-            // success=false;
-            // }
+            for (int i = 0; i < vrls.length; i++)
+            {
+                try
+                {
+                    this.addReplica(monitor, files[i], vrls[i], server);
+                }
+                catch (VrsException e)
+                {
+                    errors[i] = e;
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
         }
 
-        return success;
+        return errors;
     }
 
     public boolean unregisterReplicas(ITaskMonitor monitor, LFCFile file, VRL[] vrls) throws VrsException
     {
-        LFCServer server = createServer();
-        return unregisterReplicas(server, monitor, file, vrls);
+        LFCServer server = leaseServer();
+        try
+        {
+            return unregisterReplicas(server, monitor, file, vrls);
+        }
+        catch (VrsException | RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     protected boolean unregisterReplicas(LFCServer server, ITaskMonitor monitor, LFCFile file, VRL[] vrls)
@@ -2847,22 +3227,26 @@ public class LFCClient
 
     public ArrayList<String> getLinksTo(LFCFile file) throws VrsException
     {
-        LFCServer server = createServer();
         String guid = file.getGUID();
+        LFCServer server = leaseServer();
 
         try
         {
-            ArrayList<String> links = server.listLinks(guid);
-            dispose(server);
-            return links;
+            return server.listLinks(guid);
         }
         catch (LFCException e)
         {
+            serverFailed(server, e);
             throw LFCExceptionWapper.getVlException(e.getErrorCode(), e);
         }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
         finally
         {
-            dispose(server);
+            releaseServer(server);
         }
     }
 
@@ -2887,27 +3271,41 @@ public class LFCClient
 
     protected void setComment(String path, String comment) throws VrsException
     {
-        LFCServer server = createServer();
+        LFCServer server = leaseServer();
         try
         {
             server.setComment(path, comment);
         }
         catch (LFCException e)
         {
+            serverFailed(server, e);
             throw LFCExceptionWapper.getVlException(e.getErrorCode(), e);
         }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     public String getComment(String path) throws VrsException
     {
 
-        LFCServer server = createServer();
+        LFCServer server = leaseServer();
         try
         {
             return server.getComment(path);
         }
         catch (LFCException e)
         {
+            serverFailed(server, e);
+            releaseServer(server);
+            server = null;
+
             if (!exists(path, new BooleanHolder()))
             {
                 throw new nl.esciencecenter.vlet.exception.ResourceNotFoundException("Resource Not Found in: " + path);
@@ -2918,6 +3316,15 @@ public class LFCClient
                 return null;
             }
         }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
+        finally
+        {
+            releaseServer(server);
+        }
     }
 
     /**
@@ -2941,7 +3348,6 @@ public class LFCClient
 
         int numSEs = listSEs.size();
         int numFiles = vrls.length;
-        int done = 0;
         int todo = numSEs * numFiles;
 
         if (monitor == null)
@@ -2966,89 +3372,96 @@ public class LFCClient
             return;
         }
 
-        for (VRL vrl : vrls)
-        {
-            if (monitor.isCancelled())
-                throw new NestedInterruptedException("Interrupted");
-
-            monitor.logPrintf("LFC: Updating replicas: (" + vrl.getHostname() + ") " + vrl.getBasename() + "\n");
+        // stat all files in one go:
+        String paths[] = new String[vrls.length];
+        for (int i = 0; i < vrls.length; i++)
+            paths[i] = vrls[i].getPath();
 
-            LFCFile file = this.lfcServerNode.getFile(vrl);
+        LFCFile files[] = getFiles(paths);
 
-            ReplicaDesc[] reps = file.getReplicaDescriptions();
+        ReplicationEngine engine = new ReplicationEngine(this, monitor, listSEs,
+                lfcServerNode.getMaxReplicationTransfers(), lfcServerNode.getMaxReplicationTransfersPerSE());
 
-            if (reps == null)
+        try
+        {
+            for (int i = 0; i < vrls.length; i++)
             {
-                // be robuust:
-                monitor.logPrintf("LFC: WARNING: Skipping file, file doesn't have any replicas(!) :" + file + "\n");
-                continue;
-            }
-
-            StringList currentSEs = new StringList();
+                VRL vrl = vrls[i];
 
-            // Verify current replica FIRST before adding more:
-            for (ReplicaDesc rep : reps)
-            {
                 if (monitor.isCancelled())
                     throw new NestedInterruptedException("Interrupted");
 
-                boolean verified = false;
-                String se = rep.getHost();
+                LFCFile file = files[i];
 
-                try
-                {
-                    // verify stats or delete replica entry
-                    verified = verifyReplica(monitor, file, se, true);
-                    if (verified)
-                    {
-                        monitor.logPrintf("LFC: Verified existing replica. Keeping replica at Storage Element:" + se
-                                + "\n");
-                        currentSEs.add(rep.getHost()); // keep
-                    }
-                    // else replica was deleted !
-                }
-                catch (Exception e)
-                {
-                    monitor.logPrintf("LFC: WARNING: Could not verify status of replica at host (keeping entry!):" + se
-                            + "\n");
-                    monitor.logPrintf("LFC: Exception =" + e + "\n");
-                    verified = false;
-                    // keep entry !
-                    currentSEs.add(se);
-                }
+                // not a (resolved) file: get it the normal way for the proper error handling.
+                if (file == null)
+                    file = this.lfcServerNode.getFile(vrl);
+
+                // files and Storage Elements are processed in parallel
+                engine.submitFile(file);
             }
+        }
+        catch (VrsException e)
+        {
+            // cancelled or failed: still register the replicas created by the files in progress.
+            engine.waitAndRegister();
+            throw e;
+        }
 
-            // ===
-            // Parallel copy possible here !
-            // ===
+        // throws exception if one or more replicas couldn't be created
+        engine.waitForAll();
+        logger.debugPrintf("Replication finished:%s\n", engine);
+        monitor.logPrintf("LFC: Replicating suceeded for all files.\n");
 
-            for (String se : listSEs)
-            {
-                if (monitor.isCancelled())
-                    throw new NestedInterruptedException("Interrupted");
+        monitor.endTask("Replicating to preferred Storage Elements");
+    }
 
-                if (currentSEs.contains(se))
-                {
-                    monitor.updateTaskDone(++done);
-                    continue;
-                }
+    /**
+     * Verify all current replicas of the LFCFile. Inconsistent replicas are deleted.
+     * Replicas which status can't be determined are kept.
+     * 
+     * @return Storage Elements of the replicas which are kept or NULL if the
+     *         file doesn't have any replicas.
+     */
+    protected StringList verifyReplicas(ITaskMonitor monitor, LFCFile file) throws VrsException
+    {
+        ReplicaDesc[] reps = file.getReplicaDescriptions();
 
-                monitor.logPrintf("LFC: Adding new replica at Storage Element:" + se + "\n");
-                this.replicateFile(monitor, file, se);
-                monitor.updateTaskDone(++done);
-            }
-        }
+        if (reps == null)
+            return null;
 
-        if (todo == done)
-        {
-            monitor.logPrintf("LFC: Replicating suceeded for all files.\n");
-        }
-        else
+        StringList currentSEs = new StringList();
+
+        // Verify current replica FIRST before adding more:
+        for (ReplicaDesc rep : reps)
         {
-            monitor.logPrintf("LFC: Replicating suceeded for some files.\n");
+            if (monitor.isCancelled())
+                throw new NestedInterruptedException("Interrupted");
+
+            String se = rep.getHost();
+
+            try
+            {
+                // verify stats or delete replica entry
+                if (verifyReplica(monitor, file, se, true))
+                {
+                    monitor.logPrintf("LFC: Verified existing replica. Keeping replica at Storage Element:" + se
+                            + "\n");
+                    currentSEs.add(se); // keep
+                }
+                // else replica was deleted !
+            }
+            catch (Exception e)
+            {
+                monitor.logPrintf("LFC: WARNING: Could not verify status of replica at host (keeping entry!):" + se
+                        + "\n");
+                monitor.logPrintf("LFC: Exception =" + e + "\n");
+                // keep entry !
+                currentSEs.add(se);
+            }
         }
 
-        monitor.endTask("Replicating to preferred Storage Elements");
+        return currentSEs;
     }
 
     /**
@@ -3272,6 +3685,11 @@ public class LFCClient
 
     }
 
+    public String toString()
+    {
+        return "LFCClient:" + serverUri;
+    }
+
     public void setLFCConfig(LFCConfig config)
     {
         this.lfcConfig = config;
@@ -3279,20 +3697,25 @@ public class LFCClient
 
     public void setMode(String path, int mode) throws VrsException
     {
-        LFCServer server = createServer();
+        LFCServer server = leaseServer();
 
         try
         {
             server.setMode(path, mode);
-            dispose(server);
         }
         catch (LFCException e)
         {
+            serverFailed(server, e);
             throw LFCExceptionWapper.getVlException(e.getErrorCode(), e);
         }
+        catch (RuntimeException e)
+        {
+            serverFailed(server, e);
+            throw e;
+        }
         finally
         {
-            dispose(server);
+            releaseServer(server);
         }
 
     }
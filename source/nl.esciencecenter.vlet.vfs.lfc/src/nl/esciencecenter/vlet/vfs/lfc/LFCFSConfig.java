@@ -40,6 +40,21 @@ public class LFCFSConfig
     public static final String ATTR_REPLICA_NAME_CREATION_POLICY= "replicaNamePolicy";
     
     public static final String ATTR_REPLICA_NR_OF_TRIES = "replicaNrOfTries";
+    
+    /** Start LFC sessions so connections are reused between requests */ 
+    public static final String ATTR_USE_SESSIONS = "useSessions";
+    
+    /** Maximum number of idle (pooled) server connections */ 
+    public static final String ATTR_MAX_IDLE_CONNECTIONS = "maxIdleConnections";
+    
+    /** Maximum number of replicas to download a (large) file from at the same time. 1 disables it */ 
+    public static final String ATTR_MAX_DOWNLOAD_SOURCES = "maxDownloadSources";
+
+    /** Maximum number of concurrent replica transfers when replicating */ 
+    public static final String ATTR_MAX_REPLICATION_TRANSFERS = "maxReplicationTransfers";
+
+    /** Maximum number of concurrent replica transfers to one Storage Element */ 
+    public static final String ATTR_MAX_REPLICATION_TRANSFERS_PER_SE = "maxReplicationTransfersPerSE";
  
     public static final String REPLICA_NAME_POLICY_RANDOM="Random"; 
     
@@ -76,7 +91,9 @@ public class LFCFSConfig
         PREFERRED("Preferred"),
         PREFERRED_RANDOM("PreferredRandom"),
         ALL_SEQUENTIAL("AllSequential"),
-        ALL_RANDOM("AllRandom");
+        ALL_RANDOM("AllRandom"),
+        /** Rank replicas using the measured performance of the Storage Elements */ 
+        FASTEST("Fastest");
         
         String attrValue; 
         
@@ -142,7 +159,8 @@ public class LFCFSConfig
             ReplicaSelectionMode.PREFERRED.getValue(), // first is default  
             ReplicaSelectionMode.PREFERRED_RANDOM.getValue(),   
             ReplicaSelectionMode.ALL_SEQUENTIAL.getValue(),  
-            ReplicaSelectionMode.ALL_RANDOM.getValue()
+            ReplicaSelectionMode.ALL_RANDOM.getValue(),
+            ReplicaSelectionMode.FASTEST.getValue()
         };
 
     // default value; 
@@ -196,6 +214,21 @@ public class LFCFSConfig
            set.put(attr=new Attribute(LFCFSConfig.ATTR_REPLICA_NR_OF_TRIES,5)); 
            attr.setEditable(true);
            
+           set.put(attr=new Attribute(LFCFSConfig.ATTR_USE_SESSIONS,true)); 
+           attr.setEditable(true);
+           
+           set.put(attr=new Attribute(LFCFSConfig.ATTR_MAX_IDLE_CONNECTIONS,LFCServerPool.DEFAULT_MAX_IDLE)); 
+           attr.setEditable(true);
+           
+           set.put(attr=new Attribute(LFCFSConfig.ATTR_MAX_DOWNLOAD_SOURCES,MultiSourceDownload.DEFAULT_MAX_SOURCES)); 
+           attr.setEditable(true);
+           
+           set.put(attr=new Attribute(LFCFSConfig.ATTR_MAX_REPLICATION_TRANSFERS,ReplicationEngine.DEFAULT_MAX_TRANSFERS)); 
+           attr.setEditable(true);
+           
+           set.put(attr=new Attribute(LFCFSConfig.ATTR_MAX_REPLICATION_TRANSFERS_PER_SE,ReplicationEngine.DEFAULT_MAX_TRANSFERS_PER_SE)); 
+           attr.setEditable(true);
+           
            attr=new Attribute(ATTR_GENERATED_SUBDIR_DATE_SCHEME,
                                        DEFAULT_GENERATED_SUBDIR_DATE_SCHEME);
            attr.setEditable(false); // not editable for now ! 
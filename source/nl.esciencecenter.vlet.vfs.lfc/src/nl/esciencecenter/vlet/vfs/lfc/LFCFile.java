@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import nl.esciencecenter.glite.lfc.internal.FileDesc;
 import nl.esciencecenter.glite.lfc.internal.ReplicaDesc;
@@ -36,10 +38,12 @@ import nl.esciencecenter.vbrowser.vrs.data.Attribute;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.exception.InternalError;
+import nl.esciencecenter.vlet.exception.NestedInterruptedException;
 import nl.esciencecenter.vlet.exception.ResourceLinkIsBorkenException;
 import nl.esciencecenter.vlet.exception.ResourceNotFoundException;
 import nl.esciencecenter.vlet.vrs.VRS;
 import nl.esciencecenter.vlet.vrs.data.VAttributeConstants;
+import nl.esciencecenter.vlet.vrs.util.MultiChecksum;
 import nl.esciencecenter.vlet.vrs.util.VRSIOUtil;
 import nl.esciencecenter.vlet.vrs.vfs.VFS;
 import nl.esciencecenter.vlet.vrs.vfs.VFSTransfer;
@@ -590,6 +594,16 @@ public class LFCFile extends VFile implements VLogicalFileAlias, VUnixFileAttrib
 
     public VRL getSelectedReplicaVRL(ITaskMonitor monitor, int tryNr)
             throws VrsException
+    {
+        return getSelectedReplicaVRL(monitor, tryNr, null); 
+    }
+
+    /**
+     * Select replica for try 'tryNr'. Replicas in triedReplicas have already failed 
+     * during this read and are skipped by selection modes which rank the replicas. 
+     */
+    public VRL getSelectedReplicaVRL(ITaskMonitor monitor, int tryNr, List<VRL> triedReplicas)
+            throws VrsException
     {
         ReplicaDesc[] replicaDesc = getReplicaDescriptions();
         
@@ -599,7 +613,7 @@ public class LFCFile extends VFile implements VLogicalFileAlias, VUnixFileAttrib
         }
         
         VRL replicaVRL = this.lfcClient.replicaSelection(monitor, replicaDesc,
-                tryNr);
+                tryNr, triedReplicas);
 
         return replicaVRL;
     }
@@ -798,6 +812,11 @@ public class LFCFile extends VFile implements VLogicalFileAlias, VUnixFileAttrib
         return new String[] { wrapperDesc.getFileDesc().getChkSumType() };
     }
 
+    public Map<String,String> getChecksums(String algorithms[]) throws VrsException
+    {
+        return MultiChecksum.getChecksums(this,algorithms);
+    }
+
     public void setChecksum(String type, String checksum)
     {
         wrapperDesc.getFileDesc().setChkSumType(type);
@@ -818,6 +837,25 @@ public class LFCFile extends VFile implements VLogicalFileAlias, VUnixFileAttrib
     {
         try
         {
+           // large files with multiple replicas: read from several replicas at once.  
+           MultiSourceDownload download=new MultiSourceDownload(lfcClient,this,transfer,targetLocalFile,
+                   getFileSystem().getMaxDownloadSources());
+           
+           try
+           {
+               if (download.download())
+                   return; 
+           }
+           catch (NestedInterruptedException e)
+           {
+               throw e; 
+           }
+           catch (VrsException e)
+           {
+               // partial file has been deleted: read from one replica at a time. 
+               transfer.logPrintf("LFC: Multi source download failed, using single replica:\n - %s\n",e.getMessage()); 
+           }
+            
            // copy contents into local file:
            // vrsContext.getTransferManager().doStreamCopy(transfer,this,targetLocalFile);  
            long len=getLength();
@@ -79,6 +79,7 @@ public class LFCFileSystem extends FileSystemNode implements VFileActiveTransfer
         
         LFCConfig lfcConfig=new LFCConfig(); 
         lfcConfig.timeout=context.getConfigManager().getSocketTimeOut(); 
+        lfcConfig.useSessions=getUseSessions(); 
         lfcClient.setLFCConfig(lfcConfig); 
     }
 
@@ -103,6 +104,12 @@ public class LFCFileSystem extends FileSystemNode implements VFileActiveTransfer
         return this.lfcClient.isConnected();
     }
     
+    @Override
+    public void dispose()
+    {
+        this.lfcClient.dispose(); 
+    }
+    
     /**
      * Returns list of hostname of preferred Storage Elements. 
      * Optional VRLs are parsed and only the hostname is returned. 
@@ -379,6 +386,56 @@ public class LFCFileSystem extends FileSystemNode implements VFileActiveTransfer
        return 5; 
    }
 
+   public boolean getUseSessions() 
+   { 
+       Attribute attr = this.getServerInfo().getAttribute(LFCFSConfig.ATTR_USE_SESSIONS);
+       
+       if (attr!=null)
+           return attr.getBooleanValue();
+       
+       return true; 
+   }
+
+   public int getMaxIdleConnections() 
+   { 
+       Attribute attr = this.getServerInfo().getAttribute(LFCFSConfig.ATTR_MAX_IDLE_CONNECTIONS);
+       
+       if (attr!=null)
+           return attr.getIntValue();
+       
+       return LFCServerPool.DEFAULT_MAX_IDLE; 
+   }
+
+   public int getMaxDownloadSources() 
+   { 
+       Attribute attr = this.getServerInfo().getAttribute(LFCFSConfig.ATTR_MAX_DOWNLOAD_SOURCES);
+       
+       if (attr!=null)
+           return attr.getIntValue();
+       
+       return MultiSourceDownload.DEFAULT_MAX_SOURCES; 
+   }
+
+   public int getMaxReplicationTransfers() 
+   { 
+       Attribute attr = this.getServerInfo().getAttribute(LFCFSConfig.ATTR_MAX_REPLICATION_TRANSFERS);
+       
+       if (attr!=null)
+           return attr.getIntValue();
+       
+       return ReplicationEngine.DEFAULT_MAX_TRANSFERS; 
+   }
+
+   public int getMaxReplicationTransfersPerSE() 
+   { 
+       Attribute attr = this.getServerInfo().getAttribute(LFCFSConfig.ATTR_MAX_REPLICATION_TRANSFERS_PER_SE);
+       
+       if (attr!=null)
+           return attr.getIntValue();
+       
+       return ReplicationEngine.DEFAULT_MAX_TRANSFERS_PER_SE; 
+   }
+
 public boolean getUseSimilarReplicaNames()
 {
     Attribute attr = this.getServerInfo().getAttribute(LFCFSConfig.ATTR_REPLICA_NAME_CREATION_POLICY);
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.lfc;
+
+import nl.esciencecenter.glite.lfc.LFCServer;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.vrs.util.ResourcePool;
+
+/**
+ * Pool of LFCServer sessions for one LFCClient.
+ * <p>
+ * Connecting to an LFC server requires a TCP connect and a full GSI handshake. When sessions are
+ * enabled, the LFCServer keeps the connection open after a request, so a released server can
+ * be reused by the next operation without authenticating again.
+ * <ul>
+ * <li>Idle servers which have been idle for some time are probed with a STATG before reuse
+ * (keep-alive). A server which failed the probe or was closed by the LFC server is disconnected
+ * and reconnects automatically at the next request through {@link LFCServer#checkReConnected()}.
+ * <li>Idle servers are disposed after the maximum idle time.
+ * <li>Servers are bound to the credential they were created with. When the credential
+ * of the context changes, servers created with the old credential are disposed.
+ * <li>At most {@link #DEFAULT_MAX_SERVERS} servers are leased at the same time. acquire() waits
+ * up to the lease timeout for a server to be released and fails after that instead of hanging.
+ * </ul>
+ * An LFCServer is not thread safe: a leased server may only be used by one thread at a time.
+ *
+ * @see ResourcePool
+ */
+public class LFCServerPool
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(LFCServerPool.class);
+    }
+
+    /** Default maximum number of idle servers kept in the pool */
+    public static final int DEFAULT_MAX_IDLE=4;
+
+    /** Default maximum number of servers (connections) per LFCClient */
+    public static final int DEFAULT_MAX_SERVERS=16;
+
+    /** Default time in milliseconds after which an idle server is disposed */
+    public static final int DEFAULT_MAX_IDLE_TIME=60*1000;
+
+    /** Default time in milliseconds to wait for a free server */
+    public static final int DEFAULT_LEASE_TIMEOUT=60*1000;
+
+    /** Connected servers idle longer than this (milliseconds) are probed before they are reused */
+    public static final int KEEP_ALIVE_TIME=10*1000;
+
+    /** Creates, checks and disposes the servers of the pool */
+    private class ServerFactory implements ResourcePool.ResourceFactory<Object,LFCServer>
+    {
+        public LFCServer createResource(Object credential) throws VrsException
+        {
+            return client.createServer();
+        }
+
+        public boolean validate(LFCServer server,long idleTime)
+        {
+            checkServer(server,idleTime);
+            // a disconnected server reconnects at the next request.
+            return true;
+        }
+
+        public void dispose(LFCServer server)
+        {
+            server.dispose();
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private LFCClient client;
+
+    private ResourcePool<Object,LFCServer> pool;
+
+    private long numProbes=0;
+
+    private long numReconnects=0;
+
+    public LFCServerPool(LFCClient client,int maxIdle,long maxIdleTime)
+    {
+        this(client,DEFAULT_MAX_SERVERS,maxIdle,maxIdleTime,DEFAULT_LEASE_TIMEOUT);
+    }
+
+    public LFCServerPool(LFCClient client,int maxServers,int maxIdle,long maxIdleTime,long leaseTimeout)
+    {
+        this.client=client;
+
+        if (maxServers<=0)
+            maxServers=DEFAULT_MAX_SERVERS;
+
+        if (maxIdle<0)
+            maxIdle=DEFAULT_MAX_IDLE;
+
+        if (maxIdleTime<=0)
+            maxIdleTime=DEFAULT_MAX_IDLE_TIME;
+
+        if (leaseTimeout<=0)
+            leaseTimeout=DEFAULT_LEASE_TIMEOUT;
+
+        this.pool=new ResourcePool<Object,LFCServer>("lfc:"+client,new ServerFactory(),maxServers,
+                Math.min(maxIdle,maxServers),maxIdleTime,leaseTimeout);
+        this.pool.setTimeoutHint("All "+maxServers+" LFC connections are in use.");
+    }
+
+    /**
+     * Lease a server. Returns an idle server created with the current credential,
+     * creates a new one or waits for a server to be released.
+     * Must be returned with {@link #release(LFCServer)} or {@link #invalidate(LFCServer)}.
+     */
+    public LFCServer acquire() throws VrsException
+    {
+        return pool.acquire(client.getCredentialKey());
+    }
+
+    /**
+     * Keep alive check of an idle server. A server which doesn't pass the check is disconnected
+     * and will reconnect at the next request.
+     */
+    private void checkServer(LFCServer server,long idleTime)
+    {
+        // not connected (no session): reconnects at next request.
+        if (server.isConnected()==false)
+            return;
+
+        boolean alive=server.isAlive();
+
+        if ((alive) && (idleTime>=KEEP_ALIVE_TIME))
+        {
+            synchronized(this)
+            {
+                numProbes++;
+            }
+
+            // ping() disconnects if the probe fails.
+            alive=server.ping();
+        }
+
+        if (alive==false)
+        {
+            logger.debugPrintf("Idle LFCServer session closed, will reconnect:%s\n",client);
+            server.disconnect();
+
+            synchronized(this)
+            {
+                numReconnects++;
+            }
+        }
+    }
+
+    /**
+     * Return leased server to the pool. Releasing a server which isn't leased (anymore)
+     * is ignored.
+     */
+    public void release(LFCServer server)
+    {
+        if (server!=null)
+            pool.release(server);
+    }
+
+    /**
+     * Return leased server which is (possibly) in an inconsistent state, for example after
+     * a request failed halfway. The server is disposed.
+     */
+    public void invalidate(LFCServer server)
+    {
+        if (server!=null)
+            pool.invalidate(server);
+    }
+
+    /** Dispose all idle servers. Leased servers are disposed when they are returned. */
+    public void invalidateIdle()
+    {
+        pool.invalidateIdle();
+    }
+
+    /** Dispose all servers. The pool can't be used anymore. */
+    public void close()
+    {
+        pool.close();
+    }
+
+    // ========================================================================
+    // Metrics
+    // ========================================================================
+
+    public int getNumIdle()
+    {
+        return pool.getNumIdle();
+    }
+
+    public int getNumLeased()
+    {
+        return pool.getNumLeased();
+    }
+
+    public int getMaxIdle()
+    {
+        return pool.getMaxIdle();
+    }
+
+    public int getMaxServers()
+    {
+        return pool.getMaxResources();
+    }
+
+    public String getStats()
+    {
+        long probes,reconnects;
+
+        synchronized(this)
+        {
+            probes=numProbes;
+            reconnects=numReconnects;
+        }
+
+        return "LFCServerPool:"+client+":"+pool.getStats()+",probes="+probes+",reconnects="+reconnects;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.lfc;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.esciencecenter.glite.lfc.internal.ReplicaDesc;
+import nl.esciencecenter.ptk.io.RandomReadable;
+import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vbrowser.vrs.io.VRandomReadable;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.exception.ResourceReadException;
+import nl.esciencecenter.vlet.vrs.util.MultiChecksum;
+import nl.esciencecenter.vlet.vrs.vfs.ChunkedDownload;
+import nl.esciencecenter.vlet.vrs.vfs.ChunkedDownload.Source;
+import nl.esciencecenter.vlet.vrs.vfs.VChecksum;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransfer;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+import nl.esciencecenter.vlet.vrs.vfs.VTransportable;
+
+/**
+ * Download of an LFC file from several replicas at the same time.
+ * <p>
+ * The replicas are read with random reads (directly, or from the transport location of SRM
+ * replicas) by a {@link ChunkedDownload}: faster replicas read more chunks and the chunk of a
+ * failed replica is put back for the other replicas. The throughput of each replica is recorded
+ * in the {@link ReplicaPerformanceTable}. After the download the file is verified against the
+ * checksum in the catalogue.
+ * <p>
+ * Only replicas which support random reads can be used. If less than two replicas can be
+ * opened, {@link #download()} returns false and the caller should use a single stream.
+ * If the download fails, the partially written local file is deleted. 
+ */
+public class MultiSourceDownload
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(MultiSourceDownload.class);
+    }
+
+    /** Default maximum number of replicas to read from */
+    public static final int DEFAULT_MAX_SOURCES=4;
+
+    /** Files smaller than this (bytes) are downloaded from one replica */
+    public static final long MIN_FILE_SIZE=32*1024*1024;
+
+    public static final int CHUNK_SIZE=4*1024*1024;
+
+    /** Size of a single read request within a chunk */
+    public static final int READ_SIZE=256*1024;
+
+    /** Replica being read from */
+    private static class ReplicaSource extends Source
+    {
+        final String host;
+
+        ReplicaSource(VRL replicaVRL,RandomReadable readable)
+        {
+            super(replicaVRL.toString(),readable);
+            this.host=ReplicaPerformanceTable.getSEHost(replicaVRL);
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private LFCClient lfcClient;
+
+    private LFCFile lfcFile;
+
+    private VFSTransfer transfer;
+
+    private VFile targetFile;
+
+    private int maxSources=DEFAULT_MAX_SOURCES;
+
+    private long length;
+
+    public MultiSourceDownload(LFCClient client,LFCFile file,VFSTransfer transfer,VFile targetLocalFile,int maxSources)
+    {
+        this.lfcClient=client;
+        this.lfcFile=file;
+        this.transfer=transfer;
+        this.targetFile=targetLocalFile;
+
+        if (maxSources>0)
+            this.maxSources=maxSources;
+    }
+
+    /**
+     * Download the file from multiple replicas.
+     * @return false if the file can't be downloaded from multiple replicas. Nothing has been written then.
+     * @throws VrsException if the download failed or the checksum doesn't match. 
+     *         The partially written file has been deleted then.
+     */
+    public boolean download() throws VrsException
+    {
+        try
+        {
+            this.length=lfcFile.getLength();
+        }
+        catch (IOException e)
+        {
+            throw new VrsException(e.getMessage(),e);
+        }
+
+        if ((maxSources<2) || (length<MIN_FILE_SIZE))
+            return false;
+
+        List<Source> sources=openSources();
+
+        if (sources.size()<2)
+        {
+            for (Source source:sources)
+                source.close();
+
+            return false;
+        }
+
+        transfer.logPrintf("LFC: Downloading from %d replicas:\n",sources.size());
+
+        for (Source source:sources)
+            transfer.logPrintf(" - %s\n",source.getName());
+
+        boolean completed=false;
+
+        try
+        {
+            download(sources);
+            completed=true;
+            return true;
+        }
+        finally
+        {
+            // don't leave a partial (sparse) file
+            if (completed==false)
+                deleteTargetFile();
+        }
+    }
+
+    private void download(List<Source> sources) throws VrsException
+    {
+        ChunkedDownload chunkedDownload=new ChunkedDownload(transfer,targetFile,length,CHUNK_SIZE,READ_SIZE,lfcFile.toString())
+        {
+            @Override
+            protected void sourceFailed(Source source,Throwable e)
+            {
+                ReplicaPerformanceTable.getDefault().recordFailure(((ReplicaSource)source).host);
+                transfer.logPrintf("LFC: Stopped reading from replica (%d sources left):\n - %s\n - %s\n",
+                        getNumActiveSources(),source.getName(),e.getMessage());
+            }
+        };
+
+        try
+        {
+            chunkedDownload.download(sources);
+        }
+        finally
+        {
+            ReplicaPerformanceTable perfTable=ReplicaPerformanceTable.getDefault();
+
+            for (Source source:sources)
+            {
+                if (source.getReadTime()>0)
+                    perfTable.recordTransfer(((ReplicaSource)source).host,source.getNumBytes(),source.getReadTime());
+            }
+        }
+
+        verifyChecksum();
+    }
+
+    private void deleteTargetFile()
+    {
+        try
+        {
+            if (targetFile.exists())
+                targetFile.delete();
+        }
+        catch (VrsException e)
+        {
+            logger.warnPrintf("Couldn't delete partial download:%s:%s\n",targetFile,e);
+        }
+    }
+
+    /** Open random readable sources for the fastest replicas */
+    private List<Source> openSources() throws VrsException
+    {
+        List<Source> sources=new ArrayList<Source>();
+        ReplicaDesc descs[]=lfcFile.getReplicaDescriptions();
+
+        if ((descs==null) || (descs.length<2))
+            return sources;
+
+        VRL vrls[]=new VRL[descs.length];
+
+        for (int i=0;i<descs.length;i++)
+            vrls[i]=new VRL(descs[i].getSfn());
+
+        ReplicaPerformanceTable perfTable=ReplicaPerformanceTable.getDefault();
+
+        for (VRL vrl:perfTable.rankReplicas(vrls,false))
+        {
+            if (sources.size()>=maxSources)
+                break;
+
+            try
+            {
+                RandomReadable readable=openRandomReadable(vrl);
+
+                if (readable!=null)
+                    sources.add(new ReplicaSource(vrl,readable));
+            }
+            catch (Exception e)
+            {
+                perfTable.recordFailure(ReplicaPerformanceTable.getSEHost(vrl));
+                logger.warnPrintf("Couldn't open replica for random reading:%s:%s\n",vrl,e);
+            }
+        }
+
+        return sources;
+    }
+
+    /** Returns RandomReadable for the replica or its transport location, or NULL if not supported */
+    private RandomReadable openRandomReadable(VRL replicaVRL) throws Exception
+    {
+        VFile node=lfcClient.getVFSNodeFrom(replicaVRL);
+        lfcClient.checkReplicaLength(lfcFile,node);
+
+        if ((node instanceof VRandomReadable)==false && (node instanceof VTransportable))
+        {
+            VRL transportVRL=((VTransportable)node).getTransportVRL();
+
+            if (transportVRL!=null)
+                node=lfcClient.getVFSClient().newFile(transportVRL);
+        }
+
+        if (node instanceof VRandomReadable)
+            return ((VRandomReadable)node).createRandomReadable();
+
+        return null;
+    }
+
+    /** Verify the local file against the checksum in the catalogue, if supported */
+    private void verifyChecksum() throws VrsException
+    {
+        String types[]=lfcFile.getChecksumTypes();
+        String type=((types!=null) && (types.length>0))?types[0]:null;
+        String expected=lfcFile.getChecksum(type);
+
+        // LFC uses "AD" and "MD" for Adler32 and MD5
+        if (StringUtil.equalsIgnoreCase(type,"AD"))
+            type=VChecksum.ADLER32;
+        else if (StringUtil.equalsIgnoreCase(type,"MD"))
+            type=VChecksum.MD5;
+
+        if ((StringUtil.isEmpty(expected)) || (MultiChecksum.isSupported(type)==false))
+        {
+            logger.debugPrintf("No (supported) checksum in catalogue for:%s\n",lfcFile);
+            return;
+        }
+
+        String actual;
+        FileInputStream inps=null;
+
+        try
+        {
+            MultiChecksum checksum=new MultiChecksum(type);
+            inps=new FileInputStream(targetFile.getPath());
+            byte buffer[]=new byte[READ_SIZE];
+            int num;
+
+            while ((num=inps.read(buffer))>0)
+                checksum.update(buffer,0,num);
+
+            actual=checksum.getChecksum(type);
+        }
+        catch (IOException e)
+        {
+            throw new VrsException("Couldn't calculate checksum of:"+targetFile,e);
+        }
+        finally
+        {
+            try
+            {
+                if (inps!=null)
+                    inps.close();
+            }
+            catch (IOException e)
+            {
+                logger.debugPrintf("Exception when closing:%s\n",e);
+            }
+        }
+
+        if (stripZeros(expected).equalsIgnoreCase(stripZeros(actual)))
+        {
+            transfer.logPrintf("LFC: Verified %s checksum:%s\n",type,actual);
+            return;
+        }
+
+        // corrupted data is deleted by download()
+        throw new ResourceReadException("Checksum mismatch after multi source download of:"+lfcFile
+                +"\n - "+type+" catalogue="+expected+", downloaded="+actual);
+    }
+
+    private static String stripZeros(String value)
+    {
+        int index=0;
+
+        while ((index<value.length()-1) && (value.charAt(index)=='0'))
+            index++;
+
+        return value.substring(index);
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.lfc;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.VletConfig;
+import nl.esciencecenter.vlet.util.PropertiesFileStore;
+
+/**
+ * Performance table of Storage Elements, used by the FASTEST replica selection mode.
+ * <p>
+ * For each SE host the connect latency, read throughput and failures are recorded by
+ * LFCClient.getInputStream() and replica transfers. Latency and throughput are exponentially
+ * weighted moving averages. The failure count and the confidence (sample weight) of the
+ * measurements decay with a half-life, so old measurements and failures are forgotten.
+ * <p>
+ * Replicas are ranked by the estimated time to read a nominal amount of data. 
+ * A small exploration budget makes sure SEs without (recent) measurements are sampled as well.
+ * The table is shared by all LFC file systems and stored in ~/.vletrc/lfcreplicaperf.prop.
+ */
+public class ReplicaPerformanceTable
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(ReplicaPerformanceTable.class);
+    }
+
+    public static final String PERFTABLE_PROP_FILENAME="lfcreplicaperf.prop";
+
+    /** Half-life in milliseconds of the failure count and sample weight */
+    public static final long DECAY_HALF_LIFE=60*60*1000;
+
+    /** Weight of a new measurement in the moving averages */
+    public static final double EWMA_ALPHA=0.3;
+
+    /** Amount of data (bytes) used to compare latency and throughput */
+    public static final long NOMINAL_READ_SIZE=10*1024*1024;
+
+    /** Estimates used for SEs without measurements */
+    public static final double DEFAULT_LATENCY=1000;
+
+    public static final double DEFAULT_THROUGHPUT=1024*1024;
+
+    /** Each (decayed) failure adds this factor to the estimated read time */
+    public static final double FAILURE_PENALTY=2.0;
+
+    /** Fraction of the selections which may be used to sample SEs without recent measurements */
+    public static final double EXPLORATION_RATE=0.1;
+
+    /** SEs with less (decayed) samples are sampled when the exploration budget allows it */
+    public static final double MIN_CONFIDENCE=0.5;
+
+    /** Streams shorter than this (bytes) don't update the throughput */
+    public static final long MIN_THROUGHPUT_BYTES=256*1024;
+
+    private static ReplicaPerformanceTable instance=null;
+
+    public static synchronized ReplicaPerformanceTable getDefault()
+    {
+        if (instance==null)
+        {
+            PropertiesFileStore store=null;
+
+            if (VletConfig.getUsePersistantUserConfiguration())
+                store=new PropertiesFileStore(VletConfig.getUserConfigDir().appendPath(PERFTABLE_PROP_FILENAME),
+                        "LFC Storage Element performance table");
+
+            instance=new ReplicaPerformanceTable(store);
+        }
+
+        return instance;
+    }
+
+    /** Measurements of one Storage Element */
+    public static class SEStats
+    {
+        final String host;
+
+        /** Connect latency in milliseconds (EWMA) */
+        double latency=-1;
+
+        /** Throughput in bytes per second (EWMA) */
+        double throughput=-1;
+
+        /** Decayed number of failures */
+        double failures=0;
+
+        /** Decayed number of successful samples */
+        double confidence=0;
+
+        long lastUpdate=0;
+
+        SEStats(String host)
+        {
+            this.host=host;
+        }
+
+        /** Apply the decay since the last update */
+        void decay(long now)
+        {
+            if ((lastUpdate<=0) || (now<=lastUpdate))
+                return;
+
+            double factor=Math.pow(0.5,(double)(now-lastUpdate)/DECAY_HALF_LIFE);
+            failures*=factor;
+            confidence*=factor;
+            lastUpdate=now;
+        }
+
+        /** Estimated time in milliseconds to read NOMINAL_READ_SIZE bytes, including failure penalty */
+        double getScore()
+        {
+            double lat=(latency>=0)?latency:DEFAULT_LATENCY;
+            double tp=(throughput>0)?throughput:DEFAULT_THROUGHPUT;
+
+            return (lat+(NOMINAL_READ_SIZE*1000.0/tp))*(1.0+FAILURE_PENALTY*failures);
+        }
+
+        public String getHost()
+        {
+            return host;
+        }
+
+        /** Connect latency in milliseconds or -1 if not measured */
+        public double getLatency()
+        {
+            return latency;
+        }
+
+        /** Throughput in bytes per second or -1 if not measured */
+        public double getThroughput()
+        {
+            return throughput;
+        }
+
+        /** Decayed number of failures at the time of the last update */
+        public double getFailures()
+        {
+            return failures;
+        }
+
+        /** Decayed number of samples at the time of the last update */
+        public double getConfidence()
+        {
+            return confidence;
+        }
+
+        public String toString()
+        {
+            return host+"={latency="+(long)latency+"ms"
+                    +",throughput="+(long)throughput+"B/s"
+                    +",failures="+String.format("%.2f",failures)
+                    +",confidence="+String.format("%.2f",confidence)+"}";
+        }
+    }
+
+    /**
+     * Stream which records the read throughput when it is closed.
+     * Only the time spent in read() is measured, not the time the application spends between reads.
+     */
+    public class MeasuredInputStream extends FilterInputStream
+    {
+        private final String host;
+
+        /** Time spent in read() in nanoseconds */
+        private long readTime=0;
+
+        private long numBytes=0;
+
+        private boolean closed=false;
+
+        protected MeasuredInputStream(String host,InputStream in)
+        {
+            super(in);
+            this.host=host;
+        }
+
+        public int read() throws IOException
+        {
+            long start=System.nanoTime();
+            int val=super.read();
+            readTime+=System.nanoTime()-start;
+
+            if (val>=0)
+                numBytes++;
+
+            return val;
+        }
+
+        public int read(byte buffer[],int offset,int len) throws IOException
+        {
+            long start=System.nanoTime();
+            int num=super.read(buffer,offset,len);
+            readTime+=System.nanoTime()-start;
+
+            if (num>0)
+                numBytes+=num;
+
+            return num;
+        }
+
+        public void close() throws IOException
+        {
+            super.close();
+
+            if (closed)
+                return;
+
+            closed=true;
+            recordTransfer(host,numBytes,readTime/1000000);
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private Map<String,SEStats> seStats=new HashMap<String,SEStats>();
+
+    /** Optional persistent storage */
+    private PropertiesFileStore store;
+
+    // metrics
+    private long numSelections=0;
+
+    private long numExplorations=0;
+
+    /** Create table, store may be NULL for a table which is not stored */
+    public ReplicaPerformanceTable(PropertiesFileStore store)
+    {
+        this.store=store;
+
+        if (store!=null)
+            load(store.getProperties());
+    }
+
+    /** Returns the Storage Element (host) of a replica or NULL */
+    public static String getSEHost(VRL replicaVRL)
+    {
+        if (replicaVRL==null)
+            return null;
+
+        return replicaVRL.getHostname();
+    }
+
+    /** Current time used for the decay. Can be overridden for testing. */
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    // ========================================================================
+    // Recording
+    // ========================================================================
+
+    /** Record the time in milliseconds it took to open a replica */
+    public void recordLatency(String host,long millis)
+    {
+        if (host==null)
+            return;
+
+        synchronized(this)
+        {
+            SEStats stats=getOrCreate(host);
+            stats.latency=ewma(stats.latency,millis);
+            stats.confidence+=1;
+            save(stats);
+        }
+    }
+
+    /** Record a successful read or transfer of numBytes in the specified time */
+    public void recordTransfer(String host,long numBytes,long millis)
+    {
+        if ((host==null) || (numBytes<MIN_THROUGHPUT_BYTES))
+            return;
+
+        double throughput=numBytes*1000.0/Math.max(millis,1);
+
+        synchronized(this)
+        {
+            SEStats stats=getOrCreate(host);
+            stats.throughput=ewma(stats.throughput,throughput);
+            stats.confidence+=1;
+            save(stats);
+        }
+    }
+
+    /** Record a failure to open or transfer a replica */
+    public void recordFailure(String host)
+    {
+        if (host==null)
+            return;
+
+        synchronized(this)
+        {
+            SEStats stats=getOrCreate(host);
+            stats.failures+=1;
+            save(stats);
+        }
+    }
+
+    /** Wrap a stream read from the specified SE to record the throughput when it is closed */
+    public InputStream createMeasuredInputStream(String host,InputStream in)
+    {
+        if (host==null)
+            return in;
+
+        return new MeasuredInputStream(host,in);
+    }
+
+    private static double ewma(double current,double value)
+    {
+        if (current<0)
+            return value;
+
+        return (1-EWMA_ALPHA)*current+EWMA_ALPHA*value;
+    }
+
+    private SEStats getOrCreate(String host)
+    {
+        long now=currentTimeMillis();
+        SEStats stats=seStats.get(host);
+
+        if (stats==null)
+        {
+            stats=new SEStats(host);
+            seStats.put(host,stats);
+        }
+        else
+        {
+            stats.decay(now);
+        }
+
+        stats.lastUpdate=now;
+        return stats;
+    }
+
+    // ========================================================================
+    // Selection
+    // ========================================================================
+
+    /**
+     * Rank the replicas from fastest to slowest. If the exploration budget allows it, the first
+     * replica is a replica on an SE without recent measurements.
+     * Only rankings which may explore count as a selection for the exploration budget, 
+     * so retries of the same read don't increase the budget. 
+     * The returned list contains the same VRLs as the specified array.
+     */
+    public List<VRL> rankReplicas(VRL replicas[],boolean mayExplore)
+    {
+        final Map<VRL,Double> scores=new HashMap<VRL,Double>();
+        List<VRL> ranked=new ArrayList<VRL>(replicas.length);
+        VRL explore=null;
+        double lowestConfidence=MIN_CONFIDENCE;
+        long now=currentTimeMillis();
+
+        synchronized(this)
+        {
+            if (mayExplore)
+                numSelections++;
+
+            boolean hasBudget=mayExplore && (numExplorations<(numSelections*EXPLORATION_RATE)+1);
+
+            for (VRL vrl:replicas)
+            {
+                String host=getSEHost(vrl);
+                SEStats stats=(host!=null)?seStats.get(host):null;
+                double confidence=0;
+
+                if (stats!=null)
+                {
+                    stats.decay(now);
+                    confidence=stats.confidence;
+                    scores.put(vrl,stats.getScore());
+                }
+                else
+                {
+                    scores.put(vrl,new SEStats(host).getScore());
+                }
+
+                // sample least known SE
+                if ((hasBudget) && (confidence<lowestConfidence))
+                {
+                    explore=vrl;
+                    lowestConfidence=confidence;
+                }
+
+                ranked.add(vrl);
+            }
+
+            if (explore!=null)
+                numExplorations++;
+        }
+
+        Collections.sort(ranked,new Comparator<VRL>()
+        {
+            public int compare(VRL vrl1,VRL vrl2)
+            {
+                return Double.compare(scores.get(vrl1),scores.get(vrl2));
+            }
+        });
+
+        if (explore!=null)
+        {
+            ranked.remove(explore);
+            ranked.add(0,explore);
+            logger.debugPrintf("Exploring replica on SE without recent measurements:%s\n",explore);
+        }
+
+        return ranked;
+    }
+
+    public synchronized SEStats[] getSEStats()
+    {
+        return seStats.values().toArray(new SEStats[0]);
+    }
+
+    /** Returns the statistics of the SE with the decay applied, or NULL if the SE has no measurements */
+    public synchronized SEStats getSEStats(String host)
+    {
+        SEStats stats=seStats.get(host);
+
+        if (stats!=null)
+            stats.decay(currentTimeMillis());
+
+        return stats;
+    }
+
+    // ========================================================================
+    // Persistence
+    // ========================================================================
+
+    private void load(Properties props)
+    {
+        for (String key:props.stringPropertyNames())
+        {
+            if ((key.startsWith("se.")==false) || (key.endsWith(".updated")==false))
+                continue;
+
+            String prefix=key.substring(0,key.length()-".updated".length());
+            String host=prefix.substring(3);
+
+            try
+            {
+                SEStats stats=new SEStats(host);
+                stats.latency=Double.parseDouble(props.getProperty(prefix+".latency","-1"));
+                stats.throughput=Double.parseDouble(props.getProperty(prefix+".throughput","-1"));
+                stats.failures=Double.parseDouble(props.getProperty(prefix+".failures","0"));
+                stats.confidence=Double.parseDouble(props.getProperty(prefix+".confidence","0"));
+                stats.lastUpdate=Long.parseLong(props.getProperty(key));
+                seStats.put(host,stats);
+            }
+            catch (NumberFormatException e)
+            {
+                logger.warnPrintf("Ignoring invalid performance entry for SE:%s:%s\n",host,e);
+            }
+        }
+
+        logger.debugPrintf("Loaded performance statistics of %d Storage Elements\n",seStats.size());
+    }
+
+    /** Update the entry of the SE. The store writes the changes in the background. */
+    private void save(SEStats stats)
+    {
+        if (store==null)
+            return;
+
+        String prefix="se."+stats.host;
+        store.setProperty(prefix+".latency",Double.toString(stats.latency));
+        store.setProperty(prefix+".throughput",Double.toString(stats.throughput));
+        store.setProperty(prefix+".failures",Double.toString(stats.failures));
+        store.setProperty(prefix+".confidence",Double.toString(stats.confidence));
+        store.setProperty(prefix+".updated",Long.toString(stats.lastUpdate));
+    }
+
+    public synchronized String getStats()
+    {
+        return "ReplicaPerformanceTable:ses="+seStats.size()
+                +",selections="+numSelections
+                +",explorations="+numExplorations;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
@@ -0,0 +1,829 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.lfc;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.ptk.data.StringList;
+import nl.esciencecenter.ptk.task.ITaskMonitor;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.exception.NestedInterruptedException;
+import nl.esciencecenter.vlet.exception.ResourceCreationFailedException;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+import nl.esciencecenter.vlet.vrs.vfs.VFileActiveTransferable;
+
+/**
+ * Replicates LFC files to multiple Storage Elements concurrently.
+ * <p>
+ * Files are processed in parallel. For each file the existing replicas are verified and a new
+ * replica is created at each Storage Element which doesn't have one yet:
+ * <ul>
+ * <li>If the source or target file system supports active (third party) transfers, the copies
+ * to the Storage Elements are started in parallel.
+ * <li>Otherwise the source is read once and the data is written to all new replicas at the
+ * same time. Each target has its own writer thread, a failing target doesn't stop the others.
+ * </ul>
+ * The total number of transfers and the number of transfers per Storage Element are limited.
+ * New replicas are registered in batches using one LFC server connection. Failed registrations 
+ * are retried with the last batch, replicas which still can't be registered are deleted. 
+ */
+public class ReplicationEngine
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(ReplicationEngine.class);
+    }
+
+    /** Default maximum number of concurrent transfers */
+    public static final int DEFAULT_MAX_TRANSFERS=6;
+
+    /** Default maximum number of concurrent transfers to one Storage Element */
+    public static final int DEFAULT_MAX_TRANSFERS_PER_SE=2;
+
+    /** Number of new replicas after which they are registered */
+    public static final int REGISTER_BATCH_SIZE=100;
+
+    /** Maximum number of failed replicas listed in the exception */
+    private static final int MAX_ERROR_LINES=20;
+
+    /** Size of the data chunks which are passed to the writers */
+    public static final int TEE_CHUNK_SIZE=1024*1024;
+
+    /** Number of chunks a writer may lag behind the reader */
+    public static final int TEE_QUEUE_SIZE=8;
+
+    /** 
+     * Passed to the writers when the source can't be read or the transfer is cancelled. 
+     * Compared by reference: an empty chunk is the end of the stream. 
+     */
+    private static final byte[] ABORT=new byte[0];
+
+    private static ThreadPoolExecutor executor=null;
+
+    /** Shared executor. Concurrency is limited by the semaphores of each engine */
+    private static synchronized ThreadPoolExecutor getExecutor()
+    {
+        if (executor==null)
+        {
+            executor=DaemonThreadFactory.createCachedPool("ReplicationEngine");
+        }
+
+        return executor;
+    }
+
+    /** Writes the chunks of the source to one new replica */
+    private class TeeWriter implements Runnable
+    {
+        final String se;
+
+        final VFile replica;
+
+        final BlockingQueue<byte[]> queue=new ArrayBlockingQueue<byte[]>(TEE_QUEUE_SIZE);
+
+        volatile Exception exception=null;
+
+        TeeWriter(String se,VFile replica)
+        {
+            this.se=se;
+            this.replica=replica;
+        }
+
+        public void run()
+        {
+            OutputStream outps=null;
+
+            try
+            {
+                outps=replica.createOutputStream();
+
+                while (true)
+                {
+                    byte chunk[]=queue.take();
+
+                    // reader failed: the replica is incomplete.
+                    if (chunk==ABORT)
+                        throw new InterruptedIOException("Reading source failed, aborting new replica:"+replica);
+
+                    // end of stream
+                    if (chunk.length==0)
+                        break;
+
+                    outps.write(chunk);
+                }
+
+                outps.close();
+                outps=null;
+            }
+            catch (Throwable t)
+            {
+                // must always be set: the reader waits for this writer while it hasn't failed.
+                // keep the exception of the reader if it aborted this writer.
+                if (exception==null)
+                    exception=(t instanceof Exception)?(Exception)t:new Exception(t.getMessage(),t);
+
+                queue.clear();
+            }
+            finally
+            {
+                if (outps!=null)
+                {
+                    try
+                    {
+                        outps.close();
+                    }
+                    catch (Exception e)
+                    {
+                        logger.debugPrintf("Exception when closing:%s:%s\n",replica,e);
+                    }
+                }
+
+                // don't leave partial replicas
+                if (exception!=null)
+                    deleteQuietly(replica);
+            }
+        }
+
+        /** Pass chunk to writer. Returns false if the writer has failed */
+        boolean put(byte chunk[]) throws InterruptedException
+        {
+            while (exception==null)
+            {
+                if (queue.offer(chunk,1,TimeUnit.SECONDS))
+                    return true;
+            }
+
+            return false;
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private LFCClient lfcClient;
+
+    private ITaskMonitor monitor;
+
+    private List<String> storageElements;
+
+    private Semaphore transferPermits;
+
+    private int maxTransfersPerSE=DEFAULT_MAX_TRANSFERS_PER_SE;
+
+    private Map<String,Semaphore> sePermits=new HashMap<String,Semaphore>();
+
+    /** Limits the number of files being processed, so submitFile() throttles the caller */
+    private Semaphore filePermits;
+
+    private int numPendingFiles=0;
+
+    /** New replicas to be registered: newReplicas[i] belongs to newReplicaFiles[i] */
+    private List<LFCFile> newReplicaFiles=new ArrayList<LFCFile>();
+
+    private List<VRL> newReplicas=new ArrayList<VRL>();
+
+    /** Number of SEs of each file in progress which haven't been counted as done or failed yet */
+    private Map<LFCFile,Integer> remainingTasks=new IdentityHashMap<LFCFile,Integer>();
+
+    private int numDone=0;
+
+    private int numFailed=0;
+
+    private int numRegistered=0;
+
+    private Exception lastException=null;
+
+    private String errorText="";
+
+    public ReplicationEngine(LFCClient client,ITaskMonitor monitor,List<String> storageElements,int maxTransfers,
+            int maxTransfersPerSE)
+    {
+        this.lfcClient=client;
+        this.monitor=monitor;
+        this.storageElements=storageElements;
+
+        if (maxTransfers<1)
+            maxTransfers=DEFAULT_MAX_TRANSFERS;
+
+        if (maxTransfersPerSE>0)
+            this.maxTransfersPerSE=maxTransfersPerSE;
+
+        this.transferPermits=new Semaphore(maxTransfers,true);
+        this.filePermits=new Semaphore(maxTransfers);
+    }
+
+    /**
+     * Replicate file in the background. Blocks while the maximum number of files is being processed.
+     */
+    public void submitFile(final LFCFile file) throws VrsException
+    {
+        checkCancelled();
+
+        try
+        {
+            filePermits.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            throw new NestedInterruptedException("Interrupted",e);
+        }
+
+        synchronized(this)
+        {
+            numPendingFiles++;
+            remainingTasks.put(file,storageElements.size());
+        }
+
+        Runnable job=new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    replicateFile(file);
+                }
+                catch (Exception e)
+                {
+                    // only the SEs which haven't been counted yet.
+                    fileFailed(file,getRemainingTasks(file),e);
+                }
+                finally
+                {
+                    filePermits.release();
+                    fileDone(file);
+                }
+            }
+        };
+
+        getExecutor().execute(job);
+    }
+
+    /**
+     * Wait until all submitted files have been replicated and register the remaining new replicas.
+     * @throws ResourceCreationFailedException if one or more replicas couldn't be created.
+     */
+    public void waitForAll() throws VrsException
+    {
+        waitAndRegister();
+        checkCancelled();
+
+        synchronized(this)
+        {
+            if (numFailed>0)
+                throw new ResourceCreationFailedException("Failed to create "+numFailed+" replica(s):\n"
+                        +errorText,lastException);
+        }
+    }
+
+    /**
+     * Wait until the submitted files are done and register the new replicas, also when cancelled. 
+     * Doesn't report failed replicas, use waitForAll() for that. 
+     */
+    public void waitAndRegister() throws VrsException
+    {
+        synchronized(this)
+        {
+            while (numPendingFiles>0)
+            {
+                try
+                {
+                    this.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new NestedInterruptedException("Interrupted",e);
+                }
+            }
+        }
+
+        registerNewReplicas(true);
+    }
+
+    private void replicateFile(LFCFile file) throws Exception
+    {
+        checkCancelled();
+        monitor.logPrintf("LFC: Updating replicas of:%s\n",file.getBasename());
+
+        StringList currentSEs=lfcClient.verifyReplicas(monitor,file);
+
+        if (currentSEs==null)
+        {
+            // be robuust:
+            monitor.logPrintf("LFC: WARNING: Skipping file, file doesn't have any replicas(!) :%s\n",file);
+            taskDone(file,getRemainingTasks(file));
+            return;
+        }
+
+        // new replicas, per transfer method
+        List<String> activeSEs=new ArrayList<String>();
+        List<VFile> activeReplicas=new ArrayList<VFile>();
+        List<TeeWriter> writers=new ArrayList<TeeWriter>();
+
+        for (String se:storageElements)
+        {
+            if (currentSEs.contains(se))
+            {
+                taskDone(file,1);
+                continue;
+            }
+
+            try
+            {
+                VFile newReplica=lfcClient.generateNewReplica(monitor,se,file.getBasename(),1);
+                monitor.logPrintf("LFC: Adding new replica at Storage Element:%s\n - %s\n",se,newReplica);
+
+                if (isActiveTransfer(file,newReplica))
+                {
+                    activeSEs.add(se);
+                    activeReplicas.add(newReplica);
+                }
+                else
+                {
+                    writers.add(new TeeWriter(se,newReplica));
+                }
+            }
+            catch (Exception e)
+            {
+                fileFailed(file,1,e);
+            }
+        }
+
+        CountDownLatch activeDone=startActiveTransfers(file,activeSEs,activeReplicas);
+
+        try
+        {
+            if (writers.size()>0)
+                teeTransfer(file,writers);
+        }
+        finally
+        {
+            // also when the tee transfer failed: active transfers count and register themselves.
+            activeDone.await();
+        }
+    }
+
+    /** Whether the third party transfer can be used to create the new replica */
+    private boolean isActiveTransfer(LFCFile file,VFile newReplica) throws VrsException
+    {
+        if (newReplica.getFileSystem() instanceof VFileActiveTransferable)
+            return true;
+
+        VRL sourceVRL=file.getSelectedReplicaVRL(monitor,0);
+        VFile source=lfcClient.getVFSNodeFrom(sourceVRL);
+
+        return (source.getFileSystem() instanceof VFileActiveTransferable);
+    }
+
+    /** Start the third party transfers in parallel */
+    private CountDownLatch startActiveTransfers(final LFCFile file,List<String> ses,List<VFile> replicas)
+    {
+        final CountDownLatch latch=new CountDownLatch(ses.size());
+        final int numTries=file.getFileSystem().getReplicasNrOfTries();
+
+        for (int i=0;i<ses.size();i++)
+        {
+            final String se=ses.get(i);
+            final VFile replica=replicas.get(i);
+
+            getExecutor().execute(new Runnable()
+            {
+                public void run()
+                {
+                    List<String> permitSEs=Collections.singletonList(se);
+
+                    try
+                    {
+                        acquirePermits(permitSEs);
+
+                        try
+                        {
+                            VFile result=lfcClient.doReplicaTransfer(monitor,file,replica,numTries);
+                            replicaCreated(file,result.getVRL());
+                        }
+                        finally
+                        {
+                            releasePermits(permitSEs);
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        fileFailed(file,1,e);
+                    }
+                    finally
+                    {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        return latch;
+    }
+
+    /** Read source once and write it to all new replicas */
+    private void teeTransfer(LFCFile file,List<TeeWriter> writers) throws Exception
+    {
+        List<String> ses=new ArrayList<String>();
+
+        for (TeeWriter writer:writers)
+            ses.add(writer.se);
+
+        acquirePermits(ses);
+
+        InputStream inps=null;
+        CountDownLatch writersDone=null;
+
+        try
+        {
+            inps=lfcClient.getInputStream(monitor,file);
+            writersDone=new CountDownLatch(writers.size());
+
+            for (final TeeWriter writer:writers)
+            {
+                final CountDownLatch latch=writersDone;
+
+                getExecutor().execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            writer.run();
+                        }
+                        finally
+                        {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+
+            int numActive=writers.size();
+
+            while (numActive>0)
+            {
+                checkCancelled();
+
+                byte chunk[]=readChunk(inps);
+                numActive=0;
+
+                for (TeeWriter writer:writers)
+                {
+                    if ((writer.exception==null) && writer.put(chunk))
+                        numActive++;
+                }
+
+                // end of stream has been passed to the writers
+                if (chunk.length==0)
+                    break;
+            }
+        }
+        catch (Exception e)
+        {
+            // read error or cancelled: abort all writers, they delete their replica.
+            for (TeeWriter writer:writers)
+            {
+                if (writer.exception==null)
+                    writer.exception=e;
+
+                writer.queue.clear();
+                writer.queue.offer(ABORT);
+            }
+
+            throw e;
+        }
+        finally
+        {
+            if (inps!=null)
+            {
+                try
+                {
+                    inps.close();
+                }
+                catch (Exception e)
+                {
+                    logger.debugPrintf("Exception when closing:%s:%s\n",file,e);
+                }
+            }
+
+            try
+            {
+                if (writersDone!=null)
+                    writersDone.await();
+            }
+            finally
+            {
+                releasePermits(ses);
+            }
+        }
+
+        for (TeeWriter writer:writers)
+        {
+            // failed writers have deleted their replica
+            if (writer.exception==null)
+                replicaCreated(file,writer.replica.getVRL());
+            else
+                fileFailed(file,1,writer.exception);
+        }
+    }
+
+    /** Read full chunk or less at the end of the stream. Returns empty chunk at EOF */
+    private byte[] readChunk(InputStream inps) throws Exception
+    {
+        byte buffer[]=new byte[TEE_CHUNK_SIZE];
+        int len=0;
+
+        while (len<buffer.length)
+        {
+            int num=inps.read(buffer,len,buffer.length-len);
+
+            if (num<0)
+                break;
+
+            len+=num;
+        }
+
+        if (len==buffer.length)
+            return buffer;
+
+        byte chunk[]=new byte[len];
+        System.arraycopy(buffer,0,chunk,0,len);
+        return chunk;
+    }
+
+    private void deleteQuietly(VFile replica)
+    {
+        try
+        {
+            if (replica.exists())
+                replica.delete();
+        }
+        catch (Exception e)
+        {
+            logger.warnPrintf("Couldn't delete failed replica:%s:%s\n",replica,e);
+        }
+    }
+
+    // ========================================================================
+    // Limits
+    // ========================================================================
+
+    private synchronized Semaphore getSEPermits(String se)
+    {
+        Semaphore permits=sePermits.get(se);
+
+        if (permits==null)
+        {
+            permits=new Semaphore(maxTransfersPerSE,true);
+            sePermits.put(se,permits);
+        }
+
+        return permits;
+    }
+
+    /** Acquire a transfer permit and a permit for each SE. SEs are acquired in sorted order to avoid deadlocks */
+    private void acquirePermits(List<String> ses) throws InterruptedException
+    {
+        List<String> sorted=new ArrayList<String>(ses);
+        Collections.sort(sorted);
+        transferPermits.acquire();
+        int num=0;
+
+        try
+        {
+            for (String se:sorted)
+            {
+                getSEPermits(se).acquire();
+                num++;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            for (int i=0;i<num;i++)
+                getSEPermits(sorted.get(i)).release();
+
+            transferPermits.release();
+            throw e;
+        }
+    }
+
+    private void releasePermits(List<String> ses)
+    {
+        for (String se:ses)
+            getSEPermits(se).release();
+
+        transferPermits.release();
+    }
+
+    // ========================================================================
+    // Bookkeeping
+    // ========================================================================
+
+    private void replicaCreated(LFCFile file,VRL replicaVRL) throws VrsException
+    {
+        boolean register;
+
+        synchronized(this)
+        {
+            newReplicaFiles.add(file);
+            newReplicas.add(replicaVRL);
+            register=(newReplicas.size()>=REGISTER_BATCH_SIZE);
+        }
+
+        monitor.logPrintf("LFC: Created new replica:\n - %s\n",replicaVRL);
+        taskDone(file,1);
+
+        if (register)
+            registerNewReplicas(false);
+    }
+
+    /**
+     * Register new replicas. Unless force==true, nothing happens if less than
+     * REGISTER_BATCH_SIZE replicas are pending (another thread might just have registered them).
+     * Replicas which can't be registered are put back and retried with the next batch. 
+     * When force==true this is the last batch: replicas which can't be registered are deleted. 
+     */
+    private void registerNewReplicas(boolean force) throws VrsException
+    {
+        LFCFile files[];
+        VRL vrls[];
+
+        synchronized(this)
+        {
+            if ((newReplicas.size()<=0) || ((force==false) && (newReplicas.size()<REGISTER_BATCH_SIZE)))
+                return;
+
+            files=newReplicaFiles.toArray(new LFCFile[0]);
+            vrls=newReplicas.toArray(new VRL[0]);
+            newReplicaFiles.clear();
+            newReplicas.clear();
+        }
+
+        VrsException errors[];
+
+        try
+        {
+            errors=lfcClient.registerReplicas(monitor,files,vrls);
+        }
+        catch (VrsException e)
+        {
+            // couldn't get a server connection: all failed.
+            errors=new VrsException[vrls.length];
+
+            for (int i=0;i<vrls.length;i++)
+                errors[i]=e;
+        }
+
+        int numOk=0;
+
+        for (int i=0;i<vrls.length;i++)
+        {
+            if (errors[i]==null)
+            {
+                numOk++;
+            }
+            else if (force==false)
+            {
+                logger.warnPrintf("Couldn't register new replica, retrying later:%s:%s\n",vrls[i],errors[i]);
+
+                synchronized(this)
+                {
+                    newReplicaFiles.add(files[i]);
+                    newReplicas.add(vrls[i]);
+                }
+            }
+            else
+            {
+                // not in the catalogue: don't leave an orphaned replica.
+                registrationFailed(files[i],vrls[i],errors[i]);
+
+                try
+                {
+                    deleteQuietly(lfcClient.getVFSNodeFrom(vrls[i]));
+                }
+                catch (VrsException e)
+                {
+                    logger.warnPrintf("Couldn't delete unregistered replica:%s:%s\n",vrls[i],e);
+                }
+            }
+        }
+
+        synchronized(this)
+        {
+            numRegistered+=numOk;
+        }
+
+        monitor.logPrintf("LFC: Registered %d new replicas\n",numOk);
+    }
+
+    private synchronized void fileFailed(LFCFile file,int numReplicas,Exception e)
+    {
+        numFailed+=numReplicas;
+        lastException=e;
+        // summary of the first errors only
+        if (numFailed<=MAX_ERROR_LINES)
+            errorText+=" - "+file.getBasename()+":"+e.getMessage()+"\n";
+
+        monitor.logPrintf("LFC: Failed to create replica of %s:%s\n",file.getBasename(),e);
+        taskDone(file,numReplicas);
+    }
+
+    /** The replica has been created (and counted as done) but couldn't be registered */
+    private synchronized void registrationFailed(LFCFile file,VRL replicaVRL,Exception e)
+    {
+        numFailed++;
+        lastException=e;
+
+        if (numFailed<=MAX_ERROR_LINES)
+            errorText+=" - "+file.getBasename()+":"+e.getMessage()+"\n";
+
+        monitor.logPrintf("LFC: Failed to register new replica, deleting it:\n - %s\n - %s\n",replicaVRL,e);
+    }
+
+    /** Count SEs of the file as done. Never more than the remaining SEs of the file, so progress doesn't overshoot */
+    private synchronized void taskDone(LFCFile file,int num)
+    {
+        Integer remaining=remainingTasks.get(file);
+
+        if (remaining!=null)
+        {
+            num=Math.min(num,remaining);
+            remainingTasks.put(file,remaining-num);
+        }
+
+        numDone+=num;
+        monitor.updateTaskDone(numDone);
+    }
+
+    private synchronized int getRemainingTasks(LFCFile file)
+    {
+        Integer remaining=remainingTasks.get(file);
+        return (remaining!=null)?remaining:0;
+    }
+
+    private synchronized void fileDone(LFCFile file)
+    {
+        numPendingFiles--;
+        remainingTasks.remove(file);
+        this.notifyAll();
+    }
+
+    private void checkCancelled() throws NestedInterruptedException
+    {
+        if (monitor.isCancelled())
+            throw new NestedInterruptedException("Interrupted");
+    }
+
+    public synchronized String getStats()
+    {
+        return "ReplicationEngine:ses="+storageElements.size()
+                +",pending="+numPendingFiles
+                +",done="+numDone
+                +",failed="+numFailed
+                +",registered="+numRegistered;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
@@ -27,6 +27,7 @@ import gov.lbl.srm.v22.stubs.TRetentionPolicyInfo;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 
 import nl.esciencecenter.ptk.data.StringList;
 import nl.esciencecenter.ptk.task.ITaskMonitor;
@@ -36,6 +37,7 @@ import nl.esciencecenter.vbrowser.vrs.exceptions.VRLSyntaxException;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.vrs.data.VAttributeConstants;
+import nl.esciencecenter.vlet.vrs.util.MultiChecksum;
 import nl.esciencecenter.vlet.vrs.vfs.VChecksum;
 import nl.esciencecenter.vlet.vrs.vfs.VFile;
 import nl.esciencecenter.vlet.vrs.vfs.VTransportable;
@@ -272,7 +274,7 @@ public class SRMFile extends VFile implements VUnixFileMode, VChecksum, VTranspo
                 "getInputStream:" + this, -1);
         try
         {
-            return srmfs.createInputStream(monitor, this.getPath());
+            return srmfs.createInputStream(monitor, this);
         }
         catch (Exception e)
         {
@@ -285,7 +287,7 @@ public class SRMFile extends VFile implements VUnixFileMode, VChecksum, VTranspo
     {
         ITaskMonitor monitor = getVRSContext().getTaskWatcher().getCurrentThreadTaskMonitor(
                 "getInputStream:" + this, -1);
-        return srmfs.getTransportVRL(monitor, this.getPath());
+        return srmfs.getTransportVRL(monitor, this);
     }
     
     @Override
@@ -401,6 +403,12 @@ public class SRMFile extends VFile implements VUnixFileMode, VChecksum, VTranspo
         return checksum;
     }
 
+    @Override
+    public Map<String,String> getChecksums(String algorithms[]) throws VrsException
+    {
+        return MultiChecksum.getChecksums(this,algorithms);
+    }
+
     @Override
     public String[] getChecksumTypes() throws VrsException
     {
@@ -68,6 +68,7 @@ import nl.esciencecenter.vlet.util.bdii.BdiiUtil;
 import nl.esciencecenter.vlet.util.bdii.ServiceInfo;
 import nl.esciencecenter.vlet.util.bdii.StorageArea;
 import nl.esciencecenter.vlet.vrs.ServerInfo;
+import nl.esciencecenter.vlet.vrs.VNode;
 import nl.esciencecenter.vlet.vrs.VRS;
 import nl.esciencecenter.vlet.vrs.VRSClient;
 import nl.esciencecenter.vlet.vrs.VRSContext;
@@ -79,6 +80,7 @@ import nl.esciencecenter.vlet.vrs.vfs.VFSClient;
 import nl.esciencecenter.vlet.vrs.vfs.VFSNode;
 import nl.esciencecenter.vlet.vrs.vfs.VFile;
 import nl.esciencecenter.vlet.vrs.vfs.VFileActiveTransferable;
+import nl.esciencecenter.vlet.vrs.vfs.VBulkTransportable;
 import nl.esciencecenter.vlet.vrs.vfs.VFileSystem;
 import nl.esciencecenter.vlet.vrs.vrl.VRLUtil;
 
@@ -90,7 +92,7 @@ import org.apache.axis.types.URI.MalformedURIException;
  * 
  * @author Piter T. de Boer, Spiros Koulouzis.
  */
-public class SRMFileSystem extends FileSystemNode implements VFileActiveTransferable
+public class SRMFileSystem extends FileSystemNode implements VFileActiveTransferable, VBulkTransportable
 {
     static Random fileRandomizer = new Random();
 
@@ -164,6 +166,8 @@ public class SRMFileSystem extends FileSystemNode implements VFileActiveTransfer
 
     private SRMClientV1 srmClientV1;
 
+    private SRMTransportPrefetcher transportPrefetcher = new SRMTransportPrefetcher();
+
     // Spiros: Dead variable
     // private String srmVersionInfo;
 
@@ -1113,6 +1117,24 @@ public class SRMFileSystem extends FileSystemNode implements VFileActiveTransfer
         return getVFSClient().openInputStream(tsvrl);
     }
 
+    /** Uses the transport VRL which has been prefetched for this file node, if any */
+    public InputStream createInputStream(ITaskMonitor monitor, SRMFile file) throws VrsException
+    {
+        VRL tsvrl = getTransportVRL(monitor, file);
+        return getVFSClient().openInputStream(tsvrl);
+    }
+
+    /** Returns the transport VRL which has been prefetched for this file node, or requests a new one */
+    public VRL getTransportVRL(ITaskMonitor monitor, SRMFile file) throws VrsException
+    {
+        VRL prefetched = getPrefetchedTransportVRL(file);
+
+        if (prefetched != null)
+            return prefetched;
+
+        return getTransportVRL(monitor, file.getPath());
+    }
+
     public VRL getTransportVRL(ITaskMonitor monitor, String path) throws VrsException
     {
         // use new bulk mode:
@@ -1178,6 +1200,60 @@ public class SRMFileSystem extends FileSystemNode implements VFileActiveTransfer
         }
     }
 
+    /**
+     * Start batched staging of the transport VRLs of the SRM files. Each file is staged in the background and
+     * {@link #getTransportVRL(ITaskMonitor, SRMFile)} returns the prefetched transport VRL of one of the nodes as
+     * soon as the file has been staged, without waiting for the other files. The transport VRLs are only handed out
+     * for these node objects, so other transfers of the same files don't use the pins of this transfer.
+     */
+    public void prefetchTransportVRLs(ITaskMonitor monitor, VNode nodes[]) throws VrsException
+    {
+        ArrayList<SRMFile> files = new ArrayList<SRMFile>();
+        ArrayList<String> paths = new ArrayList<String>();
+
+        for (VNode node : nodes)
+        {
+            // only files of this file system. 
+            if ((node instanceof SRMFile) && (((SRMFile) node).getFileSystem() == this))
+            {
+                files.add((SRMFile) node);
+                paths.add(node.getPath());
+            }
+        }
+
+        if (paths.size() <= 0)
+            return;
+
+        connect(false);
+
+        try
+        {
+            transportPrefetcher.prefetch(srmClient, files.toArray(), paths.toArray(new String[0]),
+                    new String[] { nl.esciencecenter.glite.lbl.srm.SRMConstants.GSIFTP_PROTOCOL }, monitor);
+        }
+        catch (SRMException e)
+        {
+            throw convertException("Failed to prefetch transport URIs:\n" + flatten(paths.toArray(new String[0])), e);
+        }
+    }
+
+    /**
+     * Release the pins of the files which have been prefetched with the monitor, after the transfer has ended.
+     */
+    public void releaseTransportVRLs(ITaskMonitor monitor)
+    {
+        transportPrefetcher.release(monitor);
+    }
+
+    private VRL getPrefetchedTransportVRL(SRMFile file)
+    {
+        if (srmClient == null)
+            return null;
+
+        // wait at most as long as the staging request itself may take.
+        return transportPrefetcher.take(file, srmClient.getSRMRequestTimeout());
+    }
+
     private VRL[] createTransportVRLs(URI[] turls) throws VRLSyntaxException
     {
         VRL vrls[] = new VRL[turls.length];
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vfs.srm;
+
+import gov.lbl.srm.v22.stubs.TAccessPattern;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import nl.esciencecenter.glite.lbl.srm.SRMClientV2;
+import nl.esciencecenter.glite.lbl.srm.SRMException;
+import nl.esciencecenter.glite.lbl.srm.SRMStagingListener;
+import nl.esciencecenter.glite.lbl.srm.SRMStagingRequest;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VRLSyntaxException;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+
+import org.apache.axis.types.URI;
+
+/**
+ * Prefetched transport VRLs of one SRMFileSystem.
+ * <p>
+ * The transport VRLs of many files are requested with one batched staging request. Each transport VRL is stored as
+ * soon as its file has been staged, so the transfer of that file can start while the other files are still being
+ * staged. A transport VRL is handed out once: it is removed when taken.
+ * <p>
+ * Transport VRLs are stored per file node of the transfer (the owner) which prefetched them, so concurrent transfers
+ * of the same files never get each other's transport VRLs. The pins are released with {@link #release(Object)} when
+ * the owner has finished, taken transport VRLs can't be used after that. Pins which haven't been used within
+ * {@link #MAX_AGE} are released early.
+ */
+class SRMTransportPrefetcher
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger = ClassLogger.getLogger(SRMTransportPrefetcher.class);
+    }
+
+    /** Prefetched transport VRLs which haven't been used after this time (ms) are released. The pin may have expired. */
+    public static final long MAX_AGE = 5 * 60 * 1000;
+
+    private static class Entry
+    {
+        final long creationTime = System.currentTimeMillis();
+
+        final SRMClientV2 client;
+
+        final Object owner;
+
+        final Object node;
+
+        final URI surl;
+
+        VRL transportVRL = null;
+
+        /** Token of the request which pinned the file */
+        String requestToken = null;
+
+        Exception exception = null;
+
+        boolean done = false;
+
+        Entry(SRMClientV2 client, Object owner, Object node, URI surl)
+        {
+            this.client = client;
+            this.owner = owner;
+            this.node = node;
+            this.surl = surl;
+        }
+    }
+
+    /** Receives the results of one staging request */
+    private class Batch implements SRMStagingListener
+    {
+        /** Entries of this request by SURL. Guarded by the prefetcher. */
+        final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        public void notifyTransportURI(URI surl, URI turl, String requestToken)
+        {
+            VRL vrl = null;
+            Exception ex = null;
+
+            try
+            {
+                vrl = new VRL(turl.toString());
+            }
+            catch (VRLSyntaxException e)
+            {
+                ex = e;
+            }
+
+            setDone(this, surl, vrl, requestToken, ex);
+        }
+
+        public void notifyFailed(URI surl, SRMException e)
+        {
+            setDone(this, surl, null, null, e);
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    /** Entries by file node. Guarded by this. */
+    private Map<Object, Entry> entries = new IdentityHashMap<Object, Entry>();
+
+    /** Staging requests per owner, of which the pins must be released. Guarded by this. */
+    private Map<Object, List<SRMStagingRequest>> requests = new HashMap<Object, List<SRMStagingRequest>>();
+
+    private long numPrefetched = 0;
+
+    private long numHits = 0;
+
+    private long numWaits = 0;
+
+    private long numReleased = 0;
+
+    private long numExpired = 0;
+
+    /**
+     * Start batched staging of the specified files. Nodes which are already being prefetched are skipped. Does not
+     * wait for the transport VRLs. The staging request is registered for the owner.
+     * 
+     * @param nodes
+     *            the file nodes of the transfer, used to take the transport VRL.
+     * @param paths
+     *            the paths of the nodes.
+     */
+    public SRMStagingRequest prefetch(SRMClientV2 client, Object nodes[], String paths[], String protocols[], Object owner) throws SRMException
+    {
+        URI surls[] = client.createURIArray(paths);
+        Batch batch = new Batch();
+        List<URI> todo = new ArrayList<URI>();
+        List<Entry> expired;
+
+        synchronized (this)
+        {
+            expired = removeExpired();
+
+            for (int i = 0; i < nodes.length; i++)
+            {
+                if (entries.containsKey(nodes[i]))
+                    continue;
+
+                Entry entry = new Entry(client, owner, nodes[i], surls[i]);
+                entries.put(nodes[i], entry);
+                batch.entries.put(surls[i].toString(), entry);
+                todo.add(surls[i]);
+            }
+
+            numPrefetched += todo.size();
+        }
+
+        releasePins(expired);
+
+        if (todo.size() <= 0)
+            return null;
+
+        SRMStagingRequest request;
+
+        try
+        {
+            request = client.srmStageGetRequest(todo.toArray(new URI[0]), TAccessPattern.TRANSFER_MODE, protocols, 0, batch);
+        }
+        catch (SRMException e)
+        {
+            synchronized (this)
+            {
+                for (Entry entry : batch.entries.values())
+                    entries.remove(entry.node);
+
+                this.notifyAll();
+            }
+
+            throw e;
+        }
+
+        synchronized (this)
+        {
+            List<SRMStagingRequest> list = requests.get(owner);
+
+            if (list == null)
+            {
+                list = new ArrayList<SRMStagingRequest>();
+                requests.put(owner, list);
+            }
+
+            list.add(request);
+        }
+
+        return request;
+    }
+
+    /**
+     * Release the pins of the files which have been prefetched for the owner. Staging requests which are still
+     * running are aborted. Threads waiting for one of the transport VRLs return null.
+     */
+    public void release(Object owner)
+    {
+        List<SRMStagingRequest> list;
+
+        synchronized (this)
+        {
+            list = requests.remove(owner);
+
+            Iterator<Entry> iterator = entries.values().iterator();
+
+            while (iterator.hasNext())
+            {
+                Entry entry = iterator.next();
+
+                if (entry.owner == owner)
+                {
+                    entry.transportVRL = null;
+                    entry.done = true;
+                    iterator.remove();
+                }
+            }
+
+            this.notifyAll();
+        }
+
+        if (list == null)
+            return;
+
+        // SRM calls outside the lock.
+        for (SRMStagingRequest request : list)
+            request.release();
+
+        synchronized (this)
+        {
+            numReleased += list.size();
+        }
+    }
+
+    /**
+     * Returns and removes the transport VRL prefetched for the file node. Waits if the file is still being staged.
+     * 
+     * @return the transport VRL or null if the node isn't being prefetched, staging failed, the timeout expired or the
+     *         pin is older than {@link #MAX_AGE}. Caller must request the transport VRL itself in that case.
+     */
+    public VRL take(Object node, long timeout)
+    {
+        long startTime = System.currentTimeMillis();
+        Entry entry;
+
+        synchronized (this)
+        {
+            entry = entries.get(node);
+
+            if (entry == null)
+                return null;
+
+            if (entry.done == false)
+                numWaits++;
+
+            try
+            {
+                while (entry.done == false)
+                {
+                    long remaining = timeout - (System.currentTimeMillis() - startTime);
+
+                    if (remaining <= 0)
+                        break;
+
+                    this.wait(remaining);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                logger.debugPrintf("Interrupted while waiting for:%s\n", entry.surl);
+                Thread.currentThread().interrupt();
+            }
+
+            entries.remove(node);
+
+            if ((entry.done == false) || (entry.transportVRL == null))
+            {
+                logger.debugPrintf("No prefetched transport VRL for:%s:%s\n", entry.surl, entry.exception);
+                return null;
+            }
+
+            if (isExpired(entry, System.currentTimeMillis()) == false)
+            {
+                numHits++;
+                return entry.transportVRL;
+            }
+
+            numExpired++;
+        }
+
+        // caller stages the file again: don't leave the old pin behind.
+        List<Entry> expired = new ArrayList<Entry>(1);
+        expired.add(entry);
+        releasePins(expired);
+
+        return null;
+    }
+
+    private synchronized void setDone(Batch batch, URI surl, VRL vrl, String requestToken, Exception e)
+    {
+        Entry entry = batch.entries.get(surl.toString());
+
+        // already taken (timeout), released or expired
+        if ((entry == null) || (entries.get(entry.node) != entry))
+            return;
+
+        entry.transportVRL = vrl;
+        entry.requestToken = requestToken;
+        entry.exception = e;
+        entry.done = true;
+        this.notifyAll();
+    }
+
+    private static boolean isExpired(Entry entry, long now)
+    {
+        return (entry.done) && (now - entry.creationTime > MAX_AGE);
+    }
+
+    /** Remove and return expired entries. Their pins must be released outside the lock. */
+    private List<Entry> removeExpired()
+    {
+        long now = System.currentTimeMillis();
+        List<Entry> expired = new ArrayList<Entry>();
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (iterator.hasNext())
+        {
+            Entry entry = iterator.next();
+
+            if (isExpired(entry, now))
+            {
+                iterator.remove();
+                expired.add(entry);
+            }
+        }
+
+        numExpired += expired.size();
+        return expired;
+    }
+
+    /** Release the pins of single files, the other files of their requests stay pinned. */
+    private void releasePins(List<Entry> expired)
+    {
+        for (Entry entry : expired)
+        {
+            if ((entry.transportVRL == null) || (entry.requestToken == null))
+                continue;
+
+            try
+            {
+                entry.client.srmReleaseFiles(entry.requestToken, new URI[] { entry.surl });
+            }
+            catch (SRMException e)
+            {
+                logger.debugPrintf("Failed to release expired pin of:%s:%s\n", entry.surl, e);
+            }
+        }
+    }
+
+    public synchronized String getStats()
+    {
+        return "SRMTransportPrefetcher:entries=" + entries.size()
+                + ",prefetched=" + numPrefetched
+                + ",hits=" + numHits
+                + ",waits=" + numWaits
+                + ",expired=" + numExpired
+                + ",owners=" + requests.size()
+                + ",released=" + numReleased;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
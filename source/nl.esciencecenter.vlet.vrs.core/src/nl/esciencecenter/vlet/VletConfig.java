@@ -45,6 +45,7 @@ import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.exception.NestedIOException;
 import nl.esciencecenter.vlet.exception.ResourceReadAccessDeniedException;
+import nl.esciencecenter.vlet.util.PropertiesFileStore;
 import nl.esciencecenter.vlet.vrs.VRS;
 
 /**
@@ -178,6 +179,12 @@ public class VletConfig
      */
     public static final String PROP_INIT_DEFAULT_VDRIVERS = "vlet.vrs.initDefaultVDrivers";
 
+    /**
+     * Whether to load the default VRS/VFS Drivers when their scheme is used for the first time, default = true.
+     * The schemes and drivers are read from the VDriver manifest "vrsdrivers.prop".
+     */
+    public static final String PROP_LAZY_VDRIVERS = "vlet.vrs.lazyVDrivers";
+
     /** Default grid proxy lifetime. */
     public static final String PROP_GRID_PROXY_LIFETIME = "grid.proxy.lifetime";
 
@@ -259,6 +266,9 @@ public class VletConfig
     /** VLETRC configuration properties file "vletrc.prop". */
     public static final String VLETRC_PROP_FILENAME = "vletrc.prop";
 
+    /** VDriver manifest "vrsdrivers.prop" which maps schemes to VRSFactory classes. */
+    public static final String VRSDRIVERS_PROP_FILENAME = "vrsdrivers.prop";
+
     /**
      * Plug-in sub directory "plugins". Appended to library directory AND and
      * user configuration directory: $HOME/.vletrc/ Default plugin directories
@@ -288,6 +298,25 @@ public class VletConfig
      */
     public static final String SERVER_REQUEST_TIMEOUT = "vlet.server.request.timeout";
 
+    /**
+     * Global property which enables concurrent file transfers when copying
+     * directories. The default is "true".
+     */
+    public static final String PROP_VFS_PARALLEL_COPY = "vlet.vfs.parallelCopy";
+
+    /**
+     * Global property which specifies the maximum number of concurrent file
+     * transfers per destination file system.
+     */
+    public static final String PROP_VFS_PARALLEL_COPY_WORKERS = "vlet.vfs.parallelCopy.maxWorkers";
+
+    /**
+     * Global property which specifies the maximum number of concurrent range
+     * requests when downloading a HTTP resource to a local file. "1" disables
+     * segmented downloads.
+     */
+    public static final String PROP_HTTP_DOWNLOAD_SEGMENTS = "vlet.http.download.maxSegments";
+
     /** Experimental HTTP proxy settings. Under construction */
     public static final String HTTP_PROXY_ENABLED = "http.proxy.enable";
 
@@ -352,6 +381,9 @@ public class VletConfig
     /** User Home Location. */
     protected static VRL userHomeLocation = null;
 
+    /** Cached ~/.vletrc/vletrc.prop. */
+    private static PropertiesFileStore userPropertiesStore = null;
+
     /**
      * Whether inbound tcp traffic is allowed. passiveMode==true => no active
      * incoming traffic allowed !
@@ -950,8 +982,9 @@ public class VletConfig
 
     /**
      * Get property from ~/.vletrc/vletrc.prop or NULL if file or property
-     * hasn't been configured. Always reloads ~/vletrc/.vletrc.prop! Returns
-     * NULL if setUsePersistantUserConfiguration has been set to false !
+     * hasn't been configured. ~/vletrc/.vletrc.prop is reloaded when it has 
+     * been modified. Returns NULL if setUsePersistantUserConfiguration has been 
+     * set to false !
      */
     public static String getUserProperty(String name)
     {
@@ -959,12 +992,9 @@ public class VletConfig
         if (VletConfig.getUsePersistantUserConfiguration() == false)
             return null;
 
-        // reload!
         try
         {
-            VRL loc = VletConfig.getUserPropertiesLocation();
-            Properties props = VletConfig.staticLoadProperties(loc);
-            return (String) props.get(name);
+            return getUserPropertiesStore().getProperty(name);
         }
         catch (Exception e)
         {
@@ -973,6 +1003,26 @@ public class VletConfig
         }
     }
 
+    /**
+     * Returns the cached ~/.vletrc/vletrc.prop. A new store is created when the
+     * user configuration location has been changed.
+     */
+    public static synchronized PropertiesFileStore getUserPropertiesStore()
+    {
+        VRL loc = VletConfig.getUserPropertiesLocation();
+
+        if ((userPropertiesStore == null) || (userPropertiesStore.getLocation().equals(loc) == false))
+        {
+            // write pending updates to the previous location
+            if (userPropertiesStore != null)
+                userPropertiesStore.close();
+
+            userPropertiesStore = new PropertiesFileStore(loc, "VLET user properties:  vletrc.prop");
+        }
+
+        return userPropertiesStore;
+    }
+
     /** Returns location of VLET_INSTALL/lib */
     public static VRL getInstallationLibDir()
     {
@@ -60,6 +60,7 @@ public class PluginLoader
     public static final String VRSFACTORY_PACKAGE_PROP = "vrsfactory.package";
     public static final String VRSFACTORY_FACTORY_PROP = "vrsfactory.factory";
     public static final String VRSFACTROY_IS_VDRIVER   = "vrsfactory.isvdriver";
+    public static final String VRSFACTORY_SCHEMES_PROP = "vrsfactory.schemes";
     public static final String VIEWER_NAME_PROP    = "viewer.name";
     public static final String VIEWER_PACKAGE_PROP = "viewer.package";
     public static final String VIEWER_CLASS_PROP   = "viewer.mainclass";
@@ -99,6 +100,9 @@ public class PluginLoader
         public boolean enabled;
 
         public StringList dependencies=null; // null -> no dependencies
+
+        /** Schemes of VRSFactory plugin from plugin.prop. If specified the plugin is initialized when used. */ 
+        public StringList schemes=null; 
 	}
 
 	/** Returns default PluginLoader */
@@ -169,6 +173,10 @@ public class PluginLoader
             if (enabledStr!=null)
                 info.enabled=Boolean.parseBoolean(enabledStr); 
             
+            String schemesStr=pluginProps.getProperty(VRSFACTORY_SCHEMES_PROP);
+            if (StringUtil.isEmpty(schemesStr)==false)
+                info.schemes=StringList.createFrom(StringUtil.stripWhiteSpace(schemesStr),"[ ,]"); 
+            
             // no vdriver class check viewer:     
             if (StringUtil.isEmpty(pluginClass)==true) 
             {
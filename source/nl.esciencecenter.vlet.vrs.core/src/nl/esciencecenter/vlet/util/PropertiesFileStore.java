@@ -0,0 +1,530 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.vlet.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.VletConfig;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+
+/**
+ * In memory copy of a (local) properties file, for example ~/.vletrc/vletrc.prop.
+ * <p>
+ * The file is only reloaded when it has been changed: the modification time and size
+ * are checked at most once per check interval, and the file is only parsed again if 
+ * the content checksum differs. Updates are applied in memory and written to the file 
+ * in the background, multiple updates are written at once. Changes made by other
+ * applications are merged with the pending updates before the file is written. 
+ * Pending updates of all stores are written by one shutdown hook at exit. 
+ * <p>
+ * Changes are detected by polling when the properties are read instead of with a 
+ * WatchService: a WatchService watches whole directories with a background thread, 
+ * and on some platforms it polls as well. Checking the time stamps of one file on 
+ * access is cheaper and needs no thread. 
+ */
+public class PropertiesFileStore
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger = ClassLogger.getLogger(PropertiesFileStore.class);
+    }
+
+    /** Minimum time in milliseconds between checks for file changes */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    /** Time in milliseconds updates are collected before they are written */
+    public static final long DEFAULT_WRITE_DELAY = 500;
+
+    private static ScheduledThreadPoolExecutor writer = null;
+
+    /** Stores with pending updates. Flushed by the shutdown hook. Guarded by the class. */
+    private static Set<PropertiesFileStore> dirtyStores = new LinkedHashSet<PropertiesFileStore>();
+
+    private static Thread shutdownHook = null;
+
+    private static synchronized ScheduledThreadPoolExecutor getWriter()
+    {
+        if (writer == null)
+        {
+            writer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("PropertiesFileStore.writer"));
+        }
+
+        return writer;
+    }
+
+    /** Register store with pending updates and install the shutdown hook once. */
+    private static synchronized void addDirtyStore(PropertiesFileStore store)
+    {
+        dirtyStores.add(store);
+
+        if (shutdownHook != null)
+            return;
+
+        // don't lose pending updates at exit.
+        shutdownHook = new Thread("PropertiesFileStore.shutdownHook")
+        {
+            public void run()
+            {
+                flushAll();
+            }
+        };
+
+        try
+        {
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        catch (IllegalStateException e)
+        {
+            // shutting down already
+            logger.debugPrintf("Couldn't add shutdown hook:%s\n", e);
+        }
+    }
+
+    private static synchronized void removeDirtyStore(PropertiesFileStore store)
+    {
+        dirtyStores.remove(store);
+    }
+
+    /** Write the pending updates of all stores. */
+    public static void flushAll()
+    {
+        PropertiesFileStore stores[];
+
+        synchronized (PropertiesFileStore.class)
+        {
+            stores = dirtyStores.toArray(new PropertiesFileStore[0]);
+        }
+
+        for (PropertiesFileStore store : stores)
+        {
+            try
+            {
+                store.flush();
+            }
+            catch (VrsException e)
+            {
+                logger.warnPrintf("Couldn't save properties to:%s:%s\n", store.getLocation(), e);
+            }
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private final VRL location;
+
+    private final File file;
+
+    private String comments;
+
+    /** Current properties. Guarded by this. */
+    private Properties properties = new Properties();
+
+    /** Updates which haven't been written yet. NULL value means remove. Guarded by this. */
+    private Map<String, String> pendingUpdates = new HashMap<String, String>();
+
+    private long lastModified = -1;
+
+    private long lastLength = -1;
+
+    private long lastChecksum = -1;
+
+    private long lastCheckTime = 0;
+
+    private long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    private boolean writeScheduled = false;
+
+    // metrics
+    private long numReloads = 0;
+
+    private long numWrites = 0;
+
+    private long numUpdates = 0;
+
+    public PropertiesFileStore(VRL location, String comments)
+    {
+        this.location = location;
+        this.file = new File(location.getPath());
+        this.comments = comments;
+    }
+
+    public VRL getLocation()
+    {
+        return location;
+    }
+
+    public void setCheckInterval(long interval)
+    {
+        this.checkInterval = interval;
+    }
+
+    // ========================================================================
+    // Getters
+    // ========================================================================
+
+    /** Returns property or NULL if not set */
+    public String getProperty(String name)
+    {
+        return getProperty(name, null);
+    }
+
+    public synchronized String getProperty(String name, String defaultValue)
+    {
+        checkModified();
+        String value = properties.getProperty(name);
+
+        if (value == null)
+            return defaultValue;
+
+        return value;
+    }
+
+    public int getIntProperty(String name, int defaultValue)
+    {
+        String value = getProperty(name);
+
+        if (StringUtil.isEmpty(value))
+            return defaultValue;
+
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            logger.warnPrintf("Invalid integer value for property %s='%s'\n", name, value);
+            return defaultValue;
+        }
+    }
+
+    public long getLongProperty(String name, long defaultValue)
+    {
+        String value = getProperty(name);
+
+        if (StringUtil.isEmpty(value))
+            return defaultValue;
+
+        try
+        {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            logger.warnPrintf("Invalid long value for property %s='%s'\n", name, value);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolProperty(String name, boolean defaultValue)
+    {
+        return StringUtil.parseBoolean(getProperty(name), defaultValue);
+    }
+
+    /** Returns copy of the current properties. */
+    public synchronized Properties getProperties()
+    {
+        checkModified();
+
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    // ========================================================================
+    // Setters
+    // ========================================================================
+
+    /**
+     * Set property. If value is NULL the property is removed. The file is updated in the background.
+     */
+    public synchronized void setProperty(String name, String value)
+    {
+        checkModified();
+        update(name, value);
+        scheduleWrite();
+    }
+
+    /**
+     * Replace all properties and write the file now.
+     */
+    public void setProperties(Properties props) throws VrsException
+    {
+        synchronized (this)
+        {
+            checkModified();
+
+            for (String name : properties.stringPropertyNames())
+            {
+                if (props.getProperty(name) == null)
+                    update(name, null);
+            }
+
+            for (String name : props.stringPropertyNames())
+                update(name, props.getProperty(name));
+        }
+
+        flush();
+    }
+
+    private void update(String name, String value)
+    {
+        if (value == null)
+            properties.remove(name);
+        else
+            properties.setProperty(name, value);
+
+        pendingUpdates.put(name, value);
+        numUpdates++;
+    }
+
+    private void scheduleWrite()
+    {
+        if (writeScheduled)
+            return;
+
+        writeScheduled = true;
+
+        getWriter().schedule(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    flush();
+                }
+                catch (VrsException e)
+                {
+                    logger.warnPrintf("Couldn't save properties to:%s:%s\n", location, e);
+                }
+            }
+        }, DEFAULT_WRITE_DELAY, TimeUnit.MILLISECONDS);
+
+        addDirtyStore(this);
+    }
+
+    /**
+     * Write pending updates. Changes made to the file by others are merged with the pending updates.
+     */
+    public synchronized void flush() throws VrsException
+    {
+        writeScheduled = false;
+
+        if (pendingUpdates.isEmpty())
+        {
+            removeDirtyStore(this);
+            return;
+        }
+
+        // merge external changes: don't wait for check interval.
+        lastCheckTime = 0;
+        checkModified();
+
+        VletConfig.staticSaveProperties(location, comments, properties);
+        pendingUpdates.clear();
+        removeDirtyStore(this);
+        numWrites++;
+
+        // update file stamps: our own write isn't a modification.
+        try
+        {
+            readFile();
+        }
+        catch (IOException e)
+        {
+            logger.debugPrintf("Couldn't read back:%s:%s\n", location, e);
+        }
+    }
+
+    /**
+     * Write pending updates and stop tracking this store, for example when it is replaced by a store for another
+     * location. The store can still be used, updates are tracked again.
+     */
+    public void close()
+    {
+        try
+        {
+            flush();
+        }
+        catch (VrsException e)
+        {
+            logger.warnPrintf("Couldn't save properties to:%s:%s\n", location, e);
+        }
+    }
+
+    // ========================================================================
+    // Change detection
+    // ========================================================================
+
+    /** Reload file if it has been modified since it was read. */
+    private void checkModified()
+    {
+        long now = System.currentTimeMillis();
+
+        if ((lastCheckTime > 0) && (now - lastCheckTime < checkInterval))
+            return;
+
+        lastCheckTime = now;
+
+        long modified = file.lastModified(); // 0 if file doesn't exist.
+        long length = file.length();
+
+        if ((modified == lastModified) && (length == lastLength))
+            return;
+
+        try
+        {
+            Properties props;
+
+            if ((file.exists() == false) && (lastChecksum != -1))
+            {
+                // file has been deleted: only keep pending updates.
+                props = new Properties();
+                lastChecksum = -1;
+            }
+            else
+            {
+                props = readFile();
+            }
+
+            if (props == null)
+                return; // not changed or doesn't exist
+
+            // reapply pending updates on top of the current file contents.
+            for (Map.Entry<String, String> entry : pendingUpdates.entrySet())
+            {
+                if (entry.getValue() == null)
+                    props.remove(entry.getKey());
+                else
+                    props.setProperty(entry.getKey(), entry.getValue());
+            }
+
+            this.properties = props;
+            numReloads++;
+        }
+        catch (IOException e)
+        {
+            logger.debugPrintf("Error when loading properties from:%s:%s\n", location, e);
+        }
+    }
+
+    /**
+     * Read file and update file stamps. Returns NULL if the contents haven't changed or the
+     * file doesn't exist.
+     */
+    private Properties readFile() throws IOException
+    {
+        long modified = file.lastModified();
+        long length = file.length();
+
+        if (file.exists() == false)
+        {
+            lastModified = modified;
+            lastLength = length;
+            return null;
+        }
+
+        byte bytes[] = new byte[(int) length];
+        InputStream inps = new FileInputStream(file);
+        int numRead = 0;
+
+        try
+        {
+            while (numRead < bytes.length)
+            {
+                int len = inps.read(bytes, numRead, bytes.length - numRead);
+
+                if (len < 0)
+                    break;
+
+                numRead += len;
+            }
+        }
+        finally
+        {
+            inps.close();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, numRead);
+        long checksum = crc.getValue();
+
+        lastModified = modified;
+        lastLength = length;
+
+        // touched but not changed
+        if (checksum == lastChecksum)
+            return null;
+
+        lastChecksum = checksum;
+
+        Properties props = new Properties();
+        props.load(new ByteArrayInputStream(bytes, 0, numRead));
+        return props;
+    }
+
+    /** Number of times the file has been (re)loaded because its contents changed. */
+    public synchronized long getNumReloads()
+    {
+        return numReloads;
+    }
+
+    /** Number of times the file has been written. */
+    public synchronized long getNumWrites()
+    {
+        return numWrites;
+    }
+
+    public synchronized String getStats()
+    {
+        return "PropertiesFileStore:" + location
+                + ":properties=" + properties.size()
+                + ",pending=" + pendingUpdates.size()
+                + ",reloads=" + numReloads
+                + ",writes=" + numWrites
+                + ",updates=" + numUpdates;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
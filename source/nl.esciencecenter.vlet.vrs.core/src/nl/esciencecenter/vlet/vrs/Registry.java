@@ -23,10 +23,13 @@ package nl.esciencecenter.vlet.vrs;
 
 // Keep the dependencies of Registry and VRSContext as small as possible !  
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Vector;
 
 import nl.esciencecenter.ptk.GlobalProperties;
@@ -67,6 +70,10 @@ import nl.esciencecenter.vlet.vrs.vrms.MyVLe;
  * ALL Supported VRLs can be used as URL. This way the default Java Resource
  * loaders and streamreaders will use the (default) Registry as stream handlers
  * ! <br>
+ * <p>
+ * VDrivers listed in the VDriver manifest (etc/vrsdrivers.prop) are loaded and
+ * initialized when one of their schemes is used for the first time, so only
+ * the VDrivers which are actually used are loaded.
  * 
  * @see VRSContext
  * @see nl.esciencecenter.vlet.vrs.VRSFactory
@@ -145,6 +152,38 @@ public final class Registry // todo: change to vrs protected class.
         }
     }
 
+    /**
+     * Load time of a VDriver: class loading, instance creation and init().
+     */
+    public static class VDriverLoadInfo
+    {
+        /** VRSFactory class name */
+        public final String className;
+
+        /** Load time in milliseconds */
+        public final long loadTime;
+
+        /** Whether the VDriver has been loaded on first use */
+        public final boolean deferred;
+
+        /** Whether the VDriver has been registered */
+        public final boolean success;
+
+        VDriverLoadInfo(String className, long loadTime, boolean deferred, boolean success)
+        {
+            this.className = className;
+            this.loadTime = loadTime;
+            this.deferred = deferred;
+            this.success = success;
+        }
+
+        public String toString()
+        {
+            return className + ":" + (success ? "loaded" : "failed") + (deferred ? " on first use" : " at startup")
+                    + " in " + loadTime + "ms";
+        }
+    }
+
     // ===========================================================================
     // Class (static) methods
     // ===========================================================================
@@ -240,6 +279,24 @@ public final class Registry // todo: change to vrs protected class.
 
     private StringList defaultSchemeList;
 
+    /**
+     * Schemes of VDrivers which haven't been loaded yet. Mapping of scheme to the
+     * VRSFactory class names which are tried in order. Guarded by this.
+     */
+    private Map<String, ArrayList<String>> deferredSchemes = new HashMap<String, ArrayList<String>>();
+
+    /** ClassLoaders of deferred VDrivers. Guarded by this. */
+    private Map<String, ClassLoader> deferredLoaders = new HashMap<String, ClassLoader>();
+
+    /** VRSFactory classes being registered and the thread which registers them. Guarded by this. */
+    private Map<String, Thread> loadingClasses = new HashMap<String, Thread>();
+
+    /** Load times per VRSFactory class in load order. Guarded by this. */
+    private Map<String, VDriverLoadInfo> vdriverLoadInfos = new LinkedHashMap<String, VDriverLoadInfo>();
+
+    /** Whether VDrivers are being loaded at startup (initRegistry()) or on first use */
+    private boolean initializing = false;
+
     /**
      * Constructs the Registry (class) object. Should be done only once as the
      * Registry is a Singleton class.
@@ -260,14 +317,22 @@ public final class Registry // todo: change to vrs protected class.
         this.resourceEventNotifier = new ResourceEventNotifier();
 
         logger.infoPrintf("--- initRegistry() ---\n");
+        long startTime = System.currentTimeMillis();
+        initializing = true;
 
         // use default classloader:
         ClassLoader currentLoader = Thread.currentThread().getContextClassLoader();
 
         // Initialize default VDriver classes
         String str = GlobalProperties.getStringProperty(VletConfig.PROP_INIT_DEFAULT_VDRIVERS);
+        String lazyStr = GlobalProperties.getStringProperty(VletConfig.PROP_LAZY_VDRIVERS);
+        boolean lazy = ((lazyStr == null) || StringUtil.isTrueString(lazyStr));
 
-        if ((str == null) || StringUtil.isTrueString(str))
+        if (((str == null) || StringUtil.isTrueString(str)) && lazy && loadVDriverManifest(currentLoader))
+        {
+            logger.infoPrintf("Default vdrivers will be initialized when used. Schemes=%s\n", deferredSchemes.keySet());
+        }
+        else if ((str == null) || StringUtil.isTrueString(str))
         {
             logger.infoPrintf("Initializing default core vdrivers=%s\n", str);
 
@@ -321,12 +386,309 @@ public final class Registry // todo: change to vrs protected class.
 
         // now add VRS plugins:
         loadVRSPlugins();
+        initializing = false;
+
+        logger.infoPrintf("initRegistry() finished in %dms. Loaded vdrivers=%d, deferred schemes=%d\n",
+                (System.currentTimeMillis() - startTime), registeredServices.size(), deferredSchemes.size());
         //
         // Initialize URL Stream Factory AFTER loading VRS plugins
         //
         initURLStreamFactory();
     }
 
+    /**
+     * Read VDriver manifest from the classpath or VLET_INSTALL/etc/vrsdrivers.prop and
+     * defer the listed VDrivers until their schemes are used.
+     * 
+     * @return false if no manifest was found.
+     */
+    private boolean loadVDriverManifest(ClassLoader classLoader)
+    {
+        Properties props = null;
+
+        try
+        {
+            props = VletConfig.loadPropertiesFromClasspath(VletConfig.VRSDRIVERS_PROP_FILENAME);
+        }
+        catch (VrsException e)
+        {
+            logger.debugPrintf("Couldn't load vdriver manifest from classpath:%s\n", e);
+        }
+
+        if ((props == null) || (props.isEmpty()))
+        {
+            VRL manifestLoc = VletConfig.getInstallationConfigDir().appendPath(VletConfig.VRSDRIVERS_PROP_FILENAME);
+
+            try
+            {
+                props = VletConfig.staticLoadProperties(manifestLoc);
+            }
+            catch (VrsException e)
+            {
+                logger.warnPrintf("Couldn't load vdriver manifest:%s\n", manifestLoc);
+                logger.debugPrintf("Exception when loading vdriver manifest:%s\n", e);
+                return false;
+            }
+        }
+
+        if ((props == null) || (props.isEmpty()))
+            return false;
+
+        for (String scheme : props.stringPropertyNames())
+        {
+            // use both space and comma to get spaceless class names
+            for (String className : props.getProperty(scheme).split("[ ,]"))
+            {
+                if (StringUtil.isEmpty(className) == false)
+                    deferScheme(scheme, className, classLoader);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Register VRSFactory class for the specified scheme without loading it. The class will be loaded when
+     * the scheme is used for the first time.
+     */
+    private synchronized void deferScheme(String scheme, String className, ClassLoader classLoader)
+    {
+        ArrayList<String> classNames = deferredSchemes.get(scheme);
+
+        if (classNames == null)
+        {
+            classNames = new ArrayList<String>(1);
+            deferredSchemes.put(scheme, classNames);
+        }
+
+        if (classNames.contains(className) == false)
+            classNames.add(className);
+
+        deferredLoaders.put(className, classLoader);
+    }
+
+    private synchronized boolean isDeferredScheme(String scheme)
+    {
+        return deferredSchemes.containsKey(scheme);
+    }
+
+    /**
+     * Remove VRSFactory class from the deferred schemes, after it has been registered or failed to load.
+     * A scheme is resolved if it has been registered by the first class listed for it. A class which also
+     * registers other schemes, like the jCraft 'sshftp' VDriver which registers 'sftp' as well, doesn't
+     * resolve those schemes when a class with a higher priority is still listed for them.
+     */
+    private synchronized void removeDeferredClass(String className)
+    {
+        deferredLoaders.remove(className);
+
+        ArrayList<String> resolvedSchemes = new ArrayList<String>();
+
+        for (Map.Entry<String, ArrayList<String>> entry : deferredSchemes.entrySet())
+        {
+            ArrayList<String> classNames = entry.getValue();
+            int index = classNames.indexOf(className);
+
+            if (index < 0)
+                continue;
+
+            if ((index == 0) && (implementsScheme(className, entry.getKey())))
+            {
+                resolvedSchemes.add(entry.getKey());
+            }
+            else
+            {
+                // lower priority class or not registered: try the other classes first.
+                classNames.remove(index);
+
+                if (classNames.isEmpty())
+                    resolvedSchemes.add(entry.getKey());
+            }
+        }
+
+        for (String scheme : resolvedSchemes)
+            deferredSchemes.remove(scheme);
+    }
+
+    private boolean isRegisteredScheme(String scheme)
+    {
+        synchronized (this.registeredSchemes)
+        {
+            ArrayList<SchemeFactoryElement> list = registeredSchemes.get(scheme);
+            return ((list != null) && (list.size() > 0));
+        }
+    }
+
+    /** Whether the registered VRSFactory class implements the scheme */
+    private boolean implementsScheme(String className, String scheme)
+    {
+        synchronized (this.registeredSchemes)
+        {
+            ArrayList<SchemeFactoryElement> list = registeredSchemes.get(scheme);
+
+            if (list == null)
+                return false;
+
+            for (SchemeFactoryElement el : list)
+            {
+                if (StringUtil.equals(el.getImplementation().getClass().getCanonicalName(), className))
+                    return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Load the VDrivers for the specified scheme in manifest order, until the scheme is provided by the
+     * first VDriver listed for it which can be loaded. The VDrivers are loaded and initialized outside the
+     * Registry monitor.
+     * 
+     * @return true if the scheme has been registered.
+     */
+    private boolean loadDeferredScheme(String scheme)
+    {
+        while (true)
+        {
+            String className;
+            ClassLoader classLoader;
+
+            synchronized (this)
+            {
+                ArrayList<String> classNames = deferredSchemes.get(scheme);
+
+                // resolved, possibly by another thread.
+                if ((classNames == null) || (classNames.isEmpty()))
+                {
+                    deferredSchemes.remove(scheme);
+                    return isRegisteredScheme(scheme);
+                }
+
+                className = classNames.get(0);
+                classLoader = deferredLoaders.get(className);
+            }
+
+            logger.infoPrintf("Loading vdriver for scheme '%s':%s\n", scheme, className);
+
+            // the scheme is resolved when registered.
+            boolean registered = (classLoader != null) && registerVRSDriverClassNoError(classLoader, className);
+
+            synchronized (this)
+            {
+                ArrayList<String> classNames = deferredSchemes.get(scheme);
+
+                if ((classNames == null) || (classNames.contains(className) == false))
+                    continue;
+
+                if (registered == false)
+                {
+                    // don't try again for other schemes.
+                    removeDeferredClass(className);
+                }
+                else if (implementsScheme(className, scheme))
+                {
+                    // was already registered before it was used for this scheme.
+                    deferredSchemes.remove(scheme);
+                    return true;
+                }
+                else
+                {
+                    logger.warnPrintf("VDriver %s does not implement scheme from vdriver manifest:%s\n", className, scheme);
+                    classNames.remove(className);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load all deferred VDrivers. Is needed when all VRSFactory instances must be known.
+     */
+    private void loadAllDeferredSchemes()
+    {
+        String schemes[];
+
+        synchronized (this)
+        {
+            if (deferredSchemes.isEmpty())
+                return;
+
+            schemes = deferredSchemes.keySet().toArray(new String[0]);
+        }
+
+        logger.infoPrintf("Loading all deferred vdrivers for schemes:%s\n", Arrays.toString(schemes));
+
+        for (String scheme : schemes)
+            loadDeferredScheme(scheme);
+    }
+
+    /**
+     * Mark the VRSFactory class as being registered by the current thread. Waits while another
+     * thread is registering it.
+     * 
+     * @return false if the class has been registered meanwhile or is being registered by the current thread.
+     */
+    private synchronized boolean beginLoading(String className) throws InterruptedException
+    {
+        Thread loader;
+
+        while (((loader = loadingClasses.get(className)) != null) && (loader != Thread.currentThread()))
+            this.wait();
+
+        if ((loader != null) || (registeredServices.containsKey(className)))
+            return false;
+
+        loadingClasses.put(className, Thread.currentThread());
+        return true;
+    }
+
+    private synchronized void endLoading(String className)
+    {
+        loadingClasses.remove(className);
+        this.notifyAll();
+    }
+
+    /**
+     * Returns load times of the VDrivers which have been loaded so far, in load order.
+     */
+    public synchronized VDriverLoadInfo[] getVDriverLoadInfos()
+    {
+        return vdriverLoadInfos.values().toArray(new VDriverLoadInfo[0]);
+    }
+
+    /**
+     * Returns VDriver load statistics: total load time at startup and on first use, and
+     * the schemes which haven't been used yet.
+     */
+    public synchronized String getVDriverStats()
+    {
+        long startupTime = 0;
+        long deferredTime = 0;
+        int numDeferred = 0;
+        int numFailed = 0;
+
+        for (VDriverLoadInfo info : vdriverLoadInfos.values())
+        {
+            if (info.deferred)
+            {
+                deferredTime += info.loadTime;
+                numDeferred++;
+            }
+            else
+            {
+                startupTime += info.loadTime;
+            }
+
+            if (info.success == false)
+                numFailed++;
+        }
+
+        return "Registry:vdrivers=" + vdriverLoadInfos.size()
+                + ",startup=" + (vdriverLoadInfos.size() - numDeferred) + "/" + startupTime + "ms"
+                + ",onFirstUse=" + numDeferred + "/" + deferredTime + "ms"
+                + ",failed=" + numFailed
+                + ",unusedSchemes=" + deferredSchemes.keySet();
+    }
+
     private static Object initURLStreamFactoryMutex = new Object();
 
     private static void initURLStreamFactory()
@@ -368,16 +730,19 @@ public final class Registry // todo: change to vrs protected class.
 
         for (PluginInfo info : result)
         {
-            logger.debugPrintf("+++ Registering plugin:%s\n", info.className);
-
-            try
-            {
-                this.registerVRSDriverClass(info.classLoader, info.className);
-            }
-            catch (Throwable e)
+            // plugin.prop specifies schemes: initialize plugin when used.
+            if ((info.schemes != null) && (info.schemes.size() > 0))
             {
-                logger.logException(ClassLogger.ERROR, e, "Error registering plugin:%s\n", info.className);
+                logger.debugPrintf("+++ Deferring plugin:%s for schemes:%s\n", info.className, info.schemes);
+
+                for (String scheme : info.schemes)
+                    deferScheme(scheme, info.className, info.classLoader);
+
+                continue;
             }
+
+            logger.debugPrintf("+++ Registering plugin:%s\n", info.className);
+            this.registerVRSDriverClassNoError(info.classLoader, info.className);
         }
     }
 
@@ -401,7 +766,13 @@ public final class Registry // todo: change to vrs protected class.
             if (list == null)
                 list = new ArrayList<SchemeFactoryElement>(); // new list
 
-            list.add(new SchemeFactoryElement(schemes[i], vrs));
+            // first VDriver from the manifest goes before VDrivers which registered the scheme as well
+            ArrayList<String> deferred = deferredSchemes.get(schemes[i]);
+
+            if ((deferred != null) && (deferred.indexOf(vrs.getClass().getCanonicalName()) == 0))
+                list.add(0, new SchemeFactoryElement(schemes[i], vrs));
+            else
+                list.add(new SchemeFactoryElement(schemes[i], vrs));
             registeredSchemes.put(schemes[i], list); // reput
         }
     }
@@ -439,49 +810,61 @@ public final class Registry // todo: change to vrs protected class.
     /** Explicit Initialize VDriver class if not yet registered. */
     public void initVDriver(Class<? extends VRSFactory> factoryClass) throws Exception
     {
-        synchronized (this.registeredServices)
-        {
-            // check by class name !
-            if (this.registeredServices.containsKey(factoryClass.getCanonicalName()))
-                return;
-            else
-                this.registerVRSDriverClass(factoryClass);
-        }
+        // check by class name !
+        if (this.registeredServices.containsKey(factoryClass.getCanonicalName()))
+            return;
+
+        this.registerVRSDriverClass(factoryClass);
     }
 
     /**
-     * Register new VRSFactory (VDriver) class to this Registry
+     * Register new VRSFactory (VDriver) class to this Registry. The VDriver is initialized before it is
+     * registered, outside the Registry monitor. If another thread is registering the same class, waits for it.
      */
-    public synchronized boolean registerVRSDriverClass(Class<? extends VRSFactory> factoryClass) throws Exception
+    public boolean registerVRSDriverClass(Class<? extends VRSFactory> factoryClass) throws Exception
     {
-        // === Construct the service object === //
-        Object o = factoryClass.newInstance();
-
-        // String className=cls.getCanonicalName();
+        String className = factoryClass.getCanonicalName();
 
-        synchronized (this.registeredServices)
+        if (beginLoading(className) == false)
         {
-            // if (o instanceof VFSFactory)
-
-            if (o instanceof VRSFactory)
-            {
-                VRSFactory rs = (VRSFactory) o;
+            logger.debugPrintf("VRSFactory class already registered:%s\n", className);
+            return this.registeredServices.containsKey(className);
+        }
 
-                registeredServices.put(rs.getClass().getCanonicalName(), rs);
-                registerSchemeNames(rs);
+        try
+        {
+            // === Construct the service object === //
+            Object o = factoryClass.newInstance();
 
-                rs.init();
-            }
-            else
+            if ((o instanceof VRSFactory) == false)
             {
                 String msg = "Error implementations other then VRSFactory not yet supported:" + o;
                 logger.errorPrintf("%s\n", msg);
                 throw new VrsServiceTypeMismatchException(msg);
             }
-        }
 
-        // update scheme cache:
-        this.updateDefaultSchemes();
+            VRSFactory rs = (VRSFactory) o;
+
+            // init() may use the Registry: don't hold its monitor.
+            rs.init();
+
+            synchronized (this)
+            {
+                synchronized (this.registeredServices)
+                {
+                    registeredServices.put(className, rs);
+                    registerSchemeNames(rs);
+                }
+
+                // update scheme cache:
+                this.updateDefaultSchemes();
+                removeDeferredClass(className);
+            }
+        }
+        finally
+        {
+            endLoading(className);
+        }
 
         logger.infoPrintf("Registry: Register VRSFactory class:%s\n", factoryClass.getName());
         return true;
@@ -530,10 +913,8 @@ public final class Registry // todo: change to vrs protected class.
      * Register new VRSFActory (VDriver) class to this Registry. Uses specified
      * classLoader to load the 'classname' and registers that VRSFactory. Is
      * used by the plugin loader.
-     * <p>
-     * <b>is synchronized</b>: Method modifies the static Registry !
      */
-    public synchronized boolean registerVRSDriverClass(ClassLoader classLoader, String classname) throws Exception
+    public boolean registerVRSDriverClass(ClassLoader classLoader, String classname) throws Exception
     {
         // Do no use systemclassloader, this thread might have extra URLs
         // added to the classPath !
@@ -557,17 +938,18 @@ public final class Registry // todo: change to vrs protected class.
      * Adds VRSFactory and registers the schemes, but does not throw an
      * exception. This is used to load custom plugins which might contain
      * errors.
-     * <p>
-     * <b>is synchronized</b>: Method modifies the static Registry !
      * 
      * @return returns false if registrations failed, but will continue!
      */
-    private synchronized boolean registerVRSDriverClassNoError(ClassLoader classLoader, String classname)
+    private boolean registerVRSDriverClassNoError(ClassLoader classLoader, String classname)
     {
+        long startTime = System.currentTimeMillis();
+        boolean success = false;
 
         try
         {
-            return registerVRSDriverClass(classLoader, classname);
+            success = registerVRSDriverClass(classLoader, classname);
+            return success;
         }
         // Check'd and encountered them all I have:
         catch (NoClassDefFoundError e)
@@ -601,6 +983,18 @@ public final class Registry // todo: change to vrs protected class.
         {
             logger.logException(ClassLogger.ERROR, t, "Error (no public constructor?) for class:%s\n", classname);
         }
+        finally
+        {
+            VDriverLoadInfo info = new VDriverLoadInfo(classname, System.currentTimeMillis() - startTime,
+                    (initializing == false), success);
+
+            synchronized (this)
+            {
+                vdriverLoadInfos.put(classname, info);
+            }
+
+            logger.infoPrintf("VDriver %s\n", info);
+        }
 
         return false;
     }
@@ -642,6 +1036,11 @@ public final class Registry // todo: change to vrs protected class.
             return null;
         }
 
+        // load VDriver on first use. The scheme might already be registered by a VDriver
+        // with a lower priority in the manifest.
+        if (isDeferredScheme(schemeStr))
+            loadDeferredScheme(schemeStr);
+
         // get Registered VRSFactory instances:
         ArrayList<SchemeFactoryElement> list = null;
         synchronized (this.registeredSchemes)
@@ -686,7 +1085,18 @@ public final class Registry // todo: change to vrs protected class.
             if (vrs.getName().compareTo(name) == 0)
                 return vrs;
         }
-        return null;
+
+        if (isDeferredSchemeLeft() == false)
+            return null;
+
+        // name is only known after loading the VDriver:
+        loadAllDeferredSchemes();
+        return getVRSFactoryWithName(name);
+    }
+
+    private synchronized boolean isDeferredSchemeLeft()
+    {
+        return (deferredSchemes.isEmpty() == false);
     }
 
     /**
@@ -780,6 +1190,10 @@ public final class Registry // todo: change to vrs protected class.
         if (scheme == null)
             return null;
 
+        // default scheme is only known after loading the VDriver:
+        if (isDeferredScheme(scheme))
+            loadDeferredScheme(scheme);
+
         // use cache for speed:
         String newscheme = defaultSchemes.get(scheme);
 
@@ -827,6 +1241,8 @@ public final class Registry // todo: change to vrs protected class.
      */
     public String[] getDefaultSchemeNames()
     {
+        loadAllDeferredSchemes();
+
         if (this.defaultSchemeList == null)
             this.updateDefaultSchemes();
 
@@ -855,11 +1271,18 @@ public final class Registry // todo: change to vrs protected class.
         registeredServices.clear();
         registeredSchemes.clear();
         defaultSchemes.clear();
+
+        synchronized (this)
+        {
+            deferredSchemes.clear();
+            deferredLoaders.clear();
+        }
     }
 
-    /** Returns array of registered services */
+    /** Returns array of registered services. Loads all VDrivers which haven't been used yet. */
     public VRSFactory[] getServices()
     {
+        loadAllDeferredSchemes();
         // private implementation:
         return this.getRegisteredServices();
     }
@@ -885,6 +1308,22 @@ public final class Registry // todo: change to vrs protected class.
      */
     public VRSFactory getVRSFactoryClass(String vrsClass)
     {
+        VRSFactory vrs = this.registeredServices.get(vrsClass);
+
+        if (vrs != null)
+            return vrs;
+
+        ClassLoader classLoader;
+
+        synchronized (this)
+        {
+            classLoader = deferredLoaders.get(vrsClass);
+        }
+
+        // load deferred VDriver
+        if (classLoader != null)
+            registerVRSDriverClassNoError(classLoader, vrsClass);
+
         return this.registeredServices.get(vrsClass);
     }
 
@@ -144,17 +144,31 @@ public class ServerInfo
     // New Read Only config! 
     protected boolean isEditable=true;
     
+    /** 
+     * Whether _serverAttributes is shared with copies of this ServerInfo. 
+     * Shared attributes are copied before they are modified (copy-on-write). 
+     */ 
+    protected volatile boolean sharedAttributes=false; 
+    
     /** Protected constructor ! */
     protected ServerInfo()
     {
 
     }
 
-    /** Copy Constructor */
+    /** 
+     * Copy Constructor. 
+     * The attributes are shared with the source until either one is modified. 
+     */
     public ServerInfo(ServerInfo info)
     {
-        // empty attribute set 
-        this.copyFrom(info);
+        this.vrsContext = info.vrsContext;
+        this.isEditable=info.isEditable;
+        this.serverKey=info.serverKey; 
+        
+        this._serverAttributes=info._serverAttributes; 
+        info.sharedAttributes=true; 
+        this.sharedAttributes=true; 
     }
 
     /**
@@ -196,9 +210,26 @@ public class ServerInfo
 
     protected void clear()
     {
-        this._serverAttributes.clear(); 
+        // don't clear shared set 
+        this._serverAttributes=new AttributeSet(); 
+        this.sharedAttributes=false; 
         this.serverKey=null;
     }
+    
+    /** Copy shared attributes before they are modified. */ 
+    protected void copyOnWrite()
+    {
+        if (sharedAttributes==false)
+            return; 
+        
+        AttributeSet attrs=new AttributeSet(); 
+        
+        for (Attribute attr:_serverAttributes.toArray(new Attribute[0]))
+            attrs.put(attr.duplicate()); 
+        
+        this._serverAttributes=attrs; 
+        this.sharedAttributes=false; 
+    }
 
     // Initialize
     private void init(VRSContext context, VRL vrl)
@@ -261,6 +292,7 @@ public class ServerInfo
     /** Deep Copy All attributes and fields */ 
     public void copyFrom(ServerInfo source)
     {
+        copyOnWrite(); 
         this.vrsContext = source.vrsContext;
         this.isEditable=source.isEditable;
         // Duplicate Key ! 
@@ -332,6 +364,7 @@ public class ServerInfo
          // never remove scheme
         if (StringUtil.compare(ATTR_SCHEME,attrName)==0)
             return;  
+       copyOnWrite(); 
        this._serverAttributes.remove(attrName); 
     }
 
@@ -341,6 +374,7 @@ public class ServerInfo
         if (attr == null)
             return; 
         
+        copyOnWrite(); 
         _serverAttributes.put(attr);
     }
    
@@ -502,7 +536,8 @@ public class ServerInfo
 
     public String getStringProperty(String name)
     {
-        Attribute val = this.getAttribute(name);
+        // read only: no need to duplicate
+        Attribute val = this._serverAttributes.get(name);
 
         if (val != null)
             return val.getStringValue(); // explicit get StringValue 
@@ -512,7 +547,7 @@ public class ServerInfo
 
     public String getStringProperty(String name,String defaultValue)
     {
-        Attribute val = this.getAttribute(name);
+        Attribute val = this._serverAttributes.get(name);
 
         if (val != null)
             return val.getStringValue(); // explicit get StringValue 
@@ -522,7 +557,7 @@ public class ServerInfo
 
     public int getIntProperty(String name, int defVal)
     {
-        Attribute attr = getAttribute(name);
+        Attribute attr = this._serverAttributes.get(name);
 
         if (attr != null)
             return attr.getIntValue();
@@ -532,7 +567,7 @@ public class ServerInfo
 
     public boolean getBoolProperty(String name, boolean defVal)
     {
-        Attribute attr = getAttribute(name);
+        Attribute attr = this._serverAttributes.get(name);
 
         if (attr != null)
             return attr.getBooleanValue();
@@ -796,6 +831,8 @@ public class ServerInfo
      */ 
     public Attribute[] getAllAttributes()
     {
+        // attributes are returned as-is: might be modified
+        copyOnWrite(); 
         return this._serverAttributes.toArray(new Attribute[0]); 
     }
 
@@ -807,6 +844,8 @@ public class ServerInfo
     /** Return INTERNAL Set of attributes */ 
     public AttributeSet getAttributeSet()
     {
+        // set is returned as-is: might be modified
+        copyOnWrite(); 
         return this._serverAttributes; 
     }
    
@@ -1101,6 +1140,7 @@ public class ServerInfo
        String names[]=getMandatoryAttributeNames(); 
        list.add(names); 
        
+       copyOnWrite(); 
        this._serverAttributes.removeIfNotIn(attrNames); 
    }
 
@@ -1131,12 +1171,14 @@ public class ServerInfo
       // re insert all values using the specified key list:
       set.putAll(templateSet,templateSet.getKeyArray(new String[0])); 
       
+      copyOnWrite(); 
       this._serverAttributes.matchTemplate(set,removeOthers); 
    } 
 
    /** Set editable flag of VAttributes */ 
    public void setEditable(String name,boolean val)
    {
+      copyOnWrite(); 
       this._serverAttributes.setEditable(name,val); 
    }
 
@@ -1147,7 +1189,14 @@ public class ServerInfo
 	   
 	   //check ID
        logger.debugPrintf(">>>setId():%s\n",id); 
-       this._serverAttributes.put(new Attribute(ATTR_SERVER_ID,id));
+       
+       // getID() calls this method: only modify (shared) attributes if changed.  
+       if (StringUtil.equals(id,getAttributeValue(ATTR_SERVER_ID))==false)
+       {
+           copyOnWrite(); 
+           this._serverAttributes.put(new Attribute(ATTR_SERVER_ID,id));
+       }
+       
        this.serverKey=id; 
        return id; 
    }
@@ -1180,10 +1229,13 @@ public class ServerInfo
    public void setServerAttributes(AttributeSet attrs)
    {
       this._serverAttributes=attrs.duplicate(); 
+      this.sharedAttributes=false; 
    }
 
    public void updateServerAttributesFrom(AttributeSet resourceAttributes,boolean append)
    {
+       copyOnWrite(); 
+       
        // iterate over new attributes: 
        for (Attribute attr:resourceAttributes.toArray(new Attribute[0]))
        {
@@ -26,10 +26,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
 
 import nl.esciencecenter.ptk.data.StringList;
 import nl.esciencecenter.ptk.io.FSUtil;
@@ -67,6 +67,9 @@ import nl.esciencecenter.vlet.vrs.vrms.SecretStore;
  * the case of SRB Resources.
  * <li>VO : If specified this resource description is for this VO only
  * <p>
+ * Lookups use an immutable index by scheme and hostname which is rebuilt when
+ * a ServerInfo is stored or removed, so searching doesn't need locking and
+ * doesn't have to compare all ServerInfo objects. 
  * 
  * @see ServerInfo
  */
@@ -84,12 +87,104 @@ public class ServerInfoRegistry
         logger = ClassLogger.getLogger(ServerInfoRegistry.class);
     }
 
+    private static final ServerInfo[] NO_INFOS = new ServerInfo[0];
+
+    /**
+     * Immutable index of the stored ServerInfos by scheme, by hostname and by
+     * scheme+hostname. Port and userinfo have "don't care" and default port
+     * semantics, these are matched using ServerInfo.matches() on the indexed
+     * candidates.
+     */
+    private static class Index
+    {
+        final ServerInfo all[];
+
+        final Map<String, ServerInfo[]> byScheme;
+
+        final Map<String, ServerInfo[]> byHost;
+
+        final Map<String, ServerInfo[]> bySchemeHost;
+
+        Index(ServerInfo infos[])
+        {
+            this.all = infos;
+
+            Map<String, ArrayList<ServerInfo>> schemes = new HashMap<String, ArrayList<ServerInfo>>();
+            Map<String, ArrayList<ServerInfo>> hosts = new HashMap<String, ArrayList<ServerInfo>>();
+            Map<String, ArrayList<ServerInfo>> schemeHosts = new HashMap<String, ArrayList<ServerInfo>>();
+
+            for (ServerInfo info : infos)
+            {
+                String scheme = StringUtil.noNull(info.getScheme());
+                String host = StringUtil.noNull(info.getHostname());
+
+                add(schemes, scheme, info);
+                add(hosts, host, info);
+                add(schemeHosts, createKey(scheme, host), info);
+            }
+
+            this.byScheme = toArrays(schemes);
+            this.byHost = toArrays(hosts);
+            this.bySchemeHost = toArrays(schemeHosts);
+        }
+
+        /**
+         * Returns candidates which might match, null fields are "don't care".
+         */
+        ServerInfo[] getCandidates(String scheme, String host)
+        {
+            ServerInfo infos[];
+
+            if ((scheme != null) && (host != null))
+                infos = bySchemeHost.get(createKey(scheme, host));
+            else if (host != null)
+                infos = byHost.get(host);
+            else if (scheme != null)
+                infos = byScheme.get(scheme);
+            else
+                infos = all;
+
+            return (infos != null) ? infos : NO_INFOS;
+        }
+
+        private static String createKey(String scheme, String host)
+        {
+            return scheme + "://" + host;
+        }
+
+        private static void add(Map<String, ArrayList<ServerInfo>> map, String key, ServerInfo info)
+        {
+            ArrayList<ServerInfo> list = map.get(key);
+
+            if (list == null)
+            {
+                list = new ArrayList<ServerInfo>(1);
+                map.put(key, list);
+            }
+
+            list.add(info);
+        }
+
+        private static Map<String, ServerInfo[]> toArrays(Map<String, ArrayList<ServerInfo>> map)
+        {
+            Map<String, ServerInfo[]> arrays = new HashMap<String, ServerInfo[]>(map.size() * 2);
+
+            for (Map.Entry<String, ArrayList<ServerInfo>> entry : map.entrySet())
+                arrays.put(entry.getKey(), entry.getValue().toArray(NO_INFOS));
+
+            return arrays;
+        }
+    }
+
     /**
      * Moved hashtable with ServerInfo objects to seperate registry to enable
      * VRSContext dependend server information.
      */
     private Map<String, ServerInfo> serverInfos = new Hashtable<String, ServerInfo>();
 
+    /** Snapshot index of serverInfos. Replaced (not modified) when serverInfos is updated. */
+    private volatile Index index = new Index(NO_INFOS);
+
     VRSContext context = null;
 
     @SuppressWarnings("unused")
@@ -222,10 +317,10 @@ public class ServerInfoRegistry
         // {
         // logger.debugPrintln(this,"SRB"); // breakpoint
         // }
-        ServerInfo infoArr[] = new ServerInfo[serverInfos.size()];
-        infoArr = this.serverInfos.values().toArray(infoArr);
+        // immutable snapshot: no locking needed.
+        ServerInfo infoArr[] = index.getCandidates(scheme, host);
 
-        Vector<ServerInfo> result = new Vector<ServerInfo>();
+        ArrayList<ServerInfo> result = new ArrayList<ServerInfo>();
 
         for (ServerInfo info : infoArr)
         {
@@ -235,7 +330,7 @@ public class ServerInfoRegistry
             {
                 logger.debugPrintf(" - adding:%s\n", info);
                 // =========================
-                // Add Duplicate !
+                // Add Duplicate ! (copy-on-write: attributes are copied when modified)
                 // ==========================
                 result.add(info.duplicate());
             }
@@ -263,6 +358,7 @@ public class ServerInfoRegistry
 
             logger.debugPrintf(">>> ServerInfos.clear() ! <<<\n");
             serverInfos.clear();
+            updateIndex();
         }
     }
 
@@ -384,11 +480,21 @@ public class ServerInfoRegistry
                 logger.infoPrintf(">>> storing new ServerInfo:%s\n", info);
 
             this.serverInfos.put(info.getID(), info);
+            updateIndex();
             // mark dirty:
             this.isSaved = false;
         }
     }
 
+    /** Rebuild index after serverInfos has been modified. */
+    private void updateIndex()
+    {
+        synchronized (serverInfos)
+        {
+            this.index = new Index(serverInfos.values().toArray(NO_INFOS));
+        }
+    }
+
     /**
      * Checks whether the persistent Server Info Registry is loaded and load it
      * if necessary.
@@ -634,6 +740,7 @@ public class ServerInfoRegistry
         synchronized (this.serverInfos)
         {
             this.serverInfos.remove(serverID);
+            updateIndex();
             save();
         }
 
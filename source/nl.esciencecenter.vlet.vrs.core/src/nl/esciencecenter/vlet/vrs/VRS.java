@@ -122,6 +122,9 @@ public class VRS
     /** Default buffer size when performing stream copy */ 
 	public static int DEFAULT_STREAM_COPY_BUFFER_SIZE=1*1024*1024; 
 	
+    /** Default number of concurrent file transfers per destination file system */ 
+    public static int DEFAULT_PARALLEL_COPY_WORKERS=4; 
+	
 	public static final int DEFAULT_GRIDFTP_PORT = 2811;
 
 	public static final int DEFAULT_SSH_PORT = 22;
@@ -264,6 +264,12 @@ public class ResourceEvent implements Serializable
         return this.eventTime;
     }
 
+    /** Used when events are merged: the merged event keeps the time of the oldest event */
+    void setTime(long time)
+    {
+        this.eventTime = time;
+    }
+
     public boolean isEvent(EventType otherType)
     {
         return (this.eventType == otherType);
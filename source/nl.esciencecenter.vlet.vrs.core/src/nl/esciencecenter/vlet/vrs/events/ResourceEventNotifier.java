@@ -19,21 +19,53 @@
  */
 // source:
 
+
 package nl.esciencecenter.vlet.vrs.events;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-import nl.esciencecenter.ptk.presentation.Presentation;
 import nl.esciencecenter.ptk.task.ActionTask;
 import nl.esciencecenter.ptk.task.ITaskSource;
 import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
 
 /**
  * Multi threaded VRS ResourceEvent notifier.
+ * <p>
+ * Fired events are put in a lock free queue. The notifier thread drains the queue in batches,
+ * coalesces the CHILDS_ADDED events of the same parent in a batch into one event and hands the
+ * events to the listeners. Each listener has its own single threaded executor with a bounded
+ * queue, so events are delivered in order per listener and a slow listener doesn't block the
+ * other listeners. The notifier thread never waits for a listener: when the queue of a listener is
+ * full, the structural events for that listener are coalesced into one REFRESH event per parent
+ * resource, which is delivered after the listener has processed its queue. Only transient events
+ * (SET_BUSY, MESSAGE) are dropped.
  */
 public class ResourceEventNotifier implements ITaskSource
 {
-    public static long defaultNotifyWaitTime = 1 * 1000;
+    /** Maximum number of pending events per listener */
+    public static int defaultListenerQueueSize = 10000;
+
+    /** Maximum number of events taken from the event queue and coalesced in one go */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    /** Idle time in seconds after which a listener thread is stopped */
+    public static final int LISTENER_KEEP_ALIVE_TIME = 60;
 
     private static ClassLogger logger;
 
@@ -45,7 +77,7 @@ public class ResourceEventNotifier implements ITaskSource
     {
         public static final long DEFAULT_WAITTIME = 30 * 1000;
 
-        private boolean mustStop;
+        private volatile boolean mustStop;
 
         public Notifier()
         {
@@ -62,37 +94,22 @@ public class ResourceEventNotifier implements ITaskSource
             {
                 if (hasEvent() == false)
                 {
-                    try
-                    {
-                        synchronized (this)
-                        {
-                            // Debug(">>> Waiting <<<");
-                            this.wait(DEFAULT_WAITTIME);
-                        }
-                    }
-                    catch (InterruptedException e)
-                    {
-                        if (mustStop == false)
-                        {
-                            logger.logException(ClassLogger.ERROR, this, e, "wait(): Interrupted!");
-
-                        }
-                        logger.infoPrintf("Stopping notifier.n");
-                    }
+                    // Debug(">>> Waiting <<<");
+                    // fire() unparks this thread.
+                    LockSupport.parkNanos(this, DEFAULT_WAITTIME * 1000 * 1000);
+
+                    if (Thread.interrupted() && (mustStop == false))
+                        logger.warnPrintf("park(): Interrupted!\n");
                 }
 
-                // get next event out queue:
+                // get next events out queue:
+                List<ResourceEvent> events = coalesce(getNextEvents(MAX_BATCH_SIZE));
 
-                final ResourceEvent event = getNextEvent();
-                if (event != null)
+                for (ResourceEvent event : events)
                 {
-                    logger.infoPrintf(" +++ Notifying:%s\n", event);
+                    logger.debugPrintf(" +++ Notifying:%s\n", event);
                     notifyListeners(event);
                 }
-                else
-                {
-                    logger.infoPrintf("--- Wake up: No Events ---\n");
-                }
 
                 // check if a new thread has started in case the current took to
                 // long:
@@ -110,67 +127,24 @@ public class ResourceEventNotifier implements ITaskSource
             }// while
 
             Message("Stopping notifier in thread" + Thread.currentThread().getId());
-
         }
 
         void notifyListeners(final ResourceEvent event)
         {
             // get listeners in private array
+            ListenerDispatcher[] dispatchers = getDispatchers();
 
-            ResourceEventListener[] listeners = getListeners();
-
-            for (ResourceEventListener listener : listeners)
+            for (ListenerDispatcher dispatcher : dispatchers)
             {
-                final ResourceEventListener finalListener = listener;
-
-                ActionTask notifyTask = new ActionTask(ResourceEventNotifier.this, "Notifying event:" + event)
-                {
-                    public void doTask()
-                    {
-                        try
-                        {
-                            notifyStartTime = System.currentTimeMillis();
-                            Debug("--- notifying listener ---\n" + "listener  =" + finalListener + "\n" + "event     ="
-                                    + event + "\n---" + "starttime ="
-                                    + Presentation.createNormalizedDateTimeString(notifyStartTime) + "\n---");
-
-                            finalListener.notifyResourceEvent(event);
-                            // notifyEndTime=System.currentTimeMillis();
-                        }
-                        catch (Throwable t)
-                        {
-                            logger.logException(ClassLogger.ERROR, this, t, "Exception during event notification\n");
-                        }
-                    }
-
-                    public void stopTask()
-                    {
-
-                    }
-                };
-
-                // notify in background !
-                notifyTask.startTask();
-
-                try
-                {
-                    notifyTask.waitForAll(defaultNotifyWaitTime);
-                }
-                catch (InterruptedException e)
-                {
-                    logger.logException(ClassLogger.ERROR, this, e, "waitFor(): Interrupted!\n");
-                }
+                dispatcher.dispatch(event);
             }
+
+            numDispatched.incrementAndGet();
         }
 
         public void stop()
         {
             this.mustStop = true;
-            // wake up:
-            synchronized (this)
-            {
-                this.notifyAll();
-            }
         }
 
         private void Message(String msg)
@@ -179,17 +153,200 @@ public class ResourceEventNotifier implements ITaskSource
         }
     }
 
-    private Vector<ResourceEvent> eventQueue = new Vector<ResourceEvent>();
+    /**
+     * Delivers events to one listener using a single threaded executor with a bounded queue.
+     */
+    protected class ListenerDispatcher implements RejectedExecutionHandler
+    {
+        /** Queued delivery of one event */
+        private class Delivery implements Runnable
+        {
+            final ResourceEvent event;
+
+            Delivery(ResourceEvent event)
+            {
+                this.event = event;
+            }
+
+            public void run()
+            {
+                deliver(event);
+            }
+        }
+
+        private final ResourceEventListener listener;
+
+        private final ThreadPoolExecutor executor;
+
+        // metrics
+        private AtomicLong numDelivered = new AtomicLong();
+
+        private AtomicLong numDropped = new AtomicLong();
+
+        private AtomicLong numRefreshed = new AtomicLong();
+
+        /** Resources to refresh after an overflow, in order of arrival. Guarded by itself */
+        private final LinkedHashSet<VRL> pendingRefreshes = new LinkedHashSet<VRL>();
+
+        private AtomicLong totalLatency = new AtomicLong();
+
+        private volatile long maxLatency = 0;
+
+        /** Set when events have been dropped, cleared when the listener has caught up */
+        private volatile boolean overflow = false;
+
+        protected ListenerDispatcher(ResourceEventListener listener)
+        {
+            this.listener = listener;
+
+            this.executor = new ThreadPoolExecutor(1, 1, LISTENER_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(defaultListenerQueueSize), threadFactory, this);
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        public void dispatch(final ResourceEvent event)
+        {
+            try
+            {
+                executor.execute(new Delivery(event));
+            }
+            catch (Exception e)
+            {
+                // executor has been shut down.
+                logger.debugPrintf("Couldn't dispatch event:%s\n", e);
+            }
+        }
+
+        private void deliver(ResourceEvent event)
+        {
+            notifyListener(event);
+
+            if (overflow && (executor.getQueue().isEmpty()))
+            {
+                overflow = false;
+                deliverRefreshes();
+                logger.warnPrintf("Listener caught up, %d events replaced by %d refresh events so far for listener:%s\n",
+                        numDropped.get(), numRefreshed.get(), listener);
+            }
+        }
+
+        private void notifyListener(ResourceEvent event)
+        {
+            try
+            {
+                Debug("--- notifying listener ---\n" + "listener  =" + listener + "\n" + "event     =" + event
+                        + "\n---");
+
+                listener.notifyResourceEvent(event);
+            }
+            catch (Throwable t)
+            {
+                logger.logException(ClassLogger.ERROR, this, t, "Exception during event notification\n");
+            }
+
+            long latency = System.currentTimeMillis() - event.getTime();
+            numDelivered.incrementAndGet();
+            totalLatency.addAndGet(latency);
+
+            if (latency > maxLatency)
+                maxLatency = latency;
+        }
+
+        /** Send one REFRESH event for each resource collected during the overflow */
+        private void deliverRefreshes()
+        {
+            List<VRL> vrls;
+
+            synchronized (pendingRefreshes)
+            {
+                vrls = new ArrayList<VRL>(pendingRefreshes);
+                pendingRefreshes.clear();
+            }
+
+            for (VRL vrl : vrls)
+            {
+                numRefreshed.incrementAndGet();
+                notifyListener(ResourceEvent.createRefreshEvent(vrl));
+            }
+        }
+
+        /**
+         * Called when the queue of this listener is full. The notifier thread doesn't wait: the
+         * event is replaced by a REFRESH of the affected (parent) resource, which is delivered once
+         * the listener has processed its queue. A warning is logged once per overflow.
+         */
+        public void rejectedExecution(Runnable runner, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown())
+                return;
+
+            numDropped.incrementAndGet();
+
+            VRL vrl = getRefreshVRL(((Delivery) runner).event);
+
+            if (vrl != null)
+            {
+                synchronized (pendingRefreshes)
+                {
+                    pendingRefreshes.add(vrl);
+                }
+            }
+
+            if (overflow == false)
+            {
+                overflow = true;
+                logger.warnPrintf("Event queue full, coalescing events into refresh events for listener:%s\n",
+                        listener);
+            }
+        }
+
+        public int getQueueSize()
+        {
+            return executor.getQueue().size();
+        }
+
+        public void shutdown()
+        {
+            executor.shutdown();
+        }
+
+        public String getStats()
+        {
+            long delivered = numDelivered.get();
+
+            return "{listener=" + listener
+                    + ",queued=" + getQueueSize()
+                    + ",delivered=" + delivered
+                    + ",dropped=" + numDropped.get()
+                    + ",refreshed=" + numRefreshed.get()
+                    + ",avgLatency=" + ((delivered > 0) ? (totalLatency.get() / delivered) : 0) + "ms"
+                    + ",maxLatency=" + maxLatency + "ms}";
+        }
+    }
+
+    private ConcurrentLinkedQueue<ResourceEvent> eventQueue = new ConcurrentLinkedQueue<ResourceEvent>();
+
+    /** Size of eventQueue: ConcurrentLinkedQueue.size() isn't a constant time operation */
+    private AtomicInteger queueSize = new AtomicInteger();
 
     private Vector<ResourceEventListener> resourceEventListeners = new Vector<ResourceEventListener>();
 
+    private Map<ResourceEventListener, ListenerDispatcher> dispatchers = new HashMap<ResourceEventListener, ListenerDispatcher>();
+
     private Notifier notifier = null;
 
-    private Thread notifierThread = null;
+    private volatile Thread notifierThread = null;
 
-    private long notifyStartTime = 0;
+    private DaemonThreadFactory threadFactory = new DaemonThreadFactory("ResourceEventNotifier");
 
-    // private long notifyEndTime=0;
+    // metrics
+    private AtomicLong numFired = new AtomicLong();
+
+    private AtomicLong numDispatched = new AtomicLong();
+
+    private AtomicLong numCoalesced = new AtomicLong();
+
+    private volatile int maxQueueSize = 0;
 
     public ResourceEventNotifier()
     {
@@ -216,7 +373,7 @@ public class ResourceEventNotifier implements ITaskSource
 
     public boolean hasEvent()
     {
-        return (this.eventQueue.size() > 0);
+        return (this.queueSize.get() > 0);
     }
 
     private void schedule(ResourceEvent event)
@@ -227,27 +384,139 @@ public class ResourceEventNotifier implements ITaskSource
             return;
         }
 
-        synchronized (eventQueue)
+        eventQueue.offer(event);
+        int size = queueSize.incrementAndGet();
+        numFired.incrementAndGet();
+
+        if (size > maxQueueSize)
+            maxQueueSize = size;
+
+        // wake up if sleeping :
+        Thread thread = notifierThread;
+
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    private List<ResourceEvent> getNextEvents(int max)
+    {
+        List<ResourceEvent> events = new ArrayList<ResourceEvent>();
+
+        ResourceEvent event;
+
+        while ((events.size() < max) && ((event = eventQueue.poll()) != null))
         {
-            eventQueue.add(event);
+            queueSize.decrementAndGet();
+            events.add(event);
         }
-        // wake up if sleeping :
-        synchronized (notifier)
+
+        return events;
+    }
+
+    /**
+     * Merge the CHILDS_ADDED events of the same parent (and target listener) into one event.
+     * Any other event type ends the merging, so the order of the events relative to other
+     * event types is kept. A merged event has the time of the oldest event it contains, so the
+     * latency metrics include the time the events have been waiting.
+     */
+    protected List<ResourceEvent> coalesce(List<ResourceEvent> events)
+    {
+        if (events.size() <= 1)
+            return events;
+
+        List<ResourceEvent> result = new ArrayList<ResourceEvent>(events.size());
+        // index in result -> merged child VRLs
+        Map<Integer, List<VRL>> mergedChilds = new HashMap<Integer, List<VRL>>();
+        // index in result -> time of oldest merged event
+        Map<Integer, Long> mergedTimes = new HashMap<Integer, Long>();
+        // open CHILDS_ADDED event per parent and target
+        Map<String, Integer> openEvents = new LinkedHashMap<String, Integer>();
+
+        for (ResourceEvent event : events)
         {
-            this.notifier.notifyAll();
+            if ((event.isEvent(EventType.CHILDS_ADDED) == false) || (event.getSource() == null)
+                    || (event.getChilds() == null))
+            {
+                openEvents.clear();
+                result.add(event);
+                continue;
+            }
+
+            String key = event.getSource().toString() + "#" + System.identityHashCode(event.getTargetListener());
+            Integer index = openEvents.get(key);
+
+            if (index == null)
+            {
+                openEvents.put(key, result.size());
+                result.add(event);
+                continue;
+            }
+
+            List<VRL> childs = mergedChilds.get(index);
+
+            if (childs == null)
+            {
+                childs = new ArrayList<VRL>();
+
+                for (VRL vrl : result.get(index).getChilds())
+                    childs.add(vrl);
+
+                mergedChilds.put(index, childs);
+                mergedTimes.put(index, result.get(index).getTime());
+            }
+
+            for (VRL vrl : event.getChilds())
+                childs.add(vrl);
+
+            if (event.getTime() < mergedTimes.get(index))
+                mergedTimes.put(index, event.getTime());
+
+            numCoalesced.incrementAndGet();
         }
+
+        for (Map.Entry<Integer, List<VRL>> entry : mergedChilds.entrySet())
+        {
+            ResourceEvent first = result.get(entry.getKey());
+            List<VRL> childs = entry.getValue();
+            ResourceEvent merged = ResourceEvent.createChildsAddedEvent(first.getSource(),
+                    childs.toArray(new VRL[childs.size()]));
+            merged.setTarget(first.getTargetListener());
+            merged.setTime(mergedTimes.get(entry.getKey()));
+            result.set(entry.getKey(), merged);
+        }
+
+        return result;
     }
 
-    private ResourceEvent getNextEvent()
+    /**
+     * Returns the resource which must be refreshed instead of the (dropped) event: the parent
+     * for structural changes and the resource itself for attribute changes. Returns null for
+     * transient events.
+     */
+    protected static VRL getRefreshVRL(ResourceEvent event)
     {
-        synchronized (this.eventQueue)
+        VRL source = event.getSource();
+
+        if (source == null)
+            return null;
+
+        switch (event.getType())
         {
-            if (eventQueue.size() <= 0)
+            case CHILDS_ADDED:
+            case CHILDS_DELETED:
+            case SET_CHILDS:
+            case REFRESH:
+            case SET_ATTRIBUTES:
+                return source;
+            case NEW_RESOURCE:
+            case DELETE:
+                if (event.getParent() != null)
+                    return event.getParent();
+                return source.getParent();
+            case RENAME:
+                return source.getParent();
+            default:
                 return null;
-
-            ResourceEvent event = this.eventQueue.get(0);
-            this.eventQueue.remove(0);
-            return event;
         }
     }
 
@@ -256,6 +525,9 @@ public class ResourceEventNotifier implements ITaskSource
         synchronized (resourceEventListeners)
         {
             this.resourceEventListeners.add(listener);
+
+            if (dispatchers.get(listener) == null)
+                dispatchers.put(listener, new ListenerDispatcher(listener));
         }
     }
 
@@ -264,6 +536,14 @@ public class ResourceEventNotifier implements ITaskSource
         synchronized (resourceEventListeners)
         {
             this.resourceEventListeners.remove(listener);
+
+            if (resourceEventListeners.contains(listener) == false)
+            {
+                ListenerDispatcher dispatcher = dispatchers.remove(listener);
+
+                if (dispatcher != null)
+                    dispatcher.shutdown();
+            }
         }
     }
 
@@ -277,7 +557,21 @@ public class ResourceEventNotifier implements ITaskSource
             return array;
         }
     }
-   
+
+    /** Returns dispatcher of each listener in the order the listeners were added */
+    protected ListenerDispatcher[] getDispatchers()
+    {
+        synchronized (resourceEventListeners)
+        {
+            ListenerDispatcher array[] = new ListenerDispatcher[resourceEventListeners.size()];
+
+            for (int i = 0; i < array.length; i++)
+                array[i] = dispatchers.get(resourceEventListeners.get(i));
+
+            return array;
+        }
+    }
+
     public String getID()
     {
         return "Resource Event Notifier";
@@ -298,6 +592,55 @@ public class ResourceEventNotifier implements ITaskSource
         logger.infoPrintf("Has tasks running:%s\n", val);
     }
 
+    // ========================================================================
+    // Metrics
+    // ========================================================================
+
+    /** Number of events waiting to be dispatched to the listeners */
+    public int getQueueSize()
+    {
+        return queueSize.get();
+    }
+
+    /** Largest number of events waiting to be dispatched since start */
+    public int getMaxQueueSize()
+    {
+        return maxQueueSize;
+    }
+
+    /** Number of events fired */
+    public long getNumFired()
+    {
+        return numFired.get();
+    }
+
+    /** Number of CHILDS_ADDED events merged into a previous event */
+    public long getNumCoalesced()
+    {
+        return numCoalesced.get();
+    }
+
+    public String getStats()
+    {
+        String str = "ResourceEventNotifier:queued=" + getQueueSize()
+                + ",maxQueued=" + maxQueueSize
+                + ",fired=" + numFired.get()
+                + ",dispatched=" + numDispatched.get()
+                + ",coalesced=" + numCoalesced.get()
+                + ",listeners={";
+
+        ListenerDispatcher[] dispatchers = getDispatchers();
+
+        for (int i = 0; i < dispatchers.length; i++)
+        {
+            if (i > 0)
+                str += ",";
+            str += dispatchers[i].getStats();
+        }
+
+        return str + "}";
+    }
+
     // ========================================================================
     // Life Cycle Management
     // ========================================================================
@@ -315,10 +658,12 @@ public class ResourceEventNotifier implements ITaskSource
 
         this.notifier.stop();
 
-        synchronized (notifierThread)
+        Thread thread = notifierThread;
+
+        if (thread != null)
         {
-            this.notifierThread.notifyAll();
-            this.notifierThread.interrupt();
+            LockSupport.unpark(thread);
+            thread.interrupt();
         }
     }
 
@@ -336,7 +681,8 @@ public class ResourceEventNotifier implements ITaskSource
             return;
         }
 
-        this.notifierThread = new Thread(notifier);
+        this.notifierThread = new Thread(notifier, "ResourceEventNotifier");
+        this.notifierThread.setDaemon(true);
         this.notifierThread.start();
     }
 
@@ -347,7 +693,7 @@ public class ResourceEventNotifier implements ITaskSource
     public void reset()
     {
         stop();
-        this.eventQueue.clear();
+        getNextEvents(Integer.MAX_VALUE);
         start();
     }
 
@@ -373,6 +719,13 @@ public class ResourceEventNotifier implements ITaskSource
             this.notifier = null;
         }
 
+        synchronized (resourceEventListeners)
+        {
+            for (ListenerDispatcher dispatcher : dispatchers.values())
+                dispatcher.shutdown();
+
+            dispatchers.clear();
+        }
     }
 
     @Override
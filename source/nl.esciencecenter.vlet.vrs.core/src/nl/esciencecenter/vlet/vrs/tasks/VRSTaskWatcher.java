@@ -21,14 +21,41 @@
 
 package nl.esciencecenter.vlet.vrs.tasks;
 
+import java.util.EnumMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import nl.esciencecenter.ptk.task.ActionTask;
 import nl.esciencecenter.ptk.task.ITaskMonitor;
 import nl.esciencecenter.ptk.task.TaskWatcher;
 import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
 
 /**
  * Task watcher for threaded VRS tasks. 
  * Use VRS.getTaskWatcher() for the default VRS Task Watchers.
+ * <p>
+ * Next to watching tasks, this watcher owns a bounded worker pool per {@link TaskPool}. 
+ * Tasks submitted with {@link #submitTask(ActionTask, TaskPool)} are executed by 
+ * a pool thread instead of a new thread per task. When the queue of a pool is full, 
+ * the task is kept in an overflow queue which is moved into the pool queue as tasks finish, 
+ * so tasks are never dropped and no threads are started outside the pool. 
+ * <p>
+ * Tasks submitted with {@link #submitTask(ActionTask, TaskPool, VRL)} are counted per host. 
+ * When a host already has the maximum number of running and queued tasks in a pool, 
+ * new tasks for that host wait in a pending queue of that host until one of its tasks 
+ * has finished, so a slow host can't occupy all threads of a pool and stall tasks for 
+ * other hosts. 
  */ 
 public class VRSTaskWatcher extends TaskWatcher 
 {
@@ -39,10 +66,395 @@ public class VRSTaskWatcher extends TaskWatcher
         logger=ClassLogger.getLogger(VRSTaskWatcher.class); 
     }
     
+    /** Idle time in seconds after which a pool thread is stopped */
+    public static final int WORKER_KEEP_ALIVE_TIME = 30;
+
+    /**
+     * Worker pools, in order of priority. 
+     */
+    public static enum TaskPool
+    {
+        /** Short tasks triggered by the user: listings, attribute fetching, refreshes */
+        INTERACTIVE(8, 256, 4, Thread.NORM_PRIORITY),
+
+        /** Long running (bulk) file transfers */
+        TRANSFER(4, 1024, 2, Thread.NORM_PRIORITY - 1),
+
+        /** Background maintenance: status polling, cache updates */
+        HOUSEKEEPING(2, 128, 1, Thread.MIN_PRIORITY);
+
+        private final int defaultMaxThreads;
+
+        private final int defaultQueueSize;
+
+        private final int defaultMaxTasksPerHost;
+
+        private final int threadPriority;
+
+        private TaskPool(int maxThreads, int queueSize, int maxTasksPerHost, int priority)
+        {
+            this.defaultMaxThreads = maxThreads;
+            this.defaultQueueSize = queueSize;
+            this.defaultMaxTasksPerHost = maxTasksPerHost;
+            this.threadPriority = priority;
+        }
+
+        public int getDefaultMaxThreads()
+        {
+            return defaultMaxThreads;
+        }
+
+        public int getDefaultQueueSize()
+        {
+            return defaultQueueSize;
+        }
+
+        /** Maximum number of running and queued tasks per host, less than the number of threads. */
+        public int getDefaultMaxTasksPerHost()
+        {
+            return defaultMaxTasksPerHost;
+        }
+    }
+
+    /** ActionTask currently executed by a pool thread */
+    private static ThreadLocal<ActionTask> currentPoolTask = new ThreadLocal<ActionTask>();
+
+    /**
+     * Runs an ActionTask in a pool thread. 
+     */
+    protected class TaskRunner implements Runnable
+    {
+        private final ActionTask task;
+
+        private final WorkerPool pool;
+
+        /** Host key or NULL if not counted per host */
+        private final String host;
+
+        private final long submitTime;
+
+        protected TaskRunner(ActionTask task, WorkerPool pool, String host)
+        {
+            this.task = task;
+            this.pool = pool;
+            this.host = host;
+            this.submitTime = System.currentTimeMillis();
+        }
+
+        public void run()
+        {
+            pool.taskStarted(System.currentTimeMillis() - submitTime);
+            currentPoolTask.set(task);
+
+            try
+            {
+                task.run();
+                pool.numCompleted.incrementAndGet();
+            }
+            catch (Throwable t)
+            {
+                pool.numFailed.incrementAndGet();
+                notifyTaskException(task, t);
+            }
+            finally
+            {
+                currentPoolTask.remove();
+                pool.taskDone(host);
+            }
+        }
+    }
+
+    /** Running and pending tasks of one host in a pool */
+    private static class HostTasks
+    {
+        /** Tasks handed to the executor (queued or running) */
+        int numActive = 0;
+
+        /** Tasks waiting for a free slot of this host */
+        LinkedList<TaskRunner> pending = new LinkedList<TaskRunner>();
+    }
+
+    /**
+     * Bounded executor and metrics of one TaskPool. 
+     */
+    protected class WorkerPool implements RejectedExecutionHandler
+    {
+        private final TaskPool type;
+
+        private final ThreadPoolExecutor executor;
+
+        private int maxTasksPerHost;
+
+        /** Running, queued and pending tasks per host. Guarded by itself. */
+        private Map<String, HostTasks> hostTasks = new HashMap<String, HostTasks>();
+
+        /** Tasks rejected because the executor queue was full. Guarded by itself. */
+        private LinkedList<TaskRunner> overflow = new LinkedList<TaskRunner>();
+
+        // metrics
+        private AtomicLong numSubmitted = new AtomicLong();
+
+        private AtomicLong numCompleted = new AtomicLong();
+
+        private AtomicLong numFailed = new AtomicLong();
+
+        private AtomicLong numOverflow = new AtomicLong();
+
+        private AtomicLong numHostOverflow = new AtomicLong();
+
+        private AtomicLong numStarted = new AtomicLong();
+
+        private AtomicLong totalQueueTime = new AtomicLong();
+
+        private volatile long maxQueueTime = 0;
+
+        protected WorkerPool(TaskPool type)
+        {
+            this.type = type;
+
+            ThreadFactory factory = new DaemonThreadFactory("VRSTaskWatcher." + type, type.threadPriority);
+            int maxThreads = type.getDefaultMaxThreads();
+            this.maxTasksPerHost = type.getDefaultMaxTasksPerHost();
+
+            this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, WORKER_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(type.getDefaultQueueSize()), factory, this);
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        public void submit(ActionTask task, String host)
+        {
+            numSubmitted.incrementAndGet();
+            TaskRunner runner = new TaskRunner(task, this, host);
+
+            if (acquireHost(runner) == false)
+            {
+                // don't let a slow host occupy the whole pool: wait until one of its tasks has finished.
+                numHostOverflow.incrementAndGet();
+                logger.debugPrintf("%s pool: host %s has %d tasks, task is pending:%s\n", type, host,
+                        maxTasksPerHost, task);
+                return;
+            }
+
+            executor.execute(runner);
+        }
+
+        /** Returns false if the host already has the maximum number of tasks: the runner is pending then. */
+        private boolean acquireHost(TaskRunner runner)
+        {
+            if (runner.host == null)
+                return true;
+
+            synchronized (hostTasks)
+            {
+                HostTasks tasks = hostTasks.get(runner.host);
+
+                if (tasks == null)
+                {
+                    tasks = new HostTasks();
+                    hostTasks.put(runner.host, tasks);
+                }
+
+                if (tasks.numActive >= maxTasksPerHost)
+                {
+                    tasks.pending.add(runner);
+                    return false;
+                }
+
+                tasks.numActive++;
+                return true;
+            }
+        }
+
+        /** Hand the slot of the host to its next pending task, if any. Returns the task to execute. */
+        private TaskRunner releaseHost(String host)
+        {
+            if (host == null)
+                return null;
+
+            synchronized (hostTasks)
+            {
+                HostTasks tasks = hostTasks.get(host);
+
+                if (tasks == null)
+                    return null;
+
+                if (tasks.pending.isEmpty() == false)
+                    return tasks.pending.removeFirst();
+
+                tasks.numActive--;
+
+                if (tasks.numActive <= 0)
+                    hostTasks.remove(host);
+
+                return null;
+            }
+        }
+
+        /** Called by the pool thread when a task has finished. */
+        private void taskDone(String host)
+        {
+            TaskRunner next = releaseHost(host);
+
+            if (next != null)
+                executor.execute(next);
+
+            drainOverflow();
+        }
+
+        /**
+         * Move overflow tasks into the executor queue while there is room. 
+         * Pool threads pick up the queued tasks, a pool thread is started if there is none. 
+         */
+        private void drainOverflow()
+        {
+            boolean moved = false;
+
+            synchronized (overflow)
+            {
+                while (overflow.isEmpty() == false)
+                {
+                    if (executor.getQueue().offer(overflow.getFirst()) == false)
+                        break;
+
+                    overflow.removeFirst();
+                    moved = true;
+                }
+            }
+
+            // idle threads might have timed out
+            if ((moved) && (executor.getPoolSize() == 0))
+                executor.prestartCoreThread();
+        }
+
+        public void setMaxTasksPerHost(int maxTasks)
+        {
+            if (maxTasks < 1)
+                return;
+
+            List<TaskRunner> start = new ArrayList<TaskRunner>();
+
+            synchronized (hostTasks)
+            {
+                this.maxTasksPerHost = maxTasks;
+
+                // limit might have been raised: start pending tasks
+                for (HostTasks tasks : hostTasks.values())
+                {
+                    while ((tasks.numActive < maxTasksPerHost) && (tasks.pending.isEmpty() == false))
+                    {
+                        tasks.numActive++;
+                        start.add(tasks.pending.removeFirst());
+                    }
+                }
+            }
+
+            for (TaskRunner runner : start)
+                executor.execute(runner);
+        }
+
+        private void taskStarted(long queueTime)
+        {
+            numStarted.incrementAndGet();
+            totalQueueTime.addAndGet(queueTime);
+
+            if (queueTime > maxQueueTime)
+                maxQueueTime = queueTime;
+        }
+
+        /**
+         * Queue is full: keep task in the overflow queue until a pool thread has room for it. 
+         * The task keeps its host slot. When the pool has been shut down the task isn't executed. 
+         */
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor)
+        {
+            TaskRunner runner = (TaskRunner) runnable;
+
+            if (executor.isShutdown())
+            {
+                releaseHost(runner.host);
+                logger.warnPrintf("%s pool has been shut down, task not executed:%s\n", type, runner.task);
+                return;
+            }
+
+            numOverflow.incrementAndGet();
+
+            synchronized (overflow)
+            {
+                overflow.add(runner);
+            }
+
+            logger.debugPrintf("%s pool full (%d queued), task is kept in overflow queue:%s\n", type,
+                    executor.getQueue().size(), runner.task);
+
+            // queued tasks might have finished meanwhile
+            drainOverflow();
+        }
+
+        public synchronized void setMaxThreads(int maxThreads)
+        {
+            if ((maxThreads < 1) || (maxThreads == executor.getMaximumPoolSize()))
+                return;
+
+            // keep core<=max invariant while resizing
+            if (maxThreads > executor.getMaximumPoolSize())
+            {
+                executor.setMaximumPoolSize(maxThreads);
+                executor.setCorePoolSize(maxThreads);
+            }
+            else
+            {
+                executor.setCorePoolSize(maxThreads);
+                executor.setMaximumPoolSize(maxThreads);
+            }
+        }
+
+        public void shutdown()
+        {
+            executor.shutdown();
+        }
+
+        public String getStats()
+        {
+            long started = numStarted.get();
+            int numHosts;
+            int numPending = 0;
+            int numOverflowQueued;
+
+            synchronized (hostTasks)
+            {
+                numHosts = hostTasks.size();
+
+                for (HostTasks tasks : hostTasks.values())
+                    numPending += tasks.pending.size();
+            }
+
+            synchronized (overflow)
+            {
+                numOverflowQueued = overflow.size();
+            }
+
+            return type + "={threads=" + executor.getPoolSize()
+                    + ",max=" + executor.getMaximumPoolSize()
+                    + ",active=" + executor.getActiveCount()
+                    + ",queued=" + executor.getQueue().size()
+                    + ",submitted=" + numSubmitted.get()
+                    + ",completed=" + numCompleted.get()
+                    + ",failed=" + numFailed.get()
+                    + ",overflow=" + numOverflow.get()
+                    + ",overflowQueued=" + numOverflowQueued
+                    + ",hosts=" + numHosts
+                    + ",hostOverflow=" + numHostOverflow.get()
+                    + ",hostPending=" + numPending
+                    + ",avgQueueTime=" + ((started > 0) ? (totalQueueTime.get() / started) : 0) + "ms"
+                    + ",maxQueueTime=" + maxQueueTime + "ms}";
+        }
+    }
+
     // ===
     // Instance  
     // ===
 
+    private Map<TaskPool, WorkerPool> pools = new EnumMap<TaskPool, WorkerPool>(TaskPool.class);
     
     public VRSTaskWatcher(String idStr)
     {
@@ -55,6 +467,83 @@ public class VRSTaskWatcher extends TaskWatcher
         logger.logException(ClassLogger.ERROR,this,e,"Exception:%s\n",e);
     }
 
+    /**
+     * Execute the ActionTask in a thread of the specified pool. 
+     * The task is executed using ActionTask.run(), the ActionTask API stays the same. 
+     * Tasks which block on other tasks of the same pool should use ActionTask.startTask(), 
+     * since the pools have a limited amount of threads.
+     */
+    public void submitTask(ActionTask task, TaskPool pool)
+    {
+        getPool(pool).submit(task, null);
+    }
+
+    /**
+     * Execute the ActionTask in a thread of the specified pool and count it for the host of the location. 
+     * If that host already has the maximum number of tasks in the pool, the task waits until one of them has finished. 
+     * @see #submitTask(ActionTask, TaskPool)
+     */
+    public void submitTask(ActionTask task, TaskPool pool, VRL location)
+    {
+        getPool(pool).submit(task, getHostKey(location));
+    }
+
+    /** Returns scheme, host and port of the location, or NULL for no location. */
+    protected static String getHostKey(VRL location)
+    {
+        if (location == null)
+            return null;
+
+        return location.getScheme() + "://" + location.getHostname() + ":" + location.getPort();
+    }
+
+    /**
+     * Set maximum number of running and queued tasks per host of the specified pool. 
+     */
+    public void setMaxTasksPerHost(TaskPool pool, int maxTasks)
+    {
+        getPool(pool).setMaxTasksPerHost(maxTasks);
+    }
+
+    /**
+     * Set maximum number of threads of the specified pool. 
+     */
+    public void setMaxThreads(TaskPool pool, int maxThreads)
+    {
+        getPool(pool).setMaxThreads(maxThreads);
+    }
+
+    protected WorkerPool getPool(TaskPool type)
+    {
+        synchronized (pools)
+        {
+            WorkerPool pool = pools.get(type);
+
+            if (pool == null)
+            {
+                pool = new WorkerPool(type);
+                pools.put(type, pool);
+            }
+
+            return pool;
+        }
+    }
+
+    /**
+     * Stop all pool threads after the queued tasks have been executed. 
+     * New tasks are executed by new pools.
+     */
+    public void shutdownPools()
+    {
+        synchronized (pools)
+        {
+            for (WorkerPool pool : pools.values())
+                pool.shutdown();
+
+            pools.clear();
+        }
+    }
+
     /**
      * Check Action Task Context and get current task monitor or create
      * new one with the specified taskName and amount of work. <br>
@@ -62,7 +551,11 @@ public class VRSTaskWatcher extends TaskWatcher
     public ITaskMonitor getCurrentThreadTaskMonitor(String taskName, long todo)
     {
         // check if executed during action task:
-        ActionTask task = getCurrentThreadActionTask();
+        ActionTask task = currentPoolTask.get();
+
+        if (task == null)
+            task = getCurrentThreadActionTask();
+
         ITaskMonitor monitor = null;
 
         if (task != null)
@@ -84,4 +577,25 @@ public class VRSTaskWatcher extends TaskWatcher
         super.notifyTaskStarted(actionTask);
     }
 
+    public String getStats()
+    {
+        StringBuilder sb = new StringBuilder("VRSTaskWatcher:pools={");
+
+        synchronized (pools)
+        {
+            boolean first = true;
+
+            for (WorkerPool pool : pools.values())
+            {
+                if (first == false)
+                    sb.append(",");
+
+                sb.append(pool.getStats());
+                first = false;
+            }
+        }
+
+        return sb.append("}").toString();
+    }
+
 }
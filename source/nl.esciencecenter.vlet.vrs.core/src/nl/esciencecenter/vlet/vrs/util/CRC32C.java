@@ -0,0 +1,116 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, as used by storage systems and iSCSI.
+ * <p>
+ * Pure java implementation for runtimes without java.util.zip.CRC32C (java 9+). 
+ * Uses 'slicing-by-8' lookup tables which process 8 bytes per iteration. 
+ */
+public class CRC32C implements Checksum
+{
+    /** Reversed Castagnoli polynomial */
+    private static final int POLYNOMIAL=0x82F63B78;
+
+    private static final int table[][]=new int[8][256];
+
+    static
+    {
+        for (int n=0;n<256;n++)
+        {
+            int crc=n;
+
+            for (int k=0;k<8;k++)
+                crc=((crc&1)!=0)?((crc>>>1)^POLYNOMIAL):(crc>>>1);
+
+            table[0][n]=crc;
+        }
+
+        for (int n=0;n<256;n++)
+        {
+            int crc=table[0][n];
+
+            for (int k=1;k<8;k++)
+            {
+                crc=table[0][crc&0xff]^(crc>>>8);
+                table[k][n]=crc;
+            }
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private int crc=0xffffffff;
+
+    public void update(int b)
+    {
+        crc=(crc>>>8)^table[0][(crc^b)&0xff];
+    }
+
+    public void update(byte bytes[],int offset,int len)
+    {
+        int[] t0=table[0],t1=table[1],t2=table[2],t3=table[3];
+        int[] t4=table[4],t5=table[5],t6=table[6],t7=table[7];
+
+        int value=crc;
+        int end=offset+len;
+
+        while (end-offset>=8)
+        {
+            int low=value^((bytes[offset]&0xff)|((bytes[offset+1]&0xff)<<8)
+                    |((bytes[offset+2]&0xff)<<16)|((bytes[offset+3]&0xff)<<24));
+            int high=(bytes[offset+4]&0xff)|((bytes[offset+5]&0xff)<<8)
+                    |((bytes[offset+6]&0xff)<<16)|((bytes[offset+7]&0xff)<<24);
+
+            value=t7[low&0xff]^t6[(low>>>8)&0xff]^t5[(low>>>16)&0xff]^t4[low>>>24]
+                    ^t3[high&0xff]^t2[(high>>>8)&0xff]^t1[(high>>>16)&0xff]^t0[high>>>24];
+
+            offset+=8;
+        }
+
+        while (offset<end)
+            value=(value>>>8)^t0[(value^bytes[offset++])&0xff];
+
+        crc=value;
+    }
+
+    public void update(byte bytes[])
+    {
+        update(bytes,0,bytes.length);
+    }
+
+    public long getValue()
+    {
+        return (~crc)&0xffffffffL;
+    }
+
+    public void reset()
+    {
+        crc=0xffffffff;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream which updates a {@link MultiChecksum} with all the bytes read.
+ * Skipped bytes are read as well, so the checksums always cover the whole stream.
+ */
+public class ChecksumInputStream extends FilterInputStream
+{
+    private MultiChecksum checksum;
+
+    private byte singleByte[]=new byte[1];
+
+    private byte skipBuffer[]=null;
+
+    public ChecksumInputStream(InputStream in,MultiChecksum checksum)
+    {
+        super(in);
+        this.checksum=checksum;
+    }
+
+    public MultiChecksum getChecksum()
+    {
+        return checksum;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int val=in.read();
+
+        if (val>=0)
+        {
+            singleByte[0]=(byte)val;
+            checksum.update(singleByte,0,1);
+        }
+
+        return val;
+    }
+
+    @Override
+    public int read(byte buffer[],int offset,int len) throws IOException
+    {
+        int numRead=in.read(buffer,offset,len);
+
+        if (numRead>0)
+            checksum.update(buffer,offset,numRead);
+
+        return numRead;
+    }
+
+    @Override
+    public long skip(long numBytes) throws IOException
+    {
+        if (skipBuffer==null)
+            skipBuffer=new byte[8*1024];
+
+        long numSkipped=0;
+
+        while (numSkipped<numBytes)
+        {
+            int len=read(skipBuffer,0,(int)Math.min(skipBuffer.length,numBytes-numSkipped));
+
+            if (len<0)
+                break;
+
+            numSkipped+=len;
+        }
+
+        return numSkipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public void mark(int readLimit)
+    {
+    }
+
+    @Override
+    public void reset() throws IOException
+    {
+        throw new IOException("mark/reset not supported");
+    }
+}
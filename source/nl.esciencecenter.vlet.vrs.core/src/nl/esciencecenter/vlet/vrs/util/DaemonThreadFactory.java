@@ -0,0 +1,97 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.util;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon threads, so background pools never keep the JVM alive. 
+ * Also has factory methods for the common background pools. 
+ */
+public class DaemonThreadFactory implements ThreadFactory
+{
+    /** Idle time in seconds after which the threads of the cached pools are stopped */
+    public static final int CACHED_KEEP_ALIVE_TIME=60;
+
+    /**
+     * Pool which starts a new thread for each task if all threads are busy: tasks are never queued. 
+     * Use this for tasks which limit their own concurrency. 
+     */
+    public static ThreadPoolExecutor createCachedPool(String name)
+    {
+        return new ThreadPoolExecutor(0,Integer.MAX_VALUE,CACHED_KEEP_ALIVE_TIME,TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),new DaemonThreadFactory(name));
+    }
+
+    /**
+     * Pool with a fixed number of threads and an unbounded queue. 
+     * Idle threads are stopped after keepAliveTime seconds. 
+     */
+    public static ThreadPoolExecutor createFixedPool(String name,int numThreads,long keepAliveTime)
+    {
+        ThreadPoolExecutor executor=new ThreadPoolExecutor(numThreads,numThreads,keepAliveTime,TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),new DaemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private final String name;
+
+    private final int priority;
+
+    private final AtomicInteger counter=new AtomicInteger();
+
+    /** Threads are named "name:nr" */
+    public DaemonThreadFactory(String name)
+    {
+        this(name,Thread.NORM_PRIORITY);
+    }
+
+    public DaemonThreadFactory(String name,int priority)
+    {
+        this.name=name;
+        this.priority=priority;
+    }
+
+    public Thread newThread(Runnable runnable)
+    {
+        Thread thread=new Thread(runnable,name+":"+counter.getAndIncrement());
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+        return thread;
+    }
+
+    public String toString()
+    {
+        return "DaemonThreadFactory:"+name+":threads="+counter.get();
+    }
+}
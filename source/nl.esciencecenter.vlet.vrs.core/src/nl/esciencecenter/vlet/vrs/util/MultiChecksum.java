@@ -0,0 +1,235 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.Checksum;
+
+import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.vrs.vfs.VChecksum;
+
+/**
+ * Computes several checksums in a single pass over the data.
+ * <p>
+ * Feed the data with the update() methods, or read through a {@link ChecksumInputStream},
+ * and get the values with {@link #getChecksums()} after the last byte. The checksum values
+ * are formatted the same way as {@link VChecksum#getChecksum(String)} does.
+ * This class is not thread safe.
+ */
+public class MultiChecksum
+{
+    /** Supported algorithms. Names are matched case insensitive, "SHA256" matches SHA-256 as well */
+    public static final String SUPPORTED_ALGORITHMS[]=
+        {
+            VChecksum.MD5,
+            VChecksum.ADLER32,
+            VChecksum.CRC32C,
+            VChecksum.SHA256
+        };
+
+    /** Size of buffer used to copy data from (direct) ByteBuffers */
+    private static final int COPY_BUFFER_SIZE=64*1024;
+
+    /** Returns the name of the algorithm as in {@link #SUPPORTED_ALGORITHMS} or NULL if not supported */
+    public static String getAlgorithmName(String algorithm)
+    {
+        if (algorithm==null)
+            return null;
+
+        for (String name:SUPPORTED_ALGORITHMS)
+        {
+            if ((name.equalsIgnoreCase(algorithm)) || (name.replace("-","").equalsIgnoreCase(algorithm)))
+                return name;
+        }
+
+        return null;
+    }
+
+    public static boolean isSupported(String algorithm)
+    {
+        return (getAlgorithmName(algorithm)!=null);
+    }
+
+    /**
+     * Get the checksums of a resource which provides (server side) checksums one algorithm at the time.
+     * The keys are normalized with {@link #getAlgorithmName(String)} like {@link #getChecksums()} does,
+     * names of algorithms which aren't in {@link #SUPPORTED_ALGORITHMS} are kept as is.
+     */
+    public static Map<String,String> getChecksums(VChecksum node,String algorithms[]) throws VrsException
+    {
+        Map<String,String> values=new LinkedHashMap<String,String>();
+
+        for (String algorithm:algorithms)
+        {
+            String name=getAlgorithmName(algorithm);
+
+            if (name==null)
+                name=algorithm;
+
+            values.put(name,node.getChecksum(algorithm));
+        }
+
+        return values;
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private String algorithms[];
+
+    /** Either the digest or the checksum is set per algorithm */
+    private MessageDigest digests[];
+
+    private Checksum checksums[];
+
+    private byte copyBuffer[]=null;
+
+    private long numBytes=0;
+
+    private Map<String,String> values=null;
+
+    public MultiChecksum(String... algorithms) throws IOException
+    {
+        int num=algorithms.length;
+        this.algorithms=new String[num];
+        this.digests=new MessageDigest[num];
+        this.checksums=new Checksum[num];
+
+        for (int i=0;i<num;i++)
+        {
+            String name=getAlgorithmName(algorithms[i]);
+
+            if (name==null)
+                throw new IOException("Checksum algorithm is not implemented:"+algorithms[i]);
+
+            this.algorithms[i]=name;
+
+            try
+            {
+                if (name.equals(VChecksum.ADLER32))
+                    checksums[i]=new Adler32();
+                else if (name.equals(VChecksum.CRC32C))
+                    checksums[i]=new CRC32C();
+                else
+                    digests[i]=MessageDigest.getInstance(name);
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IOException("NoSuchAlgorithmException:"+name,e);
+            }
+        }
+    }
+
+    /** Returns the (normalized) names of the algorithms being calculated */
+    public String[] getAlgorithms()
+    {
+        return algorithms;
+    }
+
+    public void update(byte buffer[],int offset,int len)
+    {
+        if (values!=null)
+            throw new IllegalStateException("Checksums have already been calculated");
+
+        for (int i=0;i<algorithms.length;i++)
+        {
+            if (digests[i]!=null)
+                digests[i].update(buffer,offset,len);
+            else
+                checksums[i].update(buffer,offset,len);
+        }
+
+        numBytes+=len;
+    }
+
+    /** Update with the remaining bytes of the (direct or mapped) ByteBuffer */
+    public void update(ByteBuffer buffer)
+    {
+        if (buffer.hasArray())
+        {
+            int len=buffer.remaining();
+            update(buffer.array(),buffer.arrayOffset()+buffer.position(),len);
+            buffer.position(buffer.position()+len);
+            return;
+        }
+
+        // java.util.zip.Checksum can't read from ByteBuffers: copy in chunks.
+        if (copyBuffer==null)
+            copyBuffer=new byte[COPY_BUFFER_SIZE];
+
+        while (buffer.hasRemaining())
+        {
+            int len=Math.min(buffer.remaining(),copyBuffer.length);
+            buffer.get(copyBuffer,0,len);
+            update(copyBuffer,0,len);
+        }
+    }
+
+    /** Number of bytes checksummed */
+    public long getNumBytes()
+    {
+        return numBytes;
+    }
+
+    /**
+     * Finish the calculation and return the checksums as algorithm->value map, in the order
+     * of the algorithms. No data can be added after this call.
+     */
+    public Map<String,String> getChecksums()
+    {
+        if (values!=null)
+            return values;
+
+        values=new LinkedHashMap<String,String>();
+
+        for (int i=0;i<algorithms.length;i++)
+        {
+            if (digests[i]!=null)
+                values.put(algorithms[i],StringUtil.toHexString(digests[i].digest()));
+            else
+                values.put(algorithms[i],Long.toHexString(checksums[i].getValue()));
+        }
+
+        return values;
+    }
+
+    /** Returns the checksum value for the specified algorithm. See {@link #getChecksums()} */
+    public String getChecksum(String algorithm)
+    {
+        return getChecksums().get(getAlgorithmName(algorithm));
+    }
+
+    public String toString()
+    {
+        return "MultiChecksum:"+Arrays.toString(algorithms)+":numBytes="+numBytes;
+    }
+}
@@ -0,0 +1,556 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.exception.NestedInterruptedException;
+import nl.esciencecenter.vlet.exception.ServerCommunicationException;
+
+/**
+ * Pool of reusable connections (sessions, channels, clients) to one server.
+ * <p>
+ * The driver specific part is done by a {@link ResourceFactory}, which creates, validates and
+ * disposes the resources. The factory is always called outside the pool lock, so a slow or
+ * unreachable server doesn't block other threads using the pool.
+ * <ul>
+ * <li>Each resource has a key, for example the credential it has been authenticated with.
+ * Idle resources are only reused for the same key. Idle resources with another key are disposed.
+ * <li>Idle resources are validated by the factory before they are reused.
+ * <li>Idle resources are disposed after the maximum idle time or when there are more than the
+ * maximum number of idle resources.
+ * <li>When the maximum number of resources is in use, acquire() waits up to the lease timeout for
+ * a resource to be released.
+ * <li>Streams (or other objects) can be registered as lease holder with
+ * {@link #setLeaseHolder(Object, Object)}. When a holder has been garbage collected without
+ * returning its resource, the lease is reclaimed so a leaked stream can't block the pool forever.
+ * </ul>
+ * A leased resource is only used by the thread which leased it: resources don't need to be thread safe.
+ */
+public class ResourcePool<K,R>
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(ResourcePool.class);
+    }
+
+    /** Creates, validates and disposes the pooled resources. Never called while holding the pool lock. */
+    public static interface ResourceFactory<K,R>
+    {
+        /** Create (connect and authenticate) a new resource for the specified key */
+        public R createResource(K key) throws VrsException;
+
+        /**
+         * Check idle resource before it is reused.
+         * @param idleTime time in milliseconds the resource has been idle.
+         * @return false if the resource can't be used anymore. It will be disposed.
+         */
+        public boolean validate(R resource,long idleTime);
+
+        /** Close the resource. Exceptions should be handled by the factory. */
+        public void dispose(R resource);
+    }
+
+    private class Entry
+    {
+        final R resource;
+
+        final K key;
+
+        long lastUsed;
+
+        long leaseTime;
+
+        /** Stream (or other object) owning the resource, or null if the lease is scoped */
+        WeakReference<Object> holder=null;
+
+        Entry(R resource,K key)
+        {
+            this.resource=resource;
+            this.key=key;
+            this.lastUsed=System.currentTimeMillis();
+        }
+
+        boolean isLeaked()
+        {
+            return (holder!=null) && (holder.get()==null);
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private String name;
+
+    private ResourceFactory<K,R> factory;
+
+    private LinkedList<Entry> idleEntries=new LinkedList<Entry>();
+
+    /** Leased resources and their lease */
+    private Map<R,Entry> leasedEntries=new IdentityHashMap<R,Entry>();
+
+    private int maxResources;
+
+    private int maxIdle;
+
+    private long maxIdleTime;
+
+    private long leaseTimeout;
+
+    private String timeoutHint=null;
+
+    private int numCreating=0;
+
+    private boolean closed=false;
+
+    // metrics
+    private long numCreated=0;
+
+    private long numReused=0;
+
+    private long numLeases=0;
+
+    private long numWaits=0;
+
+    private long numTimeouts=0;
+
+    private long numEvicted=0;
+
+    private long numInvalidated=0;
+
+    private long numReclaimed=0;
+
+    private long totalWaitTime=0;
+
+    /**
+     * @param name         name used in messages and statistics, for example the server.
+     * @param maxResources maximum number of leased and idle resources.
+     * @param maxIdle      maximum number of idle resources.
+     * @param maxIdleTime  time in milliseconds after which an idle resource is disposed. 0 means never.
+     * @param leaseTimeout time in milliseconds to wait for a free resource.
+     */
+    public ResourcePool(String name,ResourceFactory<K,R> factory,int maxResources,int maxIdle,long maxIdleTime,long leaseTimeout)
+    {
+        this.name=name;
+        this.factory=factory;
+        this.maxResources=Math.max(maxResources,1);
+        this.maxIdle=Math.max(maxIdle,0);
+        this.maxIdleTime=Math.max(maxIdleTime,0);
+        this.leaseTimeout=Math.max(leaseTimeout,0);
+    }
+
+    /** Extra text for the timeout exception, for example which option to increase */
+    public void setTimeoutHint(String hint)
+    {
+        this.timeoutHint=hint;
+    }
+
+    /**
+     * Lease resource for the specified key. Returns a valid idle resource, creates a new one if the
+     * maximum hasn't been reached yet, or waits for a resource to be released.
+     * Leased resources must be returned with {@link #release(Object)} or {@link #invalidate(Object)}.
+     */
+    public R acquire(K key) throws VrsException
+    {
+        long startTime=System.currentTimeMillis();
+        boolean waited=false;
+
+        while (true)
+        {
+            List<R> toDispose=new ArrayList<R>();
+            Entry entry=null;
+            boolean create=false;
+            boolean timeout=false;
+
+            synchronized(this)
+            {
+                if (closed)
+                    throw new ServerCommunicationException("Connection pool has been closed for:"+name);
+
+                evictIdle(key,toDispose);
+
+                if (idleEntries.isEmpty()==false)
+                {
+                    entry=idleEntries.removeFirst();
+                    lease(entry,startTime);
+                }
+                else if ((leasedEntries.size()+numCreating<maxResources) || (reclaimLeaked(toDispose)>0))
+                {
+                    numCreating++;
+                    create=true;
+                }
+                else if (toDispose.isEmpty())
+                {
+                    // only wait if there are no resources to dispose first
+                    long remaining=leaseTimeout-(System.currentTimeMillis()-startTime);
+
+                    if (remaining<=0)
+                    {
+                        numTimeouts++;
+                        timeout=true;
+                    }
+                    else
+                    {
+                        if (waited==false)
+                        {
+                            numWaits++;
+                            waited=true;
+                        }
+
+                        try
+                        {
+                            this.wait(remaining);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw new NestedInterruptedException("Interrupted while waiting for free connection to:"+name,e);
+                        }
+                    }
+                }
+            }
+
+            disposeAll(toDispose);
+
+            if (timeout)
+                throw new ServerCommunicationException("Timeout after "+leaseTimeout
+                        +"ms waiting for a free connection to:"+name+"\n"
+                        +"All "+maxResources+" connections are in use, the oldest lease is "
+                        +getLongestLeaseTime()+"ms old."
+                        +((timeoutHint!=null)?"\n"+timeoutHint:""));
+
+            if (entry!=null)
+            {
+                // check (outside lock) whether the server didn't close the connection
+                if (factory.validate(entry.resource,System.currentTimeMillis()-entry.lastUsed))
+                {
+                    synchronized(this)
+                    {
+                        numReused++;
+                    }
+
+                    return entry.resource;
+                }
+
+                invalidate(entry.resource);
+                continue;
+            }
+
+            if (create)
+                return create(key,startTime);
+        }
+    }
+
+    private R create(K key,long startTime) throws VrsException
+    {
+        R resource=null;
+
+        try
+        {
+            resource=factory.createResource(key);
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                numCreating--;
+
+                if (resource!=null)
+                {
+                    numCreated++;
+                    lease(new Entry(resource,key),startTime);
+                }
+                else
+                {
+                    this.notifyAll();
+                }
+            }
+        }
+
+        logger.debugPrintf("Created new connection #%d to:%s\n",numCreated,name);
+        return resource;
+    }
+
+    private void lease(Entry entry,long startTime)
+    {
+        long now=System.currentTimeMillis();
+        entry.leaseTime=now;
+        entry.holder=null;
+        leasedEntries.put(entry.resource,entry);
+        numLeases++;
+        totalWaitTime+=(now-startTime);
+    }
+
+    /**
+     * Remove idle resources which have another key or have been idle too long.
+     * The removed resources are added to 'evicted' and must be disposed outside the lock.
+     */
+    private void evictIdle(K key,List<R> evicted)
+    {
+        long now=System.currentTimeMillis();
+        Iterator<Entry> iterator=idleEntries.iterator();
+
+        while (iterator.hasNext())
+        {
+            Entry entry=iterator.next();
+
+            if ((isSameKey(entry.key,key)==false) || ((maxIdleTime>0) && (now-entry.lastUsed>maxIdleTime)))
+            {
+                iterator.remove();
+                numEvicted++;
+                evicted.add(entry.resource);
+            }
+        }
+    }
+
+    private static boolean isSameKey(Object key1,Object key2)
+    {
+        return (key1==key2) || ((key1!=null) && key1.equals(key2));
+    }
+
+    /**
+     * Register the object owning a leased resource, typically a stream. If the holder is garbage
+     * collected before the resource is returned, the resource is considered leaked and is reclaimed
+     * when the pool runs out of resources.
+     */
+    public synchronized void setLeaseHolder(R resource,Object holder)
+    {
+        Entry entry=leasedEntries.get(resource);
+
+        if (entry!=null)
+            entry.holder=new WeakReference<Object>(holder);
+    }
+
+    /** Remove leases of which the holder has been garbage collected. Returns number of reclaimed resources */
+    private int reclaimLeaked(List<R> reclaimed)
+    {
+        int num=0;
+        Iterator<Entry> iterator=leasedEntries.values().iterator();
+
+        while (iterator.hasNext())
+        {
+            Entry entry=iterator.next();
+
+            if (entry.isLeaked())
+            {
+                iterator.remove();
+                reclaimed.add(entry.resource);
+                num++;
+            }
+        }
+
+        if (num>0)
+        {
+            numReclaimed+=num;
+            logger.warnPrintf("Reclaimed %d leaked connection(s) of unclosed streams to:%s\n",num,name);
+        }
+
+        return num;
+    }
+
+    /**
+     * Return leased resource to the pool. Only use this if the resource is in a consistent state,
+     * for example after a completed transfer. Releasing a resource which isn't leased (anymore) is ignored.
+     */
+    public void release(R resource)
+    {
+        if (resource==null)
+            return;
+
+        List<R> toDispose=new ArrayList<R>();
+
+        synchronized(this)
+        {
+            Entry entry=leasedEntries.remove(resource);
+
+            // not leased: already returned or disposed by close()
+            if (entry==null)
+                return;
+
+            if ((closed==false) && (idleEntries.size()<maxIdle))
+            {
+                entry.lastUsed=System.currentTimeMillis();
+                idleEntries.addFirst(entry);
+                evictIdle(entry.key,toDispose);
+            }
+            else
+            {
+                toDispose.add(resource);
+            }
+
+            this.notifyAll();
+        }
+
+        disposeAll(toDispose);
+    }
+
+    /**
+     * Return leased resource which is (possibly) in an inconsistent state. The resource is disposed.
+     * Invalidating a resource which already has been returned is ignored.
+     */
+    public void invalidate(R resource)
+    {
+        if (resource==null)
+            return;
+
+        synchronized(this)
+        {
+            if (leasedEntries.remove(resource)==null)
+                return;
+
+            numInvalidated++;
+            this.notifyAll();
+        }
+
+        dispose(resource);
+    }
+
+    /**
+     * Dispose all idle resources, for example after the session they belong to has been reconnected.
+     * Leased resources are kept.
+     */
+    public void invalidateIdle()
+    {
+        List<R> toDispose=new ArrayList<R>();
+
+        synchronized(this)
+        {
+            removeIdle(toDispose);
+        }
+
+        disposeAll(toDispose);
+    }
+
+    private void removeIdle(List<R> removed)
+    {
+        while (idleEntries.isEmpty()==false)
+        {
+            numInvalidated++;
+            removed.add(idleEntries.removeFirst().resource);
+        }
+    }
+
+    /** Dispose all resources, including the leased ones. The pool can't be used anymore. */
+    public void close()
+    {
+        List<R> toDispose=new ArrayList<R>();
+
+        synchronized(this)
+        {
+            closed=true;
+            removeIdle(toDispose);
+            toDispose.addAll(leasedEntries.keySet());
+            leasedEntries.clear();
+            this.notifyAll();
+        }
+
+        disposeAll(toDispose);
+    }
+
+    private void disposeAll(List<R> resources)
+    {
+        for (R resource:resources)
+            dispose(resource);
+    }
+
+    /** Closes the connection: never call this while holding the pool lock */
+    private void dispose(R resource)
+    {
+        try
+        {
+            factory.dispose(resource);
+        }
+        catch (Throwable t)
+        {
+            logger.debugPrintf("Exception when disposing connection to:%s:%s\n",name,t);
+        }
+    }
+
+    // ========================================================================
+    // Metrics
+    // ========================================================================
+
+    public synchronized int getNumIdle()
+    {
+        return idleEntries.size();
+    }
+
+    public synchronized int getNumLeased()
+    {
+        return leasedEntries.size();
+    }
+
+    public int getMaxResources()
+    {
+        return maxResources;
+    }
+
+    public int getMaxIdle()
+    {
+        return maxIdle;
+    }
+
+    /** Returns the time in milliseconds of the longest outstanding lease or 0 if nothing is leased */
+    public synchronized long getLongestLeaseTime()
+    {
+        long now=System.currentTimeMillis();
+        long max=0;
+
+        for (Entry entry:leasedEntries.values())
+            max=Math.max(max,now-entry.leaseTime);
+
+        return max;
+    }
+
+    public synchronized String getStats()
+    {
+        return "idle="+idleEntries.size()
+                +",leased="+leasedEntries.size()
+                +",max="+maxResources
+                +",maxIdle="+maxIdle
+                +",created="+numCreated
+                +",reused="+numReused
+                +",leases="+numLeases
+                +",waits="+numWaits
+                +",timeouts="+numTimeouts
+                +",evicted="+numEvicted
+                +",invalidated="+numInvalidated
+                +",reclaimed="+numReclaimed
+                +",avgWait="+((numLeases>0)?(totalWaitTime/numLeases):0)+"ms";
+    }
+
+    public String toString()
+    {
+        return "ResourcePool:"+name+":"+getStats();
+    }
+}
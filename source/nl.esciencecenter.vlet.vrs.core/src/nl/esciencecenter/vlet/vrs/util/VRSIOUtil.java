@@ -34,7 +34,6 @@ import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.io.VRandomReadable;
 import nl.esciencecenter.vbrowser.vrs.io.VRandomWritable;
 import nl.esciencecenter.vlet.vrs.VNode;
-import nl.esciencecenter.vlet.vrs.VRS;
 import nl.esciencecenter.vlet.vrs.io.VStreamReadable;
 import nl.esciencecenter.vlet.vrs.io.VStreamWritable;
 import nl.esciencecenter.vlet.vrs.vfs.VFS;
@@ -74,6 +73,25 @@ public class VRSIOUtil extends IOUtil
             VNode destNode,
             long nrToTransfer,
             int bufferSize) throws IOException
+    {
+        return streamCopy(transfer,sourceNode,destNode,nrToTransfer,bufferSize,null); 
+    }
+
+    /**
+     * Stream copy which calculates the checksums of the transferred data as well.  
+     * The checksums are calculated by the reader, so the data is only read once. 
+     * 
+     * @param checksum
+     *            optional MultiChecksum to update with all the bytes read from the source. 
+     *            Get the values with {@link MultiChecksum#getChecksums()} after the copy.
+     * @see #streamCopy(VFSTransfer, VNode, VNode, long, int)
+     */
+    public static long streamCopy(VFSTransfer transfer,
+            VNode sourceNode,
+            VNode destNode,
+            long nrToTransfer,
+            int bufferSize,
+            MultiChecksum checksum) throws IOException
 
     {
         // Prevention:
@@ -102,6 +120,9 @@ public class VRSIOUtil extends IOUtil
                             + sourceNode);
         }
 
+        if (checksum != null)
+            istr = new ChecksumInputStream(istr, checksum);
+
         // ===
         // Create OutputStream
         // ===
@@ -141,27 +162,15 @@ public class VRSIOUtil extends IOUtil
             //
             // nrToTransfer=-1 -> then UNKNOWN !
 
-            // ***
-            // SFTP-WRITE-OUTPUTSTREAM-32000
-            // Bug in SFTP. The OutputStream has problems when writing
-            // chunks > 32000.
-            // ***
+            // Note: SFTP-WRITE-OUTPUTSTREAM-32000 is handled by the SFTP driver itself,
+            // which splits up large writes into pipelined write requests.
+            cbuffer.setMaxWriteChunkSize(VFS.DEFAULT_STREAM_WRITE_CHUNK_SIZE);
 
-            if (destNode.getScheme().compareTo(VRS.SFTP_SCHEME) == 0)
-            {
-                cbuffer.setMaxWriteChunkSize(32000);
-            }
-            else
-            {
-                cbuffer.setMaxWriteChunkSize(VFS.DEFAULT_STREAM_WRITE_CHUNK_SIZE);
-
-                // check optimal read buffer size.
-                int optimalWriteChunkSize = VFS.getOptimalWriteBufferSizeFor(destNode);
+            // check optimal write buffer size.
+            int optimalWriteChunkSize = VFS.getOptimalWriteBufferSizeFor(destNode);
 
-                if (optimalWriteChunkSize > 0)
-                    cbuffer.setMaxReadChunkSize(optimalWriteChunkSize);
-
-            }
+            if (optimalWriteChunkSize > 0)
+                cbuffer.setMaxWriteChunkSize(optimalWriteChunkSize);
 
             cbuffer.setMaxReadChunkSize(VFS.DEFAULT_STREAM_READ_CHUNK_SIZE);
             // check optimal read buffer size.
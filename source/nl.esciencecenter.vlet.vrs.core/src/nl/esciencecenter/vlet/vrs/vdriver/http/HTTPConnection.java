@@ -104,48 +104,7 @@ public class HTTPConnection
             // continue 
             
             
-            Exception connectException=null; 
-            
-            try
-            {
-                connection= getUrl().openConnection(httpNode.getHTTPRS().getHTTPProxy(isHTTPS));
-                //connection.connect();
-            }
-            catch (Exception e)
-            {
-                connectException=e; 
-            }
-            
-           
-            if (connectException instanceof javax.net.ssl.SSLException)
-            {
-                if (isHTTPS)
-                {
-                    try
-                    {
-                       logger.debugPrintf("doConnection: check certificates for:%s:%d\n",httpNode.getHostname(),httpNode.getPort());
-                       VrsSslUtil.interactiveImportCertificate(httpNode.getVRSContext(), httpNode.getHostname(),httpNode.getPort()); 
-                    }
-                    catch (Exception e)
-                    {
-                        logger.logException(ClassLogger.ERROR,e,"Exception:%s\n",e);
-                        throw new IOException("Couldn't connect to :"+this,e); 
-                    }
-                }
-                
-                // Try II:
-                
-                try
-                {
-                    connection= getUrl().openConnection(httpNode.getHTTPRS().getHTTPProxy(isHTTPS));
-                    //connection.connect();
-                }
-                catch (Exception e)
-                {
-                    throw new IOException("Couldn't connect to :"+this,e); 
-                }
-                
-            }
+            connection=openConnection();
             
             // prefetch mimetype and cache: these don't change during connections. 
             // also getMimeType() reconnects 
@@ -169,6 +128,57 @@ public class HTTPConnection
         }
     }
 
+    /**
+     * Open new URLConnection. If the SSL handshake fails the server certificate 
+     * can be imported interactively, after which the connection is tried again. 
+     */
+    protected URLConnection openConnection() throws IOException
+    {
+        URLConnection conn=null; 
+        Exception connectException=null; 
+        
+        try
+        {
+            conn=getUrl().openConnection(httpNode.getHTTPRS().getHTTPProxy(isHTTPS));
+            //conn.connect();
+        }
+        catch (Exception e)
+        {
+            connectException=e; 
+        }
+        
+        if (connectException instanceof javax.net.ssl.SSLException)
+        {
+            if (isHTTPS)
+            {
+                try
+                {
+                   logger.debugPrintf("doConnection: check certificates for:%s:%d\n",httpNode.getHostname(),httpNode.getPort());
+                   VrsSslUtil.interactiveImportCertificate(httpNode.getVRSContext(), httpNode.getHostname(),httpNode.getPort()); 
+                }
+                catch (Exception e)
+                {
+                    logger.logException(ClassLogger.ERROR,e,"Exception:%s\n",e);
+                    throw new IOException("Couldn't connect to :"+this,e); 
+                }
+            }
+            
+            // Try II:
+            
+            try
+            {
+                conn=getUrl().openConnection(httpNode.getHTTPRS().getHTTPProxy(isHTTPS));
+                //conn.connect();
+            }
+            catch (Exception e)
+            {
+                throw new IOException("Couldn't connect to :"+this,e); 
+            }
+        }
+        
+        return conn; 
+    }
+    
     private java.net.URL getUrl() throws MalformedURLException
     {   
         return this.httpNode.getVRL().toURL();
@@ -207,4 +217,138 @@ public class HTTPConnection
         
         return this.connection.getContentType(); 
     }
+    
+    // ========================================================================
+    // Range requests 
+    // ========================================================================
+    
+    /** HTTP 416: Requested Range Not Satisfiable */ 
+    public static final int HTTP_RANGE_NOT_SATISFIABLE=416; 
+    
+    private Object headMutex=new Object(); 
+    
+    private boolean headDone=false; 
+    
+    private long contentLength=-1; 
+    
+    private boolean acceptRanges=false; 
+    
+    /**
+     * Returns length of the resource as reported by the server (HEAD request) or -1 if unknown. 
+     */
+    public long getContentLength() throws IOException
+    {
+        checkHead(); 
+        return contentLength; 
+    }
+    
+    /**
+     * Whether the server advertises "Accept-Ranges: bytes" for this resource. 
+     */
+    public boolean isRangeSupported() throws IOException
+    {
+        checkHead(); 
+        return acceptRanges; 
+    }
+    
+    /** Perform HEAD request once to get the length and range support */ 
+    protected void checkHead() throws IOException
+    {
+        synchronized(headMutex)
+        {
+            if (headDone)
+                return; 
+            
+            URLConnection conn=openConnection(); 
+            
+            if (conn instanceof HttpURLConnection)
+            {
+                HttpURLConnection httpConn=(HttpURLConnection)conn;
+                httpConn.setRequestMethod("HEAD");
+                httpConn.setUseCaches(false);
+                
+                if (httpConn.getResponseCode()==HttpURLConnection.HTTP_OK)
+                {
+                    contentLength=httpConn.getContentLengthLong(); 
+                    String ranges=httpConn.getHeaderField("Accept-Ranges"); 
+                    acceptRanges=((ranges!=null) && (ranges.trim().equalsIgnoreCase("bytes"))); 
+                }
+                
+                // no body: keeps connection alive.  
+                discardResponse(httpConn); 
+            }
+            
+            logger.debugPrintf("HEAD: length=%d, acceptRanges=%s for:%s\n",contentLength,
+                    StringUtil.boolString(acceptRanges),getUrl()); 
+            headDone=true; 
+        }
+    }
+    
+    /**
+     * Perform range request for the specified bytes. 
+     * Each request uses a new HttpURLConnection, but the underlying keep-alive connection is 
+     * reused by the JVM when the returned stream has been read completely and is closed. 
+     * 
+     * @return stream with exactly the requested bytes (or less at the end of the resource) or NULL 
+     *         if offset is beyond the end of the resource.   
+     * @throws IOException if the server doesn't honour the range request. 
+     */
+    public InputStream openRangeStream(long offset,long length) throws IOException
+    {
+        URLConnection conn=openConnection(); 
+        
+        if ((conn instanceof HttpURLConnection)==false)
+            throw new IOException("Range requests not supported for:"+getUrl()); 
+        
+        HttpURLConnection httpConn=(HttpURLConnection)conn;
+        httpConn.setUseCaches(false);
+        httpConn.setRequestProperty("Range","bytes="+offset+"-"+(offset+length-1)); 
+        
+        int code=httpConn.getResponseCode(); 
+        
+        if (code==HttpURLConnection.HTTP_PARTIAL)
+        {
+            // server may send different range: "bytes start-end/total" 
+            String range=httpConn.getHeaderField("Content-Range"); 
+            
+            if ((range==null) || (range.trim().startsWith("bytes "+offset+"-")))
+                return httpConn.getInputStream(); 
+            
+            httpConn.disconnect(); 
+            throw new IOException("Server returned wrong range:'"+range+"' for offset "+offset+" of:"+getUrl()); 
+        }
+        
+        if (code==HTTP_RANGE_NOT_SATISFIABLE)
+        {
+            discardResponse(httpConn); 
+            return null; 
+        }
+        
+        // Range ignored (200): don't read the whole resource.  
+        httpConn.disconnect(); 
+        throw new IOException("Range request not supported by server (response code="+code+") for:"+getUrl()); 
+    }
+    
+    /** Read and close (error) response, so the connection can be reused */ 
+    private void discardResponse(HttpURLConnection httpConn)
+    {
+        InputStream inps=httpConn.getErrorStream(); 
+        
+        try
+        {
+            if (inps==null)
+                inps=httpConn.getInputStream(); 
+            
+            byte buffer[]=new byte[1024]; 
+            
+            while (inps.read(buffer)>=0)
+                ; 
+            
+            inps.close(); 
+        }
+        catch (IOException e)
+        {
+            logger.debugPrintf("Exception when discarding response:%s\n",e); 
+        }
+    }
 }
@@ -38,8 +38,10 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import nl.esciencecenter.ptk.io.RandomReadable;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VRLSyntaxException;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vbrowser.vrs.io.VRandomReadable;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.exception.NestedIOException;
 import nl.esciencecenter.vlet.vrs.VNode;
@@ -47,9 +49,13 @@ import nl.esciencecenter.vlet.vrs.VRS;
 import nl.esciencecenter.vlet.vrs.VRSContext;
 import nl.esciencecenter.vlet.vrs.io.VStreamAccessable;
 //import sun.security.validator.ValidatorException;
-/** Class represents a HTTP reference  */ 
+/** 
+ * Class represents a HTTP reference. 
+ * Random reads are performed with range requests, this requires server support. 
+ * @see #isRangeSupported()  
+ */ 
 
-public class HTTPNode extends VNode implements VStreamAccessable
+public class HTTPNode extends VNode implements VStreamAccessable, VRandomReadable
 {
     // ===
     // Class
@@ -188,6 +194,32 @@ public class HTTPNode extends VNode implements VStreamAccessable
     {
         return this.connection.getInputStream();
     }
+
+    /**
+     * Returns reader which performs a range request for each read.
+     * @see #isRangeSupported() 
+     */ 
+    public RandomReadable createRandomReadable() throws VrsException
+    {
+        return new HTTPRangeReader(this.connection); 
+    }
+    
+    /** Whether the server advertises range request support (Accept-Ranges: bytes) */ 
+    public boolean isRangeSupported() throws IOException
+    {
+        return this.connection.isRangeSupported(); 
+    }
+    
+    /** Returns length as reported by the server or -1 if unknown */ 
+    public long getLength() throws IOException
+    {
+        return this.connection.getContentLength(); 
+    }
+    
+    public HTTPConnection getConnection()
+    {
+        return this.connection; 
+    }
     
     /**
      * Get mimetype as reported by remote Server. 
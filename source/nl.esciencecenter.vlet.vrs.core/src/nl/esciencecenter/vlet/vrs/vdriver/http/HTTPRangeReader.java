@@ -0,0 +1,89 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.vdriver.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import nl.esciencecenter.ptk.io.RandomReadable;
+
+/**
+ * Random reads from a HTTP resource using range requests. 
+ * Every read is a separate "Range: bytes=" request. The response is read completely and closed,
+ * so the keep-alive connection to the server is reused by the next request. 
+ */
+public class HTTPRangeReader implements RandomReadable
+{
+    private HTTPConnection connection;
+
+    public HTTPRangeReader(HTTPConnection connection)
+    {
+        this.connection=connection;
+    }
+
+    public int readBytes(long fileOffset,byte[] buffer,int bufferOffset,int nrBytes) throws IOException
+    {
+        if (nrBytes<=0)
+            return 0;
+
+        InputStream inps=connection.openRangeStream(fileOffset,nrBytes);
+
+        // beyond end of resource
+        if (inps==null)
+            return -1;
+
+        int numRead=0;
+
+        try
+        {
+            while (numRead<nrBytes)
+            {
+                int len=inps.read(buffer,bufferOffset+numRead,nrBytes-numRead);
+
+                if (len<0)
+                    break;
+
+                numRead+=len;
+            }
+        }
+        finally
+        {
+            inps.close();
+        }
+
+        return (numRead>0)?numRead:-1;
+    }
+
+    @Override
+    public long getLength() throws IOException
+    {
+        return connection.getContentLength();
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        // connections are kept alive by the JVM.
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.vdriver.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.vrs.vfs.ChunkedDownload;
+import nl.esciencecenter.vlet.vrs.vfs.ChunkedDownload.Source;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransfer;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+
+/**
+ * Download of a HTTP resource to a local file using concurrent range requests.
+ * <p>
+ * A {@link ChunkedDownload} is used with a number of {@link HTTPRangeReader} sources. The chunk
+ * size equals the read size, so every segment is one range request on a keep-alive connection.
+ * When a range request fails, its segment is put back for the other sources.
+ * <p>
+ * Only used when the server advertises "Accept-Ranges: bytes" and reports the length.
+ * Otherwise {@link #download()} returns false and the caller should use a single stream.
+ */
+public class HTTPSegmentedDownload
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(HTTPSegmentedDownload.class);
+    }
+
+    /** Default maximum number of concurrent range requests */
+    public static final int DEFAULT_MAX_SEGMENTS=4;
+
+    /** Resources smaller than this (bytes) are downloaded with a single stream */
+    public static final long MIN_FILE_SIZE=8*1024*1024;
+
+    /** Size of one range request */
+    public static final int SEGMENT_SIZE=4*1024*1024;
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private HTTPNode httpNode;
+
+    private VFSTransfer transfer;
+
+    private VFile targetFile;
+
+    private int maxSegments=DEFAULT_MAX_SEGMENTS;
+
+    public HTTPSegmentedDownload(HTTPNode node,VFSTransfer transfer,VFile targetLocalFile,int maxSegments)
+    {
+        this.httpNode=node;
+        this.transfer=transfer;
+        this.targetFile=targetLocalFile;
+
+        if (maxSegments>0)
+            this.maxSegments=maxSegments;
+    }
+
+    /**
+     * Download the resource using concurrent range requests.
+     * @return false if the server doesn't support range requests or the resource is too small.
+     *         Nothing has been written then.
+     * @throws VrsException if the download failed. The partially written file has been deleted then.
+     */
+    public boolean download() throws VrsException
+    {
+        if (maxSegments<2)
+            return false;
+
+        long length;
+
+        try
+        {
+            if (httpNode.isRangeSupported()==false)
+                return false;
+
+            length=httpNode.getLength();
+        }
+        catch (IOException e)
+        {
+            // use normal stream.
+            logger.warnPrintf("Couldn't determine range support of:%s:%s\n",httpNode,e);
+            return false;
+        }
+
+        if (length<MIN_FILE_SIZE)
+            return false;
+
+        int numSources=(int)Math.min(maxSegments,(length+SEGMENT_SIZE-1)/SEGMENT_SIZE);
+        List<Source> sources=new ArrayList<Source>(numSources);
+
+        for (int i=0;i<numSources;i++)
+            sources.add(new Source("Range#"+i+":"+httpNode.getVRL(),new HTTPRangeReader(httpNode.getConnection())));
+
+        transfer.logPrintf("HTTP: Downloading with %d concurrent range requests:\n - %s\n",numSources,httpNode);
+
+        new ChunkedDownload(transfer,targetFile,length,SEGMENT_SIZE,SEGMENT_SIZE,httpNode.toString())
+        {
+            @Override
+            protected void sourceFailed(Source source,Throwable e)
+            {
+                transfer.logPrintf("HTTP: Range request failed (%d sources left):\n - %s\n",getNumActiveSources(),e.getMessage());
+            }
+        }.download(sources);
+
+        return true;
+    }
+}
@@ -19,164 +19,163 @@
  */
 // source:
 
+
 package nl.esciencecenter.vlet.vrs.vdriver.localfs;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.zip.Adler32;
-import java.util.zip.CheckedInputStream;
+import java.util.Map;
 
 import nl.esciencecenter.ptk.util.StringUtil;
 import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vlet.vrs.util.MultiChecksum;
 
+/**
+ * Checksum calculation for streams and local files.
+ * <p>
+ * Multiple checksums are calculated in one pass over the data with a {@link MultiChecksum}.
+ * Local files are read through a memory mapped FileChannel.
+ */
 public class ChecksumUtil
 {
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(ChecksumUtil.class);
+    }
+
+    /** Read buffer size for streams */
+    public static final int STREAM_BUFFER_SIZE=1024*1024;
+
+    /** Size of the file regions which are mapped into memory at once */
+    public static final int MAP_REGION_SIZE=64*1024*1024;
+
     public static String calculateMD5Checksum(InputStream in)
             throws IOException
     {
-
         byte[] hexChecksum = createMD5Checksum(in);
         String checksum = StringUtil.toHexString(hexChecksum);
         return checksum;
-
     }
 
     public static String calculateAdler32Checksum(InputStream in)
             throws IOException
     {
-
-        long longChecksum = createAdler32Checksum(in);
-        String checksum = Long.toHexString(longChecksum);
-        return checksum;
-
+        return calculateChecksum(in,"Adler32"); 
     }
 
-    private static long createAdler32Checksum(InputStream in)
-            throws IOException
+    public static byte[] createMD5Checksum(InputStream in) throws IOException
     {
-        byte[] buffer = new byte[1024];
-        long checksum;
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
 
-        CheckedInputStream cis = null;
         try
         {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            int numRead;
 
-            Adler32 adler = new Adler32();
-            cis = new CheckedInputStream(in, adler);
-            int numRead = 0;
-            while (numRead >=0 )
+            while ((numRead = in.read(buffer)) >= 0)
             {
-                numRead = cis.read(buffer);
-                // bug: 
-                if (numRead==0)
-                {
-                    // microsleep
-                    try
-                    {
-                        Thread.sleep(10);
-                    }
-                    catch (InterruptedException e)
-                    {
-                        ClassLogger.getLogger(ChecksumUtil.class).logException(ClassLogger.ERROR,e,"Sleep interrupted!\n");
-                    } 
-                }
+                md5.update(buffer, 0, numRead);
             }
-            checksum = cis.getChecksum().getValue();
+
+            return md5.digest();
         }
-        catch (IOException e)
+        catch (NoSuchAlgorithmException ex)
         {
-            throw e;
+            throw new IOException(
+                    "NoSuchAlgorithmException", ex);
         }
         finally
         {
-            try
-            {
-                cis.close();
-            }
-            catch (IOException e)
-            {
-                //ignore and continue
-                ClassLogger.getLogger(ChecksumUtil.class).logException(ClassLogger.WARN,e,"Exception when closing stream.\n");
-            }
+            close(in); 
         }
-        return checksum;
     }
 
-    public static byte[] createMD5Checksum(InputStream in) throws IOException
+    public static String calculateChecksum(InputStream in, String algorithm)
+            throws IOException
     {
+        return calculateChecksums(in,new String[]{algorithm}).get(MultiChecksum.getAlgorithmName(algorithm)); 
+    }
 
-        byte[] buffer = new byte[1024];
-        int numRead = 0;
-
+    /**
+     * Calculate the checksums for the specified algorithms in one pass. The stream is closed afterwards.
+     * @return algorithm->value map.
+     * @see MultiChecksum#SUPPORTED_ALGORITHMS
+     */
+    public static Map<String,String> calculateChecksums(InputStream in, String algorithms[]) 
+            throws IOException
+    {
         try
         {
-            MessageDigest md5 = MessageDigest.getInstance("MD5");
-//            java.security.DigestInputStream d = new java.security.DigestInputStream(in,md5);
-            
-            while (numRead != -1)
+            MultiChecksum checksum=new MultiChecksum(algorithms);
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int numRead;
+
+            while ((numRead = in.read(buffer)) >= 0)
             {
-                numRead = in.read(buffer);
-                if (numRead >= 0)
-                {
-                    md5.update(buffer, 0, numRead);
-                }
-                
-                // bug: 
-                if (numRead==0)
-                {
-                    // microsleep
-                    try
-                    {
-                        Thread.sleep(10);
-                    }
-                    catch (InterruptedException e)
-                    {
-                        ClassLogger.getLogger(ChecksumUtil.class).logException(ClassLogger.ERROR,e,"Sleep interrupted!\n");
-                    } 
-                }
-                
-                
+                checksum.update(buffer, 0, numRead);
             }
 
-            return md5.digest();
+            return checksum.getChecksums();
         }
-        catch (NoSuchAlgorithmException ex)
+        finally
         {
-            throw new IOException(
-                    "NoSuchAlgorithmException", ex);
+            close(in); 
         }
-        catch (IOException e)
+    }
+
+    /**
+     * Calculate the checksums for the specified algorithms in one pass over the local file.
+     * The file is mapped into memory one region at a time.
+     * @return algorithm->value map.
+     */
+    public static Map<String,String> calculateChecksums(File file, String algorithms[])
+            throws IOException
+    {
+        MultiChecksum checksum=new MultiChecksum(algorithms);
+        FileInputStream finps=new FileInputStream(file);
+
+        try
         {
-            throw e;
+            FileChannel channel=finps.getChannel();
+            long size=channel.size();
+            long offset=0;
+
+            while (offset<size)
+            {
+                long len=Math.min(MAP_REGION_SIZE,size-offset);
+                MappedByteBuffer region=channel.map(FileChannel.MapMode.READ_ONLY,offset,len);
+                checksum.update(region);
+                offset+=len;
+            }
+
+            logger.debugPrintf("Calculated checksums of %d bytes for:%s\n",offset,file);
+            return checksum.getChecksums();
         }
         finally
         {
-            try
-            {
-                in.close();
-            }
-            catch (IOException e)
-            {
-                ; // ignore: throw new nl.uva.vlet.exception.VlIOException(e);
-            }
+            close(finps); 
         }
     }
 
-    public static String calculateChecksum(InputStream in, String algorithm)
-            throws IOException
+    private static void close(InputStream in)
     {
-        if (algorithm.equalsIgnoreCase("MD5"))
+        try
         {
-            return calculateMD5Checksum(in);
+            in.close();
         }
-        else if (algorithm.equalsIgnoreCase("Adler32"))
+        catch (IOException e)
         {
-            return calculateAdler32Checksum(in);
+            //ignore and continue
+            logger.logException(ClassLogger.WARN,e,"Exception when closing stream.\n");
         }
-        
-        throw new IOException("Checksum algorithm is not implemented:"+algorithm);
     }
 
 }
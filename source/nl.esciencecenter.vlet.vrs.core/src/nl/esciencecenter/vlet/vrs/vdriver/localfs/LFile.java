@@ -32,6 +32,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.file.attribute.GroupPrincipal;
+import java.util.Map;
 
 import nl.esciencecenter.ptk.GlobalProperties;
 import nl.esciencecenter.ptk.data.StringList;
@@ -60,6 +61,7 @@ import nl.esciencecenter.vlet.vrs.VRS;
 import nl.esciencecenter.vlet.vrs.io.VResizable;
 import nl.esciencecenter.vlet.vrs.io.VStreamAccessable;
 import nl.esciencecenter.vlet.vrs.io.VStreamAppendable;
+import nl.esciencecenter.vlet.vrs.util.MultiChecksum;
 import nl.esciencecenter.vlet.vrs.vfs.VChecksum;
 import nl.esciencecenter.vlet.vrs.vfs.VDir;
 import nl.esciencecenter.vlet.vrs.vfs.VFile;
@@ -449,32 +451,32 @@ public class LFile extends VFile implements VStreamAccessable,
     
     public String getChecksum(String algorithm) throws VrsException
     {
-        String[] types = getChecksumTypes();
+        return getChecksums(new String[]{algorithm}).get(MultiChecksum.getAlgorithmName(algorithm)); 
+    }
+
+    /** Calculates all the checksums in one pass over the memory mapped file */ 
+    public Map<String,String> getChecksums(String algorithms[]) throws VrsException
+    {
+        for (String algorithm:algorithms)
+        {
+            if (MultiChecksum.isSupported(algorithm)==false)
+                throw new NotImplementedException(algorithm
+                        + " Checksum algorithm is not implemented ");
+        }
+        
         try
         {
-            for (int i = 0; i < types.length; i++)
-            {
-                if (algorithm.equalsIgnoreCase(types[i]))
-                {
-                    InputStream in = this.createInputStream();
-                    algorithm = algorithm.toUpperCase();
-                    return ChecksumUtil.calculateChecksum(in, algorithm);
-                }
-            }
-            throw new NotImplementedException(algorithm
-                    + " Checksum algorithm is not implemented ");
-
+            return ChecksumUtil.calculateChecksums(fsNode.toJavaFile(),algorithms);
         }
         catch (IOException e)
         {
             throw new NestedIOException(e);
         }
-
     }
 
     public String[] getChecksumTypes()
     {
-        return new String[] { VChecksum.MD5, VChecksum.ADLER32 };
+        return MultiChecksum.SUPPORTED_ALGORITHMS.clone(); 
     }
 
     public String getGid() throws VrsException
@@ -0,0 +1,487 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.vfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import nl.esciencecenter.ptk.io.RandomReadable;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.exception.NestedInterruptedException;
+import nl.esciencecenter.vlet.exception.ResourceReadException;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+
+/**
+ * Download to a local file from one or more random readable sources at the same time.
+ * <p>
+ * The file is divided into chunks which are written at their offset in a (sparse) local file.
+ * Each source is read by its own thread which pulls the next chunk when it has finished the
+ * previous one, so faster sources read more chunks. When a source fails, its chunk is put back
+ * for the other sources. The download fails when all sources have failed.
+ * <p>
+ * Used by the multi replica download of the LFC driver and the segmented HTTP download.
+ * If the download fails, the partially written local file is deleted.
+ */
+public class ChunkedDownload
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(ChunkedDownload.class);
+    }
+
+    private static ThreadPoolExecutor executor=null;
+
+    private static synchronized ThreadPoolExecutor getExecutor()
+    {
+        if (executor==null)
+        {
+            executor=DaemonThreadFactory.createCachedPool("ChunkedDownload");
+        }
+
+        return executor;
+    }
+
+    /** Random readable source. Keeps the statistics of the chunks read from it. */
+    public static class Source
+    {
+        private final String name;
+
+        private final RandomReadable readable;
+
+        private long numBytes=0;
+
+        /** Time in milliseconds spent in reads */
+        private long readTime=0;
+
+        private int numChunks=0;
+
+        private boolean closed=false;
+
+        public Source(String name,RandomReadable readable)
+        {
+            this.name=name;
+            this.readable=readable;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public RandomReadable getReadable()
+        {
+            return readable;
+        }
+
+        public long getNumBytes()
+        {
+            return numBytes;
+        }
+
+        /** Returns time in milliseconds spent in reads only, not in writes to the local file */
+        public long getReadTime()
+        {
+            return readTime;
+        }
+
+        public int getNumChunks()
+        {
+            return numChunks;
+        }
+
+        /** Close the readable. Also used to unblock a pending read when the download is aborted */
+        public void close()
+        {
+            synchronized(this)
+            {
+                if (closed)
+                    return;
+
+                closed=true;
+            }
+
+            try
+            {
+                readable.close();
+            }
+            catch (Exception e)
+            {
+                logger.debugPrintf("Exception when closing:%s:%s\n",name,e);
+            }
+        }
+
+        public String toString()
+        {
+            return name+":chunks="+numChunks+",bytes="+numBytes
+                    +",throughput="+((readTime>0)?(numBytes*1000/readTime):0)+"B/s";
+        }
+    }
+
+    /** Reads chunks from one source until all chunks have been written */
+    private class Reader implements Runnable
+    {
+        final Source source;
+
+        Reader(Source source)
+        {
+            this.source=source;
+        }
+
+        public void run()
+        {
+            byte buffer[]=new byte[readSize];
+            // chunk being read, put back when this source fails.
+            long chunk[]=null;
+            Throwable failure=null;
+
+            try
+            {
+                while ((chunk=nextChunk())!=null)
+                {
+                    readChunk(chunk[0],(int)chunk[1],buffer);
+
+                    source.numBytes+=chunk[1];
+                    source.numChunks++;
+
+                    long len=chunk[1];
+                    chunk=null;
+                    chunkDone(len);
+                }
+            }
+            catch (Throwable t)
+            {
+                failure=t;
+            }
+            finally
+            {
+                // also for Errors: other sources wait for chunks in progress.
+                if (chunk!=null)
+                    readerFailed(source,chunk,failure);
+
+                done.countDown();
+            }
+        }
+
+        private void readChunk(long offset,int len,byte buffer[]) throws IOException
+        {
+            int chunkRead=0;
+
+            while (chunkRead<len)
+            {
+                if (isAborted())
+                    throw new IOException("Download aborted");
+
+                long startTime=System.nanoTime();
+                int num=source.readable.readBytes(offset+chunkRead,buffer,0,Math.min(buffer.length,len-chunkRead));
+                source.readTime+=(System.nanoTime()-startTime)/1000000;
+
+                if (num<=0)
+                    throw new IOException("Unexpected end of source at:"+(offset+chunkRead)+" for:"+source.name);
+
+                ByteBuffer bbuf=ByteBuffer.wrap(buffer,0,num);
+                long pos=offset+chunkRead;
+
+                // positional writes are thread safe.
+                while (bbuf.hasRemaining())
+                    pos+=targetChannel.write(bbuf,pos);
+
+                chunkRead+=num;
+            }
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private VFSTransfer transfer;
+
+    private VFile targetFile;
+
+    private long length;
+
+    private int chunkSize;
+
+    private int readSize;
+
+    private String description;
+
+    /** Chunks still to be read: {offset,length}. Guarded by this */
+    private LinkedList<long[]> chunks=new LinkedList<long[]>();
+
+    private int numActiveSources=0;
+
+    /** Number of chunks being read */
+    private int numInProgress=0;
+
+    private FileChannel targetChannel;
+
+    private CountDownLatch done;
+
+    private long numDone=0;
+
+    private Throwable lastException=null;
+
+    private String errorText="";
+
+    /**
+     * @param transfer        transfer to report the progress to, also checked for cancellation.
+     * @param targetLocalFile local file to write to, is overwritten.
+     * @param length          length of the sources.
+     * @param chunkSize       size of the chunks pulled by the sources.
+     * @param readSize        size of a single read within a chunk.
+     * @param description     resource being downloaded, used in messages.
+     */
+    public ChunkedDownload(VFSTransfer transfer,VFile targetLocalFile,long length,int chunkSize,int readSize,String description)
+    {
+        this.transfer=transfer;
+        this.targetFile=targetLocalFile;
+        this.length=length;
+        this.chunkSize=chunkSize;
+        this.readSize=Math.min(readSize,chunkSize);
+        this.description=description;
+    }
+
+    /**
+     * Download the file from the specified sources. The sources are closed afterwards.
+     * @throws VrsException if all sources failed or the local file couldn't be written.
+     *         The partially written file has been deleted then.
+     */
+    public void download(List<Source> sources) throws VrsException
+    {
+        boolean completed=false;
+        RandomAccessFile raFile=null;
+
+        try
+        {
+            raFile=new RandomAccessFile(new File(targetFile.getPath()),"rw");
+            raFile.setLength(length);
+            targetChannel=raFile.getChannel();
+
+            for (long offset=0;offset<length;offset+=chunkSize)
+                chunks.add(new long[]{offset,Math.min(chunkSize,length-offset)});
+
+            transfer.startSubTask("Chunked download",length);
+
+            synchronized(this)
+            {
+                numActiveSources=sources.size();
+            }
+
+            done=new CountDownLatch(sources.size());
+
+            for (Source source:sources)
+                getExecutor().execute(new Reader(source));
+
+            done.await();
+
+            transfer.endSubTask("Chunked download");
+
+            for (Source source:sources)
+                logger.debugPrintf("Source:%s\n",source);
+
+            synchronized(this)
+            {
+                if (transfer.isCancelled())
+                    throw new NestedInterruptedException("Download cancelled:"+description);
+
+                if (chunks.size()>0)
+                    throw new ResourceReadException("Download failed for all sources of:"+description
+                            +"\nEncountered Errors:\n"+errorText,lastException);
+            }
+
+            completed=true;
+        }
+        catch (InterruptedException e)
+        {
+            abort(e);
+
+            // unblock pending reads and wait until no reader writes to the local file anymore.
+            for (Source source:sources)
+                source.close();
+
+            awaitReaders();
+            throw new NestedInterruptedException("Interrupted during download of:"+description,e);
+        }
+        catch (IOException e)
+        {
+            throw new VrsException("Couldn't write to local file:"+targetFile,e);
+        }
+        finally
+        {
+            for (Source source:sources)
+                source.close();
+
+            if (raFile!=null)
+            {
+                try
+                {
+                    raFile.close();
+                }
+                catch (IOException e)
+                {
+                    logger.warnPrintf("Exception when closing:%s:%s\n",targetFile,e);
+                }
+            }
+
+            // don't leave a partial (sparse) file
+            if (completed==false)
+                deleteTargetFile();
+        }
+    }
+
+    /** Returns number of sources which haven't failed */
+    public synchronized int getNumActiveSources()
+    {
+        return numActiveSources;
+    }
+
+    /**
+     * Called when reading from a source failed, after its chunk has been put back.
+     * Called while holding the lock of this download, so keep it short.
+     * Default implementation logs the failure to the transfer.
+     */
+    protected void sourceFailed(Source source,Throwable e)
+    {
+        transfer.logPrintf("Stopped reading from source (%d sources left):\n - %s\n - %s\n",
+                getNumActiveSources(),source.getName(),e.getMessage());
+    }
+
+    /** Delete the (partially) written local file */
+    public void deleteTargetFile()
+    {
+        try
+        {
+            if (targetFile.exists())
+                targetFile.delete();
+        }
+        catch (VrsException e)
+        {
+            logger.warnPrintf("Couldn't delete partial download:%s:%s\n",targetFile,e);
+        }
+    }
+
+    /**
+     * Returns next chunk or NULL when all chunks have been read.
+     * Waits while other sources are still reading, since their chunks are put back when they fail.
+     */
+    private synchronized long[] nextChunk()
+    {
+        while (isAborted()==false)
+        {
+            long chunk[]=chunks.poll();
+
+            if (chunk!=null)
+            {
+                numInProgress++;
+                return chunk;
+            }
+
+            if (numInProgress<=0)
+                return null;
+
+            try
+            {
+                // check for cancel as well
+                this.wait(1000);
+            }
+            catch (InterruptedException e)
+            {
+                abort(e);
+            }
+        }
+
+        return null;
+    }
+
+    private synchronized void chunkDone(long len)
+    {
+        numInProgress--;
+        numDone+=len;
+        transfer.updateSubTaskDone(numDone);
+        this.notifyAll();
+    }
+
+    /** Reader failed: put chunk back for the other sources */
+    private synchronized void readerFailed(Source source,long chunk[],Throwable e)
+    {
+        chunks.addFirst(chunk);
+        numInProgress--;
+        numActiveSources--;
+        this.notifyAll();
+        lastException=e;
+        errorText+=" - "+source.getName()+":"+e.getMessage()+"\n";
+
+        try
+        {
+            sourceFailed(source,e);
+        }
+        catch (Throwable t)
+        {
+            logger.warnPrintf("Exception in sourceFailed():%s\n",t);
+        }
+    }
+
+    private synchronized boolean isAborted()
+    {
+        return ((lastException instanceof InterruptedException) || transfer.isCancelled());
+    }
+
+    private synchronized void abort(Exception e)
+    {
+        lastException=e;
+        this.notifyAll();
+    }
+
+    /** Wait until all readers have stopped. Interrupts during the wait are restored afterwards */
+    private void awaitReaders()
+    {
+        boolean interrupted=false;
+
+        while (true)
+        {
+            try
+            {
+                done.await();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted=true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.vlet.vrs.vfs;
+
+import nl.esciencecenter.ptk.task.ITaskMonitor;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.vrs.VNode;
+
+/**
+ * Interface for file systems which can resolve the transport VRLs of many files in batched requests.
+ * The transport VRLs are resolved in the background. A following {@link VTransportable#getTransportVRL()}
+ * of one of the files returns the prefetched transport VRL as soon as it is available.
+ * The transport VRLs (pins) must be released with {@link #releaseTransportVRLs(ITaskMonitor)}
+ * when the transfer has ended.
+ */
+public interface VBulkTransportable
+{
+    /**
+     * Start resolving the transport VRLs of the (file) nodes. Does not wait for the transport VRLs.
+     * Nodes which don't belong to this file system are ignored.
+     */
+    public void prefetchTransportVRLs(ITaskMonitor monitor, VNode nodes[]) throws VrsException;
+
+    /**
+     * Release the transport VRLs which have been prefetched with the monitor. Prefetches which are still
+     * running are cancelled. The transport VRLs may not be used afterwards.
+     */
+    public void releaseTransportVRLs(ITaskMonitor monitor);
+}
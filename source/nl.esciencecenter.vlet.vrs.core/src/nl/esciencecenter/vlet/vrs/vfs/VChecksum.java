@@ -21,6 +21,8 @@
 
 package nl.esciencecenter.vlet.vrs.vfs;
 
+import java.util.Map;
+
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 
 /** 
@@ -34,9 +36,21 @@ public interface VChecksum
     
     public static final String ADLER32 = "Adler32";
     
+    public static final String CRC32C = "CRC32C";
+    
+    public static final String SHA256 = "SHA-256";
+    
     /** Returns the checksum types supported by this (file) resource */ 
     String[] getChecksumTypes() throws VrsException;
     
     /** Returns the actual checksum value for the specified algorithm. */ 
 	String getChecksum(String algorithm) throws VrsException;
+	
+    /**
+     * Returns the checksum values for the specified algorithms as algorithm->value map.
+     * Resources which have to read their contents compute all the checksums in one pass. 
+     * 
+     * @see nl.esciencecenter.vlet.vrs.util.MultiChecksum
+     */ 
+    Map<String,String> getChecksums(String algorithms[]) throws VrsException;
 }
@@ -212,11 +212,59 @@ public class VFSTransfer extends TransferMonitor
         return source; 
     }
 
-    public void addSourcesDone(int i)
+    public synchronized void addSourcesDone(int i)
     {
         this.updateSourcesDone(getSourcesDone()+i);  
     }   
     
+    /** 
+     * Increment total work done. Can be called by concurrent transfer workers. 
+     */ 
+    public synchronized void addWorkDone(long amount)
+    {
+        long done=getTotalWorkDone(); 
+        if (done<0)
+            done=0; 
+        this.updateWorkDone(done+amount);
+    }
+    
+    /** 
+     * Increment total work todo. Used when the amount of work is discovered during the transfer.  
+     */ 
+    public synchronized void addWorkTodo(long amount)
+    {
+        long todo=getTotalWorkTodo(); 
+        if (todo<0)
+            todo=0; 
+        this.setTotalWorkTodo(todo+amount);
+    }
+    
+    /**
+     * Create monitor for a single file transfer performed by a concurrent worker. 
+     * The worker transfer has its own sub task statistics, but it follows the 
+     * cancel state of this transfer and logs into this transfer. 
+     */ 
+    public VFSTransfer createWorkerTransfer(VRL source,VRL destination)
+    {
+        final VFSTransfer parent=this; 
+        
+        VFSTransfer worker=new VFSTransfer(null,resourceType,source,destination,isMove)
+        {
+            public boolean isCancelled()
+            {
+                return (parent.isCancelled() || super.isCancelled()); 
+            }
+            
+            public void logPrintf(String format,Object... args)
+            {
+                parent.logPrintf(format,args);
+            }
+        };
+        
+        worker.setVFSTransferType(this.actionType); 
+        return worker; 
+    }
+    
     // ----------------------
     // Legacy Methods: Todo
     // -----------------------
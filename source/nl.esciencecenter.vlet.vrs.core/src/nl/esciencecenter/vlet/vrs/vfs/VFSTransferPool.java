@@ -0,0 +1,429 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.vlet.vrs.vfs;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vlet.exception.NestedInterruptedException;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+
+/**
+ * Bounded worker pools for concurrent file transfers.
+ * <p>
+ * One pool is kept per destination file system, so concurrent (directory) copies
+ * to the same server share the same limit. Idle workers pull the next transfer
+ * from the shared pool queue. Worker threads time out when the pool is idle and pools
+ * without open batches are removed after {@link #POOL_IDLE_TIME}, so a long session
+ * which copies to many servers doesn't keep a pool per server.
+ * <p>
+ * A plain ThreadPoolExecutor is used on purpose: transfers block on I/O and can't be split
+ * into sub tasks, so the work stealing of a ForkJoinPool doesn't apply here.
+ *
+ * @see VRSTransferManager
+ */
+public class VFSTransferPool
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(VFSTransferPool.class);
+    }
+
+    /** Idle time in seconds after which a worker thread is stopped */
+    public static final int WORKER_KEEP_ALIVE_TIME=60;
+
+    /** Idle time in milliseconds after which a pool without open batches is removed */
+    public static final long POOL_IDLE_TIME=WORKER_KEEP_ALIVE_TIME*1000L;
+
+    private static Map<String,VFSTransferPool> pools=new Hashtable<String,VFSTransferPool>();
+
+    /**
+     * Returns the shared worker pool for the specified destination file system.
+     * If the pool already exists and maxWorkers differs, the pool is resized.
+     */
+    public static VFSTransferPool getPoolFor(VFileSystem targetFS,int maxWorkers)
+    {
+        String id=targetFS.getID();
+
+        synchronized(pools)
+        {
+            removeIdlePools(POOL_IDLE_TIME);
+
+            VFSTransferPool pool=pools.get(id);
+
+            if (pool==null)
+            {
+                pool=new VFSTransferPool(id,maxWorkers);
+                pools.put(id,pool);
+            }
+            else
+            {
+                pool.setMaxWorkers(maxWorkers);
+            }
+
+            // not removed before the batch has been created.
+            pool.touch();
+            return pool;
+        }
+    }
+
+    /**
+     * Remove and shut down the pools which don't have open batches or running transfers
+     * and haven't been used for maxIdleTime milliseconds.
+     * @return number of removed pools
+     */
+    public static int removeIdlePools(long maxIdleTime)
+    {
+        int numRemoved=0;
+
+        synchronized(pools)
+        {
+            Iterator<VFSTransferPool> iterator=pools.values().iterator();
+
+            while (iterator.hasNext())
+            {
+                VFSTransferPool pool=iterator.next();
+
+                if (pool.isIdle(maxIdleTime))
+                {
+                    iterator.remove();
+                    // no threads left or all idle: doesn't block.
+                    pool.executor.shutdown();
+                    numRemoved++;
+                    logger.debugPrintf("Removed idle transfer pool:%s\n",pool.getID());
+                }
+            }
+        }
+
+        return numRemoved;
+    }
+
+    /** Returns number of shared pools */
+    public static int getNumPools()
+    {
+        return pools.size();
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private final String id;
+
+    private final ThreadPoolExecutor executor;
+
+    /** Batches which haven't finished yet. Guarded by pools */
+    private int numOpenBatches=0;
+
+    /** Guarded by pools */
+    private long lastUsed=System.currentTimeMillis();
+
+    protected VFSTransferPool(String id,int maxWorkers)
+    {
+        this.id=id;
+
+        if (maxWorkers<1)
+            maxWorkers=1;
+
+        this.executor=DaemonThreadFactory.createFixedPool("VFSTransferPool:"+getID(),maxWorkers,WORKER_KEEP_ALIVE_TIME);
+    }
+
+    /** Returns ID of the destination file system this pool is for */
+    public String getID()
+    {
+        return id;
+    }
+
+    public int getMaxWorkers()
+    {
+        return executor.getMaximumPoolSize();
+    }
+
+    public synchronized void setMaxWorkers(int maxWorkers)
+    {
+        if ((maxWorkers<1) || (maxWorkers==executor.getMaximumPoolSize()))
+            return;
+
+        // keep core<=max invariant while resizing
+        if (maxWorkers>executor.getMaximumPoolSize())
+        {
+            executor.setMaximumPoolSize(maxWorkers);
+            executor.setCorePoolSize(maxWorkers);
+        }
+        else
+        {
+            executor.setCorePoolSize(maxWorkers);
+            executor.setMaximumPoolSize(maxWorkers);
+        }
+    }
+
+    /** Number of workers currently performing a transfer */
+    public int getActiveCount()
+    {
+        return executor.getActiveCount();
+    }
+
+    /** Number of transfers waiting for a free worker */
+    public int getQueueSize()
+    {
+        return executor.getQueue().size();
+    }
+
+    private void touch()
+    {
+        synchronized(pools)
+        {
+            lastUsed=System.currentTimeMillis();
+        }
+    }
+
+    private boolean isIdle(long maxIdleTime)
+    {
+        synchronized(pools)
+        {
+            if ((numOpenBatches>0) || (System.currentTimeMillis()-lastUsed<maxIdleTime))
+                return false;
+        }
+
+        return ((executor.getActiveCount()==0) && (executor.getQueue().isEmpty()));
+    }
+
+    private void batchOpened()
+    {
+        synchronized(pools)
+        {
+            numOpenBatches++;
+            lastUsed=System.currentTimeMillis();
+        }
+    }
+
+    private void batchClosed()
+    {
+        synchronized(pools)
+        {
+            numOpenBatches--;
+            lastUsed=System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Create a new batch of transfers to be executed by this pool.
+     * At most maxInFlight transfers of the batch are queued or running at the same time,
+     * so the producer of the batch is throttled and the queue stays bounded.
+     * The batch keeps this pool from being removed until {@link TransferBatch#waitForAll()} has returned.
+     */
+    public TransferBatch createBatch(VFSTransfer transfer,int maxInFlight)
+    {
+        batchOpened();
+        return new TransferBatch(transfer,maxInFlight);
+    }
+
+    // ========================================================================
+    // TransferBatch
+    // ========================================================================
+
+    /**
+     * A single file transfer to be performed by a worker.
+     */
+    public static interface TransferJob
+    {
+        public void doTransfer() throws Exception;
+    }
+
+    /**
+     * Group of transfers belonging to one (directory) transfer.
+     * The first exception aborts the batch: transfers which haven't started yet are skipped
+     * and the exception is rethrown by {@link #waitForAll()}.
+     * Cancelling the VFSTransfer has the same effect.
+     */
+    public class TransferBatch
+    {
+        private final VFSTransfer transfer;
+
+        private final Semaphore inFlight;
+
+        private int numPending=0;
+
+        private Throwable exception=null;
+
+        private boolean closed=false;
+
+        protected TransferBatch(VFSTransfer transfer,int maxInFlight)
+        {
+            this.transfer=transfer;
+
+            if (maxInFlight<1)
+                maxInFlight=1;
+
+            this.inFlight=new Semaphore(maxInFlight);
+        }
+
+        /**
+         * Submit transfer job. Blocks if the maximum number of queued/running transfers has been reached.
+         */
+        public void submit(final TransferJob job) throws Exception
+        {
+            checkAborted();
+
+            inFlight.acquire();
+
+            synchronized(this)
+            {
+                numPending++;
+            }
+
+            Runnable runner=new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        if (isAborted()==false)
+                            job.doTransfer();
+                    }
+                    catch (Throwable t)
+                    {
+                        setException(t);
+                    }
+                    finally
+                    {
+                        inFlight.release();
+                        jobDone();
+                    }
+                }
+            };
+
+            try
+            {
+                executor.execute(runner);
+            }
+            catch (RuntimeException e)
+            {
+                inFlight.release();
+                jobDone();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns true if a transfer failed or the VFSTransfer has been cancelled.
+         */
+        public boolean isAborted()
+        {
+            synchronized(this)
+            {
+                if (exception!=null)
+                    return true;
+            }
+
+            return transfer.isCancelled();
+        }
+
+        /**
+         * Throws the first exception of this batch or an interrupted exception if the transfer
+         * has been cancelled.
+         */
+        public void checkAborted() throws Exception
+        {
+            Throwable ex=getException();
+
+            if (ex instanceof Exception)
+                throw (Exception)ex;
+            else if (ex!=null)
+                throw new Exception(ex.getMessage(),ex);
+
+            if (transfer.isCancelled())
+                throw new NestedInterruptedException("Cancelled!");
+        }
+
+        /**
+         * Abort batch with the specified exception. Transfers which haven't started yet will be skipped.
+         */
+        public void abort(Throwable cause)
+        {
+            setException(cause);
+        }
+
+        public synchronized Throwable getException()
+        {
+            return exception;
+        }
+
+        private synchronized void setException(Throwable t)
+        {
+            if (this.exception==null)
+            {
+                this.exception=t;
+            }
+            else
+            {
+                logger.debugPrintf("Ignoring subsequent exception:%s\n",t);
+            }
+        }
+
+        private synchronized void jobDone()
+        {
+            numPending--;
+            this.notifyAll();
+        }
+
+        public synchronized int getNumPending()
+        {
+            return numPending;
+        }
+
+        /**
+         * Wait until all submitted transfers have finished and rethrow the first exception, if any.
+         */
+        public void waitForAll() throws Exception
+        {
+            synchronized(this)
+            {
+                try
+                {
+                    while(numPending>0)
+                    {
+                        this.wait();
+                    }
+                }
+                finally
+                {
+                    // pool may be removed when idle, running transfers are checked as well.
+                    if (closed==false)
+                    {
+                        closed=true;
+                        batchClosed();
+                    }
+                }
+            }
+
+            checkAborted();
+        }
+    }
+
+}
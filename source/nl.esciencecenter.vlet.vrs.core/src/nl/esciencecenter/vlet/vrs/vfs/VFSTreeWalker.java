@@ -0,0 +1,321 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.vlet.vrs.vfs;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import nl.esciencecenter.ptk.net.URIFactory;
+import nl.esciencecenter.ptk.task.ITaskMonitor;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.exception.NestedInterruptedException;
+import nl.esciencecenter.vlet.vrs.VComposite;
+import nl.esciencecenter.vlet.vrs.VNode;
+import nl.esciencecenter.vlet.vrs.io.VSize;
+import nl.esciencecenter.vlet.vrs.vrl.VRLUtil;
+
+/**
+ * Streaming depth-first tree walker.
+ * <p>
+ * Returns the contents of a (V)Composite resource one node at a time.
+ * Directories are listed lazily: a directory is returned before its contents and
+ * is only listed when the next node is requested, so the caller can process (create)
+ * the directory first. Only the listings of the directories on the current path
+ * are kept in memory, instead of the whole tree as {@link VRSTransferManager#listRecursive}
+ * does.
+ * <p>
+ * If the monitor is a VFSTransfer, the total amount of work (bytes) and the sources are
+ * updated as each directory is listed.
+ * <p>
+ * Optionally the transport VRLs of the next files to be returned are prefetched when the
+ * file system is {@link VBulkTransportable}, so they are being resolved while the previous 
+ * files are transferred. The look-ahead is bounded, so no more files are pinned than the 
+ * caller has in flight. 
+ * <p>
+ * Since directories are listed while the tree is being walked, nothing may be created inside 
+ * the walked tree by the caller. Check with {@link #isInTree(VRL, VRL)}. 
+ */
+public class VFSTreeWalker
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(VFSTreeWalker.class);
+    }
+
+    /** Default number of nodes of which the transport VRLs are prefetched ahead */
+    public static final int DEFAULT_PREFETCH_WINDOW=16;
+
+    /** Listed directory contents of which the nodes are being returned */
+    private static class DirFrame
+    {
+        final VComposite dir;
+
+        VNode nodes[];
+
+        int index=0;
+
+        /** Index of the first node which hasn't been prefetched */
+        int prefetchIndex=0;
+
+        DirFrame(VComposite dir,VNode nodes[])
+        {
+            this.dir=dir;
+            this.nodes=nodes;
+        }
+    }
+
+    /**
+     * Returns true if location is the directory itself or is located in its directory tree.
+     * Copying a directory to such a location while walking it would never end, since the 
+     * walker would descend into the copies as well.  
+     */
+    public static boolean isInTree(VRL dirVRL,VRL location)
+    {
+        if (VRLUtil.hasSameServer(dirVRL,location)==false)
+            return false; 
+        
+        String dirPath=normalizePath(dirVRL.getPath()); 
+        String path=normalizePath(location.getPath()); 
+        
+        if (dirPath.equals(path))
+            return true; 
+        
+        if (dirPath.endsWith("/")==false)
+            dirPath=dirPath+"/"; 
+        
+        return path.startsWith(dirPath); 
+    }
+    
+    private static String normalizePath(String path)
+    {
+        if ((path==null) || (path.length()<=0))
+            return "/"; 
+        
+        path=URIFactory.uripath(path); 
+        
+        // strip trailing slash except for root 
+        while ((path.length()>1) && path.endsWith("/"))
+            path=path.substring(0,path.length()-1); 
+        
+        return path; 
+    }
+    
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private ITaskMonitor monitor;
+
+    private LinkedList<DirFrame> dirStack=new LinkedList<DirFrame>();
+
+    /** Directory returned by the previous call, to be listed at the next call */
+    private VComposite pendingDir;
+
+    private long numNodes=0;
+
+    private long numDirs=0;
+
+    private long totalSize=0;
+
+    /** Number of nodes ahead of the returned node of which the transport VRLs are prefetched, 0=disabled */
+    private int prefetchWindow=0;
+
+    /** File systems of which transport VRLs have been prefetched */
+    private List<VBulkTransportable> prefetchingFileSystems=new ArrayList<VBulkTransportable>();
+
+    public VFSTreeWalker(ITaskMonitor monitor,VComposite sourceDir)
+    {
+        this.monitor=monitor;
+        this.pendingDir=sourceDir;
+    }
+
+    /**
+     * Prefetch the transport VRLs of the next nodes if the file system supports it. 
+     * At most window nodes ahead of the returned node are prefetched, which should 
+     * match the number of transfers the caller has in flight. 
+     * @param window number of nodes to prefetch ahead, 0 disables prefetching. 
+     * @see VBulkTransportable
+     */
+    public void setPrefetchTransportVRLs(int window)
+    {
+        this.prefetchWindow=Math.max(0,window);
+    }
+
+    /**
+     * Returns next node or NULL if the whole tree has been walked.
+     * The source directory itself is not returned.
+     */
+    public VNode nextNode() throws Exception
+    {
+        while (true)
+        {
+            if ((monitor!=null) && (monitor.isCancelled()))
+                throw new NestedInterruptedException("Interrupted");
+
+            if (pendingDir!=null)
+            {
+                VComposite dir=pendingDir;
+                pendingDir=null;
+                listDir(dir);
+            }
+
+            if (dirStack.isEmpty())
+                return null;
+
+            DirFrame frame=dirStack.getFirst();
+
+            if (frame.index>=frame.nodes.length)
+            {
+                dirStack.removeFirst();
+                continue;
+            }
+
+            if (prefetchWindow>0)
+                prefetchAhead(frame);
+
+            VNode node=frame.nodes[frame.index];
+            // release processed node
+            frame.nodes[frame.index++]=null;
+
+            if (node==null)
+                continue;
+
+            if (node instanceof VComposite)
+                pendingDir=(VComposite)node;
+
+            numNodes++;
+            return node;
+        }
+    }
+
+    private void listDir(VComposite dir) throws Exception
+    {
+        VNode nodes[]=dir.getNodes();
+        numDirs++;
+
+        if ((nodes==null) || (nodes.length<=0))
+            return;
+
+        long sumSizes=0;
+
+        for (VNode node:nodes)
+        {
+            if ((node instanceof VComposite)==false)
+            {
+                if (node instanceof VSize)
+                    sumSizes+=((VSize)node).getLength();
+            }
+        }
+
+        totalSize+=sumSizes;
+
+        // update monitoring as we work !
+        if (monitor instanceof VFSTransfer)
+        {
+            VFSTransfer transfer=(VFSTransfer)monitor;
+            transfer.addWorkTodo(sumSizes);
+            transfer.updateSources(nodes);
+        }
+
+        dirStack.addFirst(new DirFrame(dir,nodes));
+    }
+
+    /** Prefetch the nodes in the window after the current node. */
+    private void prefetchAhead(DirFrame frame)
+    {
+        // refill when half of the window has been returned, so each prefetch covers at least half a window
+        if (frame.prefetchIndex-frame.index>prefetchWindow/2)
+            return;
+
+        int end=Math.min(frame.nodes.length,frame.index+prefetchWindow);
+
+        if (end<=frame.prefetchIndex)
+            return;
+
+        VNode ahead[]=new VNode[end-frame.prefetchIndex];
+        System.arraycopy(frame.nodes,frame.prefetchIndex,ahead,0,ahead.length);
+        frame.prefetchIndex=end;
+
+        prefetchTransportVRLs(frame.dir,ahead);
+    }
+
+    private void prefetchTransportVRLs(VComposite dir,VNode nodes[])
+    {
+        if ((dir instanceof VFSNode)==false)
+            return;
+
+        VFileSystem fs=((VFSNode)dir).getFileSystem();
+
+        if ((fs instanceof VBulkTransportable)==false)
+            return;
+
+        VBulkTransportable bulkFS=(VBulkTransportable)fs;
+
+        if (prefetchingFileSystems.contains(bulkFS)==false)
+            prefetchingFileSystems.add(bulkFS);
+
+        try
+        {
+            bulkFS.prefetchTransportVRLs(monitor,nodes);
+        }
+        catch (VrsException e)
+        {
+            // optimization only: transport VRLs will be resolved per file.
+            logger.warnPrintf("Failed to prefetch transport VRLs of:%s:%s\n",dir,e);
+        }
+    }
+
+    /**
+     * Release the prefetched transport VRLs, for example the pinned SRM files.
+     * Must be called when the transfer of the returned nodes has ended.
+     */
+    public void releaseTransportVRLs()
+    {
+        for (VBulkTransportable fs:prefetchingFileSystems)
+            fs.releaseTransportVRLs(monitor);
+
+        prefetchingFileSystems.clear();
+    }
+
+    /** Number of nodes returned so far */
+    public long getNumNodes()
+    {
+        return numNodes;
+    }
+
+    /** Number of directories listed so far, including the source directory */
+    public long getNumDirs()
+    {
+        return numDirs;
+    }
+
+    /** Sum of the sizes of all files discovered so far */
+    public long getTotalSize()
+    {
+        return totalSize;
+    }
+}
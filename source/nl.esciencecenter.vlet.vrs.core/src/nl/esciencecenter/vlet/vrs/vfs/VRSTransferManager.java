@@ -50,10 +50,12 @@ import nl.esciencecenter.vlet.vrs.events.ResourceEvent;
 import nl.esciencecenter.vlet.vrs.io.VSize;
 import nl.esciencecenter.vlet.vrs.io.VStreamReadable;
 import nl.esciencecenter.vlet.vrs.tasks.VRSTaskWatcher;
+import nl.esciencecenter.vlet.vrs.tasks.VRSTaskWatcher.TaskPool;
 import nl.esciencecenter.vlet.vrs.ui.ICopyInteractor;
 import nl.esciencecenter.vlet.vrs.ui.ICopyInteractor.InteractiveAction;
 import nl.esciencecenter.vlet.vrs.util.VRSIOUtil;
 import nl.esciencecenter.vlet.vrs.vdriver.http.HTTPNode;
+import nl.esciencecenter.vlet.vrs.vdriver.http.HTTPSegmentedDownload;
 import nl.esciencecenter.vlet.vrs.vfs.VFileActiveTransferable.ActiveTransferType;
 import nl.esciencecenter.vlet.vrs.vrl.VRLUtil;
 import nl.esciencecenter.vlet.vrs.vrms.VLogicalResource;
@@ -595,7 +597,7 @@ public final class VRSTransferManager
         };
         
         //transferTask.setTaskMonitor(transfer); // set taskmonitor ! 
-        transferTask.startTask(); 
+        getTaskWatcher().submitTask(transferTask,TaskPool.TRANSFER,(vrls.length>0)?vrls[0]:null); 
         return transfer; 
     }
     
@@ -673,7 +675,7 @@ public final class VRSTransferManager
     			// This Action Task will contain (as in own) the VFSTransferMonitor
     		// It can be fetched using ActionTask.getCurrentThreadActionTask();
     		//transferTask.setTaskMonitor(transfer); // set taskmonitor ! 
-    		transferTask.startTask(); 
+    		getTaskWatcher().submitTask(transferTask,TaskPool.TRANSFER,node.getVRL()); 
     
     		return transfer; 
 	    }
@@ -966,6 +968,24 @@ public final class VRSTransferManager
         }
     }
 
+	/**
+	 * Download HTTP resource to a local file using concurrent range requests. 
+	 * Returns false if the target isn't local, the server doesn't support range requests 
+	 * or the resource is small. Nothing has been written then.  
+	 * @throws VrsException if the download failed. The partially written file has been deleted then. 
+	 * @see VletConfig#PROP_HTTP_DOWNLOAD_SEGMENTS
+	 */ 
+	protected boolean doSegmentedDownload(VFSTransfer transfer,HTTPNode sourceNode,VFile destFile) throws VrsException
+	{
+	    if (destFile.isLocal()==false)
+	        return false; 
+	    
+	    int maxSegments=vrsContext.getIntProperty(VletConfig.PROP_HTTP_DOWNLOAD_SEGMENTS,
+	            HTTPSegmentedDownload.DEFAULT_MAX_SEGMENTS); 
+	    
+	    return new HTTPSegmentedDownload(sourceNode,transfer,destFile,maxSegments).download(); 
+	}
+	
 	protected VFile putAnyNode(VDir dir, VNode sourceNode, String optNewName,
 			boolean isMove)  throws VrsException
 	{
@@ -998,7 +1018,28 @@ public final class VRSTransferManager
 			if ((sourceNode instanceof VDeletable)==false)
 				throw new ResourceTypeMismatchException("Source is not deletable, cannot move it (use copy instead):"+sourceNode); 
 
-		doStreamCopy(transfer,sourceNode,destFile);
+		boolean downloaded=false; 
+		
+		if (sourceNode instanceof HTTPNode)
+		{
+		    try
+		    {
+		        downloaded=doSegmentedDownload(transfer,(HTTPNode)sourceNode,destFile); 
+		    }
+		    catch (NestedInterruptedException e)
+		    {
+		        throw e; 
+		    }
+		    catch (VrsException e)
+		    {
+		        // partial file has been deleted: try again with a single stream. 
+		        logger.warnPrintf("Segmented download failed, using single stream for:%s:%s\n",sourceNode,e); 
+		        transfer.logPrintf("HTTP: Segmented download failed, using single stream:\n - %s\n",e.getMessage()); 
+		    }
+		}
+		
+		if (downloaded==false)
+		    doStreamCopy(transfer,sourceNode,destFile);
 
 		if (isMove) 
 		{
@@ -1153,9 +1194,13 @@ public final class VRSTransferManager
 //	}
 
 	/** 
-	 * Heap Directory copy, first get all the contents, calculates statistics, then performs the heap copy
+	 * Heap Directory copy. The contents of the source directory are walked depth-first
+	 * while copying, so the transfer starts as soon as the first entries are known. 
+	 * Statistics are updated as each directory is listed.  
 	 * The TargetDirVRL specifies the target directory as to be created. It is NOT the parent 
-	 * of the target directory !  
+	 * of the target directory !
+	 * 
+	 * @see VFSTreeWalker   
 	 */ 
 	protected VDir doHeapDirCopy(VFSTransfer newTransfer,
 			VDir sourceDir,
@@ -1169,43 +1214,23 @@ public final class VRSTransferManager
 			throw new NestedInterruptedException("Cancelled!"); 
 		}
 
-		// =======================================
-		// === Pre Stage: get contents in one heap 
-		// =======================================
-
-		newTransfer.logPrintf("Checking contents of directory: '%s'\n",sourceDir.getBasename());  
-		newTransfer.startSubTask("Reading contents",1); 
-
-		LongHolder sizeHolder=new LongHolder(); 
-		// depth first tree walk. 
-		Vector<VNode>vnodeHeap=new Vector<VNode>(); 
-        
-		listRecursive(newTransfer,sourceDir,vnodeHeap,sizeHolder,true); 
+		newTransfer.logPrintf("Copying contents of directory: '%s'\n",sourceDir.getBasename());  
 
-		// convert VNode to VFSNode since the source is always a VDir!
-		
-		Vector<VFSNode>heap=new Vector<VFSNode>(); 
-		for (int i=0;i<vnodeHeap.size();i++)
-		{
-		    heap.add((VFSNode)vnodeHeap.get(i)); 
-		}
-		
-		newTransfer.updateSubTaskDone(1); 
-		newTransfer.endSubTask("Reading contents");
-		newTransfer.logPrintf("Total contents to copy is: #"+heap.size()+" files and directories ("+sizeHolder.value+" bytes)\n");
-		long todo=sizeHolder.value; 
-		
 		long totalWorkStart=newTransfer.getTotalWorkTodo();
 		if (totalWorkStart<0)
 		    totalWorkStart=0;
 		
-		// INCREMENT extra work: 
-		newTransfer.setTotalWorkTodo(totalWorkStart+todo); 
-
 		// =======================================
 		// Heap Copy  
 		// =======================================
 
+		// the tree is listed while copying: the copy may not be created inside the source tree. 
+		if (VFSTreeWalker.isInTree(sourceDir.getVRL(),targetDirVRL))
+		{
+		    throw new ResourceCreationFailedException("Cannot copy directory into itself or into one of its subdirectories:\n"
+		            +" - source="+sourceDir.getVRL()+"\n - destination="+targetDirVRL); 
+		}
+		
 		// default copyMove behaviour is to overwrite existing directories 
 
 		VDir targetDir=targetFS.newDir(targetDirVRL);
@@ -1221,85 +1246,115 @@ public final class VRSTransferManager
 				ResourceEvent.createChildAddedEvent(targetDir.getVRL(), targetDir.getVRL())); 
 
 		newTransfer.logPrintf("Preforming heap copy of:'"+sourceDir+"'\n");
-		newTransfer.startTask("Preforming heap copy of:"+sourceDir.getName(),sizeHolder.value);
+		newTransfer.startTask("Preforming heap copy of:"+sourceDir.getName(),totalWorkStart);
+		// Total work is incremented by the tree walker: 
+		newTransfer.setTotalWorkTodo(totalWorkStart); 
+		
+		// depth first tree walk. 
+		VFSTreeWalker walker=new VFSTreeWalker(newTransfer,sourceDir); 
 		
 		//
 		// Bulk Copy Optimalization Here ? 
 		// targetFS.bulkCopy(tagetDirVRL,nodes); 
 		//
-		int index=heap.size(); 
-
-		for (index=0;index<heap.size();index++)
+		VFSTransferPool.TransferBatch batch=null; 
+		int prefetchWindow=VFSTreeWalker.DEFAULT_PREFETCH_WINDOW; 
+		
+		if (useParallelCopy())
 		{
-			VNode node=heap.get(index); 
-
-			if (newTransfer.isCancelled())
-				throw new NestedInterruptedException("Cancelled!"); 
-
-			if ((node==null) || (node.equals(sourceDir)))
-				continue; // first element = sourceDir! ; 
-
-			// get relative path starting from source directory path: 
-			String relPath=VRLUtil.isSubPath(sourceDir.getPath(),node.getPath());
-			// full path VRL of directory or file: 
-			VRL targetPath=targetDir.resolvePath(relPath);
-
-			debugPrintf("Relative Path=%s\n",relPath);
-			debugPrintf("Target Path=%s\n",targetPath);
-
-			if (node instanceof VDir) 
-			{
-				VDir resultDir = targetFS.newDir(targetPath); 
-				result=resultDir.create(true); 
-				 
-				newTransfer.logPrintf("Created new directory:'"+resultDir+"'\n");
-				// asynchronous update
-				this.fireNewChild(resultDir.getVRL().getParent(),resultDir.getVRL()); 
-			}
-			else if (node instanceof VFile) 
-			{
-				// tasks[i]=new ActionTask(){  doTask(...
-				VFile file=(VFile)node;
-				VFile targetFile=targetFS.newFile(targetPath);
-				
-				// update subTask ! 
-				debugPrintf("file copy:%s to: %s\n",file,targetFile); 
-
-				BooleanHolder skipH=new BooleanHolder(false); 
-				
-		        if (interactor!=null)
-		        	targetFile=checkTarget(interactor,file,targetFile,skipH);
-		        
-		        if (skipH.value!=true)
-		        {
-		        	masterFileCopyMove(newTransfer,file, targetFile, false);
-		        }
-				// masterFileCopyMove will update subTask done ! 
-				//masterFileCopyMove(newTransfer,file, targetFile, false);
-				//targetFile=this.interactiveCopyMove(newTransfer, file,targetFile, false, interactor); 
-				
-				//file.doCopyMoveTo(transfer,newVDir,null,isMove);
-				long len=file.getLength(); 
-				// update with file size:
-				long newSize=newTransfer.getTotalWorkDone()+len;
-				// when transferring a directory total work done 
-				// is total amount of bytes transferred. 
-				newTransfer.updateWorkDone(newSize);
-				// asynchronous update
-				this.fireNewChild(targetFile.getVRL().getParent(),targetFile.getVRL());
-				
-				if (skipH.value!=true)
-		        {
-					newTransfer.logPrintf("Copied file:'%s' (size=%d)\n",targetFile,len);
-		        }
-		        else
-		        {
-		        	newTransfer.logPrintf("Skipped file:'%s'\n",targetFile);
-		        }
-		        
-			}
-
-			newTransfer.addSourcesDone(1); // increment;  
+		    int maxWorkers=getParallelCopyWorkers(); 
+		    batch=VFSTransferPool.getPoolFor(targetFS,maxWorkers).createBatch(newTransfer,2*maxWorkers); 
+		    prefetchWindow=2*maxWorkers; 
+		    newTransfer.logPrintf("Using max %d concurrent file transfers.\n",maxWorkers); 
+		}
+		
+		// resolve transport VRLs (SRM TURLs) in batches, only pin the files which are about to be transferred. 
+		if (sourceDir.getFileSystem() instanceof VBulkTransportable)
+		    walker.setPrefetchTransportVRLs(prefetchWindow); 
+		
+		try
+		{
+    		VNode node; 
+    
+    		while ((node=walker.nextNode())!=null) 
+    		{
+    			if (newTransfer.isCancelled())
+    				throw new NestedInterruptedException("Cancelled!"); 
+    			
+    			if (batch!=null)
+    			    batch.checkAborted(); 
+    
+    			// get relative path starting from source directory path: 
+    			String relPath=VRLUtil.isSubPath(sourceDir.getPath(),node.getPath());
+    			// full path VRL of directory or file: 
+    			VRL targetPath=targetDir.resolvePath(relPath);
+    
+    			debugPrintf("Relative Path=%s\n",relPath);
+    			debugPrintf("Target Path=%s\n",targetPath);
+    
+    			if (node instanceof VDir) 
+    			{
+    			    // Directories are always created by this thread. Since the walker returns 
+    			    // a directory before its contents, a directory exists before 
+    			    // any of its files are handed to a worker. 
+    				VDir resultDir = targetFS.newDir(targetPath); 
+    				result=resultDir.create(true); 
+    				 
+    				newTransfer.logPrintf("Created new directory:'"+resultDir+"'\n");
+    				// asynchronous update
+    				this.fireNewChild(resultDir.getVRL().getParent(),resultDir.getVRL()); 
+    				newTransfer.addSourcesDone(1); // increment;  
+    			}
+    			else if (node instanceof VFile) 
+    			{
+    				VFile file=(VFile)node;
+    				VFile targetFile=targetFS.newFile(targetPath);
+    				
+    				// update subTask ! 
+    				debugPrintf("file copy:%s to: %s\n",file,targetFile); 
+    
+    				BooleanHolder skipH=new BooleanHolder(false); 
+    				
+    				// interactive checks are never done by the workers. 
+    		        if (interactor!=null)
+    		        	targetFile=checkTarget(interactor,file,targetFile,skipH);
+    		        
+    		        if (batch==null)
+    		        {
+    		            doHeapFileCopy(newTransfer,newTransfer,file,targetFile,skipH.value); 
+    		        }
+    		        else
+    		        {
+    		            submitHeapFileCopy(batch,newTransfer,file,targetFile,skipH.value); 
+    		        }
+    			}
+    			else
+    			{
+    			    newTransfer.addSourcesDone(1); // increment;  
+    			}
+    		}
+    		
+    		if (batch!=null)
+    		    batch.waitForAll(); 
+    		
+    		newTransfer.logPrintf("Total contents copied is: #%d files and directories (%d bytes)\n",
+    		        walker.getNumNodes(),walker.getTotalSize());
+		}
+		catch (Exception e)
+		{
+		    if (batch!=null)
+		    {
+		        // skip queued transfers and wait for running ones before returning. 
+		        batch.abort(e); 
+		        waitForBatchQuietly(batch); 
+		    }
+		    
+		    throw e; 
+		}
+		finally
+		{
+		    // all file transfers have ended: unpin the prefetched files. 
+		    walker.releaseTransportVRLs(); 
 		}
 
 		// ====
@@ -1310,6 +1365,94 @@ public final class VRSTransferManager
 		return targetDir; 
 	}
 
+	/**
+	 * Performs the file copy of a single directory entry and updates the statistics of the 
+	 * (parent) directory transfer.
+	 * @param dirTransfer the directory transfer to update 
+	 * @param fileTransfer the transfer to use for this file. Might be the same as dirTransfer. 
+	 */ 
+	protected void doHeapFileCopy(VFSTransfer dirTransfer,
+	        VFSTransfer fileTransfer,
+	        VFile file,
+	        VFile targetFile,
+	        boolean skip) throws Exception
+	{
+	    // masterFileCopyMove will update subTask done ! 
+	    if (skip==false)
+	        masterFileCopyMove(fileTransfer,file, targetFile, false);
+        
+        long len=file.getLength(); 
+        // when transferring a directory total work done 
+        // is total amount of bytes transferred. 
+        dirTransfer.addWorkDone(len);
+        // asynchronous update
+        this.fireNewChild(targetFile.getVRL().getParent(),targetFile.getVRL());
+        
+        if (skip==false)
+        {
+            dirTransfer.logPrintf("Copied file:'%s' (size=%d)\n",targetFile,len);
+        }
+        else
+        {
+            dirTransfer.logPrintf("Skipped file:'%s'\n",targetFile);
+        }
+        
+        dirTransfer.addSourcesDone(1); // increment;  
+	}
+	
+	/**
+	 * Submit heap file copy to the worker pool. Each worker uses its own worker transfer 
+	 * for the sub task statistics which follows the cancel state of the directory transfer.   
+	 */ 
+	protected void submitHeapFileCopy(VFSTransferPool.TransferBatch batch,
+	        final VFSTransfer dirTransfer,
+	        final VFile file,
+	        final VFile targetFile,
+	        final boolean skip) throws Exception
+	{
+	    batch.submit(new VFSTransferPool.TransferJob()
+	    {
+	        public void doTransfer() throws Exception
+	        {
+	            VFSTransfer fileTransfer=dirTransfer.createWorkerTransfer(file.getVRL(),targetFile.getVRL()); 
+	            doHeapFileCopy(dirTransfer,fileTransfer,file,targetFile,skip);
+	        }
+	    });
+	}
+	
+	private void waitForBatchQuietly(VFSTransferPool.TransferBatch batch)
+	{
+	    try
+	    {
+	        batch.waitForAll(); 
+	    }
+	    catch (Exception e)
+	    {
+	        logger.debugPrintf("Ignoring exception of aborted transfer batch:%s\n",e);
+	    }
+	}
+	
+	/** 
+	 * Whether directory copies may perform concurrent file transfers. 
+	 * @see VletConfig#PROP_VFS_PARALLEL_COPY
+	 */ 
+	protected boolean useParallelCopy()
+	{
+	    if (vrsContext.getBoolProperty(VletConfig.PROP_VFS_PARALLEL_COPY,true)==false)
+	        return false; 
+	    
+	    return (getParallelCopyWorkers()>1); 
+	}
+	
+	/**
+	 * Maximum number of concurrent file transfers per destination file system. 
+	 * @see VletConfig#PROP_VFS_PARALLEL_COPY_WORKERS
+	 */ 
+	protected int getParallelCopyWorkers()
+	{
+	    return vrsContext.getIntProperty(VletConfig.PROP_VFS_PARALLEL_COPY_WORKERS,VFS.DEFAULT_PARALLEL_COPY_WORKERS); 
+	}
+	
 	/**
 	 * List directory contents and build heap. 
 	 * Returns heap of VNode so all (V)Composite resources can be listed. 
@@ -45,6 +45,7 @@ import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.VletConfig;
 import nl.esciencecenter.vlet.exception.InitializationException;
+import nl.esciencecenter.vlet.util.PropertiesFileStore;
 import nl.esciencecenter.vlet.vrs.VRSContext;
 
 /** 
@@ -323,22 +324,22 @@ public class ConfigManager
         return infoStr; 
     }
 
+    /**
+     * Returns copy of the user properties from $HOME/.vletrc/vletrc.prop. 
+     * The file is only reloaded when it has been modified. 
+     */ 
     public Properties getUserProperties()
     {
-        VRL loc = getUserPropertiesLocation();
-
-        try
-        {
-            // Persistance Properties Always Reload ! 
-            return VletConfig.staticLoadProperties(loc); 
-        }   
-        catch (VrsException e)
-        {
-            // handle(e); 
-            logger.debugPrintf("Warning. Error when loading persistant properties:%s\n",e);
-        }   
+        return getUserPropertiesStore().getProperties(); 
+    }
 
-        return new Properties(); // return empty properties; 
+    /** 
+     * Returns the cached user properties. Use the typed getters of the store 
+     * to read single user properties.  
+     */ 
+    public PropertiesFileStore getUserPropertiesStore()
+    {
+        return VletConfig.getUserPropertiesStore(); 
     }
 
     public int getIntProperty(String name, int defaultVal)
@@ -508,7 +509,7 @@ public class ConfigManager
     {
         try
         {
-            VletConfig.staticSaveProperties(getUserPropertiesLocation(), "VLET user properties:  vletrc.prop",properties);
+            getUserPropertiesStore().setProperties(properties);
         }   
         catch (Throwable e)
         {
@@ -521,31 +522,20 @@ public class ConfigManager
     /**
      * Set user settings and write to $HOME/.vletrc/vletrc.prop. 
      * If value is empty ("") or NULL the settings entry will be removed ! 
+     * <p>
+     * The new value is visible immediately, but the file is written in the background
+     * up to 500ms later (PropertiesFileStore.DEFAULT_WRITE_DELAY), multiple updates 
+     * are written at once. Write failures are only logged, they are not reported 
+     * to the caller. Use getUserPropertiesStore().flush() to write the file now. 
      */ 
 
     public void setUserProperty(String name,String value)
     {
-        Properties props = getUserProperties();
-
-        boolean clear=false;
-
         //null means unset property:
         if ((value==null) || (value.compareTo("")==0))
-        {
-            clear=true; 
-            value="";
-        }
-
-        // Secure: nullify first (clear memory)
-        props.setProperty(name,value);
-
-        if (clear)
-        {
-            // remove empty object 
-            props.remove(name);
-        }
+            value=null;
 
-        saveUserProperties(props); 
+        getUserPropertiesStore().setProperty(name,value); 
     }
 
     public boolean setIncomingFireWallPortRange(String rangestr)
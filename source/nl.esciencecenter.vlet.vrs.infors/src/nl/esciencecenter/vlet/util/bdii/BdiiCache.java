@@ -0,0 +1,651 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.vlet.util.bdii;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vbrowser.vrs.data.Attribute;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.VletConfig;
+import nl.esciencecenter.vlet.util.bdii.ServiceInfo.ServiceInfoType;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+
+/**
+ * TTL based cache of BDII query results.
+ * <p>
+ * Entries which are older than their TTL are stale: a stale entry is still returned while it is refreshed on a
+ * background thread (stale-while-revalidate). Concurrent requests for the same key share one query.
+ * The cache can be saved to and restored from a properties file, so the information survives a restart.
+ * Only ServiceInfo objects and lists of ServiceInfo or StorageArea objects are saved.
+ */
+public class BdiiCache
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger = ClassLogger.getLogger(BdiiCache.class);
+    }
+
+    /** Default TTL for VO queries: one hour */
+    public static final long DEFAULT_TTL = 60 * 60 * 1000;
+
+    /** Default TTL for service lookups by hostname, which hardly change: one day */
+    public static final long DEFAULT_SERVICE_TTL = 24 * 60 * 60 * 1000;
+
+    /** Stale entries older than this are not returned anymore but queried again: one week */
+    public static final long MAX_STALE_TIME = 7L * 24 * 60 * 60 * 1000;
+
+    /** Query the actual BDII information */
+    public static interface Loader<T>
+    {
+        /** Returns the query result. NULL results are not cached. */
+        public T load() throws VrsException;
+    }
+
+    private static class Entry
+    {
+        final Object value;
+
+        final long loadTime;
+
+        final long ttl;
+
+        Entry(Object value, long loadTime, long ttl)
+        {
+            this.value = value;
+            this.loadTime = loadTime;
+            this.ttl = ttl;
+        }
+
+        boolean isStale(long now)
+        {
+            return (now - loadTime > ttl);
+        }
+    }
+
+    /** Query in progress. Other requests for the same key wait for it. */
+    private static class Query
+    {
+        Object value = null;
+
+        VrsException exception = null;
+
+        boolean done = false;
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    /** Guarded by this */
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /** Queries in progress by key. Guarded by this */
+    private Map<String, Query> queries = new HashMap<String, Query>();
+
+    private ThreadPoolExecutor refresher = null;
+
+    private VRL cacheLocation = null;
+
+    /** ID of the BDII service, saved entries of other services are ignored */
+    private String serviceId = null;
+
+    private boolean savePending = false;
+
+    // metrics
+    private long numHits = 0;
+
+    private long numStaleHits = 0;
+
+    private long numMisses = 0;
+
+    private long numCoalesced = 0;
+
+    private long numRefreshes = 0;
+
+    public BdiiCache()
+    {
+    }
+
+    /**
+     * Get cached value or query it with the loader.
+     * <ul>
+     * <li>Fresh entry: returned.
+     * <li>Stale entry: returned and refreshed in the background.
+     * <li>No entry: queried. If the same key is already being queried, waits for that query.
+     * </ul>
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, long ttl, Loader<T> loader) throws VrsException
+    {
+        long now = System.currentTimeMillis();
+        Query query;
+        boolean isLoader = false;
+
+        synchronized (this)
+        {
+            Entry entry = entries.get(key);
+
+            if ((entry != null) && (now - entry.loadTime <= MAX_STALE_TIME))
+            {
+                if (entry.isStale(now) == false)
+                {
+                    numHits++;
+                    return (T) entry.value;
+                }
+
+                numStaleHits++;
+                refresh(key, ttl, loader);
+                return (T) entry.value;
+            }
+
+            query = queries.get(key);
+
+            if (query != null)
+            {
+                numCoalesced++;
+            }
+            else
+            {
+                numMisses++;
+                query = new Query();
+                queries.put(key, query);
+                isLoader = true;
+            }
+        }
+
+        if (isLoader)
+            return (T) doQuery(key, ttl, loader, query);
+
+        return (T) waitFor(query);
+    }
+
+    /** Refresh entry in the background unless it is already being queried */
+    private synchronized void refresh(final String key, final long ttl, final Loader<?> loader)
+    {
+        if (queries.containsKey(key))
+            return;
+
+        final Query query = new Query();
+        queries.put(key, query);
+        numRefreshes++;
+
+        getRefresher().execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    doQuery(key, ttl, loader, query);
+                }
+                catch (VrsException e)
+                {
+                    // keep stale entry
+                    logger.warnPrintf("Failed to refresh BDII information for:%s:%s\n", key, e);
+                }
+            }
+        });
+    }
+
+    /** Perform the query outside the cache lock and notify the waiting requests */
+    private Object doQuery(String key, long ttl, Loader<?> loader, Query query) throws VrsException
+    {
+        Object value = null;
+        VrsException exception = null;
+
+        try
+        {
+            value = loader.load();
+        }
+        catch (VrsException e)
+        {
+            exception = e;
+        }
+        catch (RuntimeException e)
+        {
+            exception = new BdiiException("Query failed for:" + key, e);
+        }
+
+        synchronized (this)
+        {
+            queries.remove(key);
+
+            if (value != null)
+            {
+                entries.put(key, new Entry(value, System.currentTimeMillis(), ttl));
+                scheduleSave();
+            }
+
+            query.value = value;
+            query.exception = exception;
+            query.done = true;
+            this.notifyAll();
+        }
+
+        if (exception != null)
+            throw exception;
+
+        return value;
+    }
+
+    private Object waitFor(Query query) throws VrsException
+    {
+        synchronized (this)
+        {
+            try
+            {
+                while (query.done == false)
+                    this.wait();
+            }
+            catch (InterruptedException e)
+            {
+                throw new BdiiException("Interrupted while waiting for BDII query.", e);
+            }
+
+            if (query.exception != null)
+                throw query.exception;
+
+            return query.value;
+        }
+    }
+
+    /** Put value with the specified TTL */
+    public synchronized void put(String key, Object value, long ttl)
+    {
+        if (value == null)
+            return;
+
+        entries.put(key, new Entry(value, System.currentTimeMillis(), ttl));
+        scheduleSave();
+    }
+
+    public synchronized void remove(String key)
+    {
+        entries.remove(key);
+        scheduleSave();
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+        scheduleSave();
+    }
+
+    private synchronized ThreadPoolExecutor getRefresher()
+    {
+        if (refresher == null)
+        {
+            // BDII queries are slow, refresh one at a time.
+            refresher = DaemonThreadFactory.createFixedPool("BdiiCache.refresher", 1, 60);
+        }
+
+        return refresher;
+    }
+
+    // ========================================================================
+    // Persistence
+    // ========================================================================
+
+    /**
+     * Use the specified properties file to save the cache to and restore the saved entries from it.
+     * 
+     * @param location
+     *            properties file (file:/// location).
+     * @param serviceId
+     *            id of the BDII service. Saved entries of another service are ignored.
+     */
+    public void setCacheLocation(VRL location, String serviceId)
+    {
+        synchronized (this)
+        {
+            this.cacheLocation = location;
+            this.serviceId = serviceId;
+        }
+
+        load();
+    }
+
+    private void scheduleSave()
+    {
+        if ((cacheLocation == null) || (savePending))
+            return;
+
+        savePending = true;
+
+        // save in the background, multiple updates are saved at once.
+        getRefresher().execute(new Runnable()
+        {
+            public void run()
+            {
+                save();
+            }
+        });
+    }
+
+    /** Save the current entries. */
+    public void save()
+    {
+        Properties props = new Properties();
+        VRL location;
+
+        synchronized (this)
+        {
+            savePending = false;
+            location = cacheLocation;
+
+            if (location == null)
+                return;
+
+            props.setProperty("bdii.id", serviceId);
+            int index = 0;
+
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet())
+            {
+                Entry entry = mapEntry.getValue();
+                String prefix = "entry." + index + ".";
+
+                if (encodeValue(props, prefix, entry.value) == false)
+                    continue;
+
+                props.setProperty(prefix + "key", mapEntry.getKey());
+                props.setProperty(prefix + "time", "" + entry.loadTime);
+                props.setProperty(prefix + "ttl", "" + entry.ttl);
+                index++;
+            }
+
+            props.setProperty("bdii.numEntries", "" + index);
+        }
+
+        try
+        {
+            VletConfig.staticSaveProperties(location, "BDII information cache", props);
+        }
+        catch (VrsException e)
+        {
+            logger.warnPrintf("Couldn't save BDII cache to:%s:%s\n", location, e);
+        }
+    }
+
+    /** Restore saved entries. Entries in memory are not replaced. */
+    protected void load()
+    {
+        VRL location;
+
+        synchronized (this)
+        {
+            location = cacheLocation;
+        }
+
+        if (location == null)
+            return;
+
+        Properties props;
+
+        try
+        {
+            props = VletConfig.staticLoadProperties(location);
+        }
+        catch (VrsException e)
+        {
+            // not saved yet
+            logger.debugPrintf("Couldn't load BDII cache from:%s:%s\n", location, e);
+            return;
+        }
+
+        if (StringUtil.equals(props.getProperty("bdii.id"), serviceId) == false)
+        {
+            logger.infoPrintf("Ignoring BDII cache of other BDII service:%s\n", props.getProperty("bdii.id"));
+            return;
+        }
+
+        int num = getInt(props, "bdii.numEntries", 0);
+        long now = System.currentTimeMillis();
+        int numLoaded = 0;
+
+        synchronized (this)
+        {
+            for (int i = 0; i < num; i++)
+            {
+                String prefix = "entry." + i + ".";
+                String key = props.getProperty(prefix + "key");
+                long time = getLong(props, prefix + "time", 0);
+                long ttl = getLong(props, prefix + "ttl", DEFAULT_TTL);
+
+                if ((key == null) || (entries.containsKey(key)) || (now - time > MAX_STALE_TIME))
+                    continue;
+
+                try
+                {
+                    Object value = decodeValue(props, prefix);
+
+                    if (value != null)
+                    {
+                        entries.put(key, new Entry(value, time, ttl));
+                        numLoaded++;
+                    }
+                }
+                catch (Exception e)
+                {
+                    logger.warnPrintf("Skipping invalid BDII cache entry:%s:%s\n", key, e);
+                }
+            }
+        }
+
+        logger.infoPrintf("Loaded %d BDII cache entries from:%s\n", numLoaded, location);
+    }
+
+    private boolean encodeValue(Properties props, String prefix, Object value)
+    {
+        if (value instanceof ServiceInfo)
+        {
+            props.setProperty(prefix + "kind", "service");
+            return encodeService(props, prefix + "0.", (ServiceInfo) value);
+        }
+
+        if ((value instanceof List) == false)
+            return false;
+
+        List<?> list = (List<?>) value;
+        String kind = "list";
+
+        for (Object obj : list)
+        {
+            String objKind = (obj instanceof StorageArea) ? "storageareas" : (obj instanceof ServiceInfo) ? "services"
+                    : null;
+
+            if ((objKind == null) || ((kind.equals("list") == false) && (kind.equals(objKind) == false)))
+                return false;
+
+            ServiceInfo info = (obj instanceof StorageArea) ? getService((StorageArea) obj) : (ServiceInfo) obj;
+
+            if ((info == null) || (info.getHost() == null))
+                return false;
+
+            kind = objKind;
+        }
+
+        props.setProperty(prefix + "kind", kind);
+        props.setProperty(prefix + "size", "" + list.size());
+
+        for (int i = 0; i < list.size(); i++)
+        {
+            Object obj = list.get(i);
+
+            if (obj instanceof StorageArea)
+            {
+                StorageArea sa = (StorageArea) obj;
+                props.setProperty(prefix + i + ".vo", sa.getVO());
+                props.setProperty(prefix + i + ".path", sa.getStoragePath());
+                encodeService(props, prefix + i + ".", getService(sa));
+            }
+            else
+            {
+                encodeService(props, prefix + i + ".", (ServiceInfo) obj);
+            }
+        }
+
+        return true;
+    }
+
+    private ServiceInfo getService(StorageArea sa)
+    {
+        List<ServiceInfo> services = sa.getServices();
+
+        if ((services == null) || (services.isEmpty()))
+            return null;
+
+        return services.get(0);
+    }
+
+    private boolean encodeService(Properties props, String prefix, ServiceInfo info)
+    {
+        if (info.getHost() == null)
+            return false;
+
+        props.setProperty(prefix + "type", info.getServiceType().toString());
+
+        if (info.getScheme() != null)
+            props.setProperty(prefix + "protocol", info.getScheme());
+
+        props.setProperty(prefix + "host", info.getHost());
+        props.setProperty(prefix + "port", "" + info.getPort());
+
+        for (Attribute attr : info.getInfoAttributes().toArray(new Attribute[0]))
+        {
+            String value = attr.getStringValue();
+
+            if (value != null)
+                props.setProperty(prefix + "attr." + attr.getName(), value);
+        }
+
+        return true;
+    }
+
+    private Object decodeValue(Properties props, String prefix) throws VrsException
+    {
+        String kind = props.getProperty(prefix + "kind");
+
+        if (StringUtil.equals(kind, "service"))
+            return decodeService(props, prefix + "0.");
+
+        int size = getInt(props, prefix + "size", 0);
+
+        if (StringUtil.equals(kind, "storageareas"))
+        {
+            ArrayList<StorageArea> sas = new ArrayList<StorageArea>(size);
+
+            for (int i = 0; i < size; i++)
+            {
+                ServiceInfo info = decodeService(props, prefix + i + ".");
+                sas.add(new StorageArea(info, props.getProperty(prefix + i + ".vo"), props.getProperty(prefix + i
+                        + ".path")));
+            }
+
+            return sas;
+        }
+
+        if (StringUtil.equals(kind, "services") || StringUtil.equals(kind, "list"))
+        {
+            ArrayList<ServiceInfo> infos = new ArrayList<ServiceInfo>(size);
+
+            for (int i = 0; i < size; i++)
+                infos.add(decodeService(props, prefix + i + "."));
+
+            return infos;
+        }
+
+        return null;
+    }
+
+    private ServiceInfo decodeService(Properties props, String prefix) throws VrsException
+    {
+        ServiceInfoType type = ServiceInfoType.valueOf(props.getProperty(prefix + "type"));
+        ServiceInfo info = new ServiceInfo(type, props.getProperty(prefix + "protocol"),
+                props.getProperty(prefix + "host"), getInt(props, prefix + "port", 0));
+
+        String attrPrefix = prefix + "attr.";
+
+        for (String name : props.stringPropertyNames())
+        {
+            if (name.startsWith(attrPrefix))
+                info.addInfoAttribute(name.substring(attrPrefix.length()), props.getProperty(name));
+        }
+
+        return info;
+    }
+
+    private static int getInt(Properties props, String name, int defaultValue)
+    {
+        return (int) getLong(props, name, defaultValue);
+    }
+
+    private static long getLong(Properties props, String name, long defaultValue)
+    {
+        String value = props.getProperty(name);
+
+        if (value == null)
+            return defaultValue;
+
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
+
+    // ========================================================================
+    // Metrics
+    // ========================================================================
+
+    public synchronized int getSize()
+    {
+        return entries.size();
+    }
+
+    public synchronized String getStats()
+    {
+        return "BdiiCache:" + serviceId
+                + ":entries=" + entries.size()
+                + ",hits=" + numHits
+                + ",staleHits=" + numStaleHits
+                + ",misses=" + numMisses
+                + ",coalesced=" + numCoalesced
+                + ",refreshes=" + numRefreshes;
+    }
+
+    public String toString()
+    {
+        return getStats();
+    }
+}
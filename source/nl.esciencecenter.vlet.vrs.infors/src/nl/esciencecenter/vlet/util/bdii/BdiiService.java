@@ -24,7 +24,6 @@ package nl.esciencecenter.vlet.util.bdii;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.Map;
 import java.util.Vector;
 
@@ -36,6 +35,8 @@ import nl.esciencecenter.ptk.util.logging.ClassLogger;
 import nl.esciencecenter.vbrowser.vrs.data.Attribute;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VRLSyntaxException;
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.util.bdii.BdiiCache.Loader;
 import nl.esciencecenter.vlet.util.bdii.ServiceInfo.ServiceInfoType;
 import nl.esciencecenter.vlet.util.bdii.info.glue.GlueConstants;
 import nl.esciencecenter.vlet.util.bdii.info.glue.GlueObject;
@@ -44,7 +45,7 @@ import nl.esciencecenter.vlet.vrs.vrms.ConfigManager;
 
 /**
  * Bdii service for GLUE (ldap) database.
- * Caches queries. 
+ * Caches queries. See {@link BdiiCache}. 
  * 
  * @author S. Koulouzis
  */
@@ -83,7 +84,16 @@ public class BdiiService
 //        }
 
         logger.infoPrintf("Using BDII uri:%s\n", uri);
-        return new BdiiService(uri, proxyUri);
+        BdiiService service = new BdiiService(uri, proxyUri);
+
+        // keep BDII information between sessions.
+        if (conf.getUsePersistantUserConfiguration())
+        {
+            VRL cacheLoc = conf.getUserConfigDir().appendPath("bdiicache-" + bdiiHost + "-" + bdiiPort + ".prop");
+            service.cache.setCacheLocation(cacheLoc, uri.toString());
+        }
+
+        return service;
     }
 
     // ========================================================================
@@ -96,14 +106,11 @@ public class BdiiService
 
     private boolean useCaching = true;
 
-    // Hashmap of services with as key "<host>-<serviceType>"
-    private Map<String, ServiceInfo> _cachedServices = new Hashtable<String, ServiceInfo>();
-
-    // Mapping of VO to ArrayList of StorageAreas including ServiceInfos !
-    private Map<String, ArrayList<StorageArea>> cachedVOStorageAreas = new Hashtable<String, ArrayList<StorageArea>>();
-
-    // Mapping of VO to allowed LFCs
-    private Map<String, ArrayList<ServiceInfo>> cachedVOLFCs = new Hashtable<String, ArrayList<ServiceInfo>>();
+    // Cached query results. Keys:
+    // - "service-<serviceType>-<host>" for services
+    // - "sas-<vo>-<includeSRMV1>" for the StorageAreas (including ServiceInfos) of a VO
+    // - "lfcs-<vo>" for the allowed LFCs of a VO
+    private BdiiCache cache = new BdiiCache();
 
     // private Map<String, ArrayList<GlueObject>> cachedVOCE = new
     // Hashtable<String, ArrayList<GlueObject>>();
@@ -164,10 +171,24 @@ public class BdiiService
 
     public void clearCache()
     {
-        this._cachedServices.clear();
-        this.cachedVOLFCs.clear();
-        this.cachedVOStorageAreas.clear();
+        this.cache.clear();
+    }
+
+    /** Returns the cache of BDII query results */
+    public BdiiCache getCache()
+    {
+        return this.cache;
+    }
+
+    /**
+     * Return cached query result or perform query. When caching is disabled, the query is always performed.
+     */
+    private <T> T getCached(String key, long ttl, Loader<T> loader) throws VrsException
+    {
+        if (!useCaching)
+            return loader.load();
 
+        return cache.get(key, ttl, loader);
     }
 
     // ===============================================================================
@@ -206,30 +227,29 @@ public class BdiiService
     }
 
     /** Returns SRM V2.2 Service for specified hostname or NULL */
-    public ServiceInfo getSRMv22ServiceForHost(String host) throws VrsException, NamingException
+    public ServiceInfo getSRMv22ServiceForHost(final String host) throws VrsException, NamingException
     {
         logger.debugPrintf("getSRMv22SEforHost:%s\n", host);
 
-        if (useCaching)
-        {
-            ServiceInfo service=this.getFromServiceCache(ServiceInfoType.SRMV22,host); 
-            if (service!=null)
-            {
-                logger.infoPrintf("+++ Returning cached V2.2 SRM service for %s\n", host);
-                return service;
-            }
-        }
-
         // Query single hostname but for all VOs to match any hostname
         // and not those allowed for the current User's VO !
-        ServiceInfo srm = _querySRMv22SEForHost(host);
-
-        if ((srm != null) && (useCaching))
-        {
-            putInServiceCache(srm);
-        }
+        ServiceInfo srm = getCached(serviceCacheKey(ServiceInfoType.SRMV22, host), BdiiCache.DEFAULT_SERVICE_TTL,
+                new Loader<ServiceInfo>()
+                {
+                    public ServiceInfo load() throws VrsException
+                    {
+                        try
+                        {
+                            return _querySRMv22SEForHost(host);
+                        }
+                        catch (NamingException e)
+                        {
+                            throw new BdiiException("NamingException. Couldn't query SRM V2.2:" + host, e);
+                        }
+                    }
+                });
 
-        logger.infoPrintf("+++ Returning cached V2.2 SRM service for :%s => %s\n", host, srm);
+        logger.infoPrintf("+++ Returning V2.2 SRM service for :%s => %s\n", host, srm);
         return srm;
     }
 
@@ -264,63 +284,56 @@ public class BdiiService
         return srmv11;
     }
 
-    public ArrayList<ServiceInfo> getLFCsforVO(String vo) throws VrsException
+    public ArrayList<ServiceInfo> getLFCsforVO(final String vo) throws VrsException
     {
-        // block other queries:
-        synchronized (this.cachedVOLFCs)
+        // concurrent requests for the same VO share one query.
+        return getCached("lfcs-" + vo, BdiiCache.DEFAULT_TTL, new Loader<ArrayList<ServiceInfo>>()
         {
-            ArrayList<ServiceInfo> lfcs = this.cachedVOLFCs.get(vo);
-            if (lfcs != null)
-                return lfcs;
-
-            try
+            public ArrayList<ServiceInfo> load() throws VrsException
             {
-                lfcs = _queryLFCServicesForVO(vo);
-                // NULL result!
-                if (lfcs == null)
-                    lfcs = new ArrayList<ServiceInfo>(0);
+                try
+                {
+                    ArrayList<ServiceInfo> lfcs = _queryLFCServicesForVO(vo);
+                    // NULL result!
+                    if (lfcs == null)
+                        lfcs = new ArrayList<ServiceInfo>(0);
 
-                this.cachedVOLFCs.put(vo, lfcs);
-                return lfcs;
-            }
-            catch (NamingException e)
-            {
-                throw new BdiiException("NamingException. Couldn't query Server:" + this, e);
+                    return lfcs;
+                }
+                catch (NamingException e)
+                {
+                    throw new BdiiException("NamingException. Couldn't query Server:" + BdiiService.this, e);
+                }
             }
-        }
+        });
     }
 
-    public ArrayList<StorageArea> getVOStorageAreas(String vo, String optHostname, boolean includeSRMV1)
+    public ArrayList<StorageArea> getVOStorageAreas(final String vo, String optHostname, final boolean includeSRMV1)
             throws VrsException
+    {
+        if (vo == null)
+            return null;
+
+        ArrayList<StorageArea> sas = getCached("sas-" + vo + "-" + includeSRMV1, BdiiCache.DEFAULT_TTL,
+                new Loader<ArrayList<StorageArea>>()
+                {
+                    public ArrayList<StorageArea> load() throws VrsException
+                    {
+                        return _queryVOStorageAreas(vo, includeSRMV1);
+                    }
+                });
+
+        // filter out optHostname
+        return filterSAsForHost(sas, optHostname);
+    }
+
+    // uncached BDII query. Returns all StorageAreas of the VO. 
+    private ArrayList<StorageArea> _queryVOStorageAreas(String vo, boolean includeSRMV1) throws VrsException
     {
         //todo: cleanup,restructure. 
         
         ArrayList<StorageArea> sas = null;
-        
-        String cacheid=vo+"-"+includeSRMV1; 
-        
-        synchronized (this.cachedVOStorageAreas)
-        {
-            if (!useCaching)
-                return null;
-            
-            if (vo == null)
-                return null;
-            
-            sas = cachedVOStorageAreas.get(cacheid);
-            
-            if (sas != null)
-            {
-                logger.debugPrintf("Returing cached StorageAreas for VO:%s\n", vo);
-            
-                // filter out optHostname 
-                if (optHostname==null)
-                    return sas; 
-                else
-                    return filterSAsForHost(sas,optHostname);
-            }
-        }
-        
+
         // Not in cache so let's start
         String versionStr = "*";
         if (includeSRMV1 == false)
@@ -479,11 +492,8 @@ public class BdiiService
                 }
             }
         }
-        
-        if (optHostname==null)
-            return sas;
-        
-        return filterSAsForHost(sas,optHostname); 
+
+        return sas;
     }
 
     private ArrayList<StorageArea> filterSAsForHost(ArrayList<StorageArea> sas, String optHostname)
@@ -595,33 +605,33 @@ public class BdiiService
      * 
      * @throws URISyntaxException
      */
-    public ServiceInfo getSRMV11ServiceForHost(String hostname) throws VrsException, URISyntaxException
+    public ServiceInfo getSRMV11ServiceForHost(final String hostname) throws VrsException, URISyntaxException
     {
-        ServiceInfo info = this.getFromServiceCache(ServiceInfoType.SRMV11,hostname); 
-        if (info!=null)
-            return info; 
-        
-        try
-        {
-            info = _querySRMv1SEForHost(hostname);
-            
-            if (info != null)
-            {
-                this.putInServiceCache(info);
-            }
-            else
-            {
-                // block further requests: put nill object.
-                info=ServiceInfo.createNill(ServiceInfoType.SRMV11,hostname);
-                this.putInServiceCache(info);
-            }
-        }
-        catch (NamingException e)
-        {
-            throw new BdiiException("NamingException. Couldn't query SRM V1:" + hostname, e);
-        }
+        return getCached(serviceCacheKey(ServiceInfoType.SRMV11, hostname), BdiiCache.DEFAULT_SERVICE_TTL,
+                new Loader<ServiceInfo>()
+                {
+                    public ServiceInfo load() throws VrsException
+                    {
+                        try
+                        {
+                            ServiceInfo info = _querySRMv1SEForHost(hostname);
+
+                            // block further requests: put nill object.
+                            if (info == null)
+                                info = ServiceInfo.createNill(ServiceInfoType.SRMV11, hostname);
 
-        return info;
+                            return info;
+                        }
+                        catch (NamingException e)
+                        {
+                            throw new BdiiException("NamingException. Couldn't query SRM V1:" + hostname, e);
+                        }
+                        catch (URISyntaxException e)
+                        {
+                            throw new VRLSyntaxException("URI Syntax error for SRM V1:" + hostname, e);
+                        }
+                    }
+                });
     }
 
     // ===============================================================================
@@ -704,30 +714,9 @@ public class BdiiService
         return getGlueVattributes(seLocationInfo, GlueConstants.GRID_SITE_ATTRIBUTES);
     }
 
-    private void putInServiceCache(ServiceInfo srm)
+    private static String serviceCacheKey(ServiceInfo.ServiceInfoType type, String host)
     {
-        if (!useCaching)
-            return;
-        
-        String id=srm.getServiceType()+ "-" +srm.getHost();
-        
-        synchronized (this._cachedServices)
-        {
-            _cachedServices.put(id,srm); 
-        }
-    }
-    
-    private ServiceInfo getFromServiceCache(ServiceInfo.ServiceInfoType type,String host)
-    {
-        if (!useCaching)
-            return null;
-        
-        String id=type+"-"+host; 
-
-        synchronized (this._cachedServices)
-        {
-            return  _cachedServices.get(id); 
-        }
+        return "service-" + type + "-" + host;
     }
 
     private Attribute[] getGlueVattributes(GlueObject seBackEndInfo, String[] attrConst)
@@ -22,6 +22,8 @@
 package nl.esciencecenter.vlet.vrs.vdriver.infors.net;
 
 
+import java.io.IOException;
+
 import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
 import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
 import nl.esciencecenter.vlet.VletConfig;
@@ -122,7 +124,17 @@ public class HostInfoNode extends CompositeServiceInfoNode<VNode>
             
             Scanner scanner = netUtil.getScanner();
             String host=this.getDNSHostname(); 
-            scanner.scanHost(host);
+            
+            try
+            {
+                scanner.scanHosts(new String[]{host},null);
+            }
+            catch (IOException e)
+            {
+                // fall back to blocking scan 
+                error("Non blocking scan failed, rescanning host:"+host+":"+e); 
+                scanner.scanHost(host);
+            }
             
             PortInfo[] infos = scanner.getPortInfos(host);
             
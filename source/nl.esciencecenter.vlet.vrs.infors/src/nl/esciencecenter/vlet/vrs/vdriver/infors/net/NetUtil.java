@@ -29,6 +29,9 @@ import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
 import nl.esciencecenter.ptk.data.StringList;
 import nl.esciencecenter.ptk.ssl.CertificateStore;
 import nl.esciencecenter.ptk.ssl.SslUtil;
@@ -316,6 +319,26 @@ private Scanner scanner;
        return socket; 
    }
 
+   /**
+    * Layer a SSL socket over an already connected socket. Closing the SSL socket 
+    * also closes the connected socket, which is closed as well when the handshake fails. 
+    */ 
+   public Socket createSSLSocket(Socket socket,String host,int port) throws Exception
+   {
+       try
+       {
+           SSLContext context=CertificateStore.getDefault(true).createSSLContext("SSLv3"); 
+           SSLSocket sslSocket=(SSLSocket)context.getSocketFactory().createSocket(socket,host,port,true); 
+           sslSocket.startHandshake(); 
+           return sslSocket; 
+       }
+       catch (Exception e)
+       {
+           try {socket.close();} catch (IOException e2) {;} 
+           throw e; 
+       }
+   }
+
    
    public Scanner getScanner()
    {
@@ -217,6 +217,45 @@ public class PortInfo
        return testers; 
    }
        
+   /** 
+    * Returns new tester instances for the port, most specific first and ending with a default tester. 
+    * ProtocolTesters are stateful: concurrent scans must use their own instances. 
+    */ 
+   public static List<ProtocolTester> createTestersFor(int port)
+   {
+       ArrayList<ProtocolTester> testers=new ArrayList<ProtocolTester>(); 
+       
+       StringList schemeList=port2protocols.get(new Integer(port));
+       
+       if (schemeList!=null)
+       {
+           for (String scheme: schemeList)
+           {
+               ProtocolTester tester=newTesterFor(scheme);
+               if (tester!=null)
+                   testers.add(tester); 
+           }
+       }
+       
+       testers.add(new ProtocolTester("Default")); 
+       return testers; 
+   }
+   
+   /** Returns new instance of the registered tester for the scheme or NULL if there is none */ 
+   static ProtocolTester newTesterFor(String scheme)
+   {
+       if (scheme.equals("http"))
+           return new HTTPTester(); 
+       else if (scheme.equals("https"))
+           return new HTTPSTester(); 
+       else if (scheme.equals("gftp"))
+           return new GFTPTester(); 
+       else if ((scheme.equals("sftp")) || (scheme.equals("ssh")))
+           return new SSHTester(scheme); 
+       
+       return null; 
+   }
+       
    public String getProtocol()
    {
        return this.possibleProtocol; 
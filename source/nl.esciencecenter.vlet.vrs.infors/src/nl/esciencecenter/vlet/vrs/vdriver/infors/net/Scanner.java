@@ -91,12 +91,31 @@ public class Scanner
 
     private NetUtil netUtil;
 
+    private SelectorScanner selectorScanner=null; 
     
     Scanner(NetUtil netUtil)
     {
         this.netUtil=netUtil; 
     }
     
+    /** Non blocking scanner which scans all ports concurrently. Stores results in this Scanner */ 
+    public synchronized SelectorScanner getSelectorScanner()
+    {
+        if (selectorScanner==null)
+            selectorScanner=new SelectorScanner(this,SelectorScanner.DEFAULT_NUM_WORKERS); 
+        
+        return selectorScanner; 
+    }
+    
+    /**
+     * Scan the default ports of the hosts concurrently. 
+     * Blocks until done, results are passed to the (optional) listener as they arrive.  
+     */
+    public void scanHosts(String hosts[],SelectorScanner.ScanListener listener) throws IOException
+    {
+        getSelectorScanner().scan(hosts,defaultPorts,listener); 
+    }
+    
     public void scheduleHost(String hostname)
     {
         synchronized(scheduleMutex)
@@ -123,145 +142,191 @@ public class Scanner
             int port=defaultPorts[i]; 
             //info("> - Scanning host+port:"+host+":"+port);
             
-            long startTime=0; 
-            long endTime=0;
             // Protocol testers: Most specific first: First matched is used. 
             List<ProtocolTester> testers = PortInfo.getTestersFor(port); // new ProtocolTester("DefaultTester");
+            scanPort(host,port,testers,quickConnectTimeOut); 
+        }
+    }
+    
+    /**
+     * Connect to host:port and try the protocol testers until a protocol matches or the
+     * connection fails. The PortInfo of each attempt is stored, the last one is returned.
+     * Testers are stateful: concurrent scans must use their own testers. 
+     */ 
+    protected PortInfo scanPort(String host,int port,List<ProtocolTester> testers,int connectTimeout)
+    {
+        return scanPort(host,port,null,-1,testers,connectTimeout); 
+    }
+    
+    /**
+     * Scan port using an already connected (blocking) socket for the first tester. 
+     * The testers consume the socket, so following testers connect again.
+     * The socket is always closed when this method returns. 
+     * @param socket connected socket or null.  
+     * @param setupTime connect time of the socket in milliseconds.  
+     */ 
+    protected PortInfo scanPort(String host,int port,Socket socket,int setupTime,List<ProtocolTester> testers,int connectTimeout)
+    {
+        try
+        {
+            return doScanPort(host,port,socket,setupTime,testers,connectTimeout);
+        }
+        finally
+        {
+            if (socket!=null)
+                try {socket.close();} catch (Exception e) {;} // ignore close exceptions  
+        }
+    }
+    
+    private PortInfo doScanPort(String host,int port,Socket connected,int setupTime,List<ProtocolTester> testers,int connectTimeout)
+    {
+        long startTime=0; 
+        long endTime=0;
+        PortInfo info=null; 
+        
+        for (ProtocolTester portTester:testers)
+        {
+            //info("> - - Scanning protocol:"+host+":"+port+" for:"+portTester.getScheme());
+            
             boolean testerResult=false; 
-             
             
-            for (ProtocolTester portTester:testers)
-            {
-                //info("> - - Scanning protocol:"+host+":"+port+" for:"+portTester.getScheme());
+            // new instance: 
+            info=new PortInfo(port);
+            // .clear();
+            // preset time out value: 
+            info.tcpTimeout=connectTimeout;
+            
+            try
+            { 
+                startTime=System.currentTimeMillis();
+                info.tcpConnectOK=false; // CLEAR
+                info.status=ConnectionStatus.CONNECTING;
+                Socket sock;
+                // reuse connected socket once 
+                Socket reuse=connected; 
+                connected=null; 
                 
-                // new instance: 
-                PortInfo info=new PortInfo(port);
-                // .clear();
-                // preset time out value: 
-                info.tcpTimeout=quickConnectTimeOut;
+                if (portTester.isSSL()==false)  
+                {
+                    sock=(reuse!=null)?reuse:netUtil.createSocket(host,info.port,info.tcpTimeout);
+                }
+                else
+                {
+                    info.sslError=true; 
+                    if (reuse!=null)
+                        sock=netUtil.createSSLSocket(reuse,host,info.port);
+                    else
+                        sock=netUtil.createSSLSocket(host,info.port,info.tcpTimeout);
+                    info.sslError=false; 
+                }
                 
-              try
-              { 
-                  startTime=System.currentTimeMillis();
-                  info.tcpConnectOK=false; // CLEAR
-                  info.status=ConnectionStatus.CONNECTING;
-                  Socket sock;
-                  if (portTester.isSSL()==false)  
-                      sock=netUtil.createSocket(host,info.port,info.tcpTimeout);
-                  else
-                  {
-                      info.sslError=true; 
-                      sock=netUtil.createSSLSocket(host,info.port,info.tcpTimeout);
-                      info.sslError=false; 
-                  }
-                    
-                  endTime=System.currentTimeMillis();
-                  //info("port connected:"+host+":"+port);
-                  info.status=ConnectionStatus.CONNECTED;  
-                  info.tcpSetupTime=(int)(endTime-startTime);  
-                  info.tcpConnectOK=true;
-                    
-                  // === 
-                  // Check Port! 
-                  // ===
-                  {
-                      testerResult=portTester.check(sock); 
-                      info.reponseMsg=portTester.getReponseString(); 
-                      info.responseTime=portTester.getReponseTime(); 
+                endTime=System.currentTimeMillis();
+                //info("port connected:"+host+":"+port);
+                info.status=ConnectionStatus.CONNECTED;  
+                info.tcpSetupTime=((reuse!=null) && (setupTime>=0))?setupTime:(int)(endTime-startTime);  
+                info.tcpConnectOK=true;
+                
+                // === 
+                // Check Port! 
+                // ===
+                {
+                    testerResult=portTester.check(sock); 
+                    info.reponseMsg=portTester.getReponseString(); 
+                    info.responseTime=portTester.getReponseTime(); 
 //                      if (testerResult==true)
 //                      {
 //                          info("> - - +++ Protocol matched:"+portTester.getScheme()+" (for:"+host+":"+port+")");
 //                      }
-                  }
-                    
-                  if (sock.isConnected())     
-                      try {sock.close();} catch (Exception e) {;} // ignore close exceptions  
-                      
-                }
-                catch (java.net.ConnectException e)
-                {
-                    String msg=e.getMessage();
-                    if (msg.contains("Connection refused"))
-                    {
-                        //info("> - - *** Socket refused:"+host+":"+port);
-                        info.status=ConnectionStatus.REFUSED;
-                    }
-    		    }
-                catch (java.net.SocketTimeoutException e)
-                {
-                    String msg=e.getMessage();
-                    if (msg.contains("connect timed out"))
-                    {
-                        // info("> - - *** Socket timed out:"+host+":"+port);
-                        info.status=ConnectionStatus.TIMED_OUT;
-                    }
-                } 
-                catch (java.net.NoRouteToHostException e)
-                {
-                    String msg=e.getMessage();
-    //                if (msg.contains("No route to host"))
-    //                {
-                        //info("> - - *** Error: NO ROUTE:"+host+":"+port);
-                        info.status=ConnectionStatus.ROUTE_BLOCKED;
-    //                }
-                } 
-                // ================================================================
-                // SSL
-                // ================================================================
-                catch (CertificateException e)
-                {
-                    //info("CertificateException for:"+host+":"+port);
-                    // For certificate error: there was a SSL handshake 
-                    info.status=ConnectionStatus.CONNECTED;
-                    info.sslError=true;
-                    info.exception=e; // keep
-                    e.printStackTrace();
                 }
-                //
-                // Must be handled :
-                //
-                catch (IOException e)
+                
+                if (sock.isConnected())     
+                    try {sock.close();} catch (Exception e) {;} // ignore close exceptions  
+                  
+            }
+            catch (java.net.ConnectException e)
+            {
+                String msg=e.getMessage();
+                if (msg.contains("Connection refused"))
                 {
-                    //info("IOException for:"+host+":"+port);
-                    info.status=ConnectionStatus.UNKNOWN;   
-                    info.exception=e; // keep
-                    e.printStackTrace();
+                    //info("> - - *** Socket refused:"+host+":"+port);
+                    info.status=ConnectionStatus.REFUSED;
                 }
-                catch (Exception e)
+            }
+            catch (java.net.SocketTimeoutException e)
+            {
+                String msg=e.getMessage();
+                if (msg.contains("connect timed out"))
                 {
-                    //info("Exception for:"+host+":"+port);
-                    info.status=ConnectionStatus.UNKNOWN;   
-                    info.exception=e; // keep
-                    e.printStackTrace();
+                    // info("> - - *** Socket timed out:"+host+":"+port);
+                    info.status=ConnectionStatus.TIMED_OUT;
                 }
-                
-                boolean stop=false;
-                // Analyse: 
-                if (info.tcpConnectOK==true)
+            } 
+            catch (java.net.NoRouteToHostException e)
+            {
+                String msg=e.getMessage();
+//                if (msg.contains("No route to host"))
+//                {
+                    //info("> - - *** Error: NO ROUTE:"+host+":"+port);
+                    info.status=ConnectionStatus.ROUTE_BLOCKED;
+//                }
+            } 
+            // ================================================================
+            // SSL
+            // ================================================================
+            catch (CertificateException e)
+            {
+                //info("CertificateException for:"+host+":"+port);
+                // For certificate error: there was a SSL handshake 
+                info.status=ConnectionStatus.CONNECTED;
+                info.sslError=true;
+                info.exception=e; // keep
+                e.printStackTrace();
+            }
+            //
+            // Must be handled :
+            //
+            catch (IOException e)
+            {
+                //info("IOException for:"+host+":"+port);
+                info.status=ConnectionStatus.UNKNOWN;   
+                info.exception=e; // keep
+                e.printStackTrace();
+            }
+            catch (Exception e)
+            {
+                //info("Exception for:"+host+":"+port);
+                info.status=ConnectionStatus.UNKNOWN;   
+                info.exception=e; // keep
+                e.printStackTrace();
+            }
+            
+            boolean stop=false;
+            // Analyse: 
+            if (info.tcpConnectOK==true)
+            {
+                if (testerResult==true)
                 {
-                    if (testerResult==true)
-                    {
-                        info.possibleProtocol=portTester.getScheme();
-                        stop=true; // found matching protocol
-                    }
-                    else
-                    {
-                        stop=false; // continue with next protocol; 
-                    }
+                    info.possibleProtocol=portTester.getScheme();
+                    stop=true; // found matching protocol
                 }
                 else
                 {
-                    stop=true; // TCP connection Error; 
+                    stop=false; // continue with next protocol; 
                 }
-                
-                // store overwrite previous !
-                storePortInfo(host,info);
-                
-                if(stop==true)
-                    break; 
-            }// FOR loop;
+            }
+            else
+            {
+                stop=true; // TCP connection Error; 
+            }
             
-        }
+            // store overwrite previous !
+            storePortInfo(host,info);
+            
+            if(stop==true)
+                break; 
+        }// FOR loop;
+        
+        return info; 
     }
     
     protected void storePortInfo(String name,PortInfo info)
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+
+package nl.esciencecenter.vlet.vrs.vdriver.infors.net;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.vlet.vrs.util.DaemonThreadFactory;
+
+/**
+ * Non-blocking port scanner.
+ * <p>
+ * Opens non-blocking connects to many host:port combinations at the same time, up to the
+ * maximum number of connects in flight, and waits for all of them with one Selector.
+ * Ports which accept the connection are handed to a worker pool which runs the ProtocolTesters
+ * for that port. The testers need blocking sockets, so the connected channel is deregistered and
+ * switched to blocking mode, and its socket is passed to the first tester. SSL testers layer SSL
+ * over that socket. Results are stored in the Scanner and passed to the ScanListener as they arrive.
+ */
+public class SelectorScanner
+{
+    private static ClassLogger logger;
+
+    static
+    {
+        logger=ClassLogger.getLogger(SelectorScanner.class);
+    }
+
+    /** Receives port results as they arrive. Might be called from different threads. */
+    public static interface ScanListener
+    {
+        public void notifyPortScanned(String host,PortInfo info);
+    }
+
+    public static final int DEFAULT_MAX_IN_FLIGHT=256;
+
+    /** Connect time out in milliseconds */
+    public static final int DEFAULT_CONNECT_TIMEOUT=1000;
+
+    public static final int DEFAULT_NUM_WORKERS=8;
+
+    /** Protocol tests of one scan which haven't finished */
+    private static class PendingTests
+    {
+        private int numPending=0;
+
+        synchronized void started()
+        {
+            numPending++;
+        }
+
+        synchronized void done()
+        {
+            numPending--;
+            this.notifyAll();
+        }
+
+        synchronized void waitForAll() throws InterruptedException
+        {
+            while (numPending>0)
+                this.wait();
+        }
+    }
+
+    /** Pending connect */
+    private static class Target
+    {
+        final String host;
+
+        final InetAddress address;
+
+        final int port;
+
+        final PendingTests tests;
+
+        long startTime;
+
+        /** Connected channel, set when the connect has finished */
+        SocketChannel channel;
+
+        int setupTime;
+
+        Target(String host,InetAddress address,int port,PendingTests tests)
+        {
+            this.host=host;
+            this.address=address;
+            this.port=port;
+            this.tests=tests;
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private Scanner scanner;
+
+    private int maxInFlight=DEFAULT_MAX_IN_FLIGHT;
+
+    private int connectTimeout=DEFAULT_CONNECT_TIMEOUT;
+
+    private ThreadPoolExecutor workers;
+
+
+    public SelectorScanner(Scanner scanner,int numWorkers)
+    {
+        this.scanner=scanner;
+
+        if (numWorkers<1)
+            numWorkers=1;
+
+        workers=DaemonThreadFactory.createFixedPool("SelectorScanner.worker",numWorkers,30);
+    }
+
+    /** Maximum number of connects which are pending at the same time */
+    public void setMaxInFlight(int max)
+    {
+        this.maxInFlight=Math.max(1,max);
+    }
+
+    public int getMaxInFlight()
+    {
+        return maxInFlight;
+    }
+
+    public void setConnectTimeout(int timeout)
+    {
+        this.connectTimeout=timeout;
+    }
+
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    /**
+     * Scan ports of the hosts. Blocks until all ports have been connected to and the protocol tests
+     * of the open ports have finished.
+     * @param listener optional listener which receives the results as they arrive.
+     */
+    public void scan(String hosts[],int ports[],ScanListener listener) throws IOException
+    {
+        LinkedList<Target> todo=new LinkedList<Target>();
+        // connected targets wait here until their channels are deregistered from the selector
+        LinkedList<Target> connected=new LinkedList<Target>();
+        // tests of this scan only, concurrent scans share the workers
+        PendingTests tests=new PendingTests();
+
+        for (String host:hosts)
+        {
+            InetAddress address=null;
+            Exception resolveException=null;
+
+            try
+            {
+                address=InetAddress.getByName(host);
+            }
+            catch (UnknownHostException e)
+            {
+                resolveException=e;
+            }
+
+            for (int port:ports)
+            {
+                Target target=new Target(host,address,port,tests);
+
+                if (address!=null)
+                    todo.add(target);
+                else
+                    failed(target,resolveException,listener);
+            }
+        }
+
+        Selector selector=Selector.open();
+
+        try
+        {
+            int inFlight=0;
+
+            while ((todo.isEmpty()==false) || (inFlight>0))
+            {
+                while ((inFlight<maxInFlight) && (todo.isEmpty()==false))
+                {
+                    if (startConnect(selector,todo.removeFirst(),connected,listener))
+                        inFlight++;
+                }
+
+                if (inFlight>0)
+                {
+                    // keys selected by a previous selectNow() are handled first
+                    if (selector.selectedKeys().isEmpty())
+                        selector.select(getSelectTimeout(selector));
+
+                    Iterator<SelectionKey> iterator=selector.selectedKeys().iterator();
+
+                    while (iterator.hasNext())
+                    {
+                        SelectionKey key=iterator.next();
+                        iterator.remove();
+                        finishConnect(key,connected,listener);
+                        inFlight--;
+                    }
+
+                    inFlight-=expireConnects(selector,listener);
+                }
+
+                if (connected.isEmpty()==false)
+                {
+                    // cancelled keys are deregistered by the next selection operation,
+                    // a registered channel can't be put in blocking mode.
+                    selector.selectNow();
+
+                    while (connected.isEmpty()==false)
+                        startTesters(connected.removeFirst(),listener);
+                }
+            }
+        }
+        finally
+        {
+            for (SelectionKey key:selector.keys())
+                closeChannel(key);
+
+            for (Target target:connected)
+                close(target.channel);
+
+            selector.close();
+        }
+
+        waitForTesters(tests);
+    }
+
+    /** @return true if the connect is pending */
+    private boolean startConnect(Selector selector,Target target,LinkedList<Target> connected,ScanListener listener)
+    {
+        SocketChannel channel=null;
+        target.startTime=System.currentTimeMillis();
+
+        try
+        {
+            channel=SocketChannel.open();
+            channel.configureBlocking(false);
+
+            if (channel.connect(new InetSocketAddress(target.address,target.port)))
+            {
+                connected(channel,target,connected);
+                return false;
+            }
+
+            channel.register(selector,SelectionKey.OP_CONNECT,target);
+            return true;
+        }
+        catch (Exception e)
+        {
+            close(channel);
+            failed(target,e,listener);
+            return false;
+        }
+    }
+
+    private void finishConnect(SelectionKey key,LinkedList<Target> connected,ScanListener listener)
+    {
+        SocketChannel channel=(SocketChannel)key.channel();
+        Target target=(Target)key.attachment();
+        key.cancel();
+
+        try
+        {
+            if (channel.finishConnect())
+            {
+                connected(channel,target,connected);
+                return;
+            }
+
+            close(channel);
+            failed(target,new IOException("Connect not finished"),listener);
+        }
+        catch (Exception e)
+        {
+            close(channel);
+            failed(target,e,listener);
+        }
+    }
+
+    /** Time out connects which have been pending too long. @return number of expired connects. */
+    private int expireConnects(Selector selector,ScanListener listener)
+    {
+        long now=System.currentTimeMillis();
+        int num=0;
+
+        for (SelectionKey key:selector.keys())
+        {
+            Target target=(Target)key.attachment();
+
+            if ((key.isValid()) && (now-target.startTime>=connectTimeout))
+            {
+                closeChannel(key);
+
+                PortInfo info=newPortInfo(target);
+                info.status=ConnectionStatus.TIMED_OUT;
+                report(target.host,info,listener);
+                num++;
+            }
+        }
+
+        return num;
+    }
+
+    /** Returns time until the first pending connect times out */
+    private long getSelectTimeout(Selector selector)
+    {
+        long now=System.currentTimeMillis();
+        long timeout=connectTimeout;
+
+        for (SelectionKey key:selector.keys())
+        {
+            if (key.isValid())
+                timeout=Math.min(timeout,((Target)key.attachment()).startTime+connectTimeout-now);
+        }
+
+        return Math.max(1,timeout);
+    }
+
+    private void connected(SocketChannel channel,Target target,LinkedList<Target> connected)
+    {
+        target.setupTime=(int)(System.currentTimeMillis()-target.startTime);
+        target.channel=channel;
+        connected.add(target);
+    }
+
+    /** Hand the connected socket to the protocol testers. The channel must not be registered anymore. */
+    private void startTesters(final Target target,final ScanListener listener)
+    {
+        final Socket socket;
+
+        try
+        {
+            target.channel.configureBlocking(true);
+            socket=target.channel.socket();
+        }
+        catch (Exception e)
+        {
+            close(target.channel);
+            failed(target,e,listener);
+            return;
+        }
+
+        target.tests.started();
+
+        try
+        {
+            workers.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        // connect timeout for testers which connect again: port is known to be open
+                        int timeout=Math.max(connectTimeout,target.setupTime*4);
+                        PortInfo info=scanner.scanPort(target.host,target.port,socket,target.setupTime,
+                                PortInfo.createTestersFor(target.port),timeout);
+
+                        if (info!=null)
+                            report(target.host,info,listener);
+                    }
+                    catch (Throwable t)
+                    {
+                        logger.errorPrintf("Protocol test failed for %s:%d:%s\n",target.host,target.port,t);
+                    }
+                    finally
+                    {
+                        target.tests.done();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // disposed
+            target.tests.done();
+            close(target.channel);
+            failed(target,e,listener);
+        }
+    }
+
+    private void failed(Target target,Exception e,ScanListener listener)
+    {
+        PortInfo info=newPortInfo(target);
+
+        if (e instanceof ConnectException)
+        {
+            info.status=ConnectionStatus.REFUSED;
+        }
+        else if (e instanceof NoRouteToHostException)
+        {
+            info.status=ConnectionStatus.ROUTE_BLOCKED;
+        }
+        else
+        {
+            if ((e instanceof UnknownHostException)==false)
+                logger.debugPrintf("Connect failed for %s:%d:%s\n",target.host,target.port,e);
+
+            info.status=ConnectionStatus.UNKNOWN;
+            info.exception=e;
+        }
+
+        report(target.host,info,listener);
+    }
+
+    private PortInfo newPortInfo(Target target)
+    {
+        PortInfo info=new PortInfo(target.port);
+        info.tcpTimeout=connectTimeout;
+        return info;
+    }
+
+    private void report(String host,PortInfo info,ScanListener listener)
+    {
+        scanner.storePortInfo(host,info);
+
+        if (listener==null)
+            return;
+
+        try
+        {
+            listener.notifyPortScanned(host,info);
+        }
+        catch (Throwable t)
+        {
+            logger.errorPrintf("Listener exception:%s\n",t);
+        }
+    }
+
+    private void waitForTesters(PendingTests tests) throws IOException
+    {
+        try
+        {
+            tests.waitForAll();
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException("Interrupted while waiting for protocol testers",e);
+        }
+    }
+
+    private void closeChannel(SelectionKey key)
+    {
+        key.cancel();
+        close(key.channel());
+    }
+
+    private void close(Channel channel)
+    {
+        if (channel==null)
+            return;
+
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            logger.debugPrintf("Exception when closing channel:%s\n",e);
+        }
+    }
+
+    /** Stop worker threads. Pending protocol tests are not performed */
+    public void dispose()
+    {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs;
+
+import nl.esciencecenter.vlet.vrs.ServerInfo;
+import nl.esciencecenter.vlet.vrs.ServerInfoRegistry;
+import nl.esciencecenter.vlet.vrs.VRSContext;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the lookup index of the ServerInfoRegistry and the copy-on-write ServerInfo copies.
+ * Uses a private registry which isn't saved.
+ */
+public class TestServerInfoRegistry
+{
+    private static final String HOST_A="host-a.serverinfo.test";
+
+    private static final String HOST_B="host-b.serverinfo.test";
+
+    private VRSContext context;
+
+    private ServerInfoRegistry registry;
+
+    private boolean prevPersistant;
+
+    @Before
+    public void setUp()
+    {
+        context=new VRSContext();
+        prevPersistant=context.getConfigManager().setPersistantUserConfiguration(false);
+        registry=new ServerInfoRegistry(context);
+    }
+
+    @After
+    public void tearDown()
+    {
+        context.getConfigManager().setPersistantUserConfiguration(prevPersistant);
+    }
+
+    private ServerInfo store(String scheme,String host,int port,String user)
+    {
+        return registry.store(new ServerInfo(context,scheme,host,port,user));
+    }
+
+    private static int count(ServerInfo infos[])
+    {
+        return (infos==null)?0:infos.length;
+    }
+
+    @Test
+    public void testLookupBySchemeAndHost()
+    {
+        store("gsiftp",HOST_A,2811,null);
+        store("sftp",HOST_A,22,"alice");
+        store("gsiftp",HOST_B,2811,null);
+
+        Assert.assertEquals(1,count(registry.getServerInfos("gsiftp",HOST_A)));
+        Assert.assertEquals(HOST_A,registry.getServerInfos("gsiftp",HOST_A)[0].getHostname());
+        Assert.assertEquals(2,count(registry.getServerInfosForHost(HOST_A)));
+        Assert.assertEquals(2,count(registry.getServerInfosForScheme("gsiftp")));
+
+        Assert.assertNull("Unknown host",registry.getServerInfos("gsiftp","unknown.serverinfo.test"));
+        Assert.assertNull("Unknown scheme",registry.getServerInfos("ftp",HOST_A));
+    }
+
+    @Test
+    public void testPortAndUserAreMatchedOnCandidates()
+    {
+        store("gsiftp",HOST_A,2811,null);
+        store("gsiftp",HOST_A,2812,null);
+        store("sftp",HOST_B,22,"alice");
+
+        Assert.assertEquals("Any port",2,count(registry.getServerInfos("gsiftp",HOST_A,-1)));
+        Assert.assertEquals(1,count(registry.getServerInfos("gsiftp",HOST_A,2812)));
+        Assert.assertEquals(2812,registry.getServerInfos("gsiftp",HOST_A,2812)[0].getPort());
+        Assert.assertNull(registry.getServerInfos("gsiftp",HOST_A,2813));
+
+        Assert.assertEquals(1,count(registry.getServerInfos("sftp",HOST_B,-1,"alice")));
+        Assert.assertNull(registry.getServerInfos("sftp",HOST_B,-1,"bob"));
+        Assert.assertEquals("Any user",1,count(registry.getServerInfos("sftp",HOST_B,-1,null)));
+    }
+
+    @Test
+    public void testIndexIsUpdatedOnRemove()
+    {
+        store("gsiftp",HOST_A,2811,null);
+        ServerInfo infoB=store("gsiftp",HOST_B,2811,null);
+
+        Assert.assertEquals(2,count(registry.getServerInfosForScheme("gsiftp")));
+
+        registry.remove(registry.getServerInfos("gsiftp",HOST_B)[0]);
+        Assert.assertNull(registry.getServerInfos("gsiftp",HOST_B));
+        Assert.assertEquals(1,count(registry.getServerInfosForScheme("gsiftp")));
+
+        // store again
+        registry.store(infoB);
+        Assert.assertEquals(1,count(registry.getServerInfos("gsiftp",HOST_B)));
+
+        registry.removeAll();
+        Assert.assertNull(registry.getServerInfosForHost(HOST_A));
+        Assert.assertNull(registry.getServerInfosForHost(HOST_B));
+    }
+
+    @Test
+    public void testReturnedInfosAreCopies()
+    {
+        ServerInfo info=new ServerInfo(context,"gsiftp",HOST_A,2811,null);
+        info.setAttribute("testAttr","stored");
+        registry.store(info);
+
+        // modifying the original after it has been stored
+        info.setAttribute("testAttr","original");
+
+        ServerInfo copy1=registry.getServerInfos("gsiftp",HOST_A)[0];
+        Assert.assertEquals("stored",copy1.getStringProperty("testAttr"));
+
+        copy1.setAttribute("testAttr","copy1");
+
+        ServerInfo copy2=registry.getServerInfos("gsiftp",HOST_A)[0];
+        Assert.assertEquals("Stored info must not change when a copy is modified","stored",copy2.getStringProperty("testAttr"));
+        Assert.assertEquals("copy1",copy1.getStringProperty("testAttr"));
+    }
+
+    @Test
+    public void testDuplicateIsCopyOnWrite()
+    {
+        ServerInfo info=new ServerInfo(context,"sftp",HOST_A,22,"alice");
+        info.setAttribute("testAttr","value");
+
+        ServerInfo dup=info.duplicate();
+        Assert.assertEquals("value",dup.getStringProperty("testAttr"));
+        Assert.assertEquals(info.getID(),dup.getID());
+
+        dup.setAttribute("testAttr","dup");
+        Assert.assertEquals("Source must not change","value",info.getStringProperty("testAttr"));
+
+        info.setAttribute("other","source");
+        Assert.assertNull("Duplicate must not change",dup.getStringProperty("other"));
+        Assert.assertEquals("dup",dup.getStringProperty("testAttr"));
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.vrs.events.EventType;
+import nl.esciencecenter.vlet.vrs.events.ResourceEvent;
+import nl.esciencecenter.vlet.vrs.events.ResourceEventListener;
+import nl.esciencecenter.vlet.vrs.events.ResourceEventNotifier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the coalescing and the non blocking dispatch of the ResourceEventNotifier.
+ */
+public class TestResourceEventNotifier
+{
+    /** Exposes coalesce() */
+    static class TestNotifier extends ResourceEventNotifier
+    {
+        public List<ResourceEvent> coalesce(List<ResourceEvent> events)
+        {
+            return super.coalesce(events);
+        }
+    }
+
+    private TestNotifier notifier;
+
+    @Before
+    public void setUp()
+    {
+        notifier=new TestNotifier();
+    }
+
+    @After
+    public void tearDown()
+    {
+        notifier.dispose();
+    }
+
+    private static ResourceEvent childsAdded(String parent,String... childs) throws Exception
+    {
+        VRL vrls[]=new VRL[childs.length];
+
+        for (int i=0;i<childs.length;i++)
+            vrls[i]=new VRL(parent+"/"+childs[i]);
+
+        return ResourceEvent.createChildsAddedEvent(new VRL(parent),vrls);
+    }
+
+    @Test
+    public void testCoalesceMergesSameParent() throws Exception
+    {
+        List<ResourceEvent> events=new ArrayList<ResourceEvent>();
+        events.add(childsAdded("file:///dir1","a"));
+        events.add(childsAdded("file:///dir2","x"));
+        events.add(childsAdded("file:///dir1","b","c"));
+
+        List<ResourceEvent> result=notifier.coalesce(events);
+
+        Assert.assertEquals("Events of dir1 must be merged",2,result.size());
+        Assert.assertEquals("Merged event must stay at the position of the first event",
+                new VRL("file:///dir1"),result.get(0).getSource());
+        Assert.assertEquals("Merged event must contain all childs",3,result.get(0).getChilds().length);
+        Assert.assertEquals(new VRL("file:///dir1/c"),result.get(0).getChilds()[2]);
+        Assert.assertEquals(new VRL("file:///dir2"),result.get(1).getSource());
+    }
+
+    @Test
+    public void testCoalesceKeepsOrderAroundOtherEvents() throws Exception
+    {
+        List<ResourceEvent> events=new ArrayList<ResourceEvent>();
+        events.add(childsAdded("file:///dir1","a"));
+        events.add(ResourceEvent.createDeletedEvent(new VRL("file:///dir1/a")));
+        events.add(childsAdded("file:///dir1","b"));
+
+        List<ResourceEvent> result=notifier.coalesce(events);
+
+        Assert.assertEquals("Other event types end the merging",3,result.size());
+        Assert.assertTrue(result.get(0).isEvent(EventType.CHILDS_ADDED));
+        Assert.assertTrue(result.get(1).isEvent(EventType.DELETE));
+        Assert.assertTrue(result.get(2).isEvent(EventType.CHILDS_ADDED));
+    }
+
+    @Test
+    public void testCoalesceKeepsOldestTime() throws Exception
+    {
+        ResourceEvent first=childsAdded("file:///dir1","a");
+        Thread.sleep(20);
+        ResourceEvent second=childsAdded("file:///dir1","b");
+
+        Assert.assertTrue("Test needs events with different times",first.getTime()<second.getTime());
+
+        List<ResourceEvent> events=new ArrayList<ResourceEvent>();
+        events.add(first);
+        events.add(second);
+
+        List<ResourceEvent> result=notifier.coalesce(events);
+
+        Assert.assertEquals(1,result.size());
+        Assert.assertEquals("Merged event must have the time of the oldest event",first.getTime(),result.get(0).getTime());
+    }
+
+    /**
+     * A listener which doesn't return must not delay the events of other listeners,
+     * even when its own queue is full.
+     */
+    @Test
+    public void testBlockedListenerDoesntBlockNotifier() throws Exception
+    {
+        int orgQueueSize=ResourceEventNotifier.defaultListenerQueueSize;
+        final CountDownLatch release=new CountDownLatch(1);
+        final int numEvents=20;
+        final Semaphore received=new Semaphore(0);
+        TestNotifier blockingNotifier=null;
+
+        try
+        {
+            ResourceEventNotifier.defaultListenerQueueSize=2;
+            blockingNotifier=new TestNotifier();
+
+            blockingNotifier.addListener(new ResourceEventListener()
+            {
+                public void notifyResourceEvent(ResourceEvent event)
+                {
+                    try
+                    {
+                        release.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        ;
+                    }
+                }
+            });
+
+            blockingNotifier.addListener(new ResourceEventListener()
+            {
+                public void notifyResourceEvent(ResourceEvent event)
+                {
+                    received.release();
+                }
+            });
+
+            // the queue of the blocked listener overflows after a few events
+            for (int i=0;i<numEvents;i++)
+            {
+                blockingNotifier.fire(ResourceEvent.createDeletedEvent(new VRL("file:///dir/file"+i)));
+
+                Assert.assertTrue("Event #"+i+" for the other listener must not wait for the blocked listener",
+                        received.tryAcquire(500,TimeUnit.MILLISECONDS));
+            }
+        }
+        finally
+        {
+            ResourceEventNotifier.defaultListenerQueueSize=orgQueueSize;
+            release.countDown();
+
+            if (blockingNotifier!=null)
+                blockingNotifier.dispose();
+        }
+    }
+
+    /**
+     * Events which don't fit in the queue of a slow listener must be replaced by one
+     * REFRESH event of the parent, delivered after the queued events.
+     */
+    @Test
+    public void testOverflowIsReplacedByRefresh() throws Exception
+    {
+        int orgQueueSize=ResourceEventNotifier.defaultListenerQueueSize;
+        final CountDownLatch release=new CountDownLatch(1);
+        final int numEvents=20;
+        final Semaphore dispatched=new Semaphore(0);
+        final Semaphore refreshed=new Semaphore(0);
+        final List<ResourceEvent> events=new ArrayList<ResourceEvent>();
+        TestNotifier blockingNotifier=null;
+
+        try
+        {
+            ResourceEventNotifier.defaultListenerQueueSize=2;
+            blockingNotifier=new TestNotifier();
+
+            blockingNotifier.addListener(new ResourceEventListener()
+            {
+                public void notifyResourceEvent(ResourceEvent event)
+                {
+                    try
+                    {
+                        release.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        ;
+                    }
+
+                    synchronized(events)
+                    {
+                        events.add(event);
+                    }
+
+                    if (event.isEvent(EventType.REFRESH))
+                        refreshed.release();
+                }
+            });
+
+            // tells when the notifier has handed out all events
+            blockingNotifier.addListener(new ResourceEventListener()
+            {
+                public void notifyResourceEvent(ResourceEvent event)
+                {
+                    dispatched.release();
+                }
+            });
+
+            // one at a time, so only the queue of the blocked listener overflows
+            for (int i=0;i<numEvents;i++)
+            {
+                blockingNotifier.fire(ResourceEvent.createDeletedEvent(new VRL("file:///dir/file"+i)));
+                Assert.assertTrue(dispatched.tryAcquire(5,TimeUnit.SECONDS));
+            }
+
+            release.countDown();
+
+            Assert.assertTrue("Dropped events must be replaced by a refresh event",
+                    refreshed.tryAcquire(5,TimeUnit.SECONDS));
+
+            synchronized(events)
+            {
+                ResourceEvent last=events.get(events.size()-1);
+                Assert.assertTrue("Refresh must be delivered after the queued events",last.isEvent(EventType.REFRESH));
+                Assert.assertEquals("Refresh must be for the parent",new VRL("file:///dir"),last.getSource());
+                Assert.assertTrue("Overflowing events must not be delivered",events.size()<numEvents);
+            }
+
+            Assert.assertFalse("Dropped events of the same parent must be coalesced into one refresh",
+                    refreshed.tryAcquire(200,TimeUnit.MILLISECONDS));
+        }
+        finally
+        {
+            ResourceEventNotifier.defaultListenerQueueSize=orgQueueSize;
+            release.countDown();
+
+            if (blockingNotifier!=null)
+                blockingNotifier.dispose();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.infors;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.util.bdii.BdiiCache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the TTL handling, the background refresh and the query coalescing of the BdiiCache.
+ */
+public class TestBdiiCache
+{
+    /** Returns "value-N" where N is the number of times it has been called */
+    static class CountingLoader implements BdiiCache.Loader<String>
+    {
+        AtomicInteger numLoads=new AtomicInteger();
+
+        public String load() throws VrsException
+        {
+            return "value-"+numLoads.incrementAndGet();
+        }
+    }
+
+    private BdiiCache cache;
+
+    @Before
+    public void setUp()
+    {
+        cache=new BdiiCache();
+    }
+
+    /** Poll until the background refresh has replaced the stale value */
+    private String waitForValue(String key,long ttl,CountingLoader loader,String expected) throws Exception
+    {
+        long deadline=System.currentTimeMillis()+5000;
+        String value=cache.get(key,ttl,loader);
+
+        while ((expected.equals(value)==false) && (System.currentTimeMillis()<deadline))
+        {
+            Thread.sleep(10);
+            value=cache.get(key,ttl,loader);
+        }
+
+        return value;
+    }
+
+    @Test
+    public void testFreshEntryIsNotQueriedAgain() throws Exception
+    {
+        CountingLoader loader=new CountingLoader();
+
+        Assert.assertEquals("value-1",cache.get("key",BdiiCache.DEFAULT_TTL,loader));
+        Assert.assertEquals("value-1",cache.get("key",BdiiCache.DEFAULT_TTL,loader));
+        Assert.assertEquals(1,loader.numLoads.get());
+
+        // other key
+        Assert.assertEquals("value-2",cache.get("other",BdiiCache.DEFAULT_TTL,loader));
+    }
+
+    @Test
+    public void testStaleEntryIsReturnedWhileRefreshed() throws Exception
+    {
+        CountingLoader loader=new CountingLoader();
+        long ttl=50;
+
+        Assert.assertEquals("value-1",cache.get("key",ttl,loader));
+
+        Thread.sleep(2*ttl);
+
+        // stale: old value is returned immediately, the new value after the refresh
+        Assert.assertEquals("Stale value must be returned","value-1",cache.get("key",ttl,loader));
+        Assert.assertEquals("value-2",waitForValue("key",ttl,loader,"value-2"));
+    }
+
+    @Test
+    public void testFailedRefreshKeepsStaleEntry() throws Exception
+    {
+        final AtomicInteger numLoads=new AtomicInteger();
+        long ttl=50;
+
+        BdiiCache.Loader<String> loader=new BdiiCache.Loader<String>()
+        {
+            public String load() throws VrsException
+            {
+                if (numLoads.incrementAndGet()>1)
+                    throw new VrsException("BDII is down");
+
+                return "value";
+            }
+        };
+
+        Assert.assertEquals("value",cache.get("key",ttl,loader));
+        Thread.sleep(2*ttl);
+
+        for (int i=0;i<5;i++)
+        {
+            Assert.assertEquals("value",cache.get("key",ttl,loader));
+            Thread.sleep(20);
+        }
+
+        Assert.assertTrue("Must have been refreshed",numLoads.get()>1);
+    }
+
+    @Test
+    public void testNullResultIsNotCached() throws Exception
+    {
+        final AtomicInteger numLoads=new AtomicInteger();
+
+        BdiiCache.Loader<String> loader=new BdiiCache.Loader<String>()
+        {
+            public String load()
+            {
+                numLoads.incrementAndGet();
+                return null;
+            }
+        };
+
+        Assert.assertNull(cache.get("key",BdiiCache.DEFAULT_TTL,loader));
+        Assert.assertNull(cache.get("key",BdiiCache.DEFAULT_TTL,loader));
+        Assert.assertEquals(2,numLoads.get());
+    }
+
+    @Test
+    public void testConcurrentQueriesAreCoalesced() throws Exception
+    {
+        final CountDownLatch started=new CountDownLatch(1);
+        final CountDownLatch release=new CountDownLatch(1);
+        final AtomicInteger numLoads=new AtomicInteger();
+
+        final BdiiCache.Loader<String> loader=new BdiiCache.Loader<String>()
+        {
+            public String load() throws VrsException
+            {
+                numLoads.incrementAndGet();
+                started.countDown();
+
+                try
+                {
+                    release.await(5,TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new VrsException("Interrupted");
+                }
+
+                return "value";
+            }
+        };
+
+        final String results[]=new String[4];
+        Thread threads[]=new Thread[results.length];
+
+        for (int i=0;i<threads.length;i++)
+        {
+            final int index=i;
+
+            threads[i]=new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        results[index]=cache.get("key",BdiiCache.DEFAULT_TTL,loader);
+                    }
+                    catch (VrsException e)
+                    {
+                        results[index]=e.toString();
+                    }
+                }
+            };
+            threads[i].start();
+
+            // first thread must be querying before the others are started
+            if (i==0)
+                Assert.assertTrue(started.await(5,TimeUnit.SECONDS));
+        }
+
+        // give the other threads time to wait for the query
+        Thread.sleep(100);
+        release.countDown();
+
+        for (Thread thread:threads)
+            thread.join(5000);
+
+        Assert.assertEquals("One query for all requests",1,numLoads.get());
+
+        for (String result:results)
+            Assert.assertEquals("value",result);
+    }
+
+    @Test
+    public void testPutAndRemove() throws Exception
+    {
+        CountingLoader loader=new CountingLoader();
+
+        cache.put("key","put",BdiiCache.DEFAULT_TTL);
+        Assert.assertEquals("put",cache.get("key",BdiiCache.DEFAULT_TTL,loader));
+        Assert.assertEquals(0,loader.numLoads.get());
+
+        cache.remove("key");
+        Assert.assertEquals("value-1",cache.get("key",BdiiCache.DEFAULT_TTL,loader));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.vrs.util.CRC32C;
+import nl.esciencecenter.vlet.vrs.util.ChecksumInputStream;
+import nl.esciencecenter.vlet.vrs.util.MultiChecksum;
+import nl.esciencecenter.vlet.vrs.vfs.VChecksum;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the CRC32C implementation and the single pass MultiChecksum.
+ */
+public class TestMultiChecksum
+{
+    private static long crc32c(byte data[])
+    {
+        CRC32C crc=new CRC32C();
+        crc.update(data,0,data.length);
+        return crc.getValue();
+    }
+
+    /** Test vectors from RFC 3720 (iSCSI), appendix B.4 */
+    @Test
+    public void testCRC32CVectors() throws Exception
+    {
+        Assert.assertEquals(0xE3069283L,crc32c("123456789".getBytes("US-ASCII")));
+
+        byte data[]=new byte[32];
+        Assert.assertEquals("32 zero bytes",0x8A9136AAL,crc32c(data));
+
+        Arrays.fill(data,(byte)0xff);
+        Assert.assertEquals("32 0xff bytes",0x62A8AB43L,crc32c(data));
+
+        for (int i=0;i<32;i++)
+            data[i]=(byte)i;
+        Assert.assertEquals("32 incrementing bytes",0x46DD794EL,crc32c(data));
+
+        for (int i=0;i<32;i++)
+            data[i]=(byte)(31-i);
+        Assert.assertEquals("32 decrementing bytes",0x113FDB5CL,crc32c(data));
+
+        Assert.assertEquals("No data",0L,crc32c(new byte[0]));
+    }
+
+    @Test
+    public void testCRC32CUpdateInParts() throws Exception
+    {
+        byte data[]=new byte[1000];
+        new Random(3).nextBytes(data);
+        long expected=crc32c(data);
+
+        // single bytes, unaligned parts and the 8 byte slices must give the same value
+        CRC32C crc=new CRC32C();
+        crc.update(data[0]);
+        crc.update(data,1,6);
+        crc.update(data,7,500);
+        crc.update(data,507,data.length-507);
+        Assert.assertEquals(expected,crc.getValue());
+
+        crc.reset();
+        crc.update(data,0,data.length);
+        Assert.assertEquals("Value after reset()",expected,crc.getValue());
+    }
+
+    @Test
+    public void testAllChecksumsInOnePass() throws Exception
+    {
+        byte data[]=new byte[100000];
+        new Random(7).nextBytes(data);
+
+        MultiChecksum multi=new MultiChecksum(MultiChecksum.SUPPORTED_ALGORITHMS);
+        InputStream inps=new ChecksumInputStream(new ByteArrayInputStream(data),multi);
+        byte buffer[]=new byte[4096];
+
+        while (inps.read(buffer)>=0)
+        {
+            ;
+        }
+
+        inps.close();
+
+        Assert.assertEquals(data.length,multi.getNumBytes());
+
+        Adler32 adler=new Adler32();
+        adler.update(data,0,data.length);
+
+        Map<String,String> values=multi.getChecksums();
+        Assert.assertEquals(StringUtil.toHexString(MessageDigest.getInstance("MD5").digest(data)),values.get(VChecksum.MD5));
+        Assert.assertEquals(StringUtil.toHexString(MessageDigest.getInstance("SHA-256").digest(data)),values.get(VChecksum.SHA256));
+        Assert.assertEquals(Long.toHexString(adler.getValue()),values.get(VChecksum.ADLER32));
+        Assert.assertEquals(Long.toHexString(crc32c(data)),values.get(VChecksum.CRC32C));
+    }
+
+    @Test
+    public void testDirectByteBuffer() throws Exception
+    {
+        byte data[]=new byte[200000];
+        new Random(11).nextBytes(data);
+
+        MultiChecksum expected=new MultiChecksum(VChecksum.MD5,VChecksum.CRC32C);
+        expected.update(data,0,data.length);
+
+        ByteBuffer direct=ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+
+        MultiChecksum multi=new MultiChecksum(VChecksum.MD5,VChecksum.CRC32C);
+        multi.update(direct);
+
+        Assert.assertFalse("Buffer must have been consumed",direct.hasRemaining());
+        Assert.assertEquals(expected.getChecksums(),multi.getChecksums());
+    }
+
+    @Test
+    public void testAlgorithmNamesAreNormalized() throws Exception
+    {
+        MultiChecksum multi=new MultiChecksum("md5","sha256");
+        Assert.assertArrayEquals(new String[]{VChecksum.MD5,VChecksum.SHA256},multi.getAlgorithms());
+
+        Assert.assertNotNull(multi.getChecksum("SHA-256"));
+        Assert.assertFalse(MultiChecksum.isSupported("SHA-1"));
+
+        // server side checksums: same keys as the locally calculated ones
+        VChecksum node=new VChecksum()
+        {
+            public String[] getChecksumTypes()
+            {
+                return new String[]{VChecksum.MD5,VChecksum.SHA256,"other"};
+            }
+
+            public String getChecksum(String algorithm)
+            {
+                return "value-"+algorithm;
+            }
+
+            public Map<String,String> getChecksums(String algorithms[]) throws VrsException
+            {
+                return MultiChecksum.getChecksums(this,algorithms);
+            }
+        };
+
+        Map<String,String> values=node.getChecksums(new String[]{"md5","sha256","other"});
+        Assert.assertEquals("value-md5",values.get(VChecksum.MD5));
+        Assert.assertEquals("value-sha256",values.get(VChecksum.SHA256));
+        Assert.assertEquals("Unsupported names are kept","value-other",values.get("other"));
+    }
+}
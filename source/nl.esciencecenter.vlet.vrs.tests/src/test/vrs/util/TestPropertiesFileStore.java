@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.util.PropertiesFileStore;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests change detection and write batching of the PropertiesFileStore.
+ */
+public class TestPropertiesFileStore
+{
+    private File file;
+
+    private PropertiesFileStore store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("testprops", ".prop");
+        writeFile("key1", "value1");
+
+        store = new PropertiesFileStore(new VRL("file", null, file.getAbsolutePath()), "test");
+        // check the file on each access.
+        store.setCheckInterval(0);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        store.close();
+        file.delete();
+    }
+
+    private void writeFile(String... keyValues) throws IOException
+    {
+        Properties props = new Properties();
+
+        for (int i = 0; i < keyValues.length; i += 2)
+            props.setProperty(keyValues[i], keyValues[i + 1]);
+
+        FileOutputStream outps = new FileOutputStream(file);
+
+        try
+        {
+            props.store(outps, null);
+        }
+        finally
+        {
+            outps.close();
+        }
+
+        // make sure the time stamp differs from the previous write.
+        file.setLastModified(file.lastModified() + 2000);
+    }
+
+    private Properties readFile() throws IOException
+    {
+        Properties props = new Properties();
+        FileInputStream inps = new FileInputStream(file);
+
+        try
+        {
+            props.load(inps);
+        }
+        finally
+        {
+            inps.close();
+        }
+
+        return props;
+    }
+
+    @Test
+    public void testExternalChangeIsReloaded() throws Exception
+    {
+        Assert.assertEquals("value1", store.getProperty("key1"));
+        Assert.assertEquals(1, store.getNumReloads());
+
+        writeFile("key1", "value2");
+
+        Assert.assertEquals("value2", store.getProperty("key1"));
+        Assert.assertEquals(2, store.getNumReloads());
+    }
+
+    @Test
+    public void testTouchedFileIsNotReloaded() throws Exception
+    {
+        Assert.assertEquals("value1", store.getProperty("key1"));
+
+        file.setLastModified(file.lastModified() + 2000);
+
+        Assert.assertEquals("value1", store.getProperty("key1"));
+        Assert.assertEquals("Same contents must not be parsed again", 1, store.getNumReloads());
+    }
+
+    @Test
+    public void testUpdatesAreBatched() throws Exception
+    {
+        store.setProperty("key2", "value2");
+        store.setProperty("key3", "value3");
+        store.setProperty("key1", null);
+
+        // visible immediately, written later.
+        Assert.assertEquals("value2", store.getProperty("key2"));
+        Assert.assertNull(store.getProperty("key1"));
+        Assert.assertEquals(0, store.getNumWrites());
+
+        Thread.sleep(PropertiesFileStore.DEFAULT_WRITE_DELAY * 4);
+
+        Assert.assertEquals("Updates must be written at once", 1, store.getNumWrites());
+
+        Properties props = readFile();
+        Assert.assertEquals("value2", props.getProperty("key2"));
+        Assert.assertEquals("value3", props.getProperty("key3"));
+        Assert.assertNull(props.getProperty("key1"));
+    }
+
+    @Test
+    public void testPendingUpdatesAreMerged() throws Exception
+    {
+        Assert.assertEquals("value1", store.getProperty("key1"));
+
+        store.setProperty("key2", "value2");
+        // changed by another application before the update is written.
+        writeFile("key1", "changed", "key3", "value3");
+        store.flush();
+
+        Assert.assertEquals(1, store.getNumWrites());
+
+        Properties props = readFile();
+        Assert.assertEquals("changed", props.getProperty("key1"));
+        Assert.assertEquals("value2", props.getProperty("key2"));
+        Assert.assertEquals("value3", props.getProperty("key3"));
+
+        // own write isn't an external modification.
+        long numReloads = store.getNumReloads();
+        Assert.assertEquals("changed", store.getProperty("key1"));
+        Assert.assertEquals(numReloads, store.getNumReloads());
+    }
+
+    @Test
+    public void testFlushWithoutUpdatesDoesNotWrite() throws Exception
+    {
+        store.flush();
+        store.close();
+
+        Assert.assertEquals(0, store.getNumWrites());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.esciencecenter.vbrowser.vrs.exceptions.VrsException;
+import nl.esciencecenter.vlet.exception.ServerCommunicationException;
+import nl.esciencecenter.vlet.vrs.util.ResourcePool;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests leasing, validation, eviction and the bound of the ResourcePool used by the
+ * SFTP, GridFTP and LFC drivers.
+ */
+public class TestResourcePool
+{
+    /** Resource of the test factory */
+    public static class Connection
+    {
+        final String key;
+
+        final int nr;
+
+        boolean valid = true;
+
+        boolean disposed = false;
+
+        Connection(String key, int nr)
+        {
+            this.key = key;
+            this.nr = nr;
+        }
+    }
+
+    /** Counts the created and disposed connections */
+    public class TestFactory implements ResourcePool.ResourceFactory<String, Connection>
+    {
+        List<Connection> created = new ArrayList<Connection>();
+
+        int numDisposed = 0;
+
+        long lastIdleTime = -1;
+
+        public synchronized Connection createResource(String key) throws VrsException
+        {
+            Connection conn = new Connection(key, created.size());
+            created.add(conn);
+            return conn;
+        }
+
+        public boolean validate(Connection conn, long idleTime)
+        {
+            Assert.assertFalse("validate() may not be called while holding the pool lock", Thread.holdsLock(pool));
+            lastIdleTime = idleTime;
+            return conn.valid;
+        }
+
+        public synchronized void dispose(Connection conn)
+        {
+            Assert.assertFalse("dispose() may not be called while holding the pool lock", Thread.holdsLock(pool));
+            Assert.assertFalse("Connection disposed twice", conn.disposed);
+            conn.disposed = true;
+            numDisposed++;
+        }
+    }
+
+    private TestFactory factory;
+
+    private ResourcePool<String, Connection> pool;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        factory = new TestFactory();
+        // max 2 connections, 2 idle, no idle timeout, 200ms lease timeout
+        pool = new ResourcePool<String, Connection>("test", factory, 2, 2, 0, 200);
+    }
+
+    @Test
+    public void testReuseForSameKey() throws Exception
+    {
+        Connection conn1 = pool.acquire("cred1");
+        pool.release(conn1);
+
+        Connection conn2 = pool.acquire("cred1");
+        Assert.assertSame("Idle connection must be reused", conn1, conn2);
+        Assert.assertTrue("Idle connection must be validated", factory.lastIdleTime >= 0);
+        Assert.assertEquals(1, factory.created.size());
+        pool.release(conn2);
+
+        // other credential: old connection is disposed
+        Connection conn3 = pool.acquire("cred2");
+        Assert.assertNotSame(conn1, conn3);
+        Assert.assertEquals("cred2", conn3.key);
+        Assert.assertTrue("Connection with outdated key must be disposed", conn1.disposed);
+    }
+
+    @Test
+    public void testInvalidIdleConnectionIsReplaced() throws Exception
+    {
+        Connection conn1 = pool.acquire("cred");
+        pool.release(conn1);
+        conn1.valid = false;
+
+        Connection conn2 = pool.acquire("cred");
+        Assert.assertNotSame("Invalid connection may not be reused", conn1, conn2);
+        Assert.assertTrue(conn1.disposed);
+        Assert.assertEquals(1, pool.getNumLeased());
+    }
+
+    @Test
+    public void testAcquireIsBounded() throws Exception
+    {
+        final Connection conn1 = pool.acquire("cred");
+        Connection conn2 = pool.acquire("cred");
+
+        try
+        {
+            pool.acquire("cred");
+            Assert.fail("Third acquire must time out");
+        }
+        catch (ServerCommunicationException e)
+        {
+            // expected
+        }
+
+        Assert.assertEquals(2, factory.created.size());
+
+        // release by another thread wakes up a waiting acquire.
+        Thread releaser = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                pool.release(conn1);
+            }
+        };
+
+        releaser.start();
+        Connection conn3 = pool.acquire("cred");
+        releaser.join();
+
+        Assert.assertSame("Released connection must be handed to the waiting thread", conn1, conn3);
+        pool.release(conn2);
+        pool.release(conn3);
+    }
+
+    @Test
+    public void testInvalidateAndClose() throws Exception
+    {
+        Connection conn1 = pool.acquire("cred");
+        Connection conn2 = pool.acquire("cred");
+
+        pool.invalidate(conn1);
+        Assert.assertTrue(conn1.disposed);
+        // ignored: not leased anymore
+        pool.invalidate(conn1);
+        pool.release(conn1);
+
+        pool.release(conn2);
+        Assert.assertEquals(1, pool.getNumIdle());
+
+        Connection conn3 = pool.acquire("cred");
+        pool.close();
+
+        Assert.assertTrue("Leased connection must be disposed by close()", conn3.disposed);
+        Assert.assertEquals(2, factory.numDisposed);
+
+        // returned after close(): already disposed.
+        pool.release(conn3);
+        Assert.assertEquals(2, factory.numDisposed);
+
+        try
+        {
+            pool.acquire("cred");
+            Assert.fail("Closed pool can't be used");
+        }
+        catch (ServerCommunicationException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMaxIdle() throws Exception
+    {
+        ResourcePool<String, Connection> small = new ResourcePool<String, Connection>("test", factory, 3, 1, 0, 200);
+
+        Connection conn1 = small.acquire("cred");
+        Connection conn2 = small.acquire("cred");
+
+        small.release(conn1);
+        small.release(conn2);
+
+        Assert.assertEquals(1, small.getNumIdle());
+        Assert.assertTrue("Connection beyond the idle maximum must be disposed", conn2.disposed);
+        Assert.assertFalse(conn1.disposed);
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception
+    {
+        ResourcePool<String, Connection> shortIdle = new ResourcePool<String, Connection>("test", factory, 2, 2, 20, 200);
+
+        Connection conn1 = shortIdle.acquire("cred");
+        shortIdle.release(conn1);
+        Thread.sleep(50);
+
+        Connection conn2 = shortIdle.acquire("cred");
+        Assert.assertNotSame("Connection idle too long may not be reused", conn1, conn2);
+        Assert.assertTrue(conn1.disposed);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.vfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import nl.esciencecenter.ptk.io.RandomReadable;
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.vrs.VRSContext;
+import nl.esciencecenter.vlet.vrs.vdriver.http.HTTPNode;
+import nl.esciencecenter.vlet.vrs.vdriver.http.HTTPRangeReader;
+import nl.esciencecenter.vlet.vrs.vdriver.http.HTTPSegmentedDownload;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransfer;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the range requests of the HTTPRangeReader and the HTTPSegmentedDownload against a local
+ * HttpServer. Resources under "/norange/" ignore the Range header, like servers without range support.
+ */
+public class TestHTTPRangeReader
+{
+    /** Serves the test data, with or without range support */
+    public static class RangeHandler implements HttpHandler
+    {
+        private byte data[];
+
+        private boolean rangeSupported;
+
+        public RangeHandler(byte data[], boolean rangeSupported)
+        {
+            this.data = data;
+            this.rangeSupported = rangeSupported;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            InputStream inps = exchange.getRequestBody();
+
+            while (inps.read() >= 0)
+                ;
+
+            if (rangeSupported)
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+
+            if (exchange.getRequestMethod().equals("HEAD"))
+            {
+                exchange.getResponseHeaders().add("Content-Length", "" + data.length);
+                exchange.sendResponseHeaders(200, -1);
+            }
+            else if ((range == null) || (rangeSupported == false))
+            {
+                sendBytes(exchange, 200, 0, data.length);
+            }
+            else
+            {
+                // "bytes=start-end"
+                String values[] = range.substring("bytes=".length()).split("-");
+                long start = Long.parseLong(values[0]);
+                long end = Math.min(Long.parseLong(values[1]), data.length - 1);
+
+                if (start >= data.length)
+                {
+                    exchange.getResponseHeaders().add("Content-Range", "bytes */" + data.length);
+                    exchange.sendResponseHeaders(416, -1);
+                }
+                else
+                {
+                    exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+                    sendBytes(exchange, 206, (int) start, (int) (end - start + 1));
+                }
+            }
+
+            exchange.close();
+        }
+
+        private void sendBytes(HttpExchange exchange, int code, int offset, int len) throws IOException
+        {
+            exchange.sendResponseHeaders(code, len);
+            OutputStream outps = exchange.getResponseBody();
+            outps.write(data, offset, len);
+            outps.close();
+        }
+    }
+
+    private static final String FILE_NAME = "testfile.bin";
+
+    private HttpServer server;
+
+    private byte data[];
+
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // larger than the minimum size of a segmented download and not a multiple of the segment size.
+        data = new byte[(int) HTTPSegmentedDownload.MIN_FILE_SIZE + HTTPSegmentedDownload.SEGMENT_SIZE / 2 + 13];
+        new Random(13).nextBytes(data);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/range/", new RangeHandler(data, true));
+        server.createContext("/norange/", new RangeHandler(data, false));
+        server.start();
+
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    private HTTPNode openNode(String path) throws Exception
+    {
+        return (HTTPNode) VRSContext.getDefault().openLocation(new VRL(baseUrl + path + FILE_NAME));
+    }
+
+    private void assertData(long offset, byte buffer[], int bufferOffset, int len)
+    {
+        for (int i = 0; i < len; i++)
+            Assert.assertEquals("Wrong byte at:" + (offset + i), data[(int) offset + i], buffer[bufferOffset + i]);
+    }
+
+    @Test
+    public void testHead() throws Exception
+    {
+        HTTPNode node = openNode("/range/");
+
+        Assert.assertTrue("Server advertises range support", node.isRangeSupported());
+        Assert.assertEquals(data.length, node.getLength());
+        Assert.assertFalse("No range support", openNode("/norange/").isRangeSupported());
+
+        RandomReadable reader = node.createRandomReadable();
+        Assert.assertEquals(data.length, reader.getLength());
+    }
+
+    @Test
+    public void testReadMiddle() throws Exception
+    {
+        RandomReadable reader = openNode("/range/").createRandomReadable();
+        byte buffer[] = new byte[100000];
+
+        int num = reader.readBytes(123457, buffer, 10, 50000);
+
+        Assert.assertEquals(50000, num);
+        assertData(123457, buffer, 10, 50000);
+        // untouched
+        Assert.assertEquals(0, buffer[9]);
+        Assert.assertEquals(0, buffer[50010]);
+    }
+
+    @Test
+    public void testReadTail() throws Exception
+    {
+        RandomReadable reader = new HTTPRangeReader(openNode("/range/").getConnection());
+        byte buffer[] = new byte[1000];
+
+        // less bytes are available than requested
+        int num = reader.readBytes(data.length - 10, buffer, 0, 1000);
+
+        Assert.assertEquals(10, num);
+        assertData(data.length - 10, buffer, 0, 10);
+    }
+
+    @Test
+    public void testReadBeyondEnd() throws Exception
+    {
+        RandomReadable reader = openNode("/range/").createRandomReadable();
+        byte buffer[] = new byte[1000];
+
+        Assert.assertEquals(-1, reader.readBytes(data.length, buffer, 0, 1000));
+        Assert.assertEquals(-1, reader.readBytes(data.length + 1000, buffer, 0, 1000));
+        Assert.assertEquals(0, reader.readBytes(0, buffer, 0, 0));
+    }
+
+    @Test
+    public void testRepeatedReads() throws Exception
+    {
+        // each read is a new request on the keep-alive connection.
+        RandomReadable reader = openNode("/range/").createRandomReadable();
+        byte buffer[] = new byte[4096];
+
+        for (long offset = data.length - 4096; offset >= 0; offset -= 997 * 1024)
+        {
+            Assert.assertEquals(4096, reader.readBytes(offset, buffer, 0, 4096));
+            assertData(offset, buffer, 0, 4096);
+        }
+    }
+
+    @Test
+    public void testRangeIgnored() throws Exception
+    {
+        RandomReadable reader = openNode("/norange/").createRandomReadable();
+
+        try
+        {
+            reader.readBytes(1000, new byte[100], 0, 100);
+            Assert.fail("Range request to server without range support must fail");
+        }
+        catch (IOException e)
+        {
+            // expected: the whole resource isn't read.
+        }
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception
+    {
+        HTTPNode node = openNode("/range/");
+        File localFile = File.createTempFile("TestHTTPRangeReader", ".bin");
+
+        try
+        {
+            VFile targetFile = (VFile) VRSContext.getDefault().openLocation(new VRL(localFile.toURI().toString()));
+            VFSTransfer transfer = new VFSTransfer(null, node.getResourceType(), node.getVRL(), targetFile.getVRL(), false);
+
+            Assert.assertTrue("Segmented download must be used", new HTTPSegmentedDownload(node, transfer, targetFile, 3).download());
+
+            byte result[] = new byte[(int) localFile.length()];
+            RandomAccessFile raFile = new RandomAccessFile(localFile, "r");
+            raFile.readFully(result);
+            raFile.close();
+
+            Assert.assertTrue("Downloaded file differs", Arrays.equals(data, result));
+
+            // single stream must be used
+            Assert.assertFalse(new HTTPSegmentedDownload(openNode("/norange/"), transfer, targetFile, 3).download());
+        }
+        finally
+        {
+            localFile.delete();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.vfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.vfs.lfc.ReplicaPerformanceTable;
+import nl.esciencecenter.vlet.vfs.lfc.ReplicaPerformanceTable.SEStats;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests ranking and decay of the ReplicaPerformanceTable used by the FASTEST replica selection mode.
+ */
+public class TestReplicaPerformanceTable
+{
+    /** Table with a settable clock, not stored */
+    public static class TestTable extends ReplicaPerformanceTable
+    {
+        long now = 1000000;
+
+        public TestTable()
+        {
+            super(null);
+        }
+
+        protected long currentTimeMillis()
+        {
+            return now;
+        }
+    }
+
+    private static final String SE1 = "se1.example.org";
+
+    private static final String SE2 = "se2.example.org";
+
+    private TestTable table;
+
+    private VRL replicas[];
+
+    @Before
+    public void setUp() throws Exception
+    {
+        table = new TestTable();
+        replicas = new VRL[] { new VRL("srm://" + SE1 + "/data/file1"), new VRL("srm://" + SE2 + "/data/file1") };
+    }
+
+    /** Record the same measurements for both SEs */
+    private void recordEqual()
+    {
+        for (String host : new String[] { SE1, SE2 })
+        {
+            table.recordLatency(host, 100);
+            table.recordTransfer(host, 10 * 1024 * 1024, 1000);
+        }
+    }
+
+    @Test
+    public void testRankByEstimatedReadTime() throws Exception
+    {
+        table.recordLatency(SE1, 2000);
+        table.recordTransfer(SE1, 10 * 1024 * 1024, 10000);
+        table.recordLatency(SE2, 100);
+        table.recordTransfer(SE2, 10 * 1024 * 1024, 1000);
+
+        List<VRL> ranked = table.rankReplicas(replicas, false);
+
+        Assert.assertEquals(2, ranked.size());
+        Assert.assertEquals(replicas[1], ranked.get(0));
+        Assert.assertEquals(replicas[0], ranked.get(1));
+    }
+
+    @Test
+    public void testFailuresLowerRank() throws Exception
+    {
+        recordEqual();
+        table.recordFailure(SE1);
+
+        List<VRL> ranked = table.rankReplicas(replicas, false);
+        Assert.assertEquals(replicas[1], ranked.get(0));
+    }
+
+    @Test
+    public void testFailuresDecay() throws Exception
+    {
+        recordEqual();
+        table.recordFailure(SE1);
+        Assert.assertEquals(1.0, table.getSEStats(SE1).getFailures(), 0.001);
+
+        table.now += ReplicaPerformanceTable.DECAY_HALF_LIFE;
+        Assert.assertEquals(0.5, table.getSEStats(SE1).getFailures(), 0.001);
+
+        // SE1 is faster, an old failure may not keep it down.
+        table.recordTransfer(SE1, 10 * 1024 * 1024, 500);
+        table.now += 10 * ReplicaPerformanceTable.DECAY_HALF_LIFE;
+
+        List<VRL> ranked = table.rankReplicas(replicas, false);
+        Assert.assertEquals(replicas[0], ranked.get(0));
+    }
+
+    @Test
+    public void testConfidenceDecays() throws Exception
+    {
+        recordEqual();
+        double confidence = table.getSEStats(SE2).getConfidence();
+        Assert.assertEquals(2.0, confidence, 0.001);
+
+        table.now += 2 * ReplicaPerformanceTable.DECAY_HALF_LIFE;
+        Assert.assertEquals(0.5, table.getSEStats(SE2).getConfidence(), 0.001);
+
+        // measurements themselves don't decay
+        Assert.assertEquals(100, table.getSEStats(SE2).getLatency(), 0.001);
+    }
+
+    @Test
+    public void testExploreUnknownSE() throws Exception
+    {
+        // SE1 is known and fast, SE2 has never been measured.
+        table.recordLatency(SE1, 10);
+        table.recordTransfer(SE1, 10 * 1024 * 1024, 100);
+
+        Assert.assertEquals(replicas[0], table.rankReplicas(replicas, false).get(0));
+        Assert.assertEquals("Unknown SE must be sampled", replicas[1], table.rankReplicas(replicas, true).get(0));
+    }
+
+    @Test
+    public void testMeasuredStreamTimesReadsOnly() throws Exception
+    {
+        byte data[] = new byte[1024 * 1024];
+        InputStream inps = table.createMeasuredInputStream(SE1, new ByteArrayInputStream(data));
+        byte buffer[] = new byte[64 * 1024];
+
+        while (inps.read(buffer) > 0)
+        {
+            ;
+        }
+
+        // time between the last read and close must not count.
+        Thread.sleep(500);
+        inps.close();
+
+        SEStats stats = table.getSEStats(SE1);
+        Assert.assertNotNull(stats);
+        Assert.assertTrue("Throughput must not include idle time:" + stats,
+                stats.getThroughput() > 10 * data.length);
+    }
+}
@@ -2142,6 +2142,55 @@ public class TestVFS extends VTestCase
         newFile.delete();
     }
 
+    /**
+     * Overwrite the middle of an existing file: the bytes before and after the written
+     * range and the file length must stay the same.
+     */
+    @Test public void testRandomWriteOverwritesMiddle() throws Exception
+    {
+        if (getTestWriteTests() == false)
+            return;
+
+        VFile newFile = getRemoteTestDir().createFile("randomOverwrite");
+
+        if ((newFile instanceof VRandomAccessable) == false)
+        {
+            message("File implementation doesn't support random write methods:" + this);
+            newFile.delete();
+            return;
+        }
+
+        VRandomAccessable randomWriter = (VRandomAccessable) newFile;
+
+        int len = 100000;
+        byte orgBuffer[] = new byte[len];
+        new Random(13).nextBytes(orgBuffer);
+        testRandomWrite(randomWriter, 0, orgBuffer, 0, len);
+
+        // larger than one SFTP write request:
+        int offset = 10000;
+        byte part[] = new byte[70000];
+        new Random(42).nextBytes(part);
+        testRandomWrite(randomWriter, offset, part, 0, part.length);
+
+        for (int i = 0; i < part.length; i++)
+            orgBuffer[offset + i] = part[i];
+
+        Assert.assertEquals("File length changed after overwriting the middle of the file", len, getRemoteTestDir().getFile("randomOverwrite").getLength());
+
+        byte buffer2[] = new byte[len];
+        int numRead = VRSIOUtil.syncReadBytes(randomWriter, 0, buffer2, 0, len);
+        Assert.assertEquals("Number of actual read bytes is wrong!", len, numRead);
+
+        for (int i = 0; i < len; i++)
+        {
+            if (orgBuffer[i] != buffer2[i])
+                Assert.assertEquals("Contents of file not the same. Byte nr=" + i, orgBuffer[i], buffer2[i]);
+        }
+
+        newFile.delete();
+    }
+
     private void testRandomWrite(VRandomAccessable randomFile, long offset, byte[] buffer, int bufferOffset, int nrBytes) throws Exception
     {
         RandomWritable writer = randomFile.createRandomWritable(); 
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.vfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.vrs.VRSContext;
+import nl.esciencecenter.vlet.vrs.vfs.VDir;
+import nl.esciencecenter.vlet.vrs.vfs.VFSClient;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransfer;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransferPool;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransferPool.TransferBatch;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransferPool.TransferJob;
+import nl.esciencecenter.vlet.vrs.vfs.VFile;
+import nl.esciencecenter.vlet.vrs.vfs.VFileSystem;
+import nl.esciencecenter.vlet.vrs.vfs.VRSTransferManager;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the bounded transfer batches of the VFSTransferPool and the parallel heap copy which uses them.
+ */
+public class TestVFSTransferPool
+{
+    /** Parallel heap copy with 3 workers, counts the concurrent file copies */
+    public static class TestTransferManager extends VRSTransferManager
+    {
+        final AtomicInteger numRunning=new AtomicInteger();
+
+        final AtomicInteger maxRunning=new AtomicInteger();
+
+        public TestTransferManager(VRSContext context)
+        {
+            super(context);
+        }
+
+        protected boolean useParallelCopy()
+        {
+            return true;
+        }
+
+        protected int getParallelCopyWorkers()
+        {
+            return 3;
+        }
+
+        protected void doHeapFileCopy(VFSTransfer dirTransfer,VFSTransfer fileTransfer,VFile file,VFile targetFile,
+                boolean skip) throws Exception
+        {
+            int running=numRunning.incrementAndGet();
+
+            synchronized(maxRunning)
+            {
+                if (running>maxRunning.get())
+                    maxRunning.set(running);
+            }
+
+            try
+            {
+                // make the copies overlap
+                Thread.sleep(20);
+                super.doHeapFileCopy(dirTransfer,fileTransfer,file,targetFile,skip);
+            }
+            finally
+            {
+                numRunning.decrementAndGet();
+            }
+        }
+
+        public VDir heapDirCopy(VFSTransfer transfer,VDir sourceDir,VFileSystem targetFS,VRL targetDirVRL) throws Exception
+        {
+            return doHeapDirCopy(transfer,sourceDir,targetFS,targetDirVRL,null);
+        }
+    }
+
+    private VFSClient vfs;
+
+    private VFSTransferPool pool;
+
+    private VFSTransfer transfer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        vfs=new VFSClient();
+        VDir tmpDir=vfs.getTempDir();
+        pool=VFSTransferPool.getPoolFor(tmpDir.getFileSystem(),2);
+        transfer=new VFSTransfer(null,"File",tmpDir.getVRL(),new VRL("file:///tmp/target"),false);
+    }
+
+    @Test
+    public void testAllJobsRunWithinWorkerLimit() throws Exception
+    {
+        final AtomicInteger numDone=new AtomicInteger();
+        final AtomicInteger numRunning=new AtomicInteger();
+        final AtomicInteger maxRunning=new AtomicInteger();
+
+        TransferBatch batch=pool.createBatch(transfer,4);
+
+        for (int i=0;i<20;i++)
+        {
+            batch.submit(new TransferJob()
+            {
+                public void doTransfer() throws Exception
+                {
+                    int running=numRunning.incrementAndGet();
+
+                    synchronized(maxRunning)
+                    {
+                        if (running>maxRunning.get())
+                            maxRunning.set(running);
+                    }
+
+                    Thread.sleep(10);
+                    numRunning.decrementAndGet();
+                    numDone.incrementAndGet();
+                }
+            });
+        }
+
+        batch.waitForAll();
+
+        Assert.assertEquals("All transfers must have been performed",20,numDone.get());
+        Assert.assertTrue("No more transfers than workers may run at the same time:"+maxRunning.get(),
+                maxRunning.get()<=2);
+        Assert.assertEquals("No pending transfers after waitForAll()",0,batch.getNumPending());
+    }
+
+    @Test
+    public void testFirstExceptionAbortsBatch() throws Exception
+    {
+        final AtomicInteger numDone=new AtomicInteger();
+        final IOException failure=new IOException("Transfer failed");
+
+        TransferBatch batch=pool.createBatch(transfer,1);
+
+        batch.submit(new TransferJob()
+        {
+            public void doTransfer() throws Exception
+            {
+                throw failure;
+            }
+        });
+
+        // wait until the failure has been registered
+        while (batch.getNumPending()>0)
+            Thread.sleep(10);
+
+        Assert.assertTrue("Batch must be aborted after a failed transfer",batch.isAborted());
+
+        try
+        {
+            batch.submit(new TransferJob()
+            {
+                public void doTransfer() throws Exception
+                {
+                    numDone.incrementAndGet();
+                }
+            });
+
+            Assert.fail("Submit must throw the exception of the failed transfer");
+        }
+        catch (IOException e)
+        {
+            Assert.assertSame(failure,e);
+        }
+
+        try
+        {
+            batch.waitForAll();
+            Assert.fail("waitForAll() must rethrow the exception of the failed transfer");
+        }
+        catch (IOException e)
+        {
+            Assert.assertSame(failure,e);
+        }
+
+        Assert.assertEquals("No transfers may be performed after the batch has been aborted",0,numDone.get());
+    }
+
+    @Test
+    public void testPoolIsSharedPerFileSystem() throws Exception
+    {
+        VDir tmpDir=new VFSClient().getTempDir();
+        VFSTransferPool other=VFSTransferPool.getPoolFor(tmpDir.getFileSystem(),3);
+
+        Assert.assertSame("Same file system must return same pool",pool,other);
+        Assert.assertEquals("Pool must have been resized",3,other.getMaxWorkers());
+    }
+
+    @Test
+    public void testIdlePoolIsRemoved() throws Exception
+    {
+        TransferBatch batch=pool.createBatch(transfer,1);
+        VDir tmpDir=vfs.getTempDir();
+
+        VFSTransferPool.removeIdlePools(0);
+        Assert.assertSame("Pool with an open batch may not be removed",pool,VFSTransferPool.getPoolFor(tmpDir.getFileSystem(),2));
+
+        batch.submit(new TransferJob()
+        {
+            public void doTransfer() throws Exception
+            {
+                Thread.sleep(10);
+            }
+        });
+
+        batch.waitForAll();
+
+        int numPools=VFSTransferPool.getNumPools();
+        Assert.assertTrue("Idle pool must be removed",VFSTransferPool.removeIdlePools(0)>=1);
+        Assert.assertTrue(VFSTransferPool.getNumPools()<numPools);
+
+        Assert.assertNotSame("Removed pool may not be returned",pool,VFSTransferPool.getPoolFor(tmpDir.getFileSystem(),2));
+    }
+
+    @Test
+    public void testParallelHeapDirCopy() throws Exception
+    {
+        File sourceDir=createTempTree();
+        File targetDir=new File(sourceDir.getParentFile(),sourceDir.getName()+"-copy");
+
+        try
+        {
+            TestTransferManager manager=new TestTransferManager(vfs.getVRSContext());
+            VDir source=vfs.getDir(new VRL(sourceDir.toURI().toString()));
+            VRL targetVRL=new VRL(targetDir.toURI().toString());
+            VFSTransfer dirTransfer=new VFSTransfer(null,"Dir",source.getVRL(),targetVRL,false);
+
+            VDir result=manager.heapDirCopy(dirTransfer,source,source.getFileSystem(),targetVRL);
+
+            Assert.assertNotNull(result);
+            assertSameTree(sourceDir,targetDir);
+            Assert.assertTrue("Files must have been copied concurrently:"+manager.maxRunning.get(),
+                    manager.maxRunning.get()>1);
+            Assert.assertTrue("No more file copies than workers:"+manager.maxRunning.get(),
+                    manager.maxRunning.get()<=3);
+        }
+        finally
+        {
+            deleteTree(sourceDir);
+            deleteTree(targetDir);
+        }
+    }
+
+    /** Two levels of sub directories with small files */
+    private File createTempTree() throws IOException
+    {
+        File root=File.createTempFile("TestVFSTransferPool",".dir");
+        root.delete();
+        Random random=new Random(1);
+
+        for (int d=0;d<3;d++)
+        {
+            File dir=new File(root,"dir"+d+"/sub");
+            dir.mkdirs();
+
+            for (int f=0;f<8;f++)
+            {
+                byte data[]=new byte[64*1024+random.nextInt(1024)];
+                random.nextBytes(data);
+
+                FileOutputStream outps=new FileOutputStream(new File((f%2==0)?dir:dir.getParentFile(),"file"+f));
+                outps.write(data);
+                outps.close();
+            }
+        }
+
+        return root;
+    }
+
+    private void assertSameTree(File source,File target) throws IOException
+    {
+        Assert.assertTrue("Missing:"+target,target.exists());
+
+        if (source.isDirectory())
+        {
+            String names[]=source.list();
+            Arrays.sort(names);
+            String targetNames[]=target.list();
+            Arrays.sort(targetNames);
+            Assert.assertArrayEquals("Directory contents differ:"+target,names,targetNames);
+
+            for (String name:names)
+                assertSameTree(new File(source,name),new File(target,name));
+        }
+        else
+        {
+            Assert.assertTrue("File contents differ:"+target,Arrays.equals(readFile(source),readFile(target)));
+        }
+    }
+
+    private byte[] readFile(File file) throws IOException
+    {
+        RandomAccessFile raFile=new RandomAccessFile(file,"r");
+
+        try
+        {
+            byte data[]=new byte[(int)raFile.length()];
+            raFile.readFully(data);
+            return data;
+        }
+        finally
+        {
+            raFile.close();
+        }
+    }
+
+    private void deleteTree(File file)
+    {
+        File childs[]=file.listFiles();
+
+        if (childs!=null)
+        {
+            for (File child:childs)
+                deleteTree(child);
+        }
+
+        file.delete();
+    }
+}
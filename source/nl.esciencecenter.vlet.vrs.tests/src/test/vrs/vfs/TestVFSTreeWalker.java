@@ -0,0 +1,145 @@
+/*
+ * Copyright 2006-2010 Virtual Laboratory for e-Science (www.vl-e.nl)
+ * Copyright 2012-2013 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package test.vrs.vfs;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import nl.esciencecenter.vbrowser.vrs.vrl.VRL;
+import nl.esciencecenter.vlet.exception.NestedInterruptedException;
+import nl.esciencecenter.vlet.vrs.VNode;
+import nl.esciencecenter.vlet.vrs.vfs.VDir;
+import nl.esciencecenter.vlet.vrs.vfs.VFSClient;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTransfer;
+import nl.esciencecenter.vlet.vrs.vfs.VFSTreeWalker;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the streaming depth-first VFSTreeWalker on a local directory tree. 
+ */
+public class TestVFSTreeWalker
+{
+    private VFSClient vfs;
+
+    private VDir testDir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        vfs=new VFSClient();
+        testDir=vfs.createUniqueTempDir("testVFSTreeWalker","junit");
+
+        // testDir/a/f1, testDir/b/c/f2, testDir/f3
+        testDir.createDir("a").createFile("f1");
+        testDir.createDir("b").createDir("c").createFile("f2");
+        testDir.createFile("f3");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (testDir!=null)
+            testDir.delete(true);
+    }
+
+    @Test
+    public void testDirectoryReturnedBeforeContents() throws Exception
+    {
+        VFSTreeWalker walker=new VFSTreeWalker(null,testDir);
+        Set<String> seen=new HashSet<String>();
+        VNode node;
+
+        while ((node=walker.nextNode())!=null)
+        {
+            String path=node.getPath();
+            String parent=node.getVRL().getParent().getPath();
+
+            Assert.assertTrue("Node returned twice:"+path,seen.add(path));
+
+            if (parent.equals(testDir.getPath())==false)
+                Assert.assertTrue("Directory must be returned before its contents:"+path,seen.contains(parent));
+        }
+
+        Assert.assertEquals("All files and directories must be returned",6,seen.size());
+        Assert.assertEquals("Number of returned nodes",6,walker.getNumNodes());
+        Assert.assertEquals("Number of listed directories (including the source directory)",4,walker.getNumDirs());
+    }
+
+    @Test
+    public void testCancelStopsWalk() throws Exception
+    {
+        VFSTransfer transfer=new VFSTransfer(null,"Dir",testDir.getVRL(),new VRL("file:///tmp/target"),false);
+        VFSTreeWalker walker=new VFSTreeWalker(transfer,testDir);
+
+        Assert.assertNotNull(walker.nextNode());
+        transfer.setIsCancelled();
+
+        try
+        {
+            walker.nextNode();
+            Assert.fail("Cancelled walk must throw NestedInterruptedException");
+        }
+        catch (NestedInterruptedException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIsInTree() throws Exception
+    {
+        VRL dir=new VRL("file:///data/a");
+
+        Assert.assertTrue("Directory itself",VFSTreeWalker.isInTree(dir,new VRL("file:///data/a")));
+        Assert.assertTrue("Directory itself with trailing slash",VFSTreeWalker.isInTree(dir,new VRL("file:///data/a/")));
+        Assert.assertTrue("Subdirectory",VFSTreeWalker.isInTree(dir,new VRL("file:///data/a/b")));
+        Assert.assertTrue("Nested subdirectory",VFSTreeWalker.isInTree(dir,new VRL("file:///data/a/b/c")));
+
+        Assert.assertFalse("Sibling with same prefix",VFSTreeWalker.isInTree(dir,new VRL("file:///data/ab")));
+        Assert.assertFalse("Parent directory",VFSTreeWalker.isInTree(dir,new VRL("file:///data")));
+        Assert.assertFalse("Other server",VFSTreeWalker.isInTree(dir,new VRL("sftp://host/data/a/b")));
+        Assert.assertTrue("Root contains everything",VFSTreeWalker.isInTree(new VRL("file:///"),new VRL("file:///data/a")));
+    }
+
+    @Test
+    public void testCopyIntoSubdirectoryIsRejected() throws Exception
+    {
+        VDir subDir=testDir.getDir("a");
+
+        try
+        {
+            testDir.copyTo(subDir);
+            Assert.fail("Copying a directory into one of its subdirectories must fail");
+        }
+        catch (Exception e)
+        {
+            // expected
+        }
+
+        Assert.assertFalse("No copy may have been created inside the source tree",
+                subDir.existsDir(testDir.getBasename()));
+    }
+}